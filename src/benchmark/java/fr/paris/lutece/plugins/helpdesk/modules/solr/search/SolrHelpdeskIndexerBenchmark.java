@@ -0,0 +1,208 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.helpdesk.modules.solr.search;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fr.paris.lutece.plugins.helpdesk.business.QuestionAnswer;
+import fr.paris.lutece.plugins.helpdesk.business.Subject;
+import fr.paris.lutece.plugins.helpdesk.modules.solr.service.extractor.HtmlStripTextExtractor;
+import fr.paris.lutece.plugins.helpdesk.modules.solr.service.extractor.HtmlTextExtractor;
+import fr.paris.lutece.plugins.helpdesk.modules.solr.service.extractor.HtmlTextExtractorService;
+import fr.paris.lutece.plugins.helpdesk.modules.solr.service.extractor.TikaHtmlTextExtractor;
+import fr.paris.lutece.plugins.helpdesk.utils.HelpdeskIndexerUtils;
+import fr.paris.lutece.plugins.helpdesk.web.HelpdeskApp;
+import fr.paris.lutece.plugins.search.solr.indexer.SolrIndexerService;
+import fr.paris.lutece.plugins.search.solr.indexer.SolrItem;
+import fr.paris.lutece.portal.service.content.XPageAppService;
+import fr.paris.lutece.util.url.UrlItem;
+
+
+/**
+ * Benchmarks of the hot paths of {@link SolrHelpdeskIndexer}, for answers from a few characters to 500 KB.
+ * The subjects and question/answers are built in memory, no database nor Solr server is needed.
+ * <br>
+ * Run with <code>mvn -Pbenchmark test-compile exec:exec</code> ; the <code>gc</code> profiler reports
+ * the allocation rate, the sample time mode the latency percentiles.
+ */
+@BenchmarkMode( { Mode.AverageTime, Mode.SampleTime } )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@State( Scope.Benchmark )
+@Fork( 1 )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+public class SolrHelpdeskIndexerBenchmark
+{
+    private static final int ID_FAQ = 1;
+    private static final String ROLE_KEY = "none";
+
+    /** Size of the HTML answer, in characters */
+    @Param( { "64", "2048", "51200", "512000" } )
+    public int _nAnswerSize;
+    private SolrHelpdeskIndexer _indexer;
+    private IndexingContext _context;
+    private Subject _subject;
+    private QuestionAnswer _questionAnswer;
+    private String _strUrl;
+    private String _strContent;
+    private HtmlTextExtractor _tikaExtractor;
+    private HtmlTextExtractor _stripExtractor;
+
+    /**
+     * Builds the documents
+     */
+    @Setup( Level.Trial )
+    public void setUp(  )
+    {
+        HelpdeskSolrTestEnvironment.init(  );
+
+        Random random = new Random( 42 );
+        _indexer = new SolrHelpdeskIndexer(  );
+        _context = new IndexingContext( null, null, SolrIndexerService.getBaseUrl(  ),
+                SolrIndexerService.getWebAppName(  ), "helpdesk", HtmlTextExtractorService.getInstance(  ).getExtractor(  ),
+                ContentLimit.getConfigured(  ) );
+        _subject = HelpdeskCorpus.subject( 12, 0, random );
+        _questionAnswer = HelpdeskCorpus.questionAnswer( 345, 12, _nAnswerSize, random );
+        _strUrl = buildUrl(  );
+        _strContent = SolrHelpdeskIndexer.getContentToIndex( _questionAnswer, null );
+        _tikaExtractor = new TikaHtmlTextExtractor(  );
+        _stripExtractor = new HtmlStripTextExtractor(  );
+    }
+
+    /**
+     * Subject document
+     * @return the document
+     * @throws IOException if the extraction fails
+     */
+    @Benchmark
+    public SolrItem getDocumentSubject(  ) throws IOException
+    {
+        return _indexer.getDocument( _context, _subject, ROLE_KEY, _strUrl );
+    }
+
+    /**
+     * Question/answer document
+     * @return the document
+     * @throws IOException if the extraction fails
+     */
+    @Benchmark
+    public List<SolrItem> getDocumentQuestionAnswer(  ) throws IOException
+    {
+        return _indexer.getQuestionAnswerDocuments( _context, ID_FAQ, _questionAnswer, _strUrl, ROLE_KEY );
+    }
+
+    /**
+     * Concatenation of the question and the answer
+     * @return the content
+     */
+    @Benchmark
+    public String getContentToIndex(  )
+    {
+        return SolrHelpdeskIndexer.getContentToIndex( _questionAnswer, null );
+    }
+
+    /**
+     * Resource uid
+     * @return the uid
+     */
+    @Benchmark
+    public String getResourceUid(  )
+    {
+        return _indexer.getResourceUid( String.valueOf( _questionAnswer.getIdQuestionAnswer(  ) ),
+            HelpdeskIndexerUtils.CONSTANT_QUESTION_ANSWER_TYPE_RESOURCE );
+    }
+
+    /**
+     * URL of a question/answer, built with a {@link UrlItem} for each document
+     * @return the URL
+     */
+    @Benchmark
+    public String buildUrl(  )
+    {
+        UrlItem url = new UrlItem( SolrIndexerService.getBaseUrl(  ) );
+        url.addParameter( XPageAppService.PARAM_XPAGE_APP, "helpdesk" );
+        url.addParameter( HelpdeskApp.PARAMETER_FAQ_ID, ID_FAQ );
+        url.setAnchor( HelpdeskApp.ANCHOR_QUESTION_ANSWER + _questionAnswer.getIdQuestionAnswer(  ) );
+
+        return url.getUrl(  );
+    }
+
+    /**
+     * URL of a question/answer, as built by the indexer from the url of the faq page
+     * @return the URL
+     */
+    @Benchmark
+    public String getQuestionAnswerUrl(  )
+    {
+        return _context.getQuestionAnswerUrl( ID_FAQ, _questionAnswer.getIdQuestionAnswer(  ) );
+    }
+
+    /**
+     * Text extraction with Tika
+     * @return the text
+     * @throws IOException if the extraction fails
+     */
+    @Benchmark
+    public String extractTika(  ) throws IOException
+    {
+        return _tikaExtractor.extract( _strContent );
+    }
+
+    /**
+     * Text extraction with the lightweight stripper
+     * @return the text
+     * @throws IOException if the extraction fails
+     */
+    @Benchmark
+    public String extractStrip(  ) throws IOException
+    {
+        return _stripExtractor.extract( _strContent );
+    }
+}
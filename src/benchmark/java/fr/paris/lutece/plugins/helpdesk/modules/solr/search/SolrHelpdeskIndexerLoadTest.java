@@ -0,0 +1,262 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.helpdesk.modules.solr.search;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import fr.paris.lutece.plugins.search.solr.indexer.SolrItem;
+
+
+/**
+ * End-to-end load test of {@link SolrHelpdeskIndexer} : for each corpus size, a synthetic helpdesk is generated in
+ * memory, fully reindexed with {@link SolrHelpdeskIndexer#indexDocuments(IndexingPartition)} into a
+ * {@link CountingSolrItemSink}, then rebuilt with {@link SolrHelpdeskIndexer#getDocuments(java.util.Collection)},
+ * by requests of {@value #SUBJECTS_PER_REQUEST} subjects as the incremental indexing does.
+ * Each operation reports its throughput, the peak heap sampled while it runs and the time spent in GC.
+ * <br>
+ * Run with <code>mvn -Pbenchmark test-compile exec:exec -Dbenchmark.main=SolrHelpdeskIndexerLoadTest</code>, the class
+ * name being qualified by its package ; <code>-Dbenchmark.args="1000 50000"</code> sets the corpus sizes, 1k, 10k,
+ * 100k and 1M documents by default, and <code>-Dbenchmark.jvmArgs=-Xmx4g</code> the heap of the JVM.
+ */
+public final class SolrHelpdeskIndexerLoadTest
+{
+    private static final int[] DEFAULT_SIZES = { 1000, 10000, 100000, 1000000 };
+    private static final int SUBJECTS_PER_REQUEST = 1000;
+    private static final long SEED = 42L;
+    private static final long SAMPLING_PERIOD = 10L;
+    private static final String FORMAT_HEADER = "%-10s %-14s %10s %10s %12s %14s %10s %8s%n";
+    private static final String FORMAT_LINE = "%-10d %-14s %10d %10.2f %12.0f %14.1f %10d %8d%n";
+
+    /**
+     * Private constructor
+     */
+    private SolrHelpdeskIndexerLoadTest(  )
+    {
+    }
+
+    /**
+     * Runs the load test
+     * @param args the corpus sizes, in documents
+     */
+    public static void main( String[] args )
+    {
+        HelpdeskSolrTestEnvironment.init(  );
+
+        int[] sizes = DEFAULT_SIZES;
+
+        if ( args.length > 0 )
+        {
+            sizes = new int[args.length];
+
+            for ( int i = 0; i < args.length; i++ )
+            {
+                sizes[i] = Integer.parseInt( args[i].trim(  ) );
+            }
+        }
+
+        System.out.printf( Locale.ROOT, FORMAT_HEADER, "corpus", "operation", "documents", "seconds", "docs/s",
+            "peak heap MB", "GC ms", "GCs" );
+
+        for ( int nSize : sizes )
+        {
+            run( nSize );
+        }
+    }
+
+    /**
+     * Indexes a corpus
+     * @param nSize the number of documents of the corpus
+     */
+    private static void run( int nSize )
+    {
+        final InMemoryHelpdeskDataSource dataSource = InMemoryHelpdeskDataSource.generate( nSize, SEED );
+        final CountingSolrItemSink sink = new CountingSolrItemSink(  );
+        final SolrHelpdeskIndexer indexer = new SolrHelpdeskIndexer( dataSource, sink );
+
+        // The ids of the previous corpus mean other subjects in this one
+        SubjectResolutionCache.getInstance(  ).invalidateAll(  );
+
+        Measure measure = Measure.start(  );
+        List<String> listErrors = indexer.indexDocuments( IndexingPartition.ALL );
+        measure.stop(  );
+
+        if ( !listErrors.isEmpty(  ) )
+        {
+            System.out.println( "indexDocuments errors : " + listErrors );
+        }
+
+        measure.print( nSize, "indexDocuments", sink.getDocuments(  ) );
+
+        List<String> listSubjectIds = dataSource.getSubjectIds(  );
+        long lDocuments = 0;
+        measure = Measure.start(  );
+
+        for ( int i = 0; i < listSubjectIds.size(  ); i += SUBJECTS_PER_REQUEST )
+        {
+            List<SolrItem> listItems = indexer.getDocuments( listSubjectIds.subList( i,
+                        Math.min( i + SUBJECTS_PER_REQUEST, listSubjectIds.size(  ) ) ) );
+            lDocuments += listItems.size(  );
+        }
+
+        measure.stop(  );
+        measure.print( nSize, "getDocuments", lDocuments );
+    }
+
+    /**
+     * Elapsed time, peak heap and GC activity of an operation. The heap is sampled from a background thread,
+     * after a GC so that the garbage of the previous operation is not counted.
+     */
+    private static final class Measure implements Runnable
+    {
+        private final MemoryMXBean _memory = ManagementFactory.getMemoryMXBean(  );
+        private final Thread _sampler = new Thread( this, "helpdesk-solr-load-test-sampler" );
+        private volatile boolean _bRunning = true;
+        private volatile long _lPeakHeap;
+        private long _lStart;
+        private long _lElapsed;
+        private long _lGcTime;
+        private long _lGcCount;
+
+        /**
+         * Starts measuring
+         * @return the measure
+         */
+        static Measure start(  )
+        {
+            System.gc(  );
+
+            Measure measure = new Measure(  );
+            measure._lGcTime = -getGcTime(  );
+            measure._lGcCount = -getGcCount(  );
+            measure._lPeakHeap = measure._memory.getHeapMemoryUsage(  ).getUsed(  );
+            measure._sampler.setDaemon( true );
+            measure._sampler.start(  );
+            measure._lStart = System.nanoTime(  );
+
+            return measure;
+        }
+
+        /**
+         * Stops measuring
+         */
+        void stop(  )
+        {
+            _lElapsed = System.nanoTime(  ) - _lStart;
+            _lGcTime += getGcTime(  );
+            _lGcCount += getGcCount(  );
+            _bRunning = false;
+
+            try
+            {
+                _sampler.join(  );
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.currentThread(  ).interrupt(  );
+            }
+        }
+
+        /**
+         * Prints the measure
+         * @param nSize the number of documents of the corpus
+         * @param strOperation the operation
+         * @param lDocuments the number of documents built by the operation
+         */
+        void print( int nSize, String strOperation, long lDocuments )
+        {
+            double dSeconds = _lElapsed / 1e9;
+            System.out.printf( Locale.ROOT, FORMAT_LINE, nSize, strOperation, lDocuments, dSeconds,
+                ( dSeconds > 0 ) ? ( lDocuments / dSeconds ) : 0d, _lPeakHeap / ( 1024d * 1024d ), _lGcTime,
+                _lGcCount );
+        }
+
+        /**
+         * Samples the heap until the operation is over
+         */
+        @Override
+        public void run(  )
+        {
+            while ( _bRunning )
+            {
+                _lPeakHeap = Math.max( _lPeakHeap, _memory.getHeapMemoryUsage(  ).getUsed(  ) );
+
+                try
+                {
+                    TimeUnit.MILLISECONDS.sleep( SAMPLING_PERIOD );
+                }
+                catch ( InterruptedException e )
+                {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Returns the time spent in GC since the start of the JVM
+         * @return the time, in milliseconds
+         */
+        private static long getGcTime(  )
+        {
+            long lTime = 0;
+
+            for ( GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans(  ) )
+            {
+                lTime += Math.max( 0, gc.getCollectionTime(  ) );
+            }
+
+            return lTime;
+        }
+
+        /**
+         * Returns the number of GCs since the start of the JVM
+         * @return the number of GCs
+         */
+        private static long getGcCount(  )
+        {
+            long lCount = 0;
+
+            for ( GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans(  ) )
+            {
+                lCount += Math.max( 0, gc.getCollectionCount(  ) );
+            }
+
+            return lCount;
+        }
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.helpdesk.modules.solr.search;
+
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Receives an extracted text and cuts it into chunks of at most a maximum number of characters, at a white space
+ * when there is one near the end of the chunk. The characters written once the maximum number of chunks is reached
+ * are dropped, so that the memory used does not depend on the size of the text.
+ */
+final class ChunkedTextWriter extends Writer
+{
+    // A chunk is cut at the last white space among its last characters, if any
+    private static final int WORD_BOUNDARY_LOOKBACK = 200;
+    private static final int INITIAL_CAPACITY = 16 * 1024;
+    private final int _nMaxChars;
+    private final int _nMaxChunks;
+    private final List<String> _listChunks = new ArrayList<String>(  );
+    private final StringBuilder _sbChunk;
+    private boolean _bFull;
+    private boolean _bTruncated;
+
+    /**
+     * Constructor
+     * @param nMaxChars the maximum number of characters of a chunk
+     * @param nMaxChunks the maximum number of chunks
+     */
+    ChunkedTextWriter( int nMaxChars, int nMaxChunks )
+    {
+        _nMaxChars = Math.max( 1, nMaxChars );
+        _nMaxChunks = Math.max( 1, nMaxChunks );
+        _sbChunk = new StringBuilder( Math.min( _nMaxChars, INITIAL_CAPACITY ) );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write( char[] cbuf, int nOffset, int nLength )
+    {
+        int nEnd = nOffset + nLength;
+        int nPosition = nOffset;
+
+        while ( nPosition < nEnd )
+        {
+            if ( _bFull )
+            {
+                _bTruncated = true;
+
+                return;
+            }
+
+            int nCount = Math.min( _nMaxChars - _sbChunk.length(  ), nEnd - nPosition );
+            _sbChunk.append( cbuf, nPosition, nCount );
+            nPosition += nCount;
+
+            if ( _sbChunk.length(  ) >= _nMaxChars )
+            {
+                cut(  );
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void flush(  )
+    {
+        // The chunks are kept in memory
+    }
+
+    /**
+     * Ends the last chunk
+     */
+    @Override
+    public void close(  )
+    {
+        if ( !_bFull && ( ( _sbChunk.length(  ) > 0 ) || _listChunks.isEmpty(  ) ) )
+        {
+            _listChunks.add( _sbChunk.toString(  ) );
+            _sbChunk.setLength( 0 );
+        }
+
+        _bFull = true;
+    }
+
+    /**
+     * Returns the chunks. To be called once the writer is closed.
+     * @return the chunks, at least one
+     */
+    List<String> getChunks(  )
+    {
+        return _listChunks;
+    }
+
+    /**
+     * Tells whether characters were dropped because the maximum number of chunks was reached
+     * @return true if the text is truncated
+     */
+    boolean isTruncated(  )
+    {
+        return _bTruncated;
+    }
+
+    /**
+     * Ends the current chunk, which is full. The end of the last word goes to the next chunk, unless this chunk
+     * is the last one.
+     */
+    private void cut(  )
+    {
+        if ( ( _listChunks.size(  ) + 1 ) >= _nMaxChunks )
+        {
+            _listChunks.add( _sbChunk.toString(  ) );
+            _sbChunk.setLength( 0 );
+            _bFull = true;
+
+            return;
+        }
+
+        int nLength = _sbChunk.length(  );
+        int nCut = nLength;
+
+        for ( int i = nLength - 1; i >= Math.max( 1, nLength - WORD_BOUNDARY_LOOKBACK ); i-- )
+        {
+            if ( Character.isWhitespace( _sbChunk.charAt( i ) ) )
+            {
+                nCut = i;
+
+                break;
+            }
+        }
+
+        _listChunks.add( _sbChunk.substring( 0, nCut ) );
+
+        // The white space at the cut is dropped
+        String strRest = ( nCut < nLength ) ? _sbChunk.substring( nCut + 1 ) : "";
+        _sbChunk.setLength( 0 );
+        _sbChunk.append( strRest );
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.helpdesk.modules.solr.search;
+
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+
+
+/**
+ * Maximum size of the text indexed for a question/answer. A content larger than the maximum is extracted as a
+ * stream : its text is cut at the maximum size, and, if chunks are enabled, the rest of the text goes to child
+ * documents of at most the maximum size each, up to a maximum number of documents.
+ */
+final class ContentLimit
+{
+    private static final String PROPERTY_MAX_CHARS = "helpdesk-solr.indexer.content.maxChars";
+    private static final String PROPERTY_CHUNKS_ENABLE = "helpdesk-solr.indexer.content.chunks.enable";
+    private static final String PROPERTY_CHUNKS_MAX = "helpdesk-solr.indexer.content.chunks.max";
+    private static final int DEFAULT_MAX_CHARS = 100000;
+    private static final int DEFAULT_CHUNKS_MAX = 10;
+    private final int _nMaxChars;
+    private final int _nMaxChunks;
+
+    /**
+     * Constructor
+     * @param nMaxChars the maximum number of characters of the text of a document, 0 for no limit
+     * @param nMaxChunks the maximum number of documents of a question/answer, 1 to cut the text
+     */
+    ContentLimit( int nMaxChars, int nMaxChunks )
+    {
+        _nMaxChars = Math.max( 0, nMaxChars );
+        _nMaxChunks = Math.max( 1, nMaxChunks );
+    }
+
+    /**
+     * Reads the limit configured in the helpdesk-solr properties
+     * @return the limit
+     */
+    static ContentLimit getConfigured(  )
+    {
+        return new ContentLimit( AppPropertiesService.getPropertyInt( PROPERTY_MAX_CHARS, DEFAULT_MAX_CHARS ),
+            AppPropertiesService.getPropertyBoolean( PROPERTY_CHUNKS_ENABLE, false )
+            ? AppPropertiesService.getPropertyInt( PROPERTY_CHUNKS_MAX, DEFAULT_CHUNKS_MAX ) : 1 );
+    }
+
+    /**
+     * Tells whether a content may give a text over the limit. The text of an HTML content is never longer
+     * than the content itself.
+     * @param nLength the length of the content
+     * @return true if the content must be extracted as a stream
+     */
+    boolean isExceeded( int nLength )
+    {
+        return ( _nMaxChars > 0 ) && ( nLength > _nMaxChars );
+    }
+
+    /**
+     * Returns the maximum number of characters of the text of a document
+     * @return the maximum, 0 for no limit
+     */
+    int getMaxChars(  )
+    {
+        return _nMaxChars;
+    }
+
+    /**
+     * Returns the maximum number of documents of a question/answer : the question/answer document and its chunks
+     * @return the maximum, 1 if chunks are disabled
+     */
+    int getMaxChunks(  )
+    {
+        return _nMaxChunks;
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.helpdesk.modules.solr.search;
+
+import java.sql.Timestamp;
+
+import fr.paris.lutece.portal.service.util.AppException;
+import fr.paris.lutece.util.sql.DAOUtil;
+
+
+/**
+ * Rounds of the partitioned runs, in the tables of the helpdesk-solr module. The module has no connection pool
+ * of its own : the tables are created in the database of the portal, and only used when the helpdesk is
+ * partitioned. The primary key of the rounds makes their opening atomic : the insertion of a round already opened
+ * by another node fails.
+ */
+final class DatabasePartitionRoundStore implements PartitionRoundStore
+{
+    private static final String SQL_QUERY_SELECT_LAST_ROUND = "SELECT MAX(id_round) FROM helpdesk_solr_partition_round";
+    private static final String SQL_QUERY_INSERT_ROUND = "INSERT INTO helpdesk_solr_partition_round ( id_round, node_count, rebuild, date_open ) VALUES ( ?, ?, ?, ? )";
+    private static final String SQL_QUERY_SELECT_REBUILD = "SELECT rebuild FROM helpdesk_solr_partition_round WHERE id_round = ?";
+    private static final String SQL_QUERY_CLOSE_ROUND = "UPDATE helpdesk_solr_partition_round SET date_close = ? WHERE id_round = ? AND date_close IS NULL";
+    private static final String SQL_QUERY_DELETE_NODE = "DELETE FROM helpdesk_solr_partition_node WHERE id_round = ? AND node_index = ?";
+    private static final String SQL_QUERY_INSERT_NODE = "INSERT INTO helpdesk_solr_partition_node ( id_round, node_index, status, date_update ) VALUES ( ?, ?, ?, ? )";
+    private static final String SQL_QUERY_COUNT_NODES = "SELECT COUNT(*) FROM helpdesk_solr_partition_node WHERE id_round = ? AND status = ?";
+    private static final String SQL_QUERY_SELECT_NODE_STATUS = "SELECT status FROM helpdesk_solr_partition_node WHERE id_round = ? AND node_index = ?";
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long findLastRound(  )
+    {
+        DAOUtil daoUtil = new DAOUtil( SQL_QUERY_SELECT_LAST_ROUND );
+
+        try
+        {
+            daoUtil.executeQuery(  );
+
+            return daoUtil.next(  ) ? daoUtil.getLong( 1 ) : 0L;
+        }
+        finally
+        {
+            daoUtil.free(  );
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean openRound( long lRound, int nNodeCount, boolean bRebuild )
+    {
+        try
+        {
+            DAOUtil daoUtil = new DAOUtil( SQL_QUERY_INSERT_ROUND );
+
+            try
+            {
+                daoUtil.setLong( 1, lRound );
+                daoUtil.setInt( 2, nNodeCount );
+                daoUtil.setInt( 3, bRebuild ? 1 : 0 );
+                daoUtil.setTimestamp( 4, new Timestamp( System.currentTimeMillis(  ) ) );
+                daoUtil.executeUpdate(  );
+            }
+            finally
+            {
+                daoUtil.free(  );
+            }
+
+            return true;
+        }
+        catch ( AppException e )
+        {
+            // Duplicate key : another node opened the round first. Any other error is not hidden
+            if ( findLastRound(  ) >= lRound )
+            {
+                return false;
+            }
+
+            throw e;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isRebuildRound( long lRound )
+    {
+        DAOUtil daoUtil = new DAOUtil( SQL_QUERY_SELECT_REBUILD );
+
+        try
+        {
+            daoUtil.setLong( 1, lRound );
+            daoUtil.executeQuery(  );
+
+            return daoUtil.next(  ) && ( daoUtil.getInt( 1 ) != 0 );
+        }
+        finally
+        {
+            daoUtil.free(  );
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String findNodeStatus( long lRound, int nNodeIndex )
+    {
+        DAOUtil daoUtil = new DAOUtil( SQL_QUERY_SELECT_NODE_STATUS );
+
+        try
+        {
+            daoUtil.setLong( 1, lRound );
+            daoUtil.setInt( 2, nNodeIndex );
+            daoUtil.executeQuery(  );
+
+            return daoUtil.next(  ) ? daoUtil.getString( 1 ) : null;
+        }
+        finally
+        {
+            daoUtil.free(  );
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setNodeStatus( long lRound, int nNodeIndex, String strStatus )
+    {
+        // Only the node itself writes its status
+        DAOUtil daoUtil = new DAOUtil( SQL_QUERY_DELETE_NODE );
+
+        try
+        {
+            daoUtil.setLong( 1, lRound );
+            daoUtil.setInt( 2, nNodeIndex );
+            daoUtil.executeUpdate(  );
+        }
+        finally
+        {
+            daoUtil.free(  );
+        }
+
+        daoUtil = new DAOUtil( SQL_QUERY_INSERT_NODE );
+
+        try
+        {
+            daoUtil.setLong( 1, lRound );
+            daoUtil.setInt( 2, nNodeIndex );
+            daoUtil.setString( 3, strStatus );
+            daoUtil.setTimestamp( 4, new Timestamp( System.currentTimeMillis(  ) ) );
+            daoUtil.executeUpdate(  );
+        }
+        finally
+        {
+            daoUtil.free(  );
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int countNodes( long lRound, String strStatus )
+    {
+        DAOUtil daoUtil = new DAOUtil( SQL_QUERY_COUNT_NODES );
+
+        try
+        {
+            daoUtil.setLong( 1, lRound );
+            daoUtil.setString( 2, strStatus );
+            daoUtil.executeQuery(  );
+
+            return daoUtil.next(  ) ? daoUtil.getInt( 1 ) : 0;
+        }
+        finally
+        {
+            daoUtil.free(  );
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void closeRound( long lRound )
+    {
+        DAOUtil daoUtil = new DAOUtil( SQL_QUERY_CLOSE_ROUND );
+
+        try
+        {
+            daoUtil.setTimestamp( 1, new Timestamp( System.currentTimeMillis(  ) ) );
+            daoUtil.setLong( 2, lRound );
+            daoUtil.executeUpdate(  );
+        }
+        finally
+        {
+            daoUtil.free(  );
+        }
+    }
+}
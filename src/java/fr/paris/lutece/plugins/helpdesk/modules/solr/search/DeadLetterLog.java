@@ -0,0 +1,232 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.helpdesk.modules.solr.search;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.text.SimpleDateFormat;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.lang.StringUtils;
+
+import fr.paris.lutece.portal.service.util.AppPathService;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+
+
+/**
+ * Local file of the resource uids of the documents which could not be built or written, even after retries.
+ * Each failure is appended as a comment line, with its date and cause, followed by one uid per line.
+ * The file is replayed at the start of every run of the indexer which writes to Solr, full reindex or update,
+ * under the lock of the runs : an export does not replay it.
+ */
+public final class DeadLetterLog
+{
+    private static final String PROPERTY_RETRY_ENABLE = "helpdesk-solr.indexer.retry.enable";
+    private static final String PROPERTY_DEAD_LETTER_FILE = "helpdesk-solr.indexer.retry.deadLetterFile";
+    private static final String DEFAULT_DEAD_LETTER_FILE = "/WEB-INF/tmp/helpdesk-solr/dead-letters.txt";
+    private static final String SUFFIX_REPLAY = ".replay";
+    private static final String PREFIX_COMMENT = "#";
+    private static final String PATTERN_DATE = "yyyy-MM-dd HH:mm:ss";
+    private final File _file;
+    private final File _fileReplay;
+    private final AtomicInteger _nAppended = new AtomicInteger(  );
+
+    /**
+     * Constructor
+     * @param file the file of the log
+     */
+    public DeadLetterLog( File file )
+    {
+        _file = file;
+        _fileReplay = new File( file.getPath(  ) + SUFFIX_REPLAY );
+    }
+
+    /**
+     * Tells whether the failed documents are retried and logged
+     * @return true if the retry queue and the dead-letter log are enabled
+     */
+    public static boolean isEnabled(  )
+    {
+        return AppPropertiesService.getPropertyBoolean( PROPERTY_RETRY_ENABLE, false );
+    }
+
+    /**
+     * Opens the log configured in the helpdesk-solr properties
+     * @param partition the share of the helpdesk indexed by this node
+     * @return the log
+     */
+    public static DeadLetterLog open( IndexingPartition partition )
+    {
+        return new DeadLetterLog( partition.getLocalFile( new File( AppPathService.getAbsolutePathFromRelativePath(
+                            AppPropertiesService.getProperty( PROPERTY_DEAD_LETTER_FILE, DEFAULT_DEAD_LETTER_FILE ) ) ) ) );
+    }
+
+    /**
+     * Returns the file of the log
+     * @return the file
+     */
+    public File getFile(  )
+    {
+        return _file;
+    }
+
+    /**
+     * Returns the number of uids appended since the log was opened
+     * @return the number of uids
+     */
+    public int getAppendedCount(  )
+    {
+        return _nAppended.get(  );
+    }
+
+    /**
+     * Appends uids to the log
+     * @param listUids the resource uids
+     * @param strCause the cause of the failure
+     * @throws IOException if the file cannot be written
+     */
+    public synchronized void append( Collection<String> listUids, String strCause )
+        throws IOException
+    {
+        if ( listUids.isEmpty(  ) )
+        {
+            return;
+        }
+
+        createParentDirectory(  );
+
+        try ( Writer writer = new BufferedWriter( new OutputStreamWriter( new FileOutputStream( _file, true ),
+                        StandardCharsets.UTF_8 ) ) )
+        {
+            writer.write( PREFIX_COMMENT + " " +
+                new SimpleDateFormat( PATTERN_DATE, Locale.ENGLISH ).format( new Date(  ) ) + " " +
+                StringUtils.defaultString( strCause ).replace( '\r', ' ' ).replace( '\n', ' ' ) + "\n" );
+
+            for ( String strUid : listUids )
+            {
+                writer.write( strUid + "\n" );
+            }
+        }
+
+        _nAppended.addAndGet( listUids.size(  ) );
+    }
+
+    /**
+     * Starts a replay : the uids of the log are moved aside, so that the documents failing again are appended
+     * to a new log. The uids of a replay which did not end are replayed again.
+     * @return the uids to replay
+     * @throws IOException if the file cannot be read or moved
+     */
+    public synchronized Set<String> startReplay(  ) throws IOException
+    {
+        if ( _file.exists(  ) )
+        {
+            if ( _fileReplay.exists(  ) )
+            {
+                try ( FileOutputStream out = new FileOutputStream( _fileReplay, true ) )
+                {
+                    Files.copy( _file.toPath(  ), out );
+                }
+
+                Files.delete( _file.toPath(  ) );
+            }
+            else
+            {
+                Files.move( _file.toPath(  ), _fileReplay.toPath(  ) );
+            }
+        }
+
+        Set<String> setUids = new LinkedHashSet<String>(  );
+
+        if ( !_fileReplay.exists(  ) )
+        {
+            return setUids;
+        }
+
+        try ( BufferedReader reader = new BufferedReader( new InputStreamReader( new FileInputStream( _fileReplay ),
+                        StandardCharsets.UTF_8 ) ) )
+        {
+            String strLine;
+
+            while ( ( strLine = reader.readLine(  ) ) != null )
+            {
+                strLine = strLine.trim(  );
+
+                if ( !strLine.isEmpty(  ) && !strLine.startsWith( PREFIX_COMMENT ) )
+                {
+                    setUids.add( strLine );
+                }
+            }
+        }
+
+        return setUids;
+    }
+
+    /**
+     * Ends a replay once its documents are written or logged again
+     * @throws IOException if the replayed uids cannot be deleted
+     */
+    public synchronized void endReplay(  ) throws IOException
+    {
+        Files.deleteIfExists( _fileReplay.toPath(  ) );
+    }
+
+    /**
+     * Creates the directory of the log
+     * @throws IOException if the directory cannot be created
+     */
+    private void createParentDirectory(  ) throws IOException
+    {
+        File fileParent = _file.getAbsoluteFile(  ).getParentFile(  );
+
+        if ( ( fileParent != null ) && !fileParent.exists(  ) && !fileParent.mkdirs(  ) )
+        {
+            throw new IOException( "Unable to create the directory " + fileParent );
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.helpdesk.modules.solr.search;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import fr.paris.lutece.plugins.helpdesk.business.Faq;
+import fr.paris.lutece.plugins.helpdesk.business.QuestionAnswer;
+import fr.paris.lutece.plugins.helpdesk.business.Subject;
+
+
+/**
+ * The reads of the helpdesk made by the indexer. The indexer reads the helpdesk database through the
+ * homes of the helpdesk plugin ; another source, an in-memory corpus for instance, can be indexed the same way.
+ */
+public interface HelpdeskDataSource
+{
+    /**
+     * Returns every faq
+     * @return the faqs
+     */
+    Collection<Faq> findFaqs(  );
+
+    /**
+     * Returns the faq of a top-level subject
+     * @param nIdSubject the id of the top-level subject
+     * @return the faq, or null if the subject is not attached to a faq
+     */
+    Faq findFaqBySubject( int nIdSubject );
+
+    /**
+     * Returns every subject
+     * @return the subjects
+     */
+    Collection<Subject> findSubjects(  );
+
+    /**
+     * Returns the top-level subjects of a faq
+     * @param nIdFaq the faq id
+     * @return the top-level subjects
+     */
+    Collection<Subject> findRootSubjects( int nIdFaq );
+
+    /**
+     * Returns the faqs of every subject attached to a faq, at once. Only the top-level subjects are attached
+     * to a faq.
+     * @return the ids of the faqs of each subject, by subject id
+     */
+    Map<Integer, List<Integer>> findSubjectFaqIds(  );
+
+    /**
+     * Returns a subject
+     * @param nIdSubject the subject id
+     * @return the subject, or null if it does not exist
+     */
+    Subject findSubject( int nIdSubject );
+
+    /**
+     * Returns the children of a subject
+     * @param subject the subject
+     * @return the children
+     */
+    Collection<Subject> findChildSubjects( Subject subject );
+
+    /**
+     * Returns the question/answer list of a subject
+     * @param subject the subject
+     * @return the question/answer list
+     */
+    List<QuestionAnswer> findQuestionAnswers( Subject subject );
+
+    /**
+     * Returns the ids of the question/answers of a subject, without loading them
+     * @param subject the subject
+     * @return the ids, or null if they cannot be read apart from the question/answers
+     */
+    List<Integer> findQuestionAnswerIds( Subject subject );
+
+    /**
+     * Returns the question/answers of a list of ids, read at once
+     * @param listIds the question/answer ids
+     * @return the question/answers in the order of the ids, without those that no longer exist, or null if they
+     *         cannot be read apart from their subject
+     */
+    List<QuestionAnswer> findQuestionAnswers( List<Integer> listIds );
+
+    /**
+     * Returns every question/answer
+     * @return the question/answers
+     */
+    Collection<QuestionAnswer> findQuestionAnswers(  );
+
+    /**
+     * Returns a question/answer
+     * @param nIdQuestionAnswer the question/answer id
+     * @return the question/answer, or null if it does not exist
+     */
+    QuestionAnswer findQuestionAnswer( int nIdQuestionAnswer );
+}
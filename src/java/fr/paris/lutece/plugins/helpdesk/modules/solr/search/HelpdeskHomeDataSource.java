@@ -0,0 +1,376 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.helpdesk.modules.solr.search;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import fr.paris.lutece.plugins.helpdesk.business.Faq;
+import fr.paris.lutece.plugins.helpdesk.business.FaqHome;
+import fr.paris.lutece.plugins.helpdesk.business.QuestionAnswer;
+import fr.paris.lutece.plugins.helpdesk.business.QuestionAnswerHome;
+import fr.paris.lutece.plugins.helpdesk.business.Subject;
+import fr.paris.lutece.plugins.helpdesk.business.SubjectHome;
+import fr.paris.lutece.portal.service.plugin.Plugin;
+import fr.paris.lutece.portal.service.util.AppException;
+import fr.paris.lutece.portal.service.util.AppLogService;
+import fr.paris.lutece.util.sql.DAOUtil;
+
+
+/**
+ * Reads the helpdesk database through the homes of the helpdesk plugin
+ */
+final class HelpdeskHomeDataSource implements HelpdeskDataSource
+{
+    // Links between the faqs and their top-level subjects, which the homes of the helpdesk only read by faq
+    private static final String SQL_QUERY_SELECT_FAQ_SUBJECTS = "SELECT id_subject, id_faq FROM helpdesk_ln_faq_subject";
+
+    // Ids of the question/answers of a subject, which the homes of the helpdesk only read with their contents
+    private static final String SQL_QUERY_SELECT_QUESTION_ANSWER_IDS = "SELECT id_question_answer FROM helpdesk_question_answer WHERE id_subject = ? ORDER BY id_order";
+
+    // Question/answers of a list of ids, with the columns read by the home of the helpdesk
+    private static final String SQL_QUERY_SELECT_QUESTION_ANSWERS = "SELECT id_question_answer, id_subject, question, answer, status, creation_date FROM helpdesk_question_answer WHERE id_question_answer IN ( ";
+    private static final String SQL_PARAMETER = "?";
+    private static final String SQL_SEPARATOR = ", ";
+    private static final String SQL_END = " )";
+
+    // Largest IN list accepted by every supported database
+    private static final int MAX_IDS_PER_QUERY = 1000;
+    private static final int STATUS_ENABLED = 1;
+    private final Plugin _plugin;
+
+    // Set once the direct reads of the question/answers failed : the schema is the one of another helpdesk version
+    private volatile boolean _bQuestionAnswerReadsUnavailable;
+
+    /**
+     * Constructor
+     * @param plugin the helpdesk plugin
+     */
+    HelpdeskHomeDataSource( Plugin plugin )
+    {
+        _plugin = plugin;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Collection<Faq> findFaqs(  )
+    {
+        return FaqHome.findAll( _plugin );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Faq findFaqBySubject( int nIdSubject )
+    {
+        return FaqHome.findBySubjectId( nIdSubject, _plugin );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Collection<Subject> findSubjects(  )
+    {
+        return (Collection<Subject>) SubjectHome.getInstance(  ).findAll( _plugin );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Collection<Subject> findRootSubjects( int nIdFaq )
+    {
+        return (Collection<Subject>) SubjectHome.getInstance(  ).findByIdFaq( nIdFaq, _plugin );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<Integer, List<Integer>> findSubjectFaqIds(  )
+    {
+        Map<Integer, List<Integer>> mapFaqIds = new HashMap<Integer, List<Integer>>(  );
+
+        try
+        {
+            DAOUtil daoUtil = new DAOUtil( SQL_QUERY_SELECT_FAQ_SUBJECTS, _plugin );
+
+            try
+            {
+                daoUtil.executeQuery(  );
+
+                while ( daoUtil.next(  ) )
+                {
+                    addFaqId( mapFaqIds, daoUtil.getInt( 1 ), daoUtil.getInt( 2 ) );
+                }
+            }
+            finally
+            {
+                daoUtil.free(  );
+            }
+        }
+        catch ( AppException e )
+        {
+            // Schema of another version of the helpdesk : one read per faq
+            AppLogService.error( "Unable to read the links between the helpdesk faqs and subjects at once", e );
+            mapFaqIds.clear(  );
+
+            for ( Faq faq : findFaqs(  ) )
+            {
+                for ( Subject subject : findRootSubjects( faq.getId(  ) ) )
+                {
+                    addFaqId( mapFaqIds, subject.getId(  ), faq.getId(  ) );
+                }
+            }
+        }
+
+        return mapFaqIds;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Subject findSubject( int nIdSubject )
+    {
+        return (Subject) SubjectHome.getInstance(  ).findByPrimaryKey( nIdSubject, _plugin );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Collection<Subject> findChildSubjects( Subject subject )
+    {
+        return (Collection<Subject>) subject.getChilds( _plugin );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<QuestionAnswer> findQuestionAnswers( Subject subject )
+    {
+        return (List<QuestionAnswer>) subject.getQuestions(  );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Integer> findQuestionAnswerIds( Subject subject )
+    {
+        if ( _bQuestionAnswerReadsUnavailable )
+        {
+            return null;
+        }
+
+        List<Integer> listIds = new ArrayList<Integer>(  );
+
+        try
+        {
+            DAOUtil daoUtil = new DAOUtil( SQL_QUERY_SELECT_QUESTION_ANSWER_IDS, _plugin );
+
+            try
+            {
+                daoUtil.setInt( 1, subject.getId(  ) );
+                daoUtil.executeQuery(  );
+
+                while ( daoUtil.next(  ) )
+                {
+                    listIds.add( daoUtil.getInt( 1 ) );
+                }
+            }
+            finally
+            {
+                daoUtil.free(  );
+            }
+        }
+        catch ( AppException e )
+        {
+            setQuestionAnswerReadsUnavailable( e );
+
+            return null;
+        }
+
+        return listIds;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<QuestionAnswer> findQuestionAnswers( List<Integer> listIds )
+    {
+        if ( _bQuestionAnswerReadsUnavailable )
+        {
+            return null;
+        }
+
+        Map<Integer, QuestionAnswer> mapQuestionAnswers = new HashMap<Integer, QuestionAnswer>( listIds.size(  ) * 2 );
+
+        try
+        {
+            for ( int nFirst = 0; nFirst < listIds.size(  ); nFirst += MAX_IDS_PER_QUERY )
+            {
+                readQuestionAnswers( listIds.subList( nFirst, Math.min( nFirst + MAX_IDS_PER_QUERY, listIds.size(  ) ) ),
+                    mapQuestionAnswers );
+            }
+        }
+        catch ( AppException e )
+        {
+            setQuestionAnswerReadsUnavailable( e );
+
+            return null;
+        }
+
+        List<QuestionAnswer> listQuestionAnswers = new ArrayList<QuestionAnswer>( mapQuestionAnswers.size(  ) );
+
+        for ( Integer nIdQuestionAnswer : listIds )
+        {
+            QuestionAnswer questionAnswer = mapQuestionAnswers.get( nIdQuestionAnswer );
+
+            if ( questionAnswer != null )
+            {
+                listQuestionAnswers.add( questionAnswer );
+            }
+        }
+
+        return listQuestionAnswers;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Collection<QuestionAnswer> findQuestionAnswers(  )
+    {
+        return QuestionAnswerHome.findAll( _plugin );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public QuestionAnswer findQuestionAnswer( int nIdQuestionAnswer )
+    {
+        return QuestionAnswerHome.findByPrimaryKey( nIdQuestionAnswer, _plugin );
+    }
+
+    /**
+     * Reads the question/answers of a list of ids with one query
+     * @param listIds the question/answer ids, at most {@link #MAX_IDS_PER_QUERY}
+     * @param mapQuestionAnswers the question/answers read, by id
+     */
+    private void readQuestionAnswers( List<Integer> listIds, Map<Integer, QuestionAnswer> mapQuestionAnswers )
+    {
+        StringBuilder sbSql = new StringBuilder( SQL_QUERY_SELECT_QUESTION_ANSWERS );
+
+        for ( int i = 0; i < listIds.size(  ); i++ )
+        {
+            sbSql.append( ( i == 0 ) ? SQL_PARAMETER : ( SQL_SEPARATOR + SQL_PARAMETER ) );
+        }
+
+        sbSql.append( SQL_END );
+
+        DAOUtil daoUtil = new DAOUtil( sbSql.toString(  ), _plugin );
+
+        try
+        {
+            for ( int i = 0; i < listIds.size(  ); i++ )
+            {
+                daoUtil.setInt( i + 1, listIds.get( i ) );
+            }
+
+            daoUtil.executeQuery(  );
+
+            while ( daoUtil.next(  ) )
+            {
+                QuestionAnswer questionAnswer = new QuestionAnswer(  );
+                questionAnswer.setIdQuestionAnswer( daoUtil.getInt( 1 ) );
+                questionAnswer.setIdSubject( daoUtil.getInt( 2 ) );
+                questionAnswer.setQuestion( daoUtil.getString( 3 ) );
+                questionAnswer.setAnswer( daoUtil.getString( 4 ) );
+                questionAnswer.setEnabled( daoUtil.getInt( 5 ) == STATUS_ENABLED );
+                questionAnswer.setCreationDate( daoUtil.getDate( 6 ) );
+                mapQuestionAnswers.put( questionAnswer.getIdQuestionAnswer(  ), questionAnswer );
+            }
+        }
+        finally
+        {
+            daoUtil.free(  );
+        }
+    }
+
+    /**
+     * Falls back for good on the reads of the question/answers with their subject, logging it once
+     * @param e the failure of a direct read
+     */
+    private void setQuestionAnswerReadsUnavailable( AppException e )
+    {
+        if ( !_bQuestionAnswerReadsUnavailable )
+        {
+            // Schema of another version of the helpdesk : the question/answers are read with the subject
+            _bQuestionAnswerReadsUnavailable = true;
+            AppLogService.info( "The question/answers of the helpdesk cannot be read apart from their subject (" +
+                e.getMessage(  ) + "), the large subjects are read at once" );
+        }
+    }
+
+    /**
+     * Adds a faq to the faqs of a subject
+     * @param mapFaqIds the faqs of each subject
+     * @param nIdSubject the subject id
+     * @param nIdFaq the faq id
+     */
+    private static void addFaqId( Map<Integer, List<Integer>> mapFaqIds, int nIdSubject, int nIdFaq )
+    {
+        List<Integer> listFaqIds = mapFaqIds.get( nIdSubject );
+
+        if ( listFaqIds == null )
+        {
+            listFaqIds = new ArrayList<Integer>( 1 );
+            mapFaqIds.put( nIdSubject, listFaqIds );
+        }
+
+        listFaqIds.add( nIdFaq );
+    }
+}
@@ -0,0 +1,301 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.helpdesk.modules.solr.search;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import fr.paris.lutece.portal.service.util.AppLogService;
+import fr.paris.lutece.portal.service.util.AppPathService;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+
+
+/**
+ * Fingerprints of the documents sent to Solr by the last successful full reindex, keyed by resource uid
+ * (for instance <code>12_hdq</code>). A document whose fingerprint did not change since that run is not
+ * rebuilt nor sent again by an update of the index. The fingerprints are stored in a local file.
+ */
+public final class IndexFingerprintStore
+{
+    private static final String PROPERTY_DELTA_ENABLE = "helpdesk-solr.indexer.delta.enable";
+    private static final String PROPERTY_DELTA_FILE = "helpdesk-solr.indexer.delta.file";
+    private static final String DEFAULT_DELTA_FILE = "/WEB-INF/tmp/helpdesk-solr/fingerprints.dat";
+    private static final int FILE_VERSION = 1;
+    private static final String SUFFIX_TMP = ".tmp";
+
+    // FNV-1a 64 bits
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    private static final long NULL_FIELD = 0x9e3779b97f4a7c15L;
+    private final File _file;
+
+    // Fingerprints of the last successful run
+    private final Map<String, Long> _mapPrevious;
+
+    // Fingerprints of the current run
+    private final Map<String, Long> _mapCurrent = new ConcurrentHashMap<String, Long>(  );
+
+    // Documents which must be sent again by the next run
+    private final Set<String> _setForgotten = ConcurrentHashMap.newKeySet(  );
+
+    /**
+     * Constructor
+     * @param file the file of the store
+     * @param mapPrevious the fingerprints of the last successful run
+     */
+    private IndexFingerprintStore( File file, Map<String, Long> mapPrevious )
+    {
+        _file = file;
+        _mapPrevious = mapPrevious;
+    }
+
+    /**
+     * Tells whether delta indexing is enabled
+     * @return true if unchanged documents are skipped during a full reindex
+     */
+    public static boolean isEnabled(  )
+    {
+        return AppPropertiesService.getPropertyBoolean( PROPERTY_DELTA_ENABLE, false );
+    }
+
+    /**
+     * Opens the store configured in the helpdesk-solr properties
+     * @param partition the share of the helpdesk indexed by this node
+     * @return the store
+     */
+    public static IndexFingerprintStore open( IndexingPartition partition )
+    {
+        return open( partition.getLocalFile( getConfiguredFile(  ) ) );
+    }
+
+    /**
+     * Opens a store. An unreadable file is logged and ignored : every document is then reindexed.
+     * @param file the file of the store
+     * @return the store
+     */
+    public static IndexFingerprintStore open( File file )
+    {
+        Map<String, Long> mapPrevious = new HashMap<String, Long>(  );
+
+        if ( file.exists(  ) )
+        {
+            try ( DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( file ) ) ) )
+            {
+                if ( in.readInt(  ) == FILE_VERSION )
+                {
+                    int nCount = in.readInt(  );
+
+                    for ( int i = 0; i < nCount; i++ )
+                    {
+                        mapPrevious.put( in.readUTF(  ), in.readLong(  ) );
+                    }
+                }
+            }
+            catch ( IOException e )
+            {
+                AppLogService.error( "Unable to read the helpdesk fingerprints file " + file, e );
+                mapPrevious.clear(  );
+            }
+        }
+
+        return new IndexFingerprintStore( file, mapPrevious );
+    }
+
+    /**
+     * Starts the fingerprints of a share of the helpdesk over, the index having been emptied : the file of the
+     * previous runs is deleted, so that an interrupted rebuild does not leave fingerprints of deleted documents
+     * @param partition the share of the helpdesk indexed by this node
+     * @return the empty store
+     */
+    public static IndexFingerprintStore create( IndexingPartition partition )
+    {
+        File file = partition.getLocalFile( getConfiguredFile(  ) );
+
+        if ( file.exists(  ) && !file.delete(  ) )
+        {
+            AppLogService.error( "Unable to delete the helpdesk fingerprints file " + file );
+        }
+
+        return new IndexFingerprintStore( file, new HashMap<String, Long>(  ) );
+    }
+
+    /**
+     * Records the fingerprint of a document for the current run
+     * @param strUid the resource uid
+     * @param lFingerprint the fingerprint
+     * @return true if the document did not change since the last successful run
+     */
+    public boolean checkAndRecord( String strUid, long lFingerprint )
+    {
+        _mapCurrent.put( strUid, lFingerprint );
+
+        Long lPrevious = _mapPrevious.get( strUid );
+
+        return ( lPrevious != null ) && ( lPrevious == lFingerprint );
+    }
+
+    /**
+     * Forgets the fingerprint of a document for the current run, so that it is sent again next time
+     * @param strUid the resource uid
+     */
+    public void forget( String strUid )
+    {
+        _mapCurrent.remove( strUid );
+        _setForgotten.add( strUid );
+    }
+
+    /**
+     * Persists the fingerprints of the current run. To be called only when the run succeeded.
+     * @param bResumed true if the run resumed an interrupted one : the documents it skipped keep the fingerprints
+     *        of the previous run
+     * @throws IOException if the file cannot be written
+     */
+    public void save( boolean bResumed ) throws IOException
+    {
+        Map<String, Long> mapSaved = _mapCurrent;
+
+        if ( bResumed )
+        {
+            mapSaved = new HashMap<String, Long>( _mapPrevious );
+            mapSaved.keySet(  ).removeAll( _setForgotten );
+            mapSaved.putAll( _mapCurrent );
+        }
+
+        File fileParent = _file.getAbsoluteFile(  ).getParentFile(  );
+
+        if ( ( fileParent != null ) && !fileParent.exists(  ) && !fileParent.mkdirs(  ) )
+        {
+            throw new IOException( "Unable to create the directory " + fileParent );
+        }
+
+        File fileTmp = new File( _file.getPath(  ) + SUFFIX_TMP );
+
+        try ( DataOutputStream out = new DataOutputStream( new BufferedOutputStream(
+                        new FileOutputStream( fileTmp ) ) ) )
+        {
+            out.writeInt( FILE_VERSION );
+            out.writeInt( mapSaved.size(  ) );
+
+            for ( Map.Entry<String, Long> entry : mapSaved.entrySet(  ) )
+            {
+                out.writeUTF( entry.getKey(  ) );
+                out.writeLong( entry.getValue(  ) );
+            }
+        }
+
+        Files.move( fileTmp.toPath(  ), _file.toPath(  ), StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE );
+    }
+
+    /**
+     * Computes the fingerprint of the fields of a document
+     * @param fields the fields : strings, numbers or dates
+     * @return the fingerprint
+     */
+    public static long fingerprint( Object... fields )
+    {
+        long lHash = FNV_OFFSET_BASIS;
+
+        for ( Object field : fields )
+        {
+            if ( field == null )
+            {
+                lHash = ( lHash ^ NULL_FIELD ) * FNV_PRIME;
+            }
+            else if ( field instanceof Date )
+            {
+                lHash = mix( lHash, ( (Date) field ).getTime(  ) );
+            }
+            else if ( field instanceof Number )
+            {
+                lHash = mix( lHash, ( (Number) field ).longValue(  ) );
+            }
+            else
+            {
+                CharSequence cs = ( field instanceof CharSequence ) ? (CharSequence) field : field.toString(  );
+
+                for ( int i = 0; i < cs.length(  ); i++ )
+                {
+                    lHash = ( lHash ^ cs.charAt( i ) ) * FNV_PRIME;
+                }
+            }
+
+            // Field separator, so that ("ab", "c") and ("a", "bc") differ
+            lHash = ( lHash ^ 0xff ) * FNV_PRIME;
+        }
+
+        return lHash;
+    }
+
+    /**
+     * Mixes a long value into a hash
+     * @param lHash the hash
+     * @param lValue the value
+     * @return the new hash
+     */
+    private static long mix( long lHash, long lValue )
+    {
+        long lResult = lHash;
+
+        for ( int i = 0; i < 8; i++ )
+        {
+            lResult = ( lResult ^ ( ( lValue >>> ( i * 8 ) ) & 0xff ) ) * FNV_PRIME;
+        }
+
+        return lResult;
+    }
+
+    /**
+     * Returns the configured file of the store
+     * @return the file
+     */
+    private static File getConfiguredFile(  )
+    {
+        return new File( AppPathService.getAbsolutePathFromRelativePath( AppPropertiesService.getProperty(
+                    PROPERTY_DELTA_FILE, DEFAULT_DELTA_FILE ) ) );
+    }
+}
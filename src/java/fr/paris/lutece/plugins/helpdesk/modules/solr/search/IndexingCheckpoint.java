@@ -0,0 +1,499 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.helpdesk.modules.solr.search;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang.StringUtils;
+
+import fr.paris.lutece.portal.service.util.AppLogService;
+import fr.paris.lutece.portal.service.util.AppPathService;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+
+
+/**
+ * Progress of a run of the indexer, saved in a local file so that a run which died halfway can be resumed.
+ * The faqs and top-level subjects whose documents all reached Solr are recorded as completed ; a resumed
+ * run skips them. The checkpoint is deleted when a run ends without error.
+ * <br>
+ * A full reindex does not resume the checkpoint it finds : plugin-solr empties the index before it, so the
+ * documents recorded as completed are no longer there. It starts a new checkpoint instead, which the next update
+ * or {@link SolrHelpdeskIndexer#resumeDocuments(IndexingPartition)} resumes if the full reindex is interrupted,
+ * without emptying the index again.
+ * <br>
+ * A faq or subject is first recorded as pending ; the batch writer is flushed before the pending entries
+ * are saved as completed, at most once per checkpoint period. The completed ids are saved as sorted ranges,
+ * split over numbered keys of at most a thousand ranges.
+ */
+public final class IndexingCheckpoint
+{
+    private static final String PROPERTY_CHECKPOINT_ENABLE = "helpdesk-solr.indexer.checkpoint.enable";
+    private static final String PROPERTY_CHECKPOINT_FILE = "helpdesk-solr.indexer.checkpoint.file";
+    private static final String PROPERTY_CHECKPOINT_PERIOD = "helpdesk-solr.indexer.checkpoint.period";
+    private static final String PROPERTY_CHECKPOINT_RESUME = "helpdesk-solr.indexer.checkpoint.resume";
+    private static final String PROPERTY_CHECKPOINT_MAX_AGE = "helpdesk-solr.indexer.checkpoint.maxAge";
+    private static final String DEFAULT_CHECKPOINT_FILE = "/WEB-INF/tmp/helpdesk-solr/checkpoint.properties";
+    private static final long DEFAULT_CHECKPOINT_PERIOD = 30000L;
+    private static final int DEFAULT_CHECKPOINT_MAX_AGE = 24;
+    private static final String KEY_RUN_ID = "run.id";
+    private static final String KEY_RUN_START = "run.start";
+    private static final String KEY_FAQS = "faqs";
+    private static final String KEY_SUBJECTS = "subjects";
+    private static final String KEY_LAST_FAQ = "last.faq";
+    private static final String KEY_LAST_SUBJECT = "last.subject";
+    private static final String SUFFIX_COUNT = ".count";
+    private static final String SEPARATOR = ",";
+    private static final String RANGE = "-";
+    private static final String DOT = ".";
+    private static final int RANGES_PER_KEY = 1000;
+    private static final String SUFFIX_TMP = ".tmp";
+    private static final String COMMENT = "Helpdesk Solr indexing checkpoint";
+    private final File _file;
+    private final long _lPeriod;
+    private final String _strRunId;
+    private final long _lRunStart;
+    private final boolean _bResumed;
+    private final Set<Integer> _setCompletedFaqs;
+    private final Set<Integer> _setCompletedSubjects;
+    private final Set<Integer> _setPendingFaqs = new LinkedHashSet<Integer>(  );
+    private final Set<Integer> _setPendingSubjects = new LinkedHashSet<Integer>(  );
+    private int _nLastFaq;
+    private int _nLastSubject;
+    private long _lLastSave;
+
+    /**
+     * Constructor
+     * @param file the file of the checkpoint
+     * @param lPeriod the minimum delay between two saves, in milliseconds
+     * @param properties the checkpoint of the run to resume, null to start a new run
+     */
+    private IndexingCheckpoint( File file, long lPeriod, Properties properties )
+    {
+        _file = file;
+        _lPeriod = lPeriod;
+        _lLastSave = System.currentTimeMillis(  );
+
+        if ( properties != null )
+        {
+            _strRunId = properties.getProperty( KEY_RUN_ID );
+            _lRunStart = Long.parseLong( properties.getProperty( KEY_RUN_START ) );
+            _setCompletedFaqs = parseIds( properties, KEY_FAQS );
+            _setCompletedSubjects = parseIds( properties, KEY_SUBJECTS );
+            _nLastFaq = Integer.parseInt( properties.getProperty( KEY_LAST_FAQ, "0" ) );
+            _nLastSubject = Integer.parseInt( properties.getProperty( KEY_LAST_SUBJECT, "0" ) );
+            _bResumed = true;
+        }
+        else
+        {
+            _strRunId = UUID.randomUUID(  ).toString(  );
+            _lRunStart = _lLastSave;
+            _setCompletedFaqs = new HashSet<Integer>(  );
+            _setCompletedSubjects = new HashSet<Integer>(  );
+            _bResumed = false;
+        }
+    }
+
+    /**
+     * Tells whether the checkpoints are enabled
+     * @return true if the progress of the runs is saved
+     */
+    public static boolean isEnabled(  )
+    {
+        return AppPropertiesService.getPropertyBoolean( PROPERTY_CHECKPOINT_ENABLE, false );
+    }
+
+    /**
+     * Opens the checkpoint configured in the helpdesk-solr properties. The run of the checkpoint file is resumed
+     * if the resume mode is enabled and the run is not older than the configured maximum age ; otherwise a new
+     * run starts.
+     * @param partition the share of the helpdesk indexed by this node
+     * @return the checkpoint
+     */
+    public static IndexingCheckpoint open( IndexingPartition partition )
+    {
+        IndexingCheckpoint checkpoint = load( partition );
+
+        if ( checkpoint != null )
+        {
+            AppLogService.info( "Resuming the helpdesk indexing run " + checkpoint._strRunId + " : " +
+                checkpoint._setCompletedFaqs.size(  ) + " faqs and " + checkpoint._setCompletedSubjects.size(  ) +
+                " subjects already indexed, last faq " + checkpoint._nLastFaq + ", last subject " +
+                checkpoint._nLastSubject );
+
+            return checkpoint;
+        }
+
+        return new IndexingCheckpoint( getFile( partition ), getPeriod(  ), null );
+    }
+
+    /**
+     * Starts the checkpoint of a full reindex. The checkpoint of an interrupted run, if any, is discarded : the
+     * index was emptied.
+     * @param partition the share of the helpdesk indexed by this node
+     * @return the checkpoint of a new run
+     */
+    public static IndexingCheckpoint create( IndexingPartition partition )
+    {
+        File file = getFile( partition );
+
+        if ( file.exists(  ) )
+        {
+            AppLogService.info( "The helpdesk index was emptied : the indexing checkpoint " + file + " is discarded" );
+
+            if ( !file.delete(  ) )
+            {
+                AppLogService.error( "Unable to delete the helpdesk indexing checkpoint " + file );
+            }
+        }
+
+        return new IndexingCheckpoint( file, getPeriod(  ), null );
+    }
+
+    /**
+     * Tells whether a node has an interrupted run to resume
+     * @param partition the share of the helpdesk indexed by this node
+     * @return true if {@link #open(IndexingPartition)} resumes a run
+     */
+    public static boolean isResumable( IndexingPartition partition )
+    {
+        return load( partition ) != null;
+    }
+
+    /**
+     * Loads the run of the checkpoint file, if the resume mode is enabled and the run is not older than the
+     * configured maximum age
+     * @param partition the share of the helpdesk indexed by this node
+     * @return the checkpoint of the run, null if there is no run to resume
+     */
+    private static IndexingCheckpoint load( IndexingPartition partition )
+    {
+        File file = getFile( partition );
+
+        if ( !file.exists(  ) || !AppPropertiesService.getPropertyBoolean( PROPERTY_CHECKPOINT_RESUME, true ) )
+        {
+            return null;
+        }
+
+        long lMaxAge = TimeUnit.HOURS.toMillis( AppPropertiesService.getPropertyInt( PROPERTY_CHECKPOINT_MAX_AGE,
+                    DEFAULT_CHECKPOINT_MAX_AGE ) );
+        Properties properties = new Properties(  );
+
+        try ( InputStream in = new BufferedInputStream( new FileInputStream( file ) ) )
+        {
+            properties.load( in );
+
+            IndexingCheckpoint checkpoint = new IndexingCheckpoint( file, getPeriod(  ), properties );
+
+            if ( ( System.currentTimeMillis(  ) - checkpoint._lRunStart ) <= lMaxAge )
+            {
+                return checkpoint;
+            }
+
+            AppLogService.info( "The helpdesk indexing checkpoint of the run " + checkpoint._strRunId +
+                " is too old, a new run starts" );
+        }
+        catch ( IOException | RuntimeException e )
+        {
+            AppLogService.error( "Unable to read the helpdesk indexing checkpoint " + file + ", a new run starts", e );
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns the minimum delay between two saves of the checkpoint
+     * @return the period, in milliseconds
+     */
+    private static long getPeriod(  )
+    {
+        return AppPropertiesService.getPropertyLong( PROPERTY_CHECKPOINT_PERIOD, DEFAULT_CHECKPOINT_PERIOD );
+    }
+
+    /**
+     * Returns the file of the checkpoint configured in the helpdesk-solr properties
+     * @param partition the share of the helpdesk indexed by this node
+     * @return the file
+     */
+    private static File getFile( IndexingPartition partition )
+    {
+        return partition.getLocalFile( new File( AppPathService.getAbsolutePathFromRelativePath(
+                    AppPropertiesService.getProperty( PROPERTY_CHECKPOINT_FILE, DEFAULT_CHECKPOINT_FILE ) ) ) );
+    }
+
+    /**
+     * Returns the id of the run
+     * @return the run id
+     */
+    public String getRunId(  )
+    {
+        return _strRunId;
+    }
+
+    /**
+     * Tells whether the run resumes a previous one
+     * @return true if the run was resumed
+     */
+    public boolean isResumed(  )
+    {
+        return _bResumed;
+    }
+
+    /**
+     * Tells whether every document of a faq reached Solr in this run
+     * @param nIdFaq the faq id
+     * @return true if the faq can be skipped
+     */
+    public synchronized boolean isFaqCompleted( int nIdFaq )
+    {
+        return _setCompletedFaqs.contains( nIdFaq );
+    }
+
+    /**
+     * Tells whether every document of a top-level subject and of its children reached Solr in this run
+     * @param nIdSubject the subject id
+     * @return true if the subject can be skipped
+     */
+    public synchronized boolean isSubjectCompleted( int nIdSubject )
+    {
+        return _setCompletedSubjects.contains( nIdSubject );
+    }
+
+    /**
+     * Records that every document of a faq was handed to the batch writer
+     * @param nIdFaq the faq id
+     */
+    public synchronized void addFaq( int nIdFaq )
+    {
+        _setPendingFaqs.add( nIdFaq );
+    }
+
+    /**
+     * Records that every document of a top-level subject and of its children was handed to the batch writer
+     * @param nIdSubject the subject id
+     */
+    public synchronized void addSubject( int nIdSubject )
+    {
+        _setPendingSubjects.add( nIdSubject );
+    }
+
+    /**
+     * Saves the checkpoint if the checkpoint period elapsed since the last save
+     * @param writer the batch writer, flushed before the save
+     * @throws IOException if the writer could not be flushed or the checkpoint could not be saved
+     */
+    public synchronized void saveIfDue( SolrItemBatchWriter writer )
+        throws IOException
+    {
+        if ( ( System.currentTimeMillis(  ) - _lLastSave ) >= _lPeriod )
+        {
+            save( writer );
+        }
+    }
+
+    /**
+     * Flushes the batch writer, records the pending faqs and subjects as completed and saves the checkpoint
+     * @param writer the batch writer
+     * @throws IOException if the writer could not be flushed or the checkpoint could not be saved
+     */
+    public synchronized void save( SolrItemBatchWriter writer )
+        throws IOException
+    {
+        // Once flushed, every pending document reached Solr, unless a batch failed on the way
+        writer.flush(  );
+
+        if ( writer.hasFailed(  ) )
+        {
+            throw new IOException( "A batch of helpdesk documents could not be sent to Solr, the checkpoint is not saved" );
+        }
+
+        // The pending entries are kept in the order they were completed
+        for ( Integer nIdFaq : _setPendingFaqs )
+        {
+            _setCompletedFaqs.add( nIdFaq );
+            _nLastFaq = nIdFaq;
+        }
+
+        for ( Integer nIdSubject : _setPendingSubjects )
+        {
+            _setCompletedSubjects.add( nIdSubject );
+            _nLastSubject = nIdSubject;
+        }
+
+        _setPendingFaqs.clear(  );
+        _setPendingSubjects.clear(  );
+
+        Properties properties = new Properties(  );
+        properties.setProperty( KEY_RUN_ID, _strRunId );
+        properties.setProperty( KEY_RUN_START, String.valueOf( _lRunStart ) );
+        storeIds( properties, KEY_FAQS, _setCompletedFaqs );
+        storeIds( properties, KEY_SUBJECTS, _setCompletedSubjects );
+        properties.setProperty( KEY_LAST_FAQ, String.valueOf( _nLastFaq ) );
+        properties.setProperty( KEY_LAST_SUBJECT, String.valueOf( _nLastSubject ) );
+
+        File fileParent = _file.getAbsoluteFile(  ).getParentFile(  );
+
+        if ( ( fileParent != null ) && !fileParent.exists(  ) && !fileParent.mkdirs(  ) )
+        {
+            throw new IOException( "Unable to create the directory " + fileParent );
+        }
+
+        File fileTmp = new File( _file.getPath(  ) + SUFFIX_TMP );
+
+        try ( OutputStream out = new BufferedOutputStream( new FileOutputStream( fileTmp ) ) )
+        {
+            properties.store( out, COMMENT );
+        }
+
+        Files.move( fileTmp.toPath(  ), _file.toPath(  ), StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE );
+        _lLastSave = System.currentTimeMillis(  );
+    }
+
+    /**
+     * Deletes the checkpoint, once the run is over without error
+     */
+    public synchronized void delete(  )
+    {
+        if ( _file.exists(  ) && !_file.delete(  ) )
+        {
+            AppLogService.error( "Unable to delete the helpdesk indexing checkpoint " + _file );
+        }
+    }
+
+    /**
+     * Stores ids as sorted ranges, such as 1-20,22,25-30, under the keys prefix.0, prefix.1... of at most
+     * {@link #RANGES_PER_KEY} ranges each, and their number of keys under prefix.count
+     * @param properties the properties
+     * @param strPrefix the prefix of the keys
+     * @param setIds the ids
+     */
+    static void storeIds( Properties properties, String strPrefix, Set<Integer> setIds )
+    {
+        List<Integer> listIds = new ArrayList<Integer>( setIds );
+        Collections.sort( listIds );
+
+        StringBuilder sbRanges = new StringBuilder(  );
+        int nRanges = 0;
+        int nKeys = 0;
+        int i = 0;
+
+        while ( i < listIds.size(  ) )
+        {
+            int nFirst = listIds.get( i );
+            int nLast = nFirst;
+
+            while ( ( ( i + 1 ) < listIds.size(  ) ) && ( listIds.get( i + 1 ) == ( nLast + 1 ) ) )
+            {
+                nLast = listIds.get( ++i );
+            }
+
+            i++;
+
+            if ( nRanges > 0 )
+            {
+                sbRanges.append( SEPARATOR );
+            }
+
+            sbRanges.append( nFirst );
+
+            if ( nLast != nFirst )
+            {
+                sbRanges.append( RANGE ).append( nLast );
+            }
+
+            if ( ( ++nRanges == RANGES_PER_KEY ) || ( i == listIds.size(  ) ) )
+            {
+                properties.setProperty( strPrefix + DOT + nKeys++, sbRanges.toString(  ) );
+                sbRanges.setLength( 0 );
+                nRanges = 0;
+            }
+        }
+
+        properties.setProperty( strPrefix + SUFFIX_COUNT, String.valueOf( nKeys ) );
+    }
+
+    /**
+     * Parses the ids stored by {@link #storeIds(Properties, String, Set)}
+     * @param properties the properties
+     * @param strPrefix the prefix of the keys
+     * @return the ids
+     */
+    static Set<Integer> parseIds( Properties properties, String strPrefix )
+    {
+        Set<Integer> setIds = new HashSet<Integer>(  );
+        int nKeys = Integer.parseInt( properties.getProperty( strPrefix + SUFFIX_COUNT, "0" ) );
+
+        for ( int nKey = 0; nKey < nKeys; nKey++ )
+        {
+            String strRanges = properties.getProperty( strPrefix + DOT + nKey );
+
+            if ( StringUtils.isBlank( strRanges ) )
+            {
+                throw new IllegalArgumentException( "Missing key " + strPrefix + DOT + nKey );
+            }
+
+            for ( String strRange : strRanges.split( SEPARATOR ) )
+            {
+                int nDash = strRange.indexOf( RANGE );
+                int nFirst = Integer.parseInt( ( ( nDash < 0 ) ? strRange : strRange.substring( 0, nDash ) ).trim(  ) );
+                int nLast = ( nDash < 0 ) ? nFirst : Integer.parseInt( strRange.substring( nDash + 1 ).trim(  ) );
+
+                for ( long lId = nFirst; lId <= nLast; lId++ )
+                {
+                    setIds.add( (int) lId );
+                }
+            }
+        }
+
+        return setIds;
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.helpdesk.modules.solr.search;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import fr.paris.lutece.plugins.helpdesk.modules.solr.service.extractor.CachingHtmlTextExtractor;
+import fr.paris.lutece.plugins.helpdesk.modules.solr.service.extractor.HtmlTextExtractor;
+import fr.paris.lutece.plugins.helpdesk.modules.solr.service.extractor.HtmlTextExtractorService;
+import fr.paris.lutece.plugins.helpdesk.service.HelpdeskPlugin;
+import fr.paris.lutece.plugins.helpdesk.web.HelpdeskApp;
+import fr.paris.lutece.plugins.search.solr.indexer.SolrIndexerService;
+import fr.paris.lutece.portal.service.content.XPageAppService;
+import fr.paris.lutece.portal.service.plugin.Plugin;
+import fr.paris.lutece.portal.service.plugin.PluginService;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+import fr.paris.lutece.util.url.UrlItem;
+
+
+/**
+ * Values read once per indexing run and shared by the assembly of every document : plugin, source of the
+ * helpdesk data, portal url, site name, text extractor, content limit, and the url of the page of each faq. The url of a document is the url of its faq page
+ * followed by the anchor of the subject or question/answer, so that no {@link UrlItem} is built per document.
+ */
+final class IndexingContext
+{
+    private static final String PROPERTY_PAGE_PATH_LABEL = "helpdesk.pagePathLabel";
+    private static final String ANCHOR_DELIMITER = "#";
+    private final Plugin _plugin;
+    private final HelpdeskDataSource _dataSource;
+    private final String _strBaseUrl;
+    private final String _strWebAppName;
+    private final String _strPagePathLabel;
+    private final HtmlTextExtractor _extractor;
+    private final String _strExtractorName;
+    private final ContentLimit _contentLimit;
+
+    // Faq id -> url of the faq page, anchor delimiter included
+    private final Map<Integer, String> _mapUrlPrefixes = new ConcurrentHashMap<Integer, String>(  );
+
+    /**
+     * Constructor
+     * @param plugin the helpdesk plugin
+     * @param dataSource the source of the helpdesk data
+     * @param strBaseUrl the base url of the portal
+     * @param strWebAppName the site name
+     * @param strPagePathLabel the name of the helpdesk XPage
+     * @param extractor the extractor of the text to index
+     * @param contentLimit the limit of the text indexed per document
+     */
+    IndexingContext( Plugin plugin, HelpdeskDataSource dataSource, String strBaseUrl, String strWebAppName,
+        String strPagePathLabel, HtmlTextExtractor extractor, ContentLimit contentLimit )
+    {
+        _plugin = plugin;
+        _dataSource = dataSource;
+        _strBaseUrl = strBaseUrl;
+        _strWebAppName = strWebAppName;
+        _strPagePathLabel = strPagePathLabel;
+        _extractor = extractor;
+        _contentLimit = contentLimit;
+
+        HtmlTextExtractor extractorActual = ( extractor instanceof CachingHtmlTextExtractor )
+            ? ( (CachingHtmlTextExtractor) extractor ).getExtractor(  ) : extractor;
+        _strExtractorName = ( extractorActual != null ) ? extractorActual.getClass(  ).getName(  ) : null;
+    }
+
+    /**
+     * Reads the context from the Lutece services
+     * @return the context
+     */
+    static IndexingContext create(  )
+    {
+        Plugin plugin = PluginService.getPlugin( HelpdeskPlugin.PLUGIN_NAME );
+
+        return create( plugin, new HelpdeskHomeDataSource( plugin ) );
+    }
+
+    /**
+     * Reads the context from the Lutece services, the helpdesk data coming from another source
+     * @param plugin the helpdesk plugin
+     * @param dataSource the source of the helpdesk data
+     * @return the context
+     */
+    static IndexingContext create( Plugin plugin, HelpdeskDataSource dataSource )
+    {
+        return new IndexingContext( plugin, dataSource, SolrIndexerService.getBaseUrl(  ),
+            SolrIndexerService.getWebAppName(  ), AppPropertiesService.getProperty( PROPERTY_PAGE_PATH_LABEL ),
+            HtmlTextExtractorService.getInstance(  ).getExtractor(  ), ContentLimit.getConfigured(  ) );
+    }
+
+    /**
+     * Returns the helpdesk plugin
+     * @return the plugin
+     */
+    Plugin getPlugin(  )
+    {
+        return _plugin;
+    }
+
+    /**
+     * Returns the source of the helpdesk data
+     * @return the data source
+     */
+    HelpdeskDataSource getDataSource(  )
+    {
+        return _dataSource;
+    }
+
+    /**
+     * Returns the site name
+     * @return the site name
+     */
+    String getWebAppName(  )
+    {
+        return _strWebAppName;
+    }
+
+    /**
+     * Returns the extractor of the text to index
+     * @return the extractor
+     */
+    HtmlTextExtractor getExtractor(  )
+    {
+        return _extractor;
+    }
+
+    /**
+     * Returns the name of the class of the extractor, the one behind the text cache if it is enabled
+     * @return the class name, null if there is no extractor
+     */
+    String getExtractorName(  )
+    {
+        return _strExtractorName;
+    }
+
+    /**
+     * Returns the limit of the text indexed per document
+     * @return the content limit
+     */
+    ContentLimit getContentLimit(  )
+    {
+        return _contentLimit;
+    }
+
+    /**
+     * Returns the url of a subject
+     * @param nIdFaq the faq id
+     * @param nIdSubject the subject id
+     * @return the url
+     */
+    String getSubjectUrl( int nIdFaq, int nIdSubject )
+    {
+        return getUrlPrefix( nIdFaq ) + HelpdeskApp.ANCHOR_SUBJECT + nIdSubject;
+    }
+
+    /**
+     * Returns the url of a question/answer
+     * @param nIdFaq the faq id
+     * @param nIdQuestionAnswer the question/answer id
+     * @return the url
+     */
+    String getQuestionAnswerUrl( int nIdFaq, int nIdQuestionAnswer )
+    {
+        return getUrlPrefix( nIdFaq ) + HelpdeskApp.ANCHOR_QUESTION_ANSWER + nIdQuestionAnswer;
+    }
+
+    /**
+     * Returns the url of a faq page followed by the anchor delimiter, built on first use
+     * @param nIdFaq the faq id
+     * @return the url prefix
+     */
+    private String getUrlPrefix( int nIdFaq )
+    {
+        String strPrefix = _mapUrlPrefixes.get( nIdFaq );
+
+        if ( strPrefix == null )
+        {
+            UrlItem url = new UrlItem( _strBaseUrl );
+            url.addParameter( XPageAppService.PARAM_XPAGE_APP, _strPagePathLabel ); //FIXME
+            url.addParameter( HelpdeskApp.PARAMETER_FAQ_ID, nIdFaq );
+            strPrefix = url.getUrl(  ) + ANCHOR_DELIMITER;
+            _mapUrlPrefixes.put( nIdFaq, strPrefix );
+        }
+
+        return strPrefix;
+    }
+}
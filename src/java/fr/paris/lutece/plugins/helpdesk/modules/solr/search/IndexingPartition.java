@@ -0,0 +1,193 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.helpdesk.modules.solr.search;
+
+import java.io.File;
+
+import fr.paris.lutece.portal.service.util.AppLogService;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+
+
+/**
+ * Share of a run of the indexer done by one node of a cluster. The faqs, or the top-level subjects, are spread
+ * over the nodes by a hash of their id ; each node indexes the ones of its shard. Several partitions
+ * may run in the same JVM, each on its own {@link SolrHelpdeskIndexer#updateDocuments(IndexingPartition)} call.
+ * A full reindex empties the whole index once : each node then rebuilds its shard, coordinated by a
+ * {@link PartitionCoordinator}.
+ */
+public final class IndexingPartition
+{
+    /** The whole helpdesk, indexed by a single node */
+    public static final IndexingPartition ALL = new IndexingPartition( 0, 1, false );
+    private static final String PROPERTY_PARTITION_NODE_INDEX = "helpdesk-solr.indexer.partition.nodeIndex";
+    private static final String PROPERTY_PARTITION_NODE_COUNT = "helpdesk-solr.indexer.partition.nodeCount";
+    private static final String PROPERTY_PARTITION_GRANULARITY = "helpdesk-solr.indexer.partition.granularity";
+    private static final String GRANULARITY_SUBJECT = "subject";
+    private static final String SUFFIX_SEPARATOR = ".";
+    private final int _nNodeIndex;
+    private final int _nNodeCount;
+    private final boolean _bSubjectGranularity;
+
+    /**
+     * Constructor
+     * @param nNodeIndex the index of the node, from 0 to nNodeCount - 1
+     * @param nNodeCount the number of nodes
+     * @param bSubjectGranularity true to spread the top-level subjects over the nodes, false to spread the faqs
+     */
+    public IndexingPartition( int nNodeIndex, int nNodeCount, boolean bSubjectGranularity )
+    {
+        if ( ( nNodeCount < 1 ) || ( nNodeIndex < 0 ) || ( nNodeIndex >= nNodeCount ) )
+        {
+            throw new IllegalArgumentException( "Invalid helpdesk indexing partition " + nNodeIndex + " of " +
+                nNodeCount );
+        }
+
+        _nNodeIndex = nNodeIndex;
+        _nNodeCount = nNodeCount;
+        _bSubjectGranularity = bSubjectGranularity;
+    }
+
+    /**
+     * Returns the partition configured in the helpdesk-solr properties. An invalid configuration is logged
+     * and the whole helpdesk is indexed.
+     * @return the partition
+     */
+    public static IndexingPartition getConfigured(  )
+    {
+        int nNodeCount = AppPropertiesService.getPropertyInt( PROPERTY_PARTITION_NODE_COUNT, 1 );
+        int nNodeIndex = AppPropertiesService.getPropertyInt( PROPERTY_PARTITION_NODE_INDEX, 0 );
+
+        if ( nNodeCount == 1 )
+        {
+            return ALL;
+        }
+
+        try
+        {
+            return new IndexingPartition( nNodeIndex, nNodeCount,
+                GRANULARITY_SUBJECT.equals( AppPropertiesService.getProperty( PROPERTY_PARTITION_GRANULARITY ) ) );
+        }
+        catch ( IllegalArgumentException e )
+        {
+            AppLogService.error( e.getMessage(  ) + ", the whole helpdesk is indexed" );
+
+            return ALL;
+        }
+    }
+
+    /**
+     * Returns the index of the node
+     * @return the node index
+     */
+    public int getNodeIndex(  )
+    {
+        return _nNodeIndex;
+    }
+
+    /**
+     * Returns the number of nodes
+     * @return the node count
+     */
+    public int getNodeCount(  )
+    {
+        return _nNodeCount;
+    }
+
+    /**
+     * Tells whether the helpdesk is shared between several nodes
+     * @return true if this node indexes only a part of the helpdesk
+     */
+    public boolean isPartitioned(  )
+    {
+        return _nNodeCount > 1;
+    }
+
+    /**
+     * Tells whether a faq is walked by this node
+     * @param nIdFaq the faq id
+     * @return true if the faq belongs to the shard, or if the top-level subjects are spread instead of the faqs
+     */
+    public boolean includesFaq( int nIdFaq )
+    {
+        return _bSubjectGranularity || owns( nIdFaq );
+    }
+
+    /**
+     * Tells whether a top-level subject is indexed by this node
+     * @param nIdSubject the subject id
+     * @return true if the subject belongs to the shard, or if the faqs are spread instead of the subjects
+     */
+    public boolean includesSubject( int nIdSubject )
+    {
+        return !_bSubjectGranularity || owns( nIdSubject );
+    }
+
+    /**
+     * Returns the local file of this partition, so that partitions running in the same JVM do not share
+     * their checkpoint or fingerprints
+     * @param file the configured file
+     * @return the file itself if the helpdesk is not partitioned, the file suffixed with the node index otherwise
+     */
+    public File getLocalFile( File file )
+    {
+        return isPartitioned(  ) ? new File( file.getPath(  ) + SUFFIX_SEPARATOR + _nNodeIndex ) : file;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString(  )
+    {
+        return ( _nNodeIndex + 1 ) + "/" + _nNodeCount;
+    }
+
+    /**
+     * Tells whether an id hashes to the shard of this node
+     * @param nId the id
+     * @return true if the id belongs to the shard
+     */
+    private boolean owns( int nId )
+    {
+        // Murmur3 finalizer : consecutive ids are spread evenly over the nodes
+        int nHash = nId;
+        nHash ^= ( nHash >>> 16 );
+        nHash *= 0x85ebca6b;
+        nHash ^= ( nHash >>> 13 );
+        nHash *= 0xc2b2ae35;
+        nHash ^= ( nHash >>> 16 );
+
+        return Math.floorMod( nHash, _nNodeCount ) == _nNodeIndex;
+    }
+}
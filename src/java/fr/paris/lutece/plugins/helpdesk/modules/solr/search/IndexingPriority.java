@@ -0,0 +1,435 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.helpdesk.modules.solr.search;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.commons.lang.StringUtils;
+
+import fr.paris.lutece.plugins.helpdesk.business.Faq;
+import fr.paris.lutece.plugins.helpdesk.business.QuestionAnswer;
+import fr.paris.lutece.plugins.helpdesk.business.Subject;
+import fr.paris.lutece.portal.service.util.AppLogService;
+import fr.paris.lutece.portal.service.util.AppPathService;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+
+
+/**
+ * Order in which a full reindex visits the faqs and their top-level subjects, so that the most used content is
+ * refreshed first. The order is given by a list of signals, the first one prevailing, each one ranking the
+ * highest values first :
+ * <ul>
+ * <li><code>recent</code> : the latest creation date of the question/answers of the faq or of the subject tree,
+ * the helpdesk keeping no modification date ;</li>
+ * <li><code>weight</code> : the weight configured for the faq ;</li>
+ * <li><code>popularity</code> : the popularity of the faq or subject read from a properties file supplied by
+ * another application, with keys <code>faq.&lt;id&gt;</code> and <code>subject.&lt;id&gt;</code>.</li>
+ * </ul>
+ * Ties keep the order of the helpdesk.
+ */
+final class IndexingPriority
+{
+    private static final String PROPERTY_SIGNALS = "helpdesk-solr.indexer.priority.signals";
+    private static final String PROPERTY_FAQ_WEIGHTS = "helpdesk-solr.indexer.priority.faqWeights";
+    private static final String PROPERTY_POPULARITY_FILE = "helpdesk-solr.indexer.priority.popularityFile";
+    private static final String SIGNAL_RECENT = "recent";
+    private static final String SIGNAL_WEIGHT = "weight";
+    private static final String SIGNAL_POPULARITY = "popularity";
+    private static final String KEY_FAQ = "faq.";
+    private static final String KEY_SUBJECT = "subject.";
+    private static final String SEPARATOR = ",";
+    private static final String WEIGHT_SEPARATOR = ":";
+    private final String[] _signals;
+    private final SubjectForest _forest;
+
+    // Latest creation date of the question/answers of the tree of the subject at position i, null if not needed
+    private final long[] _lastCreations;
+    private final Map<Integer, Long> _mapFaqWeights;
+    private final Properties _popularity;
+
+    /**
+     * Constructor
+     * @param signals the signals, the first one prevailing
+     * @param forest the forest of the run, null if the subjects are read one at a time
+     * @param mapFaqWeights the weights of the faqs
+     * @param popularity the popularity of the faqs and subjects
+     */
+    IndexingPriority( String[] signals, SubjectForest forest, Map<Integer, Long> mapFaqWeights, Properties popularity )
+    {
+        _signals = signals;
+        _forest = forest;
+        _lastCreations = ( ( forest != null ) && hasSignal( signals, SIGNAL_RECENT ) ) ? getLastCreations( forest )
+                                                                                        : null;
+        _mapFaqWeights = mapFaqWeights;
+        _popularity = popularity;
+    }
+
+    /**
+     * Reads the priority configured in the helpdesk-solr properties
+     * @param forest the forest of the run, null if the subjects are read one at a time : the <code>recent</code>
+     * signal is then ignored
+     * @return the priority, or null if the helpdesk order is kept
+     */
+    static IndexingPriority getConfigured( SubjectForest forest )
+    {
+        String[] signals = StringUtils.stripAll( StringUtils.split( AppPropertiesService.getProperty( PROPERTY_SIGNALS,
+                        StringUtils.EMPTY ), SEPARATOR ) );
+
+        if ( signals.length == 0 )
+        {
+            return null;
+        }
+
+        Map<Integer, Long> mapFaqWeights = new HashMap<Integer, Long>(  );
+
+        if ( hasSignal( signals, SIGNAL_WEIGHT ) )
+        {
+            for ( String strWeight : StringUtils.split( AppPropertiesService.getProperty( PROPERTY_FAQ_WEIGHTS,
+                        StringUtils.EMPTY ), SEPARATOR ) )
+            {
+                String[] weight = StringUtils.split( strWeight, WEIGHT_SEPARATOR );
+
+                try
+                {
+                    mapFaqWeights.put( Integer.parseInt( weight[0].trim(  ) ), Long.parseLong( weight[1].trim(  ) ) );
+                }
+                catch ( RuntimeException e )
+                {
+                    AppLogService.error( "Helpdesk indexing priority : invalid faq weight " + strWeight );
+                }
+            }
+        }
+
+        Properties popularity = new Properties(  );
+        String strPopularityFile = AppPropertiesService.getProperty( PROPERTY_POPULARITY_FILE );
+
+        if ( hasSignal( signals, SIGNAL_POPULARITY ) && StringUtils.isNotBlank( strPopularityFile ) )
+        {
+            File file = new File( AppPathService.getAbsolutePathFromRelativePath( strPopularityFile.trim(  ) ) );
+
+            try ( InputStream in = new BufferedInputStream( new FileInputStream( file ) ) )
+            {
+                popularity.load( in );
+            }
+            catch ( IOException e )
+            {
+                AppLogService.error( "Unable to read the helpdesk popularity file " + file +
+                    ", the popularity is ignored", e );
+                popularity.clear(  );
+            }
+        }
+
+        return new IndexingPriority( signals, forest, mapFaqWeights, popularity );
+    }
+
+    /**
+     * Sorts faqs
+     * @param faqs the faqs, in the helpdesk order
+     * @return the faqs, the first to index first
+     */
+    List<Faq> sortFaqs( Collection<Faq> faqs )
+    {
+        List<Ranked<Faq>> listRanked = new ArrayList<Ranked<Faq>>( faqs.size(  ) );
+
+        for ( Faq faq : faqs )
+        {
+            long[] keys = new long[_signals.length];
+
+            for ( int i = 0; i < _signals.length; i++ )
+            {
+                keys[i] = getFaqKey( _signals[i], faq );
+            }
+
+            listRanked.add( new Ranked<Faq>( faq, keys ) );
+        }
+
+        return sort( listRanked );
+    }
+
+    /**
+     * Sorts top-level subjects of the forest
+     * @param roots the positions of the subjects in the forest, in the helpdesk order
+     * @return the positions, the first to index first
+     */
+    int[] sortRoots( int[] roots )
+    {
+        List<Ranked<Integer>> listRanked = new ArrayList<Ranked<Integer>>( roots.length );
+
+        for ( int nRoot : roots )
+        {
+            long[] keys = new long[_signals.length];
+
+            for ( int i = 0; i < _signals.length; i++ )
+            {
+                keys[i] = getSubjectKey( _signals[i], _forest.getSubject( nRoot ).getId(  ), nRoot );
+            }
+
+            listRanked.add( new Ranked<Integer>( nRoot, keys ) );
+        }
+
+        List<Integer> listSorted = sort( listRanked );
+        int[] sorted = new int[listSorted.size(  )];
+
+        for ( int i = 0; i < sorted.length; i++ )
+        {
+            sorted[i] = listSorted.get( i );
+        }
+
+        return sorted;
+    }
+
+    /**
+     * Sorts top-level subjects read from the helpdesk
+     * @param subjects the subjects, in the helpdesk order
+     * @return the subjects, the first to index first
+     */
+    List<Subject> sortSubjects( Collection<Subject> subjects )
+    {
+        List<Ranked<Subject>> listRanked = new ArrayList<Ranked<Subject>>( subjects.size(  ) );
+
+        for ( Subject subject : subjects )
+        {
+            long[] keys = new long[_signals.length];
+
+            for ( int i = 0; i < _signals.length; i++ )
+            {
+                keys[i] = getSubjectKey( _signals[i], subject.getId(  ),
+                        ( _forest != null ) ? _forest.indexOf( subject.getId(  ) ) : ( -1 ) );
+            }
+
+            listRanked.add( new Ranked<Subject>( subject, keys ) );
+        }
+
+        return sort( listRanked );
+    }
+
+    /**
+     * Returns the value of a signal for a faq
+     * @param strSignal the signal
+     * @param faq the faq
+     * @return the value, the highest first
+     */
+    private long getFaqKey( String strSignal, Faq faq )
+    {
+        if ( SIGNAL_RECENT.equals( strSignal ) && ( _lastCreations != null ) )
+        {
+            long lLast = 0;
+
+            for ( int nRoot : _forest.getRoots( faq.getId(  ) ) )
+            {
+                lLast = Math.max( lLast, _lastCreations[nRoot] );
+            }
+
+            return lLast;
+        }
+
+        if ( SIGNAL_WEIGHT.equals( strSignal ) )
+        {
+            Long lWeight = _mapFaqWeights.get( faq.getId(  ) );
+
+            return ( lWeight != null ) ? lWeight : 0L;
+        }
+
+        if ( SIGNAL_POPULARITY.equals( strSignal ) )
+        {
+            return getPopularity( KEY_FAQ + faq.getId(  ) );
+        }
+
+        return 0L;
+    }
+
+    /**
+     * Returns the value of a signal for a top-level subject. The weight, the one of the faq, does not rank
+     * the subjects of a faq.
+     * @param strSignal the signal
+     * @param nIdSubject the subject id
+     * @param nIndex the position of the subject in the forest, negative if unknown
+     * @return the value, the highest first
+     */
+    private long getSubjectKey( String strSignal, int nIdSubject, int nIndex )
+    {
+        if ( SIGNAL_RECENT.equals( strSignal ) && ( _lastCreations != null ) && ( nIndex >= 0 ) )
+        {
+            return _lastCreations[nIndex];
+        }
+
+        if ( SIGNAL_POPULARITY.equals( strSignal ) )
+        {
+            return getPopularity( KEY_SUBJECT + nIdSubject );
+        }
+
+        return 0L;
+    }
+
+    /**
+     * Returns a popularity
+     * @param strKey the key of the faq or subject
+     * @return the popularity, 0 if unknown
+     */
+    private long getPopularity( String strKey )
+    {
+        String strValue = _popularity.getProperty( strKey );
+
+        if ( StringUtils.isBlank( strValue ) )
+        {
+            return 0L;
+        }
+
+        try
+        {
+            return Long.parseLong( strValue.trim(  ) );
+        }
+        catch ( NumberFormatException e )
+        {
+            return 0L;
+        }
+    }
+
+    /**
+     * Sorts ranked items, the highest keys first, the first signal prevailing. The sort is stable.
+     * @param listRanked the ranked items
+     * @param <T> the type of the items
+     * @return the items
+     */
+    private static <T> List<T> sort( List<Ranked<T>> listRanked )
+    {
+        listRanked.sort( ( r1, r2 ) -> {
+                for ( int i = 0; i < r1._keys.length; i++ )
+                {
+                    int nCompare = Long.compare( r2._keys[i], r1._keys[i] );
+
+                    if ( nCompare != 0 )
+                    {
+                        return nCompare;
+                    }
+                }
+
+                return 0;
+            } );
+
+        List<T> listSorted = new ArrayList<T>( listRanked.size(  ) );
+
+        for ( Ranked<T> ranked : listRanked )
+        {
+            listSorted.add( ranked._item );
+        }
+
+        return listSorted;
+    }
+
+    /**
+     * Computes the latest creation date of the question/answers of the tree of each subject
+     * @param forest the forest
+     * @return the dates, by position in the forest
+     */
+    private static long[] getLastCreations( SubjectForest forest )
+    {
+        long[] lastCreations = new long[forest.size(  )];
+
+        for ( int i = 0; i < forest.size(  ); i++ )
+        {
+            long lLast = 0;
+
+            for ( QuestionAnswer questionAnswer : forest.getQuestions( i ) )
+            {
+                if ( questionAnswer.getCreationDate(  ) != null )
+                {
+                    lLast = Math.max( lLast, questionAnswer.getCreationDate(  ).getTime(  ) );
+                }
+            }
+
+            // The date goes up to the ancestors, bounded by the size of the forest in case of a cycle
+            int nIndex = i;
+
+            for ( int j = 0; ( j < lastCreations.length ) && ( nIndex >= 0 ) && ( lastCreations[nIndex] < lLast );
+                    j++ )
+            {
+                lastCreations[nIndex] = lLast;
+                nIndex = forest.getParent( nIndex );
+            }
+        }
+
+        return lastCreations;
+    }
+
+    /**
+     * Tells whether a signal is configured
+     * @param signals the signals
+     * @param strSignal the signal
+     * @return true if the signal is configured
+     */
+    private static boolean hasSignal( String[] signals, String strSignal )
+    {
+        for ( String strConfigured : signals )
+        {
+            if ( strSignal.equals( strConfigured ) )
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * An item and the values of the signals for it
+     * @param <T> the type of the item
+     */
+    private static final class Ranked<T>
+    {
+        private final T _item;
+        private final long[] _keys;
+
+        /**
+         * Constructor
+         * @param item the item
+         * @param keys the values of the signals
+         */
+        Ranked( T item, long[] keys )
+        {
+            _item = item;
+            _keys = keys;
+        }
+    }
+}
@@ -0,0 +1,550 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.helpdesk.modules.solr.search;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+import fr.paris.lutece.plugins.helpdesk.modules.solr.service.IndexingMetrics;
+import fr.paris.lutece.plugins.search.solr.indexer.SolrIndexerService;
+import fr.paris.lutece.portal.service.util.AppLogService;
+
+
+/**
+ * A run of the indexer over the share of the helpdesk of a node, and the state shared by its tasks. The run opens
+ * what its {@link Mode} needs, the batch writer, the fingerprints, the checkpoint, the live ids, the dead-letter
+ * log and the partition round, and {@link #finish(List)} closes them once every document was handed to the writer.
+ * <br>
+ * An export to files holds every document of the run : no delta, no checkpoint, no Solr index to clean, and no
+ * dead-letter log, whose replay would go to the export file and not to Solr.
+ */
+final class IndexingRun
+{
+    private static final String BATCH_WRITE_ERROR = "An error occured while sending the last helpdesk documents to Solr";
+    private static final String FINGERPRINTS_SAVE_ERROR = "Unable to save the fingerprints of the helpdesk documents";
+    private static final String CHECKPOINT_SAVE_ERROR = "Unable to save the checkpoint of the helpdesk indexing";
+    private static final String ORPHANS_DELETE_ERROR = "Unable to delete the orphan helpdesk documents from Solr";
+
+    /**
+     * State of the index when a run starts
+     */
+    enum Mode
+    {
+        /**
+         * The index was emptied : every document is sent, the fingerprints and the checkpoint start over and the
+         * index holds no orphan document
+         */
+        REBUILD,
+        /**
+         * The index keeps its documents : unchanged documents are skipped, an interrupted update is resumed, the
+         * chunks above the new number of chunks and the orphan documents are deleted
+         */
+        UPDATE;
+    }
+
+    private final IndexingContext _context;
+    private final IndexingPartition _partition;
+    private final Mode _mode;
+    private final SolrItemBatchWriter _writer;
+    private final IndexFingerprintStore _fingerprints;
+    private final IndexingCheckpoint _checkpoint;
+    private final LiveResourceIds _liveIds;
+    private final DeadLetterLog _deadLetters;
+    private final PartitionCoordinator _coordinator;
+    private SubjectForest _forest;
+
+    /**
+     * Constructor
+     * @param context the indexing context
+     * @param partition the share of the helpdesk indexed by this node
+     * @param mode the state of the index
+     * @param writer the batch writer receiving the documents
+     * @param fingerprints the fingerprints of the previous run, null if delta indexing is disabled
+     * @param checkpoint the checkpoint of the run, null if checkpoints are disabled
+     * @param liveIds the ids of the indexed resources, null if the orphan detection is disabled
+     * @param deadLetters the log of the documents which cannot be indexed, null if the retries are disabled
+     * @param coordinator the coordinator of the rounds of the partitions
+     */
+    IndexingRun( IndexingContext context, IndexingPartition partition, Mode mode, SolrItemBatchWriter writer,
+        IndexFingerprintStore fingerprints, IndexingCheckpoint checkpoint, LiveResourceIds liveIds,
+        DeadLetterLog deadLetters, PartitionCoordinator coordinator )
+    {
+        _context = context;
+        _partition = partition;
+        _mode = mode;
+        _writer = writer;
+        _fingerprints = fingerprints;
+        _checkpoint = checkpoint;
+        _liveIds = liveIds;
+        _deadLetters = deadLetters;
+        _coordinator = coordinator;
+    }
+
+    /**
+     * Starts a run : opens what the mode and the helpdesk-solr properties call for
+     * @param context the indexing context
+     * @param coordinator the coordinator of the partition of this node, which recorded the start of the run
+     * @param mode the state of the index
+     * @param sink the destination of the documents, null for Solr or the export files
+     * @return the run
+     */
+    static IndexingRun open( IndexingContext context, PartitionCoordinator coordinator, Mode mode, SolrItemSink sink )
+    {
+        boolean bExport = JsonLinesExportSink.isEnabled(  );
+        IndexingPartition partition = coordinator.getPartition(  );
+        DeadLetterLog deadLetters = ( DeadLetterLog.isEnabled(  ) && !bExport ) ? DeadLetterLog.open( partition )
+                                                                                : null;
+
+        if ( sink == null )
+        {
+            sink = bExport ? JsonLinesExportSink.open( partition ) : new SolrServerSink(  );
+        }
+
+        SolrItemBatchWriter writer = new SolrItemBatchWriter( sink,
+                ( deadLetters != null ) ? new WriteRetryQueue( deadLetters ) : null );
+
+        return new IndexingRun( context, partition, mode, writer, bExport ? null : openFingerprints( partition, mode ),
+            bExport ? null : openCheckpoint( partition, mode ), bExport ? null : openLiveIds( partition, mode ),
+            deadLetters, coordinator );
+    }
+
+    /**
+     * Opens the fingerprints of the previous runs
+     * @param partition the share of the helpdesk indexed by this node
+     * @param mode the state of the index
+     * @return the fingerprints, null if delta indexing is disabled
+     */
+    private static IndexFingerprintStore openFingerprints( IndexingPartition partition, Mode mode )
+    {
+        if ( !IndexFingerprintStore.isEnabled(  ) )
+        {
+            return null;
+        }
+
+        // The documents fingerprinted by the previous runs are no longer in an emptied index
+        return ( mode == Mode.REBUILD ) ? IndexFingerprintStore.create( partition ) : IndexFingerprintStore.open( partition );
+    }
+
+    /**
+     * Opens the checkpoint of the run
+     * @param partition the share of the helpdesk indexed by this node
+     * @param mode the state of the index
+     * @return the checkpoint, null if checkpoints are disabled
+     */
+    private static IndexingCheckpoint openCheckpoint( IndexingPartition partition, Mode mode )
+    {
+        if ( !IndexingCheckpoint.isEnabled(  ) )
+        {
+            return null;
+        }
+
+        // The documents of an interrupted run are no longer in an emptied index : a rebuild starts over, and saves
+        // its own progress so that it can be resumed without emptying the index again
+        return ( mode == Mode.REBUILD ) ? IndexingCheckpoint.create( partition ) : IndexingCheckpoint.open( partition );
+    }
+
+    /**
+     * Opens the ids of the resources seen by the run, to delete the documents of the others at its end
+     * @param partition the share of the helpdesk indexed by this node
+     * @param mode the state of the index
+     * @return the live ids, null if the orphan documents are not searched
+     */
+    private static LiveResourceIds openLiveIds( IndexingPartition partition, Mode mode )
+    {
+        // An emptied index holds no orphan : the documents of the deleted resources went with the rest. A node of
+        // a partition does not see the resources of the other shards
+        return ( OrphanDocumentCleaner.isEnabled(  ) && ( mode == Mode.UPDATE ) && !partition.isPartitioned(  ) )
+        ? new LiveResourceIds(  ) : null;
+    }
+
+    /**
+     * Ends the run once every document was handed to the writer : closes the writer, then saves or deletes the
+     * checkpoint, saves the fingerprints, deletes the orphan documents and records the end of the run in the
+     * round of the partitions. The documents of the dead-letter log are replayed first by the next run : they
+     * are reported but do not make the run fail. Any other error, or a batch lost by the writer, does.
+     * @param lstErrors the errors of the run, receiving those of its end
+     * @return true if every document reached Solr or the dead-letter log
+     */
+    boolean finish( List<String> lstErrors )
+    {
+        boolean bWriterClosed = closeWriter( lstErrors );
+        boolean bSuccess = lstErrors.isEmpty(  ) && !_writer.hasFailed(  );
+
+        completeCheckpoint( bSuccess, bWriterClosed );
+
+        if ( bSuccess )
+        {
+            saveFingerprints(  );
+            bSuccess = deleteOrphans( lstErrors );
+        }
+
+        _coordinator.complete( bSuccess );
+
+        // Reported apart from the errors, once the end of the run is recorded
+        if ( ( _deadLetters != null ) && ( _deadLetters.getAppendedCount(  ) > 0 ) )
+        {
+            lstErrors.add( _deadLetters.getAppendedCount(  ) +
+                " helpdesk documents could not be indexed, they are logged in " + _deadLetters.getFile(  ) +
+                " and will be indexed again by the next run" );
+        }
+
+        return bSuccess;
+    }
+
+    /**
+     * Sends the last documents and closes the writer
+     * @param lstErrors the list receiving the errors
+     * @return true if the writer is closed
+     */
+    private boolean closeWriter( List<String> lstErrors )
+    {
+        try
+        {
+            _writer.close(  );
+
+            return true;
+        }
+        catch ( IOException e )
+        {
+            IndexingMetrics.getInstance(  ).addFailure(  );
+            lstErrors.add( SolrIndexerService.buildErrorMessage( e ) );
+            AppLogService.error( BATCH_WRITE_ERROR, e );
+
+            return false;
+        }
+    }
+
+    /**
+     * Deletes the checkpoint of a run without error ; otherwise saves it, so that the next run resumes from the
+     * last documents which reached Solr
+     * @param bSuccess true if the run succeeded
+     * @param bWriterClosed true if the writer is closed, every pending document having been sent
+     */
+    private void completeCheckpoint( boolean bSuccess, boolean bWriterClosed )
+    {
+        if ( _checkpoint == null )
+        {
+            return;
+        }
+
+        if ( bSuccess )
+        {
+            _checkpoint.delete(  );
+        }
+        else if ( bWriterClosed )
+        {
+            try
+            {
+                _checkpoint.save( _writer );
+            }
+            catch ( IOException e )
+            {
+                AppLogService.error( CHECKPOINT_SAVE_ERROR, e );
+            }
+        }
+    }
+
+    /**
+     * Saves the fingerprints of a run without error
+     */
+    private void saveFingerprints(  )
+    {
+        if ( _fingerprints == null )
+        {
+            return;
+        }
+
+        try
+        {
+            _fingerprints.save( isResumed(  ) );
+        }
+        catch ( IOException e )
+        {
+            AppLogService.error( FINGERPRINTS_SAVE_ERROR, e );
+        }
+    }
+
+    /**
+     * Deletes the documents of the resources which were not indexed, provided that the run saw them all
+     * @param lstErrors the list receiving the errors
+     * @return false if the orphan documents could not be deleted
+     */
+    private boolean deleteOrphans( List<String> lstErrors )
+    {
+        if ( _liveIds == null )
+        {
+            return true;
+        }
+
+        if ( isResumed(  ) )
+        {
+            AppLogService.info( "The helpdesk indexing run was resumed : orphan documents are not searched" );
+
+            return true;
+        }
+
+        try
+        {
+            new OrphanDocumentCleaner( _liveIds ).deleteOrphans(  );
+
+            return true;
+        }
+        catch ( IOException e )
+        {
+            lstErrors.add( SolrIndexerService.buildErrorMessage( e ) );
+            AppLogService.error( ORPHANS_DELETE_ERROR, e );
+
+            return false;
+        }
+    }
+
+    /**
+     * Tells whether the run resumes an interrupted one
+     * @return true if the run skips the faqs and subjects completed by the interrupted run
+     */
+    boolean isResumed(  )
+    {
+        return ( _checkpoint != null ) && _checkpoint.isResumed(  );
+    }
+
+    /**
+     * Returns the indexing context
+     * @return the indexing context
+     */
+    IndexingContext getContext(  )
+    {
+        return _context;
+    }
+
+    /**
+     * Returns the share of the helpdesk indexed by this node
+     * @return the partition
+     */
+    IndexingPartition getPartition(  )
+    {
+        return _partition;
+    }
+
+    /**
+     * Returns the state of the index when the run started
+     * @return the mode
+     */
+    Mode getMode(  )
+    {
+        return _mode;
+    }
+
+    /**
+     * Returns the subject forest
+     * @return the subject forest, null in streaming mode
+     */
+    SubjectForest getForest(  )
+    {
+        return _forest;
+    }
+
+    /**
+     * Sets the subject forest, loaded before the tasks of the run start
+     * @param forest the subject forest
+     */
+    void setForest( SubjectForest forest )
+    {
+        _forest = forest;
+    }
+
+    /**
+     * Returns the batch writer
+     * @return the batch writer
+     */
+    SolrItemBatchWriter getWriter(  )
+    {
+        return _writer;
+    }
+
+    /**
+     * Returns the log of the documents which cannot be indexed
+     * @return the dead-letter log, null if the retries are disabled
+     */
+    DeadLetterLog getDeadLetters(  )
+    {
+        return _deadLetters;
+    }
+
+    /**
+     * Tells whether a document is unchanged since the last successful run, recording its fingerprint
+     * @param strUid the resource uid
+     * @param fields the fields of the document which end up in Solr
+     * @return true if the document can be skipped
+     */
+    boolean isUnchanged( String strUid, Object... fields )
+    {
+        return ( _fingerprints != null ) &&
+        _fingerprints.checkAndRecord( strUid, IndexFingerprintStore.fingerprint( fields ) );
+    }
+
+    /**
+     * Returns the fingerprint store
+     * @return the fingerprint store, null if delta indexing is disabled
+     */
+    IndexFingerprintStore getFingerprints(  )
+    {
+        return _fingerprints;
+    }
+
+    /**
+     * Records that a subject exists and is indexed, whether its document changed or not
+     * @param nIdSubject the subject id
+     */
+    void addLiveSubject( int nIdSubject )
+    {
+        if ( _liveIds != null )
+        {
+            _liveIds.addSubject( nIdSubject );
+        }
+    }
+
+    /**
+     * Records that a question/answer exists and is indexed, whether its document changed or not
+     * @param nIdQuestionAnswer the question/answer id
+     */
+    void addLiveQuestionAnswer( int nIdQuestionAnswer )
+    {
+        if ( _liveIds != null )
+        {
+            _liveIds.addQuestionAnswer( nIdQuestionAnswer );
+        }
+    }
+
+    /**
+     * Records the number of chunk documents of a question/answer built by the run. On an update, the chunks
+     * the question/answer may have had above this number are removed from the index : a shorter content, a lower
+     * maximum number of chunks or disabled chunks give fewer chunks, and nothing else would replace them.
+     * @param nIdQuestionAnswer the question/answer id
+     * @param nChunkCount the number of chunks, besides the main document
+     * @throws IOException if the thread is interrupted while waiting for the batch in flight
+     */
+    void setChunkCount( int nIdQuestionAnswer, int nChunkCount )
+        throws IOException
+    {
+        if ( _liveIds != null )
+        {
+            _liveIds.setChunkCount( nIdQuestionAnswer, nChunkCount );
+        }
+
+        if ( _mode == Mode.UPDATE )
+        {
+            _writer.deleteChunks( nIdQuestionAnswer, nChunkCount );
+        }
+    }
+
+    /**
+     * Logs a document which cannot be built in the dead-letter log, so that the run goes on with the next documents
+     * @param strUid the resource uid of the document
+     * @param e the cause of the failure
+     * @return false if the dead-letter log is disabled : the failure is then left to the caller
+     * @throws IOException if the dead-letter log cannot be written
+     */
+    boolean deadLetter( String strUid, IOException e ) throws IOException
+    {
+        if ( _deadLetters == null )
+        {
+            return false;
+        }
+
+        AppLogService.error( "Unable to build the helpdesk document " + strUid + ", logged in " +
+            _deadLetters.getFile(  ), e );
+        IndexingMetrics.getInstance(  ).addFailure(  );
+
+        // Not fingerprinted, so that the next run builds it again
+        if ( _fingerprints != null )
+        {
+            _fingerprints.forget( strUid );
+        }
+
+        _deadLetters.append( Collections.singletonList( strUid ), String.valueOf( e ) );
+
+        return true;
+    }
+
+    /**
+     * Tells whether a faq is left out of the run : completed by the run being resumed, or indexed by another node
+     * @param nIdFaq the faq id
+     * @return true if the faq can be skipped
+     */
+    boolean isFaqSkipped( int nIdFaq )
+    {
+        return !_partition.includesFaq( nIdFaq ) || ( ( _checkpoint != null ) && _checkpoint.isFaqCompleted( nIdFaq ) );
+    }
+
+    /**
+     * Tells whether a top-level subject is left out of the run : completed by the run being resumed, or indexed by
+     * another node
+     * @param nIdSubject the subject id
+     * @return true if the subject can be skipped
+     */
+    boolean isSubjectSkipped( int nIdSubject )
+    {
+        return !_partition.includesSubject( nIdSubject ) ||
+        ( ( _checkpoint != null ) && _checkpoint.isSubjectCompleted( nIdSubject ) );
+    }
+
+    /**
+     * Records that every document of a faq was handed to the writer, saving the checkpoint if it is due
+     * @param nIdFaq the faq id
+     * @throws IOException if the writer could not be flushed or the checkpoint could not be saved
+     */
+    void completeFaq( int nIdFaq ) throws IOException
+    {
+        if ( _checkpoint != null )
+        {
+            _checkpoint.addFaq( nIdFaq );
+            _checkpoint.saveIfDue( _writer );
+        }
+    }
+
+    /**
+     * Records that every document of a top-level subject was handed to the writer, saving the checkpoint if it is due
+     * @param nIdSubject the subject id
+     * @throws IOException if the writer could not be flushed or the checkpoint could not be saved
+     */
+    void completeSubject( int nIdSubject ) throws IOException
+    {
+        if ( _checkpoint != null )
+        {
+            _checkpoint.addSubject( nIdSubject );
+            _checkpoint.saveIfDue( _writer );
+        }
+    }
+}
@@ -0,0 +1,471 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.helpdesk.modules.solr.search;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang.StringUtils;
+
+import fr.paris.lutece.portal.service.util.AppLogService;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+
+
+/**
+ * Rate limiting of the reads of the helpdesk DAOs and of the writes to Solr during indexing.
+ * <br>
+ * Each channel is a token bucket whose rate is capped by the ceiling of the current schedule profile.
+ * The rate adapts to the observed latency : it is halved when a call takes longer than the target latency
+ * of the channel, and grows back by a twentieth of the ceiling after each call faster than the target.
+ * A ceiling of 0 means no limit for the channel.
+ * <br>
+ * Profiles apply to ranges of hours, for instance full speed at night and a low ceiling during office hours.
+ */
+public final class IndexingThrottle
+{
+    private static final String PROPERTY_THROTTLE_ENABLE = "helpdesk-solr.indexer.throttle.enable";
+    private static final String PROPERTY_THROTTLE_PREFIX = "helpdesk-solr.indexer.throttle.";
+    private static final String PROPERTY_THROTTLE_PROFILES = "helpdesk-solr.indexer.throttle.profiles";
+    private static final String PROPERTY_PROFILE_PREFIX = "helpdesk-solr.indexer.throttle.profile.";
+    private static final String PROPERTY_THROTTLE_MIN_RATIO = "helpdesk-solr.indexer.throttle.minRatio";
+    private static final String SUFFIX_HOURS = ".hours";
+    private static final String SUFFIX_RATE = "Rate";
+    private static final String SUFFIX_TARGET_LATENCY = ".targetLatency";
+    private static final String DEFAULT_PROFILE = "default";
+    private static final String DELIMITER_PROFILES = ",";
+    private static final String DELIMITER_HOURS = "-";
+    private static final double DEFAULT_MIN_RATIO = 0.1d;
+    private static final double LOWEST_MIN_RATIO = 0.01d;
+    private static final long PROFILE_CHECK_PERIOD = TimeUnit.MINUTES.toNanos( 1 );
+    private static final double DECREASE_FACTOR = 0.5d;
+    private static final double INCREASE_RATIO = 0.05d;
+    private static final double NANOS_PER_SECOND = 1000000000d;
+    private static final int HOURS_PER_DAY = 24;
+    private static IndexingThrottle _singleton = new IndexingThrottle( AppPropertiesService.getPropertyBoolean(
+                PROPERTY_THROTTLE_ENABLE, false ) );
+
+    /**
+     * The throttled channels
+     */
+    public enum Channel
+    {
+        /** Reads of the helpdesk DAOs, in calls per second */
+        READ( 200 ),
+        /** Writes to Solr, in documents per second */
+        WRITE( 2000 );
+
+        private final long _lDefaultTargetLatency;
+
+        /**
+         * Constructor
+         * @param lDefaultTargetLatency the default target latency, in milliseconds
+         */
+        Channel( long lDefaultTargetLatency )
+        {
+            _lDefaultTargetLatency = lDefaultTargetLatency;
+        }
+
+        /**
+         * Returns the name of the channel in the properties
+         * @return the name
+         */
+        String getKey(  )
+        {
+            return name(  ).toLowerCase( Locale.ENGLISH );
+        }
+    }
+
+    private final boolean _bEnabled;
+    private final Bucket[] _buckets = new Bucket[Channel.values(  ).length];
+    private final List<Profile> _listProfiles = new ArrayList<Profile>(  );
+    private Profile _defaultProfile;
+    private Profile _currentProfile;
+    private long _lNextProfileCheck;
+
+    /**
+     * Constructor
+     * @param bEnabled true to throttle the indexing
+     */
+    IndexingThrottle( boolean bEnabled )
+    {
+        _bEnabled = bEnabled;
+
+        if ( !bEnabled )
+        {
+            return;
+        }
+
+        double dMinRatio = Math.min( 1d,
+                Math.max( LOWEST_MIN_RATIO, getPropertyDouble( PROPERTY_THROTTLE_MIN_RATIO, DEFAULT_MIN_RATIO ) ) );
+
+        for ( Channel channel : Channel.values(  ) )
+        {
+            long lTargetLatency = AppPropertiesService.getPropertyLong( PROPERTY_THROTTLE_PREFIX + channel.getKey(  ) +
+                    SUFFIX_TARGET_LATENCY, channel._lDefaultTargetLatency );
+            _buckets[channel.ordinal(  )] = new Bucket( TimeUnit.MILLISECONDS.toNanos( lTargetLatency ), dMinRatio );
+        }
+
+        _defaultProfile = new Profile( DEFAULT_PROFILE, 0, 0, readRates( PROPERTY_THROTTLE_PREFIX ) );
+
+        for ( String strName : StringUtils.split( AppPropertiesService.getProperty( PROPERTY_THROTTLE_PROFILES,
+                    StringUtils.EMPTY ), DELIMITER_PROFILES ) )
+        {
+            Profile profile = readProfile( strName.trim(  ) );
+
+            if ( profile != null )
+            {
+                _listProfiles.add( profile );
+            }
+        }
+    }
+
+    /**
+     * Returns the instance of the singleton
+     *
+     * @return The instance of the singleton
+     */
+    public static IndexingThrottle getInstance(  )
+    {
+        return _singleton;
+    }
+
+    /**
+     * Tells whether the indexing is throttled
+     * @return true if the throttling is enabled
+     */
+    public boolean isEnabled(  )
+    {
+        return _bEnabled;
+    }
+
+    /**
+     * Waits until the permits are available on a channel. To be followed by {@link #release(Channel, long)}
+     * once the call is done, so that its latency is observed.
+     * @param channel the channel
+     * @param nPermits the number of permits : 1 per read, 1 per document written
+     * @return the start time of the call, in nanoseconds, or 0 if the throttling is disabled
+     */
+    public long acquire( Channel channel, int nPermits )
+    {
+        if ( !_bEnabled )
+        {
+            return 0L;
+        }
+
+        Bucket bucket = _buckets[channel.ordinal(  )];
+        long lWait = bucket.reserve( nPermits, getProfile(  ).getRate( channel ), System.nanoTime(  ) );
+
+        if ( lWait > 0L )
+        {
+            try
+            {
+                TimeUnit.NANOSECONDS.sleep( lWait );
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.currentThread(  ).interrupt(  );
+            }
+        }
+
+        return System.nanoTime(  );
+    }
+
+    /**
+     * Observes the latency of a call and adapts the rate of the channel
+     * @param channel the channel
+     * @param lStart the start time returned by {@link #acquire(Channel, int)}
+     */
+    public void release( Channel channel, long lStart )
+    {
+        if ( !_bEnabled )
+        {
+            return;
+        }
+
+        _buckets[channel.ordinal(  )].observe( System.nanoTime(  ) - lStart );
+    }
+
+    /**
+     * Returns the profile of the current hour, checked at most once a minute
+     * @return the profile
+     */
+    private synchronized Profile getProfile(  )
+    {
+        long lNow = System.nanoTime(  );
+
+        if ( ( _currentProfile == null ) || ( ( lNow - _lNextProfileCheck ) >= 0 ) )
+        {
+            int nHour = Calendar.getInstance(  ).get( Calendar.HOUR_OF_DAY );
+            Profile profile = _defaultProfile;
+
+            for ( Profile candidate : _listProfiles )
+            {
+                if ( candidate.includes( nHour ) )
+                {
+                    profile = candidate;
+
+                    break;
+                }
+            }
+
+            if ( profile != _currentProfile )
+            {
+                AppLogService.info( "Helpdesk indexing throttle : switching to profile " + profile.getName(  ) );
+                _currentProfile = profile;
+            }
+
+            _lNextProfileCheck = lNow + PROFILE_CHECK_PERIOD;
+        }
+
+        return _currentProfile;
+    }
+
+    /**
+     * Reads a profile from the properties
+     * @param strName the name of the profile
+     * @return the profile, or null if its hours are not valid
+     */
+    static Profile readProfile( String strName )
+    {
+        String strPrefix = PROPERTY_PROFILE_PREFIX + strName;
+        String[] hours = StringUtils.split( AppPropertiesService.getProperty( strPrefix + SUFFIX_HOURS,
+                    StringUtils.EMPTY ), DELIMITER_HOURS );
+
+        try
+        {
+            if ( hours.length == 2 )
+            {
+                int nStart = Integer.parseInt( hours[0].trim(  ) );
+                int nEnd = Integer.parseInt( hours[1].trim(  ) );
+
+                if ( ( nStart >= 0 ) && ( nStart < HOURS_PER_DAY ) && ( nEnd >= 0 ) && ( nEnd <= HOURS_PER_DAY ) )
+                {
+                    return new Profile( strName, nStart, nEnd, readRates( strPrefix + "." ) );
+                }
+            }
+        }
+        catch ( NumberFormatException e )
+        {
+            // Logged below
+        }
+
+        AppLogService.error( "Helpdesk indexing throttle : invalid hours for the profile " + strName );
+
+        return null;
+    }
+
+    /**
+     * Reads the ceilings of every channel
+     * @param strPrefix the prefix of the properties
+     * @return the ceilings, indexed by channel
+     */
+    private static double[] readRates( String strPrefix )
+    {
+        double[] rates = new double[Channel.values(  ).length];
+
+        for ( Channel channel : Channel.values(  ) )
+        {
+            rates[channel.ordinal(  )] = Math.max( 0d,
+                    getPropertyDouble( strPrefix + channel.getKey(  ) + SUFFIX_RATE, 0d ) );
+        }
+
+        return rates;
+    }
+
+    /**
+     * Reads a decimal property
+     * @param strKey the key
+     * @param dDefault the default value
+     * @return the value
+     */
+    private static double getPropertyDouble( String strKey, double dDefault )
+    {
+        String strValue = AppPropertiesService.getProperty( strKey );
+
+        if ( StringUtils.isBlank( strValue ) )
+        {
+            return dDefault;
+        }
+
+        try
+        {
+            return Double.parseDouble( strValue.trim(  ) );
+        }
+        catch ( NumberFormatException e )
+        {
+            AppLogService.error( "Helpdesk indexing throttle : invalid value for " + strKey );
+
+            return dDefault;
+        }
+    }
+
+    /**
+     * Ceilings of the channels for a range of hours
+     */
+    static final class Profile
+    {
+        private final String _strName;
+        private final int _nStartHour;
+        private final int _nEndHour;
+        private final double[] _rates;
+
+        /**
+         * Constructor
+         * @param strName the name of the profile
+         * @param nStartHour the first hour of the range
+         * @param nEndHour the hour the range ends at, excluded ; lower than the start hour if the range spans midnight
+         * @param rates the ceilings, indexed by channel
+         */
+        Profile( String strName, int nStartHour, int nEndHour, double[] rates )
+        {
+            _strName = strName;
+            _nStartHour = nStartHour;
+            _nEndHour = nEndHour;
+            _rates = rates;
+        }
+
+        /**
+         * Returns the name of the profile
+         * @return the name
+         */
+        String getName(  )
+        {
+            return _strName;
+        }
+
+        /**
+         * Returns the ceiling of a channel
+         * @param channel the channel
+         * @return the ceiling, 0 if not limited
+         */
+        double getRate( Channel channel )
+        {
+            return _rates[channel.ordinal(  )];
+        }
+
+        /**
+         * Tells whether an hour is in the range of the profile
+         * @param nHour the hour of the day
+         * @return true if the profile applies
+         */
+        boolean includes( int nHour )
+        {
+            if ( _nStartHour <= _nEndHour )
+            {
+                return ( nHour >= _nStartHour ) && ( nHour < _nEndHour );
+            }
+
+            return ( nHour >= _nStartHour ) || ( nHour < _nEndHour );
+        }
+    }
+
+    /**
+     * Token bucket of a channel, with an additive increase / multiplicative decrease of its rate
+     */
+    private static final class Bucket
+    {
+        private final long _lTargetLatency;
+        private final double _dMinRatio;
+        private double _dCeiling;
+        private double _dRate;
+        private double _dTokens;
+        private long _lLastRefill;
+
+        /**
+         * Constructor
+         * @param lTargetLatency the target latency, in nanoseconds
+         * @param dMinRatio the lowest rate, as a ratio of the ceiling
+         */
+        Bucket( long lTargetLatency, double dMinRatio )
+        {
+            _lTargetLatency = lTargetLatency;
+            _dMinRatio = dMinRatio;
+        }
+
+        /**
+         * Takes permits from the bucket, which may go into debt : the caller waits until the debt is paid
+         * @param nPermits the number of permits
+         * @param dCeiling the ceiling of the current profile
+         * @param lNow the current time, in nanoseconds
+         * @return the time to wait, in nanoseconds
+         */
+        synchronized long reserve( int nPermits, double dCeiling, long lNow )
+        {
+            if ( dCeiling != _dCeiling )
+            {
+                // New profile : start from its ceiling, or from the current rate if lower
+                _dRate = ( ( _dCeiling > 0d ) && ( _dRate < dCeiling ) ) ? _dRate : dCeiling;
+                _dCeiling = dCeiling;
+                _dTokens = 0d;
+                _lLastRefill = lNow;
+            }
+
+            if ( _dCeiling <= 0d )
+            {
+                return 0L;
+            }
+
+            // At most one second of burst
+            _dTokens = Math.min( _dRate, _dTokens + ( ( ( lNow - _lLastRefill ) * _dRate ) / NANOS_PER_SECOND ) );
+            _lLastRefill = lNow;
+            _dTokens -= nPermits;
+
+            return ( _dTokens >= 0d ) ? 0L : (long) ( ( -_dTokens * NANOS_PER_SECOND ) / _dRate );
+        }
+
+        /**
+         * Adapts the rate to the latency of a call
+         * @param lLatency the latency, in nanoseconds
+         */
+        synchronized void observe( long lLatency )
+        {
+            if ( _dCeiling <= 0d )
+            {
+                return;
+            }
+
+            if ( lLatency > _lTargetLatency )
+            {
+                _dRate = Math.max( _dCeiling * _dMinRatio, _dRate * DECREASE_FACTOR );
+            }
+            else
+            {
+                _dRate = Math.min( _dCeiling, _dRate + ( _dCeiling * INCREASE_RATIO ) );
+            }
+        }
+    }
+}
@@ -0,0 +1,311 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.helpdesk.modules.solr.search;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.zip.GZIPOutputStream;
+
+import fr.paris.lutece.plugins.search.solr.indexer.SolrItem;
+import fr.paris.lutece.portal.service.util.AppLogService;
+import fr.paris.lutece.portal.service.util.AppPathService;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+
+
+/**
+ * Writes the items to local gzip files instead of sending them to Solr, one JSON document per line, in the
+ * format of the Solr <code>/update/json/docs</code> handler. Each run writes to its own directory, named after
+ * its start time, and the documents are split into chunks of a configured number of documents :
+ * <code>part-00001.jsonl.gz</code>, <code>part-00002.jsonl.gz</code>...
+ */
+public class JsonLinesExportSink implements SolrItemSink
+{
+    private static final String PROPERTY_EXPORT_ENABLE = "helpdesk-solr.indexer.export.enable";
+    private static final String PROPERTY_EXPORT_DIRECTORY = "helpdesk-solr.indexer.export.directory";
+    private static final String PROPERTY_EXPORT_CHUNK_SIZE = "helpdesk-solr.indexer.export.chunkSize";
+    private static final String DEFAULT_EXPORT_DIRECTORY = "/WEB-INF/tmp/helpdesk-solr/export";
+    private static final int DEFAULT_EXPORT_CHUNK_SIZE = 100000;
+    private static final String PATTERN_RUN_DIRECTORY = "yyyyMMdd-HHmmss";
+    private static final String PATTERN_DATE = "yyyy-MM-dd'T'HH:mm:ss.SSS'Z'";
+    private static final String CHUNK_FILE_NAME = "part-%05d.jsonl.gz";
+    private static final String FIELD_UID = "uid";
+    private static final String FIELD_URL = "url";
+    private static final String FIELD_TITLE = "title";
+    private static final String FIELD_CONTENT = "content";
+    private static final String FIELD_DATE = "date";
+    private static final String FIELD_TYPE = "type";
+    private static final String FIELD_SITE = "site";
+    private static final String FIELD_ROLE = "role";
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray(  );
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private final File _directory;
+    private final int _nChunkSize;
+    private final SimpleDateFormat _dateFormat = new SimpleDateFormat( PATTERN_DATE, Locale.ENGLISH );
+    private final StringBuilder _sbLine = new StringBuilder( 1024 );
+    private Writer _writer;
+    private int _nChunk;
+    private int _nChunkDocuments;
+
+    /**
+     * Constructor
+     * @param directory the directory of the files
+     * @param nChunkSize the maximum number of documents per file
+     */
+    public JsonLinesExportSink( File directory, int nChunkSize )
+    {
+        _directory = directory;
+        _nChunkSize = Math.max( 1, nChunkSize );
+        _dateFormat.setTimeZone( TimeZone.getTimeZone( "UTC" ) );
+    }
+
+    /**
+     * Tells whether the full reindex is exported to local files instead of Solr
+     * @return true if the export mode is enabled
+     */
+    public static boolean isEnabled(  )
+    {
+        return AppPropertiesService.getPropertyBoolean( PROPERTY_EXPORT_ENABLE, false );
+    }
+
+    /**
+     * Opens a sink writing to a new directory in the export directory configured in the helpdesk-solr properties
+     * @param partition the share of the helpdesk indexed by this node
+     * @return the sink
+     */
+    public static JsonLinesExportSink open( IndexingPartition partition )
+    {
+        File fileExport = new File( AppPathService.getAbsolutePathFromRelativePath( AppPropertiesService.getProperty(
+                        PROPERTY_EXPORT_DIRECTORY, DEFAULT_EXPORT_DIRECTORY ) ) );
+        String strRun = new SimpleDateFormat( PATTERN_RUN_DIRECTORY, Locale.ENGLISH ).format( new Date(  ) );
+        File directory = partition.getLocalFile( new File( fileExport, strRun ) );
+        AppLogService.info( "The helpdesk documents are exported to " + directory );
+
+        return new JsonLinesExportSink( directory,
+            AppPropertiesService.getPropertyInt( PROPERTY_EXPORT_CHUNK_SIZE, DEFAULT_EXPORT_CHUNK_SIZE ) );
+    }
+
+    /**
+     * Returns the directory of the files
+     * @return the directory
+     */
+    public File getDirectory(  )
+    {
+        return _directory;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void write( List<SolrItem> listItems ) throws IOException
+    {
+        for ( SolrItem item : listItems )
+        {
+            if ( ( _writer == null ) || ( _nChunkDocuments >= _nChunkSize ) )
+            {
+                openNextChunk(  );
+            }
+
+            _sbLine.setLength( 0 );
+            appendItem( _sbLine, item );
+            _sbLine.append( '\n' );
+            _writer.append( _sbLine );
+            _nChunkDocuments++;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void deleteChunks( Map<Integer, Integer> mapChunkCounts )
+    {
+        // An export holds the documents of a single run : there is nothing older to remove
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void close(  ) throws IOException
+    {
+        if ( _writer != null )
+        {
+            Writer writer = _writer;
+            _writer = null;
+            writer.close(  );
+        }
+    }
+
+    /**
+     * Closes the current file and opens the next one
+     * @throws IOException if a file could not be closed or created
+     */
+    private void openNextChunk(  ) throws IOException
+    {
+        close(  );
+
+        if ( !_directory.exists(  ) && !_directory.mkdirs(  ) )
+        {
+            throw new IOException( "Unable to create the directory " + _directory );
+        }
+
+        _nChunk++;
+        _nChunkDocuments = 0;
+
+        File file = new File( _directory, String.format( Locale.ENGLISH, CHUNK_FILE_NAME, _nChunk ) );
+        _writer = new BufferedWriter( new OutputStreamWriter( new GZIPOutputStream( new FileOutputStream( file ),
+                        BUFFER_SIZE ), StandardCharsets.UTF_8 ), BUFFER_SIZE );
+    }
+
+    /**
+     * Appends an item as a JSON object
+     * @param sbJson the buffer
+     * @param item the item
+     */
+    private void appendItem( StringBuilder sbJson, SolrItem item )
+    {
+        sbJson.append( '{' );
+        appendField( sbJson, FIELD_UID, item.getUid(  ) );
+        appendField( sbJson, FIELD_URL, item.getUrl(  ) );
+        appendField( sbJson, FIELD_TITLE, item.getTitle(  ) );
+        appendField( sbJson, FIELD_CONTENT, item.getContent(  ) );
+        appendField( sbJson, FIELD_DATE,
+            ( item.getDate(  ) != null ) ? _dateFormat.format( item.getDate(  ) ) : null );
+        appendField( sbJson, FIELD_TYPE, item.getType(  ) );
+        appendField( sbJson, FIELD_SITE, item.getSite(  ) );
+        appendField( sbJson, FIELD_ROLE, item.getRole(  ) );
+
+        Map<String, Object> mapDynamicFields = item.getDynamicFields(  );
+
+        if ( mapDynamicFields != null )
+        {
+            for ( Map.Entry<String, Object> entry : mapDynamicFields.entrySet(  ) )
+            {
+                Object value = entry.getValue(  );
+                appendField( sbJson, entry.getKey(  ),
+                    ( value instanceof Date ) ? _dateFormat.format( (Date) value )
+                                              : ( ( value != null ) ? value.toString(  ) : null ) );
+            }
+        }
+
+        sbJson.append( '}' );
+    }
+
+    /**
+     * Appends a string field, unless it is null
+     * @param sbJson the buffer
+     * @param strName the name of the field
+     * @param strValue the value
+     */
+    private static void appendField( StringBuilder sbJson, String strName, String strValue )
+    {
+        if ( strValue == null )
+        {
+            return;
+        }
+
+        if ( sbJson.charAt( sbJson.length(  ) - 1 ) != '{' )
+        {
+            sbJson.append( ',' );
+        }
+
+        appendString( sbJson, strName );
+        sbJson.append( ':' );
+        appendString( sbJson, strValue );
+    }
+
+    /**
+     * Appends a JSON string
+     * @param sbJson the buffer
+     * @param str the string
+     */
+    private static void appendString( StringBuilder sbJson, String str )
+    {
+        sbJson.append( '"' );
+
+        for ( int i = 0; i < str.length(  ); i++ )
+        {
+            char c = str.charAt( i );
+
+            switch ( c )
+            {
+                case '"':
+                case '\\':
+                    sbJson.append( '\\' ).append( c );
+
+                    break;
+
+                case '\n':
+                    sbJson.append( "\\n" );
+
+                    break;
+
+                case '\r':
+                    sbJson.append( "\\r" );
+
+                    break;
+
+                case '\t':
+                    sbJson.append( "\\t" );
+
+                    break;
+
+                default:
+
+                    if ( c < 0x20 )
+                    {
+                        sbJson.append( "\\u00" ).append( HEX_DIGITS[c >> 4] ).append( HEX_DIGITS[c & 0xf] );
+                    }
+                    else
+                    {
+                        sbJson.append( c );
+                    }
+            }
+        }
+
+        sbJson.append( '"' );
+    }
+}
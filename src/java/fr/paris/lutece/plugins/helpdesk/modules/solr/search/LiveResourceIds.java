@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.helpdesk.modules.solr.search;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+
+/**
+ * Ids of the subjects and question/answers indexed by an update of the index, one bitmap per resource type.
+ * The number of chunk documents is kept for the question/answers built by the run, so that the chunks left by
+ * a previous, larger version are detected.
+ */
+final class LiveResourceIds
+{
+    private final BitSet _subjects = new BitSet(  );
+    private final BitSet _questionAnswers = new BitSet(  );
+    private final BitSet _builtQuestionAnswers = new BitSet(  );
+
+    // Only the question/answers which have chunks
+    private final Map<Integer, Integer> _mapChunkCounts = new HashMap<Integer, Integer>(  );
+
+    /**
+     * Records a subject
+     * @param nIdSubject the subject id
+     */
+    synchronized void addSubject( int nIdSubject )
+    {
+        _subjects.set( nIdSubject );
+    }
+
+    /**
+     * Records a question/answer
+     * @param nIdQuestionAnswer the question/answer id
+     */
+    synchronized void addQuestionAnswer( int nIdQuestionAnswer )
+    {
+        _questionAnswers.set( nIdQuestionAnswer );
+    }
+
+    /**
+     * Tells whether a subject was indexed
+     * @param nIdSubject the subject id
+     * @return true if the subject was indexed
+     */
+    synchronized boolean containsSubject( int nIdSubject )
+    {
+        return ( nIdSubject >= 0 ) && _subjects.get( nIdSubject );
+    }
+
+    /**
+     * Tells whether a question/answer was indexed
+     * @param nIdQuestionAnswer the question/answer id
+     * @return true if the question/answer was indexed
+     */
+    synchronized boolean containsQuestionAnswer( int nIdQuestionAnswer )
+    {
+        return ( nIdQuestionAnswer >= 0 ) && _questionAnswers.get( nIdQuestionAnswer );
+    }
+
+    /**
+     * Records the number of chunk documents of a question/answer built by the run
+     * @param nIdQuestionAnswer the question/answer id
+     * @param nChunkCount the number of chunks, besides the main document
+     */
+    synchronized void setChunkCount( int nIdQuestionAnswer, int nChunkCount )
+    {
+        _builtQuestionAnswers.set( nIdQuestionAnswer );
+
+        if ( nChunkCount > 0 )
+        {
+            _mapChunkCounts.put( nIdQuestionAnswer, nChunkCount );
+        }
+        else
+        {
+            _mapChunkCounts.remove( nIdQuestionAnswer );
+        }
+    }
+
+    /**
+     * Tells whether a document of a question/answer is still valid. The chunks of a question/answer which was
+     * not rebuilt, because it did not change, are kept.
+     * @param nIdQuestionAnswer the question/answer id
+     * @param nChunk the chunk number, 0 for the main document
+     * @return true if the document is still valid
+     */
+    synchronized boolean containsQuestionAnswerChunk( int nIdQuestionAnswer, int nChunk )
+    {
+        if ( !containsQuestionAnswer( nIdQuestionAnswer ) )
+        {
+            return false;
+        }
+
+        if ( ( nChunk == 0 ) || !_builtQuestionAnswers.get( nIdQuestionAnswer ) )
+        {
+            return true;
+        }
+
+        Integer nChunkCount = _mapChunkCounts.get( nIdQuestionAnswer );
+
+        return ( nChunkCount != null ) && ( nChunk <= nChunkCount );
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.helpdesk.modules.solr.search;
+
+import java.util.HashMap;
+import java.util.Map;
+
+
+/**
+ * Rounds kept in the memory of the JVM, for the runs of a node which indexes the whole helpdesk : no database is
+ * needed when the helpdesk is not partitioned. A round is opened atomically, as the database does with its
+ * primary key.
+ */
+final class MemoryPartitionRoundStore implements PartitionRoundStore
+{
+    private static final MemoryPartitionRoundStore INSTANCE = new MemoryPartitionRoundStore(  );
+    private final Map<Long, Map<Integer, String>> _mapRounds = new HashMap<Long, Map<Integer, String>>(  );
+    private long _lLastRound;
+    private boolean _bLastRebuild;
+
+    /**
+     * Returns the rounds of this JVM
+     * @return the store
+     */
+    static MemoryPartitionRoundStore getInstance(  )
+    {
+        return INSTANCE;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized long findLastRound(  )
+    {
+        return _lLastRound;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized boolean openRound( long lRound, int nNodeCount, boolean bRebuild )
+    {
+        if ( _mapRounds.containsKey( lRound ) )
+        {
+            return false;
+        }
+
+        // Only the last round is kept : the coordinator never looks back
+        _mapRounds.clear(  );
+        _mapRounds.put( lRound, new HashMap<Integer, String>(  ) );
+        _lLastRound = Math.max( _lLastRound, lRound );
+        _bLastRebuild = bRebuild;
+
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized boolean isRebuildRound( long lRound )
+    {
+        return ( lRound == _lLastRound ) && _bLastRebuild;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized String findNodeStatus( long lRound, int nNodeIndex )
+    {
+        Map<Integer, String> mapNodes = _mapRounds.get( lRound );
+
+        return ( mapNodes != null ) ? mapNodes.get( nNodeIndex ) : null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void setNodeStatus( long lRound, int nNodeIndex, String strStatus )
+    {
+        Map<Integer, String> mapNodes = _mapRounds.get( lRound );
+
+        if ( mapNodes != null )
+        {
+            mapNodes.put( nNodeIndex, strStatus );
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized int countNodes( long lRound, String strStatus )
+    {
+        Map<Integer, String> mapNodes = _mapRounds.get( lRound );
+        int nCount = 0;
+
+        if ( mapNodes != null )
+        {
+            for ( String strNodeStatus : mapNodes.values(  ) )
+            {
+                if ( strStatus.equals( strNodeStatus ) )
+                {
+                    nCount++;
+                }
+            }
+        }
+
+        return nCount;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void closeRound( long lRound )
+    {
+        // Nothing to record
+    }
+}
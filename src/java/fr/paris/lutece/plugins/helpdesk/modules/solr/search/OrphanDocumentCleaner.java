@@ -0,0 +1,202 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.helpdesk.modules.solr.search;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.client.solrj.util.ClientUtils;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.params.CursorMarkParams;
+
+import fr.paris.lutece.plugins.helpdesk.service.HelpdeskPlugin;
+import fr.paris.lutece.plugins.search.solr.business.SolrServerService;
+import fr.paris.lutece.plugins.search.solr.indexer.SolrIndexerService;
+import fr.paris.lutece.plugins.search.solr.util.SolrConstants;
+import fr.paris.lutece.portal.service.util.AppLogService;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+
+
+/**
+ * Removes from Solr the helpdesk documents whose subject or question/answer was not indexed by the last
+ * update of the index : deleted subjects and question/answers, or disabled question/answers. The helpdesk uids
+ * of the site are read page by page with a cursor and compared with the {@link LiveResourceIds} of the run ;
+ * the orphans are deleted in batches.
+ * <br>
+ * A full reindex run by plugin-solr follows the emptying of the whole index, which leaves no orphan : the
+ * cleaning only applies to the updates, which keep the index searchable while they run.
+ */
+final class OrphanDocumentCleaner
+{
+    private static final String PROPERTY_ORPHANS_ENABLE = "helpdesk-solr.indexer.orphans.enable";
+    private static final String PROPERTY_ORPHANS_PAGE_SIZE = "helpdesk-solr.indexer.orphans.pageSize";
+    private static final String PROPERTY_ORPHANS_BATCH_SIZE = "helpdesk-solr.indexer.orphans.batchSize";
+    private static final int DEFAULT_PAGE_SIZE = 1000;
+    private static final int DEFAULT_BATCH_SIZE = 500;
+    private static final String FIELD_UID = "uid";
+    private static final String FIELD_TYPE = "type";
+    private static final String QUERY_SEPARATOR = ":";
+    private static final String WILDCARD = "*";
+    private final LiveResourceIds _liveIds;
+    private final int _nPageSize;
+    private final int _nBatchSize;
+
+    /**
+     * Constructor
+     * @param liveIds the ids indexed by the run
+     */
+    OrphanDocumentCleaner( LiveResourceIds liveIds )
+    {
+        _liveIds = liveIds;
+        _nPageSize = Math.max( 1, AppPropertiesService.getPropertyInt( PROPERTY_ORPHANS_PAGE_SIZE, DEFAULT_PAGE_SIZE ) );
+        _nBatchSize = Math.max( 1,
+                AppPropertiesService.getPropertyInt( PROPERTY_ORPHANS_BATCH_SIZE, DEFAULT_BATCH_SIZE ) );
+    }
+
+    /**
+     * Tells whether the orphan documents are removed at the end of an update of the index
+     * @return true if the orphan detection is enabled
+     */
+    static boolean isEnabled(  )
+    {
+        return AppPropertiesService.getPropertyBoolean( PROPERTY_ORPHANS_ENABLE, false );
+    }
+
+    /**
+     * Deletes the orphan documents
+     * @return the number of deleted documents
+     * @throws IOException if Solr cannot be reached
+     */
+    int deleteOrphans(  ) throws IOException
+    {
+        SolrClient solrClient = SolrServerService.getInstance(  ).getSolrServer(  );
+        String strUidPrefix = SolrIndexerService.getWebAppName(  ) + SolrConstants.CONSTANT_UNDERSCORE;
+
+        SolrQuery query = new SolrQuery( FIELD_TYPE + QUERY_SEPARATOR +
+                ClientUtils.escapeQueryChars( HelpdeskPlugin.PLUGIN_NAME ) );
+        query.addFilterQuery( FIELD_UID + QUERY_SEPARATOR + ClientUtils.escapeQueryChars( strUidPrefix ) + WILDCARD );
+        query.setFields( FIELD_UID );
+        query.setRows( _nPageSize );
+
+        // A cursor needs a sort on the unique key
+        query.setSort( FIELD_UID, SolrQuery.ORDER.asc );
+
+        List<String> listOrphans = new ArrayList<String>( _nBatchSize );
+        int nDeleted = 0;
+        String strCursorMark = CursorMarkParams.CURSOR_MARK_START;
+
+        try
+        {
+            while ( true )
+            {
+                query.set( CursorMarkParams.CURSOR_MARK_PARAM, strCursorMark );
+
+                QueryResponse response = solrClient.query( query );
+
+                for ( SolrDocument document : response.getResults(  ) )
+                {
+                    String strUid = (String) document.getFieldValue( FIELD_UID );
+
+                    if ( isOrphan( strUid.substring( strUidPrefix.length(  ) ) ) )
+                    {
+                        listOrphans.add( strUid );
+
+                        if ( listOrphans.size(  ) >= _nBatchSize )
+                        {
+                            solrClient.deleteById( listOrphans );
+                            nDeleted += listOrphans.size(  );
+                            listOrphans.clear(  );
+                        }
+                    }
+                }
+
+                String strNextCursorMark = response.getNextCursorMark(  );
+
+                if ( strCursorMark.equals( strNextCursorMark ) )
+                {
+                    break;
+                }
+
+                strCursorMark = strNextCursorMark;
+            }
+
+            if ( !listOrphans.isEmpty(  ) )
+            {
+                solrClient.deleteById( listOrphans );
+                nDeleted += listOrphans.size(  );
+            }
+
+            if ( nDeleted > 0 )
+            {
+                solrClient.commit(  );
+            }
+        }
+        catch ( SolrServerException e )
+        {
+            throw new IOException( e );
+        }
+
+        AppLogService.info( "Helpdesk indexing : " + nDeleted + " orphan documents deleted from Solr" );
+
+        return nDeleted;
+    }
+
+    /**
+     * Tells whether a helpdesk document is an orphan. Uids which are not recognized are left alone.
+     * @param strResourceUid the resource uid, for instance <code>12_hdq</code> or <code>12-1_hdq</code>
+     * @return true if the resource of the document was not indexed by the run
+     */
+    boolean isOrphan( String strResourceUid )
+    {
+        int nId = SolrHelpdeskIndexerUtils.getResourceId( strResourceUid,
+                SolrHelpdeskIndexer.UID_SUFFIX_QUESTION_ANSWER );
+
+        if ( nId >= 0 )
+        {
+            int nChunk = SolrHelpdeskIndexerUtils.getChunkNumber( strResourceUid,
+                    SolrHelpdeskIndexer.UID_SUFFIX_QUESTION_ANSWER );
+
+            return ( nChunk >= 0 ) && !_liveIds.containsQuestionAnswerChunk( nId, nChunk );
+        }
+
+        nId = SolrHelpdeskIndexerUtils.getResourceId( strResourceUid, SolrHelpdeskIndexer.UID_SUFFIX_SUBJECT );
+
+        return ( nId >= 0 ) && !_liveIds.containsSubject( nId );
+    }
+}
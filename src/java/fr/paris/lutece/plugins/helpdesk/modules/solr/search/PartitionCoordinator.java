@@ -0,0 +1,203 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.helpdesk.modules.solr.search;
+
+import fr.paris.lutece.portal.service.util.AppLogService;
+
+
+/**
+ * Coordination of the partitions of the runs of the indexer, through a {@link PartitionRoundStore} shared by
+ * the nodes : the tables of the module when the helpdesk is partitioned, the memory of the JVM otherwise. The runs
+ * of the nodes are grouped in rounds : a node starting an update joins the last round, or opens the next one if
+ * every shard of the last round is done. A round is over when every node of the cluster completed it.
+ * <br>
+ * The full reindex of plugin-solr empties the whole index on one node, which opens a rebuild round and rebuilds
+ * its shard. The next run of each other node joins the rebuild round and rebuilds its own shard in place, without
+ * emptying the index again.
+ * <br>
+ * Two nodes may find the last round over at the same time : both try to open the next one, the store lets
+ * only one of them do it, and both join it.
+ */
+final class PartitionCoordinator
+{
+    private final IndexingPartition _partition;
+    private final PartitionRoundStore _store;
+    private long _lRound;
+
+    /**
+     * Constructor
+     * @param partition the partition of this node
+     */
+    PartitionCoordinator( IndexingPartition partition )
+    {
+        this( partition,
+            partition.isPartitioned(  ) ? new DatabasePartitionRoundStore(  ) : MemoryPartitionRoundStore.getInstance(  ) );
+    }
+
+    /**
+     * Constructor
+     * @param partition the partition of this node
+     * @param store the rounds shared by the nodes
+     */
+    PartitionCoordinator( IndexingPartition partition, PartitionRoundStore store )
+    {
+        _partition = partition;
+        _store = store;
+    }
+
+    /**
+     * Records the start of the run of this node, opening the next round if the last one is over
+     */
+    synchronized void start(  )
+    {
+        long lRound = _store.findLastRound(  );
+
+        if ( ( lRound == 0L ) || isRoundComplete( lRound ) )
+        {
+            lRound++;
+
+            if ( !_store.openRound( lRound, _partition.getNodeCount(  ), false ) )
+            {
+                // Opened by another node in the meantime
+                lRound = _store.findLastRound(  );
+            }
+        }
+
+        _lRound = lRound;
+        _store.setNodeStatus( _lRound, _partition.getNodeIndex(  ), PartitionRoundStore.STATUS_RUNNING );
+        AppLogService.info( "Helpdesk indexing partition " + _partition + " started, round " + _lRound );
+    }
+
+    /**
+     * Records the start of the rebuild of this node, once it emptied the whole index : opens a rebuild round, that
+     * the other nodes join to rebuild their shards
+     */
+    synchronized void startRebuild(  )
+    {
+        long lRound = _store.findLastRound(  ) + 1;
+
+        if ( !_store.openRound( lRound, _partition.getNodeCount(  ), true ) )
+        {
+            // Opened by another node in the meantime
+            lRound = _store.findLastRound(  );
+        }
+
+        _lRound = lRound;
+        _store.setNodeStatus( _lRound, _partition.getNodeIndex(  ), PartitionRoundStore.STATUS_RUNNING );
+        AppLogService.info( "Helpdesk index emptied, partition " + _partition + " started the rebuild round " +
+            _lRound );
+    }
+
+    /**
+     * Tells whether another node emptied the index in a rebuild round that this node did not join yet
+     * @return true if the shard of this node has to be rebuilt
+     */
+    synchronized boolean isRebuildPending(  )
+    {
+        long lRound = _store.findLastRound(  );
+
+        return ( lRound != 0L ) && _store.isRebuildRound( lRound ) &&
+        ( _store.findNodeStatus( lRound, _partition.getNodeIndex(  ) ) == null );
+    }
+
+    /**
+     * Joins the pending rebuild round, if any, to rebuild the shard of this node
+     * @return true if the round was joined, false if no rebuild is pending
+     */
+    synchronized boolean joinRebuild(  )
+    {
+        if ( !isRebuildPending(  ) )
+        {
+            return false;
+        }
+
+        _lRound = _store.findLastRound(  );
+        _store.setNodeStatus( _lRound, _partition.getNodeIndex(  ), PartitionRoundStore.STATUS_RUNNING );
+        AppLogService.info( "Helpdesk indexing partition " + _partition + " joined the rebuild round " + _lRound );
+
+        return true;
+    }
+
+    /**
+     * Records the end of the run of this node
+     * @param bSuccess true if every document of the shard reached Solr
+     * @return true if every shard of the round is now done
+     */
+    synchronized boolean complete( boolean bSuccess )
+    {
+        String strStatus = bSuccess ? PartitionRoundStore.STATUS_DONE : PartitionRoundStore.STATUS_FAILED;
+        _store.setNodeStatus( _lRound, _partition.getNodeIndex(  ), strStatus );
+
+        if ( !bSuccess || !isRoundComplete( _lRound ) )
+        {
+            AppLogService.info( "Helpdesk indexing partition " + _partition + " " + strStatus + ", round " + _lRound );
+
+            return false;
+        }
+
+        _store.closeRound( _lRound );
+        AppLogService.info( "Helpdesk indexing round " + _lRound + " completed by the " + _partition.getNodeCount(  ) +
+            " partitions" );
+
+        return true;
+    }
+
+    /**
+     * Returns the partition of this node
+     * @return the partition
+     */
+    IndexingPartition getPartition(  )
+    {
+        return _partition;
+    }
+
+    /**
+     * Returns the round of the run of this node
+     * @return the round, 0 before the start of the run
+     */
+    synchronized long getRound(  )
+    {
+        return _lRound;
+    }
+
+    /**
+     * Tells whether every node completed a round
+     * @param lRound the round
+     * @return true if every shard is done
+     */
+    private boolean isRoundComplete( long lRound )
+    {
+        return _store.countNodes( lRound, PartitionRoundStore.STATUS_DONE ) >= _partition.getNodeCount(  );
+    }
+}
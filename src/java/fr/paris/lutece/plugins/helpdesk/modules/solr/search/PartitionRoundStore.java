@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.helpdesk.modules.solr.search;
+
+
+/**
+ * The rounds of the partitioned runs and the status of each node in them, shared by the nodes of a cluster.
+ * Opening a round is atomic : when several nodes open the same round at once, exactly one of them succeeds.
+ * A rebuild round follows the emptying of the whole index : every node rebuilds its shard in it.
+ */
+interface PartitionRoundStore
+{
+    /** A node is indexing its shard */
+    String STATUS_RUNNING = "running";
+
+    /** Every document of the shard of a node reached Solr */
+    String STATUS_DONE = "done";
+
+    /** The run of a node ended with errors */
+    String STATUS_FAILED = "failed";
+
+    /**
+     * Returns the last round opened
+     * @return the round, 0 if none was opened yet
+     */
+    long findLastRound(  );
+
+    /**
+     * Opens a round, unless it is already open
+     * @param lRound the round
+     * @param nNodeCount the number of nodes of the cluster
+     * @param bRebuild true if the index was emptied before the round
+     * @return true if this call opened the round, false if another node opened it first
+     */
+    boolean openRound( long lRound, int nNodeCount, boolean bRebuild );
+
+    /**
+     * Tells whether a round follows the emptying of the index
+     * @param lRound the round
+     * @return true for a rebuild round
+     */
+    boolean isRebuildRound( long lRound );
+
+    /**
+     * Returns the status of a node in a round
+     * @param lRound the round
+     * @param nNodeIndex the index of the node
+     * @return the status, null if the node did not join the round
+     */
+    String findNodeStatus( long lRound, int nNodeIndex );
+
+    /**
+     * Records the status of a node in a round
+     * @param lRound the round
+     * @param nNodeIndex the index of the node
+     * @param strStatus the status
+     */
+    void setNodeStatus( long lRound, int nNodeIndex, String strStatus );
+
+    /**
+     * Counts the nodes of a round which have a status
+     * @param lRound the round
+     * @param strStatus the status
+     * @return the number of nodes
+     */
+    int countNodes( long lRound, String strStatus );
+
+    /**
+     * Records the end of a round, once every node is done
+     * @param lRound the round
+     */
+    void closeRound( long lRound );
+}
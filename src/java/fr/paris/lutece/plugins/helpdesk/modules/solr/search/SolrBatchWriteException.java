@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.helpdesk.modules.solr.search;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+
+/**
+ * A batch of documents could not be written to Solr and was not retried : the documents of the batch are lost
+ * until the next full reindex. When the batches are pipelined, the exception is thrown by a later call of the
+ * writer than the one which built the batch : the uids tell which documents were lost.
+ */
+public class SolrBatchWriteException extends IOException
+{
+    private static final long serialVersionUID = 1L;
+
+    // At most this number of uids in the message, every uid being available from getUids
+    private static final int MESSAGE_MAX_UIDS = 20;
+    private final List<String> _listUids;
+
+    /**
+     * Constructor
+     * @param listUids the uids of the documents of the batch
+     * @param cause the cause of the failure
+     */
+    public SolrBatchWriteException( List<String> listUids, Throwable cause )
+    {
+        super( getMessage( listUids ), cause );
+        _listUids = Collections.unmodifiableList( listUids );
+    }
+
+    /**
+     * Returns the uids of the documents of the batch
+     * @return the uids
+     */
+    public List<String> getUids(  )
+    {
+        return _listUids;
+    }
+
+    /**
+     * Builds the message of the exception
+     * @param listUids the uids of the documents of the batch
+     * @return the message
+     */
+    private static String getMessage( List<String> listUids )
+    {
+        StringBuilder sbMessage = new StringBuilder( "Unable to write a batch of " );
+        sbMessage.append( listUids.size(  ) ).append( " helpdesk documents to Solr : " );
+
+        for ( int i = 0; i < Math.min( listUids.size(  ), MESSAGE_MAX_UIDS ); i++ )
+        {
+            sbMessage.append( ( i > 0 ) ? ", " : "" ).append( listUids.get( i ) );
+        }
+
+        if ( listUids.size(  ) > MESSAGE_MAX_UIDS )
+        {
+            sbMessage.append( "..." );
+        }
+
+        return sbMessage.toString(  );
+    }
+}
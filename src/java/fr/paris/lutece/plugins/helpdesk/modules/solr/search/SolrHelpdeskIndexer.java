@@ -33,45 +33,47 @@
  */
 package fr.paris.lutece.plugins.helpdesk.modules.solr.search;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.Reader;
 import java.io.StringReader;
-import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.commons.lang.StringUtils;
-import org.apache.tika.exception.TikaException;
-import org.apache.tika.metadata.Metadata;
-import org.apache.tika.parser.ParseContext;
-import org.apache.tika.parser.html.HtmlParser;
-import org.apache.tika.sax.BodyContentHandler;
-import org.xml.sax.ContentHandler;
-import org.xml.sax.SAXException;
 
 import fr.paris.lutece.plugins.helpdesk.business.Faq;
-import fr.paris.lutece.plugins.helpdesk.business.FaqHome;
 import fr.paris.lutece.plugins.helpdesk.business.QuestionAnswer;
 import fr.paris.lutece.plugins.helpdesk.business.Subject;
-import fr.paris.lutece.plugins.helpdesk.business.SubjectHome;
+import fr.paris.lutece.plugins.helpdesk.modules.solr.service.IndexingMetrics;
+import fr.paris.lutece.plugins.helpdesk.modules.solr.service.IndexingMetrics.Phase;
+import fr.paris.lutece.plugins.helpdesk.modules.solr.service.extractor.HtmlTextExtractor;
 import fr.paris.lutece.plugins.helpdesk.service.HelpdeskPlugin;
 import fr.paris.lutece.plugins.helpdesk.service.helpdesksearch.HelpdeskSearchItem;
 import fr.paris.lutece.plugins.helpdesk.utils.HelpdeskIndexerUtils;
-import fr.paris.lutece.plugins.helpdesk.web.HelpdeskApp;
 import fr.paris.lutece.plugins.search.solr.business.field.Field;
 import fr.paris.lutece.plugins.search.solr.indexer.SolrIndexer;
 import fr.paris.lutece.plugins.search.solr.indexer.SolrIndexerService;
 import fr.paris.lutece.plugins.search.solr.indexer.SolrItem;
 import fr.paris.lutece.plugins.search.solr.util.SolrConstants;
-import fr.paris.lutece.portal.service.content.XPageAppService;
 import fr.paris.lutece.portal.service.plugin.Plugin;
-import fr.paris.lutece.portal.service.plugin.PluginService;
 import fr.paris.lutece.portal.service.util.AppLogService;
 import fr.paris.lutece.portal.service.util.AppPropertiesService;
-import fr.paris.lutece.util.url.UrlItem;
 
 
 /**
@@ -86,22 +88,83 @@ public class SolrHelpdeskIndexer implements SolrIndexer
     private static final String PROPERTY_INDEXER_ENABLE = "helpdesk-solr.indexer.enable";
     public static final String SHORT_NAME_SUBJECT = "hds";
     public static final String SHORT_NAME_QUESTION_ANSWER = "hdq";
+    public static final String UID_SUFFIX_SUBJECT = SolrConstants.CONSTANT_UNDERSCORE + SHORT_NAME_SUBJECT;
+    public static final String UID_SUFFIX_QUESTION_ANSWER = SolrConstants.CONSTANT_UNDERSCORE +
+        SHORT_NAME_QUESTION_ANSWER;
     private static final String BLANK = " ";
-    private static final String PROPERTY_PAGE_PATH_LABEL = "helpdesk.pagePathLabel";
     private static final String PROPERTY_FAQ_ID_LABEL = "helpdesk-solr.indexer.faq_id.label";
     private static final String PROPERTY_FAQ_ID_DESCRIPTION = "helpdesk-solr.indexer.faq_id.description";
     private static final String PROPERTY_SUBJECT_LABEL = "helpdesk-solr.indexer.subject.label";
     private static final String PROPERTY_SUBJECT_DESCRIPTION = "helpdesk-solr.indexer.subject.description";
+    private static final String PROPERTY_PARALLEL_ENABLE = "helpdesk-solr.indexer.parallel.enable";
+    private static final String PROPERTY_PARALLEL_THREADS = "helpdesk-solr.indexer.parallel.threads";
+    private static final String PROPERTY_PARALLEL_GRANULARITY = "helpdesk-solr.indexer.parallel.granularity";
+    private static final String PROPERTY_PARALLEL_VIRTUAL_THREADS = "helpdesk-solr.indexer.parallel.virtualThreads";
+    private static final String PROPERTY_STREAMING_ENABLE = "helpdesk-solr.indexer.streaming.enable";
+    private static final String PROPERTY_STREAMING_QUEUE_SIZE = "helpdesk-solr.indexer.streaming.queueSize";
+    private static final int DEFAULT_STREAMING_QUEUE_SIZE = 256;
+    private static final String PROPERTY_STREAMING_QUESTION_PAGE_SIZE = "helpdesk-solr.indexer.streaming.questionAnswerPageSize";
+    private static final int DEFAULT_STREAMING_QUESTION_PAGE_SIZE = 500;
+    private static final String PROPERTY_BULK_FOREST_THRESHOLD = "helpdesk-solr.indexer.bulk.forestThreshold";
+    private static final int DEFAULT_BULK_FOREST_THRESHOLD = 100;
+    private static final String PROPERTY_BULK_FOREST_PERCENT = "helpdesk-solr.indexer.bulk.forestPercent";
+    private static final int DEFAULT_BULK_FOREST_PERCENT = 20;
+    private static final String PARALLEL_GRANULARITY_SUBJECT = "subject";
+    private static final String THREAD_NAME_PREFIX = "helpdesk-solr-indexer-";
 
     // Site name
-    private static final List<String> LIST_RESSOURCES_NAME = new ArrayList<String>(  );
+    private static final List<String> LIST_RESSOURCES_NAME = Collections.unmodifiableList( Arrays.asList(
+                HelpdeskIndexerUtils.CONSTANT_QUESTION_ANSWER_TYPE_RESOURCE,
+                HelpdeskIndexerUtils.CONSTANT_SUBJECT_TYPE_RESOURCE ) );
     private static final String SUBJECT_INDEXATION_ERROR = "An error occured during the indexation of the subject number ";
+    private static final String BATCH_WRITE_ERROR = "An error occured while sending the last helpdesk documents to Solr";
+    private static final String CHECKPOINT_SAVE_ERROR = "Unable to save the checkpoint of the helpdesk indexing";
+    private static final String BULK_DOCUMENTS_ERROR = "Unable to build the helpdesk documents of the subject ";
+    private static final String DOCUMENT_ERROR = "Unable to build the helpdesk document ";
+    private static final String DEAD_LETTERS_ERROR = "Unable to log the helpdesk documents which cannot be indexed";
+    private static final String REPLAY_ERROR = "Unable to replay the helpdesk documents of the dead-letter log";
+    private static final String INDEXATION_ERROR = "An error occured during the indexation of the helpdesk";
+    private static final String RUN_IN_PROGRESS = "An indexing run of the helpdesk is already in progress";
+
+    // A rebuild, an update and the changes of the incremental indexing never run together : the update would
+    // record documents the rebuild is about to send again, or that the emptying of the index just deleted
+    private static final Lock RUN_LOCK = new ReentrantLock(  );
+
+    // Source of the helpdesk data, destination of the documents and rounds of the partitions, null for the helpdesk
+    // database, Solr and the rounds chosen by the partition
+    private final HelpdeskDataSource _dataSource;
+    private final SolrItemSink _sink;
+    private final PartitionRoundStore _rounds;
     
     public SolrHelpdeskIndexer(  )
+    {
+        this( null, null );
+    }
+
+    /**
+     * Creates an indexer reading another source than the helpdesk database or writing elsewhere than in Solr,
+     * a load test harness for instance
+     * @param dataSource the source of the helpdesk data, null for the helpdesk database
+     * @param sink the destination of the documents of the full reindex, null for the configured one
+     */
+    SolrHelpdeskIndexer( HelpdeskDataSource dataSource, SolrItemSink sink )
+    {
+        this( dataSource, sink, null );
+    }
+
+    /**
+     * Creates an indexer sharing the rounds of its partitions elsewhere than in the helpdesk-solr tables, the
+     * nodes of a cluster simulated in one JVM for instance
+     * @param dataSource the source of the helpdesk data, null for the helpdesk database
+     * @param sink the destination of the documents of the full reindex, null for the configured one
+     * @param rounds the rounds of the partitions, null for the store chosen by each partition
+     */
+    SolrHelpdeskIndexer( HelpdeskDataSource dataSource, SolrItemSink sink, PartitionRoundStore rounds )
     {
         super(  );
-        LIST_RESSOURCES_NAME.add( HelpdeskIndexerUtils.CONSTANT_QUESTION_ANSWER_TYPE_RESOURCE );
-        LIST_RESSOURCES_NAME.add( HelpdeskIndexerUtils.CONSTANT_SUBJECT_TYPE_RESOURCE );
+        _dataSource = dataSource;
+        _sink = sink;
+        _rounds = rounds;
     }
 
     /**
@@ -130,102 +193,826 @@ public class SolrHelpdeskIndexer implements SolrIndexer
 
     /**
      * {@inheritDoc}
+     * <br>
+     * Called by plugin-solr once it emptied the whole index : this node rebuilds the shard of its configured
+     * partition, and the other nodes rebuild theirs at their next run.
      */
     public List<String> indexDocuments(  )
     {
-        Plugin plugin = PluginService.getPlugin( HelpdeskPlugin.PLUGIN_NAME );
+        if ( IndexFingerprintStore.isEnabled(  ) )
+        {
+            AppLogService.info( "The full reindex of plugin-solr empties the index : every helpdesk document is sent, " +
+                "delta indexing only applies to the helpdeskSolrUpdate daemon, which should replace the scheduled " +
+                "full reindex" );
+        }
+
+        return indexDocuments( IndexingPartition.getConfigured(  ) );
+    }
+
+    /**
+     * Rebuilds the helpdesk in an index which was emptied : every document is sent, whatever the fingerprints
+     * of the previous runs, which are recorded again. With checkpoints enabled, the progress of the rebuild is
+     * saved as its batches reach Solr : an interrupted rebuild is carried on by
+     * {@link #resumeDocuments(IndexingPartition)} or by the next update, without emptying the index again.
+     * <br>
+     * A partitioned node rebuilds its shard only, in a rebuild round : the next
+     * {@link #updateDocuments(IndexingPartition)} or {@link #resumeDocuments(IndexingPartition)} of each other node
+     * joins the round and rebuilds its own shard, the index being emptied once.
+     * @param partition the share of the helpdesk to index
+     * @return the list of errors
+     */
+    public List<String> indexDocuments( IndexingPartition partition )
+    {
+        RUN_LOCK.lock(  );
+
+        try
+        {
+            PartitionCoordinator coordinator = createCoordinator( partition );
+            coordinator.startRebuild(  );
+
+            return indexDocuments( coordinator, IndexingRun.Mode.REBUILD );
+        }
+        finally
+        {
+            RUN_LOCK.unlock(  );
+        }
+    }
+
+    /**
+     * Updates the share of the helpdesk of a node in place, the index keeping its documents : with delta
+     * indexing, only the documents which changed since the last successful run are sent. Nothing is done
+     * while another run is in progress. The nodes of a cluster update their shards with this method ; once
+     * another node emptied the index, the shard of this node is rebuilt instead.
+     * @param partition the share of the helpdesk to index
+     * @return the list of errors
+     */
+    public List<String> updateDocuments( IndexingPartition partition )
+    {
+        if ( !RUN_LOCK.tryLock(  ) )
+        {
+            AppLogService.info( RUN_IN_PROGRESS );
+
+            return Collections.singletonList( RUN_IN_PROGRESS );
+        }
+
+        try
+        {
+            PartitionCoordinator coordinator = createCoordinator( partition );
+
+            if ( coordinator.joinRebuild(  ) )
+            {
+                // The documents of the shard went with the emptying of the index by another node
+                return indexDocuments( coordinator, IndexingRun.Mode.REBUILD );
+            }
+
+            coordinator.start(  );
+
+            return indexDocuments( coordinator, IndexingRun.Mode.UPDATE );
+        }
+        finally
+        {
+            RUN_LOCK.unlock(  );
+        }
+    }
+
+    /**
+     * Carries on the interrupted run of a node, a rebuild or an update, from its checkpoint : the index is not
+     * emptied again, and the faqs and top-level subjects whose documents reached Solr are skipped. The shard of
+     * a partitioned node is rebuilt once another node emptied the index. Nothing is done without a run to resume
+     * or a shard to rebuild, or while another run is in progress.
+     * @param partition the share of the helpdesk indexed by the interrupted run
+     * @return the list of errors
+     */
+    public List<String> resumeDocuments( IndexingPartition partition )
+    {
+        boolean bResumable = IndexingCheckpoint.isEnabled(  ) && IndexingCheckpoint.isResumable( partition );
+
+        if ( !bResumable && !createCoordinator( partition ).isRebuildPending(  ) )
+        {
+            AppLogService.info( "No interrupted helpdesk indexing run to resume, partition " + partition );
+
+            return Collections.emptyList(  );
+        }
+
+        // Resumed as an update, or as the rebuild of the shard : the documents the interrupted run did not send
+        // are not in the index
+        return updateDocuments( partition );
+    }
+
+    /**
+     * Applies changes to the index, unless an indexing run is in progress : the run would send again documents the
+     * changes delete, or overwrite them with their former version. A rebuild started meanwhile waits for the end of
+     * the changes.
+     * @param changes the changes
+     * @return true if the changes were applied, false if a run is in progress
+     */
+    public boolean runIfIdle( Runnable changes )
+    {
+        if ( !RUN_LOCK.tryLock(  ) )
+        {
+            return false;
+        }
+
+        try
+        {
+            changes.run(  );
+
+            return true;
+        }
+        finally
+        {
+            RUN_LOCK.unlock(  );
+        }
+    }
+
+    /**
+     * Returns the coordinator of the rounds of a partition
+     * @param partition the share of the helpdesk of this node
+     * @return the coordinator
+     */
+    private PartitionCoordinator createCoordinator( IndexingPartition partition )
+    {
+        return ( _rounds != null ) ? new PartitionCoordinator( partition, _rounds ) : new PartitionCoordinator( partition );
+    }
+
+    /**
+     * Indexes the share of the helpdesk of a node : the run opens what its mode needs, the documents which failed
+     * during the previous runs are replayed, then the helpdesk is read in streaming or from a subject forest
+     * @param coordinator the coordinator of the partition of this node, which recorded the start of the run
+     * @param mode the state of the index
+     * @return the list of errors
+     */
+    private List<String> indexDocuments( PartitionCoordinator coordinator, IndexingRun.Mode mode )
+    {
         List<String> lstErrors = new ArrayList<String>(  );
-        
+        IndexingMetrics metrics = IndexingMetrics.getInstance(  );
+        metrics.startRun(  );
+
+        // The faqs and the subjects are read again : the incremental indexing must not keep older role keys
+        SubjectResolutionCache.getInstance(  ).invalidateAll(  );
+
+        IndexingRun run = IndexingRun.open( createContext(  ), coordinator, mode, _sink );
+
+        try
+        {
+            // The documents which failed during the previous runs come first
+            if ( run.getDeadLetters(  ) != null )
+            {
+                replayDeadLetters( run.getDeadLetters(  ), run.getWriter(  ), lstErrors );
+            }
+
+            if ( AppPropertiesService.getPropertyBoolean( PROPERTY_STREAMING_ENABLE, false ) )
+            {
+                // Subjects and question/answers are read one subject at a time and handed over to the document
+                // builders through a bounded queue : the heap used does not depend on the size of the faqs
+                int nQueueSize = AppPropertiesService.getPropertyInt( PROPERTY_STREAMING_QUEUE_SIZE,
+                        DEFAULT_STREAMING_QUEUE_SIZE );
+                int nQuestionPageSize = AppPropertiesService.getPropertyInt( PROPERTY_STREAMING_QUESTION_PAGE_SIZE,
+                        DEFAULT_STREAMING_QUESTION_PAGE_SIZE );
+                new StreamingIndexingPipeline( this, run, getThreadCount(  ), nQueueSize, nQuestionPageSize ).run(
+                    lstErrors );
+            }
+            else
+            {
+                indexForest( run, lstErrors );
+            }
+        }
+        finally
+        {
+            run.finish( lstErrors );
+        }
+
+        metrics.endRun(  );
+
+        if ( metrics.isEnabled(  ) )
+        {
+            AppLogService.info( metrics.getSummary(  ) );
+        }
+
+        return lstErrors;
+    }
+
+    /**
+     * Indexes the whole helpdesk from a {@link SubjectForest} loaded in memory
+     * @param run the current run
+     * @param lstErrors the list receiving the errors
+     */
+    private void indexForest( final IndexingRun run, List<String> lstErrors )
+    {
+        IndexingMetrics metrics = IndexingMetrics.getInstance(  );
+        List<Callable<List<String>>> listTasks = new ArrayList<Callable<List<String>>>(  );
+
+        boolean bSubjectGranularity = PARALLEL_GRANULARITY_SUBJECT.equals( AppPropertiesService.getProperty(
+                    PROPERTY_PARALLEL_GRANULARITY ) );
+
+        // Every subject and question/answer is loaded once, the trees are then walked in memory
+        IndexingThrottle throttle = IndexingThrottle.getInstance(  );
+        HelpdeskDataSource dataSource = run.getContext(  ).getDataSource(  );
+        long lThrottle = throttle.acquire( IndexingThrottle.Channel.READ, 1 );
+        long lStartLoad = metrics.start(  );
+        SubjectForest forest = SubjectForest.load( dataSource );
+        Collection<Faq> listFaqs = dataSource.findFaqs(  );
+        metrics.record( Phase.LOAD, lStartLoad );
+        throttle.release( IndexingThrottle.Channel.READ, lThrottle );
+        run.setForest( forest );
+
+        // The most used faqs and subjects first, when a priority is configured
+        IndexingPriority priority = IndexingPriority.getConfigured( forest );
+
+        if ( priority != null )
+        {
+            listFaqs = priority.sortFaqs( listFaqs );
+        }
+
         //FAQ
-        for ( Faq faq : FaqHome.findAll( plugin ) )
-        {
-        	for ( Subject subject : (Collection<Subject>) SubjectHome.getInstance(  ).findByIdFaq( faq.getId(  ), plugin ) )
-        	{
-        		try
-        		{
-        			indexSubject( faq, subject );
-        		}
-        		catch ( IOException e )
-        		{
-        			lstErrors.add( SolrIndexerService.buildErrorMessage( e ) );
-        			AppLogService.error( SUBJECT_INDEXATION_ERROR + subject.getId(  ), e );
-        		}
-        	}
-        }
-        
+        for ( final Faq faq : listFaqs )
+        {
+            // Faqs and top-level subjects completed by the run being resumed or owned by another node are skipped
+            if ( run.isFaqSkipped( faq.getId(  ) ) )
+            {
+                continue;
+            }
+
+            int[] roots = getRootsToIndex( run, faq );
+
+            if ( priority != null )
+            {
+                roots = priority.sortRoots( roots );
+            }
+
+            if ( bSubjectGranularity )
+            {
+                // One task per top-level subject
+                for ( int nRoot : roots )
+                {
+                    final int[] subjects = new int[] { nRoot };
+                    listTasks.add( (  ) -> indexSubjects( faq, run, subjects, false ) );
+                }
+            }
+            else
+            {
+                // One task per FAQ
+                final int[] subjects = roots;
+                listTasks.add( (  ) -> indexSubjects( faq, run, subjects, true ) );
+            }
+        }
+
+        runTasks( listTasks, lstErrors );
+    }
+
+    /**
+     * Indexes root subjects of a FAQ and their children
+     * @param faq the faq
+     * @param run the current run
+     * @param subjects the positions in the forest of the root subjects to index
+     * @param bWholeFaq true if the subjects are all the remaining root subjects of the faq
+     * @return the list of errors
+     */
+    private List<String> indexSubjects( Faq faq, IndexingRun run, int[] subjects, boolean bWholeFaq )
+    {
+        List<String> lstErrors = new ArrayList<String>(  );
+
+        for ( int nSubject : subjects )
+        {
+            int nIdSubject = run.getForest(  ).getSubject( nSubject ).getId(  );
+
+            try
+            {
+                indexSubject( faq, run, nSubject );
+                run.completeSubject( nIdSubject );
+            }
+            catch ( SolrBatchWriteException e )
+            {
+                // Documents of earlier subjects, lost while the checkpoint waited for them
+                IndexingMetrics.getInstance(  ).addFailure(  );
+                lstErrors.add( SolrIndexerService.buildErrorMessage( e ) );
+                AppLogService.error( BATCH_WRITE_ERROR, e );
+            }
+            catch ( IOException e )
+            {
+                IndexingMetrics.getInstance(  ).addFailure(  );
+                lstErrors.add( SolrIndexerService.buildErrorMessage( e ) );
+                AppLogService.error( SUBJECT_INDEXATION_ERROR + nIdSubject, e );
+            }
+        }
+
+        if ( bWholeFaq && lstErrors.isEmpty(  ) )
+        {
+            try
+            {
+                run.completeFaq( faq.getId(  ) );
+            }
+            catch ( IOException e )
+            {
+                IndexingMetrics.getInstance(  ).addFailure(  );
+                lstErrors.add( SolrIndexerService.buildErrorMessage( e ) );
+                AppLogService.error( CHECKPOINT_SAVE_ERROR, e );
+            }
+        }
+
         return lstErrors;
     }
 
+    /**
+     * Returns the top-level subjects of a faq which were not completed by the run being resumed nor owned by
+     * another node
+     * @param run the current run
+     * @param faq the faq
+     * @return the positions of the subjects in the forest
+     */
+    private static int[] getRootsToIndex( IndexingRun run, Faq faq )
+    {
+        SubjectForest forest = run.getForest(  );
+        int[] roots = forest.getRoots( faq.getId(  ) );
+        int[] rootsToIndex = new int[roots.length];
+        int nCount = 0;
+
+        for ( int nRoot : roots )
+        {
+            if ( !run.isSubjectSkipped( forest.getSubject( nRoot ).getId(  ) ) )
+            {
+                rootsToIndex[nCount++] = nRoot;
+            }
+        }
+
+        return ( nCount == roots.length ) ? roots : Arrays.copyOf( rootsToIndex, nCount );
+    }
+
+    /**
+     * Runs the indexing tasks, on a bounded pool of threads if the parallel mode is enabled.
+     * The errors are collected in the order of the tasks whatever the mode.
+     * @param listTasks the tasks
+     * @param lstErrors the list receiving the errors
+     */
+    private void runTasks( List<Callable<List<String>>> listTasks, List<String> lstErrors )
+    {
+        int nThreads = getThreadCount(  );
+
+        if ( ( nThreads <= 1 ) || ( listTasks.size(  ) <= 1 ) )
+        {
+            for ( Callable<List<String>> task : listTasks )
+            {
+                try
+                {
+                    lstErrors.addAll( task.call(  ) );
+                }
+                catch ( Exception e )
+                {
+                    IndexingMetrics.getInstance(  ).addFailure(  );
+                    lstErrors.add( SolrIndexerService.buildErrorMessage( e ) );
+                    AppLogService.error( INDEXATION_ERROR, e );
+                }
+            }
+
+            return;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool( Math.min( nThreads, listTasks.size(  ) ),
+                getThreadFactory(  ) );
+
+        try
+        {
+            List<Future<List<String>>> listFutures = new ArrayList<Future<List<String>>>( listTasks.size(  ) );
+
+            for ( Callable<List<String>> task : listTasks )
+            {
+                listFutures.add( executor.submit( task ) );
+            }
+
+            for ( Future<List<String>> future : listFutures )
+            {
+                try
+                {
+                    lstErrors.addAll( future.get(  ) );
+                }
+                catch ( ExecutionException e )
+                {
+                    IndexingMetrics.getInstance(  ).addFailure(  );
+                    lstErrors.add( SolrIndexerService.buildErrorMessage( e.getCause(  ) ) );
+                    AppLogService.error( INDEXATION_ERROR, e.getCause(  ) );
+                }
+            }
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread(  ).interrupt(  );
+            lstErrors.add( SolrIndexerService.buildErrorMessage( e ) );
+            AppLogService.error( INDEXATION_ERROR, e );
+        }
+        finally
+        {
+            executor.shutdownNow(  );
+        }
+    }
+
+    /**
+     * Returns the number of indexing threads
+     * @return the number of threads, 1 if the parallel mode is disabled
+     */
+    private static int getThreadCount(  )
+    {
+        if ( !AppPropertiesService.getPropertyBoolean( PROPERTY_PARALLEL_ENABLE, false ) )
+        {
+            return 1;
+        }
+
+        return Math.max( 1,
+            AppPropertiesService.getPropertyInt( PROPERTY_PARALLEL_THREADS, Runtime.getRuntime(  ).availableProcessors(  ) ) );
+    }
+
+    /**
+     * Returns the factory of the indexing threads : virtual threads if they are requested and
+     * supported by the running JVM, daemon platform threads otherwise
+     * @return the thread factory
+     */
+    static ThreadFactory getThreadFactory(  )
+    {
+        if ( AppPropertiesService.getPropertyBoolean( PROPERTY_PARALLEL_VIRTUAL_THREADS, false ) )
+        {
+            try
+            {
+                // Looked up by reflection so that the module still runs on JVMs without virtual threads
+                Object builder = Thread.class.getMethod( "ofVirtual" ).invoke( null );
+
+                return (ThreadFactory) Class.forName( "java.lang.Thread$Builder" ).getMethod( "factory" )
+                                            .invoke( builder );
+            }
+            catch ( ReflectiveOperationException e )
+            {
+                AppLogService.info( "Virtual threads are not available, platform threads are used for indexing" );
+            }
+        }
+
+        final AtomicInteger nThreadCount = new AtomicInteger(  );
+
+        return r -> {
+            Thread thread = new Thread( r, THREAD_NAME_PREFIX + nThreadCount.incrementAndGet(  ) );
+            thread.setDaemon( true );
+
+            return thread;
+        };
+    }
+
     /**
      * Get the subject document
      * @param strDocument id of the subject to index
      * @return The list of Solr items
      */
     public List<SolrItem> getDocuments( String strDocument )
+    {
+        return getDocuments( createContext(  ), strDocument, openDeadLetters(  ) );
+    }
+
+    /**
+     * Get the subject document. A document which cannot be built is logged, in the dead-letter log if it is
+     * enabled, and left out.
+     * @param context the indexing context
+     * @param strDocument id of the subject to index
+     * @param deadLetters the log of the documents which cannot be built, null if the retries are disabled
+     * @return The list of Solr items
+     */
+    private List<SolrItem> getDocuments( IndexingContext context, String strDocument, DeadLetterLog deadLetters )
     {
         List<SolrItem> listDocs = new ArrayList<SolrItem>(  );
-        String strPortalUrl = SolrIndexerService.getBaseUrl(  );
-        Plugin plugin = PluginService.getPlugin( HelpdeskPlugin.PLUGIN_NAME );
+        HelpdeskDataSource dataSource = context.getDataSource(  );
+        IndexingMetrics metrics = IndexingMetrics.getInstance(  );
+        IndexingThrottle throttle = IndexingThrottle.getInstance(  );
 
-        Subject subject = (Subject) SubjectHome.getInstance(  ).findByPrimaryKey( Integer.parseInt( strDocument ),
-                plugin );
+        long lThrottle = throttle.acquire( IndexingThrottle.Channel.READ, 1 );
+        long lStartLoad = metrics.start(  );
+        Subject subject = dataSource.findSubject( Integer.parseInt( strDocument ) );
+        metrics.record( Phase.LOAD, lStartLoad );
+        throttle.release( IndexingThrottle.Channel.READ, lThrottle );
 
         if ( subject != null )
         {
-            UrlItem urlSubject = new UrlItem( strPortalUrl );
-            urlSubject.addParameter( XPageAppService.PARAM_XPAGE_APP,
-                AppPropertiesService.getProperty( PROPERTY_PAGE_PATH_LABEL ) ); //FIXME
-
             //if it's a sub-subject, we need to get the first parent to have the faq
-            int nIdParent = subject.getIdParent(  );
-            Subject parentSubject = subject;
+            lStartLoad = metrics.start(  );
+
+            SubjectResolutionCache.Resolution resolution = SubjectResolutionCache.getInstance(  ).resolve( subject, dataSource );
+            metrics.record( Phase.LOAD, lStartLoad );
+
+            if ( resolution != null )
+            {
+                addDocuments( context, resolution.getIdFaq(  ), resolution.getRoleKey(  ), subject,
+                    dataSource.findQuestionAnswers( subject ), deadLetters, listDocs );
+            }
+        }
+
+        return listDocs;
+    }
+
+    /**
+     * Get the documents of several subjects. Each subject is read on its own, its faq being resolved through the
+     * {@link SubjectResolutionCache}, unless the subjects asked for reach both the configured threshold and the
+     * configured share of the subjects of the helpdesk : every subject, question/answer and faq is then loaded at
+     * once in a {@link SubjectForest}, which costs a few reads whatever the number of subjects.
+     * A document which cannot be built is logged, in the dead-letter log if it is enabled, and left out.
+     * @param listDocuments ids of the subjects to index
+     * @return The list of Solr items
+     */
+    public List<SolrItem> getDocuments( Collection<String> listDocuments )
+    {
+        return getDocuments( listDocuments, openDeadLetters(  ) );
+    }
+
+    /**
+     * Get the documents of several subjects
+     * @param listDocuments ids of the subjects to index
+     * @param deadLetters the log of the documents which cannot be built, null if the retries are disabled
+     * @return The list of Solr items
+     */
+    private List<SolrItem> getDocuments( Collection<String> listDocuments, DeadLetterLog deadLetters )
+    {
+        IndexingContext context = createContext(  );
+        HelpdeskDataSource dataSource = context.getDataSource(  );
+        IndexingMetrics metrics = IndexingMetrics.getInstance(  );
+        IndexingThrottle throttle = IndexingThrottle.getInstance(  );
+        Collection<Subject> subjects = null;
+
+        // The subjects are a small read next to the question/answers : they tell the size of the helpdesk
+        if ( listDocuments.size(  ) >= AppPropertiesService.getPropertyInt( PROPERTY_BULK_FOREST_THRESHOLD,
+                    DEFAULT_BULK_FOREST_THRESHOLD ) )
+        {
+            long lThrottle = throttle.acquire( IndexingThrottle.Channel.READ, 1 );
+            long lStartLoad = metrics.start(  );
+            subjects = dataSource.findSubjects(  );
+            metrics.record( Phase.LOAD, lStartLoad );
+            throttle.release( IndexingThrottle.Channel.READ, lThrottle );
 
-            while ( nIdParent != SubjectHome.FIRST_ORDER )
+            if ( ( listDocuments.size(  ) * 100L ) < ( (long) subjects.size(  ) * AppPropertiesService.getPropertyInt(
+                        PROPERTY_BULK_FOREST_PERCENT, DEFAULT_BULK_FOREST_PERCENT ) ) )
             {
-                parentSubject = (Subject) SubjectHome.getInstance(  ).findByPrimaryKey( nIdParent, plugin );
-                nIdParent = parentSubject.getIdParent(  );
+                subjects = null;
             }
+        }
 
-            Faq faq = FaqHome.findBySubjectId( parentSubject.getId(  ), plugin );
+        List<SolrItem> listDocs = new ArrayList<SolrItem>(  );
 
-            if ( faq != null )
+        if ( subjects == null )
+        {
+            for ( String strDocument : listDocuments )
             {
-                urlSubject.addParameter( HelpdeskApp.PARAMETER_FAQ_ID, faq.getId(  ) );
-                urlSubject.setAnchor( HelpdeskApp.ANCHOR_SUBJECT + subject.getId(  ) );
+                try
+                {
+                    listDocs.addAll( getDocuments( context, strDocument, deadLetters ) );
+                }
+                catch ( RuntimeException e )
+                {
+                    AppLogService.error( BULK_DOCUMENTS_ERROR + strDocument, e );
+                }
+            }
+
+            return listDocs;
+        }
+
+        long lThrottle = throttle.acquire( IndexingThrottle.Channel.READ, 1 );
+        long lStartLoad = metrics.start(  );
+        SubjectForest forest = SubjectForest.load( dataSource, subjects );
+        Map<Integer, Faq> mapFaqs = new HashMap<Integer, Faq>(  );
+
+        for ( Faq faq : dataSource.findFaqs(  ) )
+        {
+            mapFaqs.put( faq.getId(  ), faq );
+        }
+
+        metrics.record( Phase.LOAD, lStartLoad );
+        throttle.release( IndexingThrottle.Channel.READ, lThrottle );
+
+        for ( String strDocument : listDocuments )
+        {
+            try
+            {
+                int nSubject = forest.indexOf( Integer.parseInt( strDocument ) );
+                Faq faq = ( nSubject >= 0 ) ? mapFaqs.get( forest.getIdFaq( nSubject ) ) : null;
+
+                if ( faq != null )
+                {
+                    addDocuments( context, faq.getId(  ), faq.getRoleKey(  ), forest.getSubject( nSubject ),
+                        forest.getQuestions( nSubject ), deadLetters, listDocs );
+                }
+            }
+            catch ( RuntimeException e )
+            {
+                AppLogService.error( BULK_DOCUMENTS_ERROR + strDocument, e );
+            }
+        }
 
-                SolrItem docSubject;
+        return listDocs;
+    }
+
+    /**
+     * Returns the resource uids of the documents of a deleted subject : the subject, the subjects below it and
+     * their question/answers. The subjects still linked to the deleted one in the helpdesk are searched, as well
+     * as the given ones ; the documents of the subjects deleted with it which were not found are removed by the
+     * orphan detection of the next update of the index.
+     * @param nIdSubject the id of the deleted subject
+     * @param listKnownIds the ids of subjects known to be below it, from the resolution cache for instance
+     * @return the resource uids
+     */
+    public List<String> getSubjectTreeUids( int nIdSubject, Collection<Integer> listKnownIds )
+    {
+        HelpdeskDataSource dataSource = createContext(  ).getDataSource(  );
+        List<String> listUids = new ArrayList<String>(  );
+        List<Integer> listPending = new ArrayList<Integer>( listKnownIds );
+        Set<Integer> setVisited = new HashSet<Integer>(  );
+        listPending.add( nIdSubject );
+
+        while ( !listPending.isEmpty(  ) )
+        {
+            int nId = listPending.remove( listPending.size(  ) - 1 );
+
+            if ( !setVisited.add( nId ) )
+            {
+                continue;
+            }
+
+            listUids.add( nId + UID_SUFFIX_SUBJECT );
+
+            Subject subject = dataSource.findSubject( nId );
+
+            if ( subject != null )
+            {
+                for ( QuestionAnswer questionAnswer : dataSource.findQuestionAnswers( subject ) )
+                {
+                    listUids.add( questionAnswer.getIdQuestionAnswer(  ) + UID_SUFFIX_QUESTION_ANSWER );
+                }
+            }
+            else
+            {
+                // Deleted : its children may still point to it
+                subject = new Subject(  );
+                subject.setId( nId );
+            }
+
+            for ( Subject child : dataSource.findChildSubjects( subject ) )
+            {
+                listPending.add( child.getId(  ) );
+            }
+        }
+
+        return listUids;
+    }
+
+    /**
+     * Returns a question/answer, read through the data source of this indexer
+     * @param nIdQuestionAnswer the question/answer id
+     * @return the question/answer, or null if it does not exist
+     */
+    public QuestionAnswer getQuestionAnswer( int nIdQuestionAnswer )
+    {
+        IndexingThrottle throttle = IndexingThrottle.getInstance(  );
 
+        long lThrottle = throttle.acquire( IndexingThrottle.Channel.READ, 1 );
+        QuestionAnswer questionAnswer = createContext(  ).getDataSource(  ).findQuestionAnswer( nIdQuestionAnswer );
+        throttle.release( IndexingThrottle.Channel.READ, lThrottle );
+
+        return questionAnswer;
+    }
+
+    /**
+     * Builds the documents of a subject and of its enabled question/answers. A document which cannot be built is
+     * logged and left out.
+     * @param context the indexing context
+     * @param nIdFaq the faq id
+     * @param strRoleKey the role key of the faq
+     * @param subject the subject
+     * @param listQuestions the question/answer list of the subject
+     * @param deadLetters the log of the documents which cannot be built, null if the retries are disabled
+     * @param listDocs the list receiving the documents
+     */
+    private void addDocuments( IndexingContext context, int nIdFaq, String strRoleKey, Subject subject,
+        Collection<QuestionAnswer> listQuestions, DeadLetterLog deadLetters, List<SolrItem> listDocs )
+    {
+        try
+        {
+            listDocs.add( getDocument( context, subject, strRoleKey, context.getSubjectUrl( nIdFaq, subject.getId(  ) ) ) );
+        }
+        catch ( IOException e )
+        {
+            logDocumentError( subject.getId(  ) + UID_SUFFIX_SUBJECT, e, deadLetters );
+        }
+
+        if ( listQuestions == null )
+        {
+            return;
+        }
+
+        for ( QuestionAnswer questionAnswer : listQuestions )
+        {
+            if ( questionAnswer.isEnabled(  ) )
+            {
                 try
                 {
-                    docSubject = getDocument( subject, faq.getRoleKey(  ), urlSubject.getUrl(  ), plugin );
-
-                    listDocs.add( docSubject );
-
-                    for ( QuestionAnswer questionAnswer : (List<QuestionAnswer>) subject.getQuestions(  ) )
-                    {
-                        if ( questionAnswer.isEnabled(  ) )
-                        {
-                            UrlItem urlQuestionAnswer = new UrlItem( strPortalUrl );
-                            urlQuestionAnswer.addParameter( XPageAppService.PARAM_XPAGE_APP,
-                                AppPropertiesService.getProperty( PROPERTY_PAGE_PATH_LABEL ) ); //FIXME
-                            urlQuestionAnswer.addParameter( HelpdeskApp.PARAMETER_FAQ_ID, faq.getId(  ) );
-                            urlQuestionAnswer.setAnchor( HelpdeskApp.ANCHOR_QUESTION_ANSWER +
-                                questionAnswer.getIdQuestionAnswer(  ) );
-
-                            SolrItem docQuestionAnswer = getDocument( faq.getId(  ), questionAnswer,
-                                    urlQuestionAnswer.getUrl(  ), faq.getRoleKey(  ), plugin );
-                            listDocs.add( docQuestionAnswer );
-                        }
-                    }
+                    listDocs.addAll( getQuestionAnswerDocuments( context, nIdFaq, questionAnswer,
+                            context.getQuestionAnswerUrl( nIdFaq, questionAnswer.getIdQuestionAnswer(  ) ), strRoleKey ) );
                 }
                 catch ( IOException e )
                 {
-                    throw new RuntimeException( e );
+                    logDocumentError( questionAnswer.getIdQuestionAnswer(  ) + UID_SUFFIX_QUESTION_ANSWER, e,
+                        deadLetters );
                 }
             }
         }
+    }
 
-        return listDocs;
+    /**
+     * Logs a document which cannot be built
+     * @param strUid the resource uid of the document
+     * @param e the cause of the failure
+     * @param deadLetters the dead-letter log, null if the retries are disabled
+     */
+    private static void logDocumentError( String strUid, IOException e, DeadLetterLog deadLetters )
+    {
+        AppLogService.error( DOCUMENT_ERROR + strUid, e );
+        IndexingMetrics.getInstance(  ).addFailure(  );
+
+        if ( deadLetters != null )
+        {
+            try
+            {
+                deadLetters.append( Collections.singletonList( strUid ), String.valueOf( e ) );
+            }
+            catch ( IOException eDeadLetter )
+            {
+                AppLogService.error( DEAD_LETTERS_ERROR, eDeadLetter );
+            }
+        }
+    }
+
+    /**
+     * Creates the context of a run, reading the data source of this indexer
+     * @return the context
+     */
+    private IndexingContext createContext(  )
+    {
+        return ( _dataSource != null ) ? IndexingContext.create( null, _dataSource ) : IndexingContext.create(  );
+    }
+
+    /**
+     * Opens the dead-letter log of this node
+     * @return the log, null if the retries are disabled
+     */
+    private static DeadLetterLog openDeadLetters(  )
+    {
+        return DeadLetterLog.isEnabled(  ) ? DeadLetterLog.open( IndexingPartition.getConfigured(  ) ) : null;
+    }
+
+    /**
+     * Indexes again the documents of a dead-letter log. The documents are built again from the helpdesk : a
+     * question/answer is replayed with the whole subject it belongs to, a deleted resource is dropped.
+     * @param deadLetters the dead-letter log
+     * @param writer the batch writer
+     * @param lstErrors the list receiving the errors
+     */
+    private void replayDeadLetters( DeadLetterLog deadLetters, SolrItemBatchWriter writer, List<String> lstErrors )
+    {
+        try
+        {
+            Set<String> setUids = deadLetters.startReplay(  );
+
+            if ( setUids.isEmpty(  ) )
+            {
+                return;
+            }
+
+            HelpdeskDataSource dataSource = createContext(  ).getDataSource(  );
+            Set<String> setSubjects = new LinkedHashSet<String>(  );
+
+            for ( String strUid : setUids )
+            {
+                int nIdSubject = SolrHelpdeskIndexerUtils.getResourceId( strUid, UID_SUFFIX_SUBJECT );
+
+                if ( nIdSubject < 0 )
+                {
+                    int nIdQuestionAnswer = SolrHelpdeskIndexerUtils.getResourceId( strUid, UID_SUFFIX_QUESTION_ANSWER );
+                    QuestionAnswer questionAnswer = ( nIdQuestionAnswer >= 0 )
+                        ? dataSource.findQuestionAnswer( nIdQuestionAnswer ) : null;
+                    nIdSubject = ( questionAnswer != null ) ? questionAnswer.getIdSubject(  ) : ( -1 );
+                }
+
+                if ( nIdSubject >= 0 )
+                {
+                    setSubjects.add( String.valueOf( nIdSubject ) );
+                }
+            }
+
+            for ( SolrItem item : getDocuments( setSubjects, deadLetters ) )
+            {
+                writer.add( item );
+            }
+
+            // Written, or logged again
+            writer.flush(  );
+            deadLetters.endReplay(  );
+            AppLogService.info( setUids.size(  ) + " helpdesk documents of the dead-letter log replayed" );
+        }
+        catch ( IOException e )
+        {
+            IndexingMetrics.getInstance(  ).addFailure(  );
+            lstErrors.add( SolrIndexerService.buildErrorMessage( e ) );
+            AppLogService.error( REPLAY_ERROR, e );
+        }
     }
 
     /**
@@ -263,65 +1050,220 @@ public class SolrHelpdeskIndexer implements SolrIndexer
      * Recursive method for indexing a subject and his children
      *
      * @param faq the faq linked to the subject
+     * @param run the current run
+     * @param nSubject the position of the subject in the forest
+     * @throws IOException I/O Exception
+     */
+    private void indexSubject( Faq faq, IndexingRun run, int nSubject )
+        throws IOException
+    {
+        IndexingMetrics metrics = IndexingMetrics.getInstance(  );
+        long lStartSubject = metrics.start(  );
+        SubjectForest forest = run.getForest(  );
+        Subject subject = forest.getSubject( nSubject );
+
+        indexSubjectDocument( faq, run, subject );
+
+        for ( QuestionAnswer questionAnswer : forest.getQuestions( nSubject ) )
+        {
+            indexQuestionAnswerDocument( faq, run, questionAnswer );
+        }
+
+        metrics.recordSubject( subject.getId(  ), lStartSubject );
+
+        for ( int i = 0; i < forest.getChildCount( nSubject ); i++ )
+        {
+            indexSubject( faq, run, forest.getChild( nSubject, i ) );
+        }
+    }
+
+    /**
+     * Indexes a subject, unless it did not change since the last run
+     *
+     * @param faq the faq linked to the subject
+     * @param run the current run
      * @param subject the subject
      * @throws IOException I/O Exception
-     * @throws InterruptedException interruptedException
      */
-    private void indexSubject( Faq faq, Subject subject )
+    void indexSubjectDocument( Faq faq, IndexingRun run, Subject subject )
         throws IOException
     {
-        Plugin plugin = PluginService.getPlugin( HelpdeskPlugin.PLUGIN_NAME );
+        run.addLiveSubject( subject.getId(  ) );
 
-        String strWebappName = SolrIndexerService.getBaseUrl(  );
-        UrlItem urlSubject = new UrlItem( strWebappName );
-        urlSubject.addParameter( XPageAppService.PARAM_XPAGE_APP,
-            AppPropertiesService.getProperty( PROPERTY_PAGE_PATH_LABEL ) ); //FIXME
-        urlSubject.addParameter( HelpdeskApp.PARAMETER_FAQ_ID, faq.getId(  ) );
-        urlSubject.setAnchor( HelpdeskApp.ANCHOR_SUBJECT + subject.getId(  ) );
+        IndexingContext context = run.getContext(  );
+        String strUrlSubject = context.getSubjectUrl( faq.getId(  ), subject.getId(  ) );
 
-        // Indexing the subject
-        SolrItem itemSubject = getDocument( subject, faq.getRoleKey(  ), urlSubject.getUrl(  ), plugin );
-        SolrIndexerService.write( itemSubject );
+        String strUid = subject.getId(  ) + UID_SUFFIX_SUBJECT;
 
-        for ( QuestionAnswer questionAnswer : (List<QuestionAnswer>) subject.getQuestions(  ) )
+        // The extractor is part of the fingerprint : another extractor gives other texts
+        if ( !run.isUnchanged( strUid, subject.getText(  ), strUrlSubject, faq.getRoleKey(  ),
+                    context.getWebAppName(  ), context.getExtractorName(  ) ) )
         {
-            if ( questionAnswer.isEnabled(  ) )
+            SolrItem itemSubject;
+
+            try
+            {
+                itemSubject = getDocument( context, subject, faq.getRoleKey(  ), strUrlSubject );
+            }
+            catch ( IOException e )
             {
-                UrlItem urlQuestionAnswer = new UrlItem( strWebappName );
-                urlQuestionAnswer.addParameter( XPageAppService.PARAM_XPAGE_APP,
-                    AppPropertiesService.getProperty( PROPERTY_PAGE_PATH_LABEL ) ); //FIXME
-                urlQuestionAnswer.addParameter( HelpdeskApp.PARAMETER_FAQ_ID, faq.getId(  ) );
-                urlQuestionAnswer.setAnchor( HelpdeskApp.ANCHOR_QUESTION_ANSWER +
-                    questionAnswer.getIdQuestionAnswer(  ) );
+                if ( run.deadLetter( strUid, e ) )
+                {
+                    return;
+                }
 
-                // Indexing the questionAnswer
-                SolrItem itemQuestionAnswer = getDocument( faq.getId(  ), questionAnswer, urlQuestionAnswer.getUrl(  ),
-                        faq.getRoleKey(  ), plugin );
-                SolrIndexerService.write( itemQuestionAnswer );
+                throw e;
             }
+
+            run.getWriter(  ).add( itemSubject );
+        }
+        else
+        {
+            IndexingMetrics.getInstance(  ).addSkippedDocument(  );
+        }
+    }
+
+    /**
+     * Indexes a question/answer if it is enabled, unless it did not change since the last run
+     *
+     * @param faq the faq linked to the question/answer
+     * @param run the current run
+     * @param questionAnswer the question/answer
+     * @throws IOException I/O Exception
+     */
+    void indexQuestionAnswerDocument( Faq faq, IndexingRun run, QuestionAnswer questionAnswer )
+        throws IOException
+    {
+        if ( !questionAnswer.isEnabled(  ) )
+        {
+            // Sent again if it is enabled later on
+            IndexFingerprintStore fingerprints = run.getFingerprints(  );
+
+            if ( fingerprints != null )
+            {
+                fingerprints.forget( questionAnswer.getIdQuestionAnswer(  ) + UID_SUFFIX_QUESTION_ANSWER );
+            }
+
+            return;
         }
 
-        Collection<Subject> children = subject.getChilds( plugin );
+        run.addLiveQuestionAnswer( questionAnswer.getIdQuestionAnswer(  ) );
 
-        for ( Subject childSubject : children )
+        IndexingContext context = run.getContext(  );
+        String strUrlQuestionAnswer = context.getQuestionAnswerUrl( faq.getId(  ),
+                questionAnswer.getIdQuestionAnswer(  ) );
+
+        String strUid = questionAnswer.getIdQuestionAnswer(  ) + UID_SUFFIX_QUESTION_ANSWER;
+        ContentLimit limit = context.getContentLimit(  );
+
+        // The extractor and the limit are part of the fingerprint : they give other documents when they change
+        if ( !run.isUnchanged( strUid, questionAnswer.getQuestion(  ), questionAnswer.getAnswer(  ),
+                    strUrlQuestionAnswer, faq.getRoleKey(  ), questionAnswer.getCreationDate(  ), faq.getId(  ),
+                    questionAnswer.getIdSubject(  ), context.getWebAppName(  ), context.getExtractorName(  ),
+                    limit.getMaxChars(  ), limit.getMaxChunks(  ) ) )
         {
-            indexSubject( faq, childSubject );
+            List<SolrItem> listItems;
+
+            try
+            {
+                listItems = getQuestionAnswerDocuments( context, faq.getId(  ), questionAnswer,
+                        strUrlQuestionAnswer, faq.getRoleKey(  ) );
+            }
+            catch ( IOException e )
+            {
+                if ( run.deadLetter( strUid, e ) )
+                {
+                    return;
+                }
+
+                throw e;
+            }
+
+            run.setChunkCount( questionAnswer.getIdQuestionAnswer(  ), listItems.size(  ) - 1 );
+
+            for ( SolrItem item : listItems )
+            {
+                run.getWriter(  ).add( item );
+            }
+        }
+        else
+        {
+            IndexingMetrics.getInstance(  ).addSkippedDocument(  );
         }
     }
 
     /**
-     * Builds a {@link SolrItem} which will be used by Solr during the indexing of the question/answer list
+     * Builds the {@link SolrItem} which will be used by Solr during the indexing of the question/answer list.
+     * A content larger than the configured limit is extracted as a stream : its text is cut at the limit, the rest
+     * going to chunk documents, with uids such as <code>12-1_hdq</code>, if chunks are enabled.
      *
+     * @param context the indexing context
      * @param nIdFaq The {@link Faq} Id
      * @param questionAnswer the {@link QuestionAnswer} to index
      * @param strUrl the url of the subject
      * @param strRoleKey The role key
-     * @param plugin The {@link Plugin}
-     * @return A Solr {@link SolrItem} containing QuestionAnswer Data
+     * @return the question/answer document, followed by its chunks
      * @throws IOException The IO Exception
      */
-    private SolrItem getDocument( int nIdFaq, QuestionAnswer questionAnswer, String strUrl, String strRoleKey,
-        Plugin plugin ) throws IOException
+    List<SolrItem> getQuestionAnswerDocuments( IndexingContext context, int nIdFaq, QuestionAnswer questionAnswer,
+        String strUrl, String strRoleKey ) throws IOException
+    {
+        IndexingMetrics metrics = IndexingMetrics.getInstance(  );
+        long lStart = metrics.start(  );
+        ContentLimit limit = context.getContentLimit(  );
+        SolrItem item = newQuestionAnswerItem( context, nIdFaq, questionAnswer, strUrl, strRoleKey,
+                questionAnswer.getIdQuestionAnswer(  ) + UID_SUFFIX_QUESTION_ANSWER );
+        List<SolrItem> listItems;
+        long lExtract;
+
+        if ( !limit.isExceeded( length( questionAnswer.getQuestion(  ) ) + BLANK.length(  ) +
+                    length( questionAnswer.getAnswer(  ) ) ) )
+        {
+            //Setting the Content field
+            String strContentToIndex = getContentToIndex( questionAnswer, context.getPlugin(  ) );
+            lExtract = setContent( context, item, strContentToIndex );
+            listItems = Collections.singletonList( item );
+        }
+        else
+        {
+            long lStartExtract = metrics.start(  );
+            List<String> listChunks = extractChunks( context, questionAnswer, limit );
+            lExtract = metrics.record( Phase.EXTRACT, lStartExtract );
+            listItems = new ArrayList<SolrItem>( listChunks.size(  ) );
+
+            for ( int i = 0; i < listChunks.size(  ); i++ )
+            {
+                SolrItem itemChunk = ( i == 0 ) ? item
+                                                : newQuestionAnswerItem( context, nIdFaq, questionAnswer, strUrl,
+                        strRoleKey,
+                        SolrHelpdeskIndexerUtils.getChunkUid( questionAnswer.getIdQuestionAnswer(  ), i,
+                            UID_SUFFIX_QUESTION_ANSWER ) );
+                itemChunk.setContent( listChunks.get( i ) );
+                metrics.addExtractedChars( listChunks.get( i ).length(  ) );
+                listItems.add( itemChunk );
+            }
+        }
+
+        // The extraction has its own phase
+        metrics.recordDuration( Phase.BUILD, metrics.start(  ) - lStart - lExtract );
+
+        // return the documents
+        return listItems;
+    }
+
+    /**
+     * Builds a question/answer document, without its content
+     *
+     * @param context the indexing context
+     * @param nIdFaq The {@link Faq} Id
+     * @param questionAnswer the {@link QuestionAnswer} to index
+     * @param strUrl the url of the subject
+     * @param strRoleKey The role key
+     * @param strUid the resource uid of the document
+     * @return the document
+     */
+    private static SolrItem newQuestionAnswerItem( IndexingContext context, int nIdFaq, QuestionAnswer questionAnswer,
+        String strUrl, String strRoleKey, String strUid )
     {
         // make a new, empty document
         SolrItem item = new SolrItem(  );
@@ -339,56 +1281,69 @@ public class SolrHelpdeskIndexer implements SolrIndexer
         item.addDynamicField( HelpdeskSearchItem.FIELD_SUBJECT, String.valueOf( questionAnswer.getIdSubject(  ) ) );
 
         // Setting the Uid field
-        String strIdQuestionAnswer = String.valueOf( questionAnswer.getIdQuestionAnswer(  ) );
-        item.setUid( getResourceUid( strIdQuestionAnswer, HelpdeskIndexerUtils.CONSTANT_QUESTION_ANSWER_TYPE_RESOURCE ) );
+        item.setUid( strUid );
 
         // Setting the Date field
         // Add the last modified date of the file a field named "modified".
         item.setDate( questionAnswer.getCreationDate(  ) );
 
-        //Setting the Content field
-        String strContentToIndex = getContentToIndex( questionAnswer, plugin );
-
-        HtmlParser parser = new HtmlParser(  );
-        ContentHandler handler = new BodyContentHandler();
-        Metadata metadata = new Metadata();
-        InputStream stream = new ByteArrayInputStream(strContentToIndex.getBytes(StandardCharsets.UTF_8));
-        try {
-			parser.parse(stream,  handler, metadata, new ParseContext());
-		} catch (SAXException e) {
-			e.printStackTrace();
-		} catch (TikaException e) {
-			e.printStackTrace();
-		}
-        
-        item.setContent( handler.toString(  ) );
-
         // Setting the Title field
         item.setTitle( questionAnswer.getQuestion(  ) );
 
         // Setting the Site field
-        item.setSite( SolrIndexerService.getWebAppName(  ) );
+        item.setSite( context.getWebAppName(  ) );
 
         // Setting the Type field
         item.setType( HelpdeskPlugin.PLUGIN_NAME );
 
-        // return the document
         return item;
     }
 
+    /**
+     * Extracts the text of a large question/answer as a stream, into chunks of at most the maximum size. The
+     * question and the answer are extracted one after the other instead of being concatenated.
+     * @param context the indexing context
+     * @param questionAnswer the question/answer
+     * @param limit the content limit
+     * @return the chunks of the text, at least one
+     * @throws IOException if the text cannot be extracted
+     */
+    private static List<String> extractChunks( IndexingContext context, QuestionAnswer questionAnswer,
+        ContentLimit limit ) throws IOException
+    {
+        HtmlTextExtractor extractor = context.getExtractor(  );
+        ChunkedTextWriter writer = new ChunkedTextWriter( limit.getMaxChars(  ), limit.getMaxChunks(  ) );
+
+        extractor.extract( new StringReader( StringUtils.defaultString( questionAnswer.getQuestion(  ) ) ), writer );
+        writer.write( BLANK );
+        extractor.extract( new StringReader( StringUtils.defaultString( questionAnswer.getAnswer(  ) ) ), writer );
+        writer.close(  );
+
+        if ( writer.isTruncated(  ) )
+        {
+            AppLogService.info( "The text of the helpdesk question/answer " + questionAnswer.getIdQuestionAnswer(  ) +
+                " exceeds " + limit.getMaxChunks(  ) + " x " + limit.getMaxChars(  ) + " characters, it is truncated" );
+        }
+
+        return writer.getChunks(  );
+    }
+
     /**
      * Builds a {@link SolrItem} element which will be used by Solr during the indexing of the subject list
      *
+     * @param context the indexing context
      * @param subject the {@link Subject} to index
-     * @param strUrl the url of the subject
      * @param strRoleKey The role key
-     * @param plugin The {@link Plugin}
+     * @param strUrl the url of the subject
      * @return The Solr {@link SolrItem} containing Subject data
      * @throws IOException The IO Exception
      */
-    private SolrItem getDocument( Subject subject, String strRoleKey, String strUrl, Plugin plugin )
+    SolrItem getDocument( IndexingContext context, Subject subject, String strRoleKey, String strUrl )
         throws IOException
     {
+        IndexingMetrics metrics = IndexingMetrics.getInstance(  );
+        long lStart = metrics.start(  );
+
         // make a new, empty document
         SolrItem item = new SolrItem(  );
 
@@ -396,31 +1351,17 @@ public class SolrHelpdeskIndexer implements SolrIndexer
         item.setUrl( strUrl );
 
         // Setting the Uid field
-        String strIdSubject = String.valueOf( subject.getId(  ) );
-        item.setUid( getResourceUid( strIdSubject, HelpdeskIndexerUtils.CONSTANT_SUBJECT_TYPE_RESOURCE ) );
+        item.setUid( subject.getId(  ) + UID_SUFFIX_SUBJECT );
 
         //Setting the Content field
         String strContentToIndex = subject.getText(  );
-        
-        HtmlParser parser = new HtmlParser(  );
-        ContentHandler handler = new BodyContentHandler();
-        Metadata metadata = new Metadata();
-        InputStream stream = new ByteArrayInputStream(strContentToIndex.getBytes(StandardCharsets.UTF_8));
-        try {
-			parser.parse(stream,  handler, metadata, new ParseContext());
-		} catch (SAXException e) {
-			e.printStackTrace();
-		} catch (TikaException e) {
-			e.printStackTrace();
-		}
-        
-        item.setContent( strContentToIndex.toString(  ) );
+        long lExtract = setContent( context, item, strContentToIndex );
 
         // Setting the Title field
         item.setTitle( subject.getText(  ) );
 
         // Setting the Site field
-        item.setSite( SolrIndexerService.getWebAppName(  ) );
+        item.setSite( context.getWebAppName(  ) );
 
         // Setting the Type field
         item.setType( HelpdeskPlugin.PLUGIN_NAME );
@@ -428,23 +1369,56 @@ public class SolrHelpdeskIndexer implements SolrIndexer
         // Setting the Role field
         item.setRole( strRoleKey );
 
+        // The extraction has its own phase
+        metrics.recordDuration( Phase.BUILD, metrics.start(  ) - lStart - lExtract );
+
         // return the document
         return item;
     }
 
+    /**
+     * Sets the content field of an item with the text extracted from the HTML content
+     * @param context the indexing context
+     * @param item the item
+     * @param strContentToIndex the HTML content
+     * @return the time spent in the extraction, in nanoseconds, 0 if the metrics are disabled
+     * @throws IOException The IO Exception
+     */
+    private static long setContent( IndexingContext context, SolrItem item, String strContentToIndex )
+        throws IOException
+    {
+        IndexingMetrics metrics = IndexingMetrics.getInstance(  );
+        long lStart = metrics.start(  );
+        String strContent = context.getExtractor(  ).extract( strContentToIndex );
+        long lExtract = metrics.record( Phase.EXTRACT, lStart );
+
+        if ( strContent != null )
+        {
+            metrics.addExtractedChars( strContent.length(  ) );
+        }
+
+        item.setContent( strContent );
+
+        return lExtract;
+    }
+
     /**
      * Set the Content to index (Question and Answer)
      * @param questionAnswer The {@link QuestionAnswer} to index
      * @param plugin The {@link Plugin}
      * @return The content to index
      */
-    private static String getContentToIndex( QuestionAnswer questionAnswer, Plugin plugin )
+    static String getContentToIndex( QuestionAnswer questionAnswer, Plugin plugin )
     {
-        StringBuffer sbContentToIndex = new StringBuffer(  );
+        String strQuestion = questionAnswer.getQuestion(  );
+        String strAnswer = questionAnswer.getAnswer(  );
+        StringBuilder sbContentToIndex = new StringBuilder( length( strQuestion ) + BLANK.length(  ) +
+                length( strAnswer ) );
+
         //Do not index question here
-        sbContentToIndex.append( questionAnswer.getQuestion(  ) );
+        sbContentToIndex.append( strQuestion );
         sbContentToIndex.append( BLANK );
-        sbContentToIndex.append( questionAnswer.getAnswer(  ) );
+        sbContentToIndex.append( strAnswer );
 
         return sbContentToIndex.toString(  );
     }
@@ -462,17 +1436,26 @@ public class SolrHelpdeskIndexer implements SolrIndexer
      */
     public String getResourceUid( String strResourceId, String strResourceType )
     {
-        StringBuffer sb = new StringBuffer(  );
-
         if ( HelpdeskIndexerUtils.CONSTANT_QUESTION_ANSWER_TYPE_RESOURCE.equals( strResourceType ) )
         {
-            sb.append( strResourceId ).append( SolrConstants.CONSTANT_UNDERSCORE ).append( SHORT_NAME_QUESTION_ANSWER );
+            return strResourceId + UID_SUFFIX_QUESTION_ANSWER;
         }
-        else if ( HelpdeskIndexerUtils.CONSTANT_SUBJECT_TYPE_RESOURCE.equals( strResourceType ) )
+
+        if ( HelpdeskIndexerUtils.CONSTANT_SUBJECT_TYPE_RESOURCE.equals( strResourceType ) )
         {
-            sb.append( strResourceId ).append( SolrConstants.CONSTANT_UNDERSCORE ).append( SHORT_NAME_SUBJECT );
+            return strResourceId + UID_SUFFIX_SUBJECT;
         }
 
-        return StringUtils.isNotBlank( sb.toString(  ) ) ? sb.toString(  ) : null;
+        return null;
+    }
+
+    /**
+     * Null-safe string length
+     * @param str the string
+     * @return the length of the string, 0 if null
+     */
+    private static int length( String str )
+    {
+        return ( str != null ) ? str.length(  ) : 0;
     }
 }
@@ -0,0 +1,318 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.helpdesk.modules.solr.search;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.util.ClientUtils;
+
+import fr.paris.lutece.plugins.search.solr.business.SolrServerService;
+import fr.paris.lutece.plugins.search.solr.indexer.SolrIndexerService;
+import fr.paris.lutece.plugins.search.solr.indexer.SolrItem;
+import fr.paris.lutece.plugins.search.solr.util.SolrConstants;
+
+
+/**
+ * Utilities for the helpdesk documents already stored in Solr
+ */
+public final class SolrHelpdeskIndexerUtils
+{
+    /**
+     * Separator of the chunk number in the resource uid of a chunk document, for instance <code>12-1_hdq</code>
+     */
+    public static final String CHUNK_SEPARATOR = "-";
+
+    /**
+     * Maximum number of clauses of a query deleting chunks, below the default limit of Solr
+     */
+    static final int QUERY_MAX_CLAUSES = 500;
+    private static final String FIELD_UID = "uid:";
+    private static final String WILDCARD = "*";
+    private static final String QUERY_OR = " OR ";
+    private static final String QUERY_NOT = " -";
+
+    /**
+     * Private constructor
+     */
+    private SolrHelpdeskIndexerUtils(  )
+    {
+    }
+
+    /**
+     * Returns the uid of a document in Solr : the resource uid prefixed with the site name, as written
+     * by {@link SolrIndexerService}
+     * @param strResourceUid the resource uid, for instance <code>12_hdq</code>
+     * @return the Solr uid
+     */
+    public static String getSolrUid( String strResourceUid )
+    {
+        return SolrIndexerService.getWebAppName(  ) + SolrConstants.CONSTANT_UNDERSCORE + strResourceUid;
+    }
+
+    /**
+     * Parses the id of the resource of a resource uid. The chunk number of a chunk document is ignored.
+     * @param strResourceUid the resource uid, for instance <code>12_hdq</code> or <code>12-1_hdq</code>
+     * @param strSuffix the suffix of the resource type, for instance <code>_hdq</code>
+     * @return the id, or -1 if the uid is not one of this resource type
+     */
+    public static int getResourceId( String strResourceUid, String strSuffix )
+    {
+        if ( !strResourceUid.endsWith( strSuffix ) )
+        {
+            return -1;
+        }
+
+        String strId = strResourceUid.substring( 0, strResourceUid.length(  ) - strSuffix.length(  ) );
+        int nSeparator = strId.indexOf( CHUNK_SEPARATOR );
+
+        if ( nSeparator > 0 )
+        {
+            strId = strId.substring( 0, nSeparator );
+        }
+
+        return parse( strId );
+    }
+
+    /**
+     * Parses the chunk number of a resource uid
+     * @param strResourceUid the resource uid, for instance <code>12-1_hdq</code>
+     * @param strSuffix the suffix of the resource type, for instance <code>_hdq</code>
+     * @return the chunk number, 0 for the main document, or -1 if the uid is not one of this resource type
+     */
+    public static int getChunkNumber( String strResourceUid, String strSuffix )
+    {
+        if ( getResourceId( strResourceUid, strSuffix ) < 0 )
+        {
+            return -1;
+        }
+
+        String strId = strResourceUid.substring( 0, strResourceUid.length(  ) - strSuffix.length(  ) );
+        int nSeparator = strId.indexOf( CHUNK_SEPARATOR );
+
+        return ( nSeparator > 0 ) ? parse( strId.substring( nSeparator + 1 ) ) : 0;
+    }
+
+    /**
+     * Returns the resource uid of a chunk of a document
+     * @param nId the id of the resource
+     * @param nChunk the chunk number, 0 for the main document
+     * @param strSuffix the suffix of the resource type, for instance <code>_hdq</code>
+     * @return the resource uid, for instance <code>12-1_hdq</code>
+     */
+    public static String getChunkUid( int nId, int nChunk, String strSuffix )
+    {
+        return ( nChunk == 0 ) ? ( nId + strSuffix ) : ( nId + CHUNK_SEPARATOR + nChunk + strSuffix );
+    }
+
+    /**
+     * Returns the number of chunks of the question/answers of a list of documents
+     * @param listItems the documents, each question/answer coming with all its chunks
+     * @return the number of chunks besides the main document, by question/answer id
+     */
+    public static Map<Integer, Integer> getChunkCounts( Collection<SolrItem> listItems )
+    {
+        Map<Integer, Integer> mapChunkCounts = new LinkedHashMap<Integer, Integer>(  );
+
+        for ( SolrItem item : listItems )
+        {
+            int nChunk = getChunkNumber( item.getUid(  ), SolrHelpdeskIndexer.UID_SUFFIX_QUESTION_ANSWER );
+
+            if ( nChunk >= 0 )
+            {
+                int nId = getResourceId( item.getUid(  ), SolrHelpdeskIndexer.UID_SUFFIX_QUESTION_ANSWER );
+                Integer nCount = mapChunkCounts.get( nId );
+                mapChunkCounts.put( nId, ( nCount != null ) ? Math.max( nCount, nChunk ) : nChunk );
+            }
+        }
+
+        return mapChunkCounts;
+    }
+
+    /**
+     * Builds the queries matching the chunks of question/answers numbered above their current number of chunks.
+     * The chunks are matched by the uid prefix of the question/answer, whatever the maximum number of chunks
+     * when they were indexed, and the current chunks are excluded : the queries may be sent before or after the
+     * current chunks.
+     * @param mapChunkCounts the number of chunks kept, by question/answer id, 0 to match every chunk
+     * @return the queries, each one of at most {@link #QUERY_MAX_CLAUSES} clauses
+     */
+    static List<String> getChunkQueries( Map<Integer, Integer> mapChunkCounts )
+    {
+        List<String> listQueries = new ArrayList<String>(  );
+        StringBuilder sbQuery = new StringBuilder(  );
+        int nClauses = 0;
+
+        for ( Map.Entry<Integer, Integer> entry : mapChunkCounts.entrySet(  ) )
+        {
+            int nId = entry.getKey(  );
+            int nChunkCount = Math.max( 0, entry.getValue(  ) );
+
+            if ( ( nClauses > 0 ) && ( nClauses + nChunkCount + 1 > QUERY_MAX_CLAUSES ) )
+            {
+                listQueries.add( sbQuery.toString(  ) );
+                sbQuery.setLength( 0 );
+                nClauses = 0;
+            }
+
+            // Only the chunks have the separator after the id : the main document is left alone
+            String strPrefix = ClientUtils.escapeQueryChars( getSolrUid( nId + CHUNK_SEPARATOR ) );
+            sbQuery.append( ( nClauses > 0 ) ? QUERY_OR : "" ).append( '(' );
+            sbQuery.append( FIELD_UID ).append( strPrefix ).append( WILDCARD );
+
+            for ( int i = 1; i <= nChunkCount; i++ )
+            {
+                sbQuery.append( QUERY_NOT ).append( FIELD_UID ).append( ClientUtils.escapeQueryChars( getSolrUid(
+                            getChunkUid( nId, i, SolrHelpdeskIndexer.UID_SUFFIX_QUESTION_ANSWER ) ) ) );
+            }
+
+            sbQuery.append( ')' );
+            nClauses += ( nChunkCount + 1 );
+        }
+
+        if ( nClauses > 0 )
+        {
+            listQueries.add( sbQuery.toString(  ) );
+        }
+
+        return listQueries;
+    }
+
+    /**
+     * Deletes from Solr the chunks of question/answers numbered above their current number of chunks : a shorter
+     * content, a lower maximum number of chunks or disabled chunks give fewer chunks than the previous indexing.
+     * The deletions are not committed.
+     * @param mapChunkCounts the number of chunks kept, by question/answer id, 0 to delete every chunk
+     * @throws IOException if Solr cannot be reached
+     */
+    public static void deleteChunks( Map<Integer, Integer> mapChunkCounts )
+        throws IOException
+    {
+        SolrClient solrClient = SolrServerService.getInstance(  ).getSolrServer(  );
+
+        try
+        {
+            for ( String strQuery : getChunkQueries( mapChunkCounts ) )
+            {
+                solrClient.deleteByQuery( strQuery );
+            }
+        }
+        catch ( SolrServerException e )
+        {
+            throw new IOException( e );
+        }
+    }
+
+    /**
+     * Deletes documents from Solr, with the chunks of the question/answers
+     * @param listResourceUids the resource uids of the documents
+     * @throws IOException if Solr cannot be reached
+     */
+    public static void deleteDocuments( Collection<String> listResourceUids )
+        throws IOException
+    {
+        if ( listResourceUids.isEmpty(  ) )
+        {
+            return;
+        }
+
+        List<String> listSolrUids = new ArrayList<String>( listResourceUids.size(  ) );
+        Map<Integer, Integer> mapChunkCounts = new LinkedHashMap<Integer, Integer>(  );
+
+        for ( String strResourceUid : listResourceUids )
+        {
+            listSolrUids.add( getSolrUid( strResourceUid ) );
+
+            // The chunks of a large question/answer go with it
+            if ( getChunkNumber( strResourceUid, SolrHelpdeskIndexer.UID_SUFFIX_QUESTION_ANSWER ) == 0 )
+            {
+                mapChunkCounts.put( getResourceId( strResourceUid, SolrHelpdeskIndexer.UID_SUFFIX_QUESTION_ANSWER ),
+                    0 );
+            }
+        }
+
+        try
+        {
+            SolrServerService.getInstance(  ).getSolrServer(  ).deleteById( listSolrUids );
+        }
+        catch ( SolrServerException e )
+        {
+            throw new IOException( e );
+        }
+
+        deleteChunks( mapChunkCounts );
+        commit(  );
+    }
+
+    /**
+     * Commits the changes sent to Solr
+     * @throws IOException if Solr cannot be reached
+     */
+    public static void commit(  ) throws IOException
+    {
+        try
+        {
+            SolrServerService.getInstance(  ).getSolrServer(  ).commit(  );
+        }
+        catch ( SolrServerException e )
+        {
+            throw new IOException( e );
+        }
+    }
+
+    /**
+     * Parses a positive number
+     * @param strNumber the number
+     * @return the number, or -1 if it is not a number
+     */
+    private static int parse( String strNumber )
+    {
+        try
+        {
+            int nNumber = Integer.parseInt( strNumber );
+
+            return ( nNumber >= 0 ) ? nNumber : ( -1 );
+        }
+        catch ( NumberFormatException e )
+        {
+            return -1;
+        }
+    }
+}
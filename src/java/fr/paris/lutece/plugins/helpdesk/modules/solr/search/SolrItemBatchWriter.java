@@ -0,0 +1,518 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.helpdesk.modules.solr.search;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import fr.paris.lutece.plugins.helpdesk.modules.solr.service.IndexingMetrics;
+import fr.paris.lutece.plugins.search.solr.indexer.SolrItem;
+import fr.paris.lutece.portal.service.util.AppLogService;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+
+
+/**
+ * Buffers the {@link SolrItem} built by the indexer and sends them to a {@link SolrItemSink}, Solr by default,
+ * in batches.
+ * A batch is flushed when it reaches the configured number of documents or the configured
+ * approximate payload size, counted in characters. When pipelining is enabled, a batch is sent by a background
+ * thread while the next one is being built; at most one batch is in flight at any time.
+ * A batch whose write fails is handed to the {@link WriteRetryQueue}, if any. Without a retry queue, the batch
+ * is lost : its uids are logged at once, and the next {@link #flush()} or {@link #close()} throws a
+ * {@link SolrBatchWriteException} naming the lost documents. {@link #add(SolrItem)} never reports the failure
+ * of a batch, which may have been built from other subjects than the item being added.
+ */
+public class SolrItemBatchWriter implements Closeable
+{
+    private static final String PROPERTY_BATCH_SIZE = "helpdesk-solr.indexer.batch.size";
+    private static final String PROPERTY_BATCH_MAX_CHARS = "helpdesk-solr.indexer.batch.maxChars";
+    private static final String PROPERTY_BATCH_PIPELINED = "helpdesk-solr.indexer.batch.pipelined";
+    private static final int DEFAULT_BATCH_SIZE = 200;
+    private static final long DEFAULT_BATCH_MAX_CHARS = 5L * 1024L * 1024L;
+    private static final String THREAD_NAME = "helpdesk-solr-batch-writer";
+
+    private final SolrItemSink _sink;
+    private final WriteRetryQueue _retryQueue;
+    private final int _nBatchSize;
+    private final long _lBatchMaxChars;
+    private final ExecutorService _executor;
+    private List<SolrItem> _listBuffer;
+    private long _lBufferChars;
+    private Future<?> _pendingFlush;
+    private volatile boolean _bFailed;
+
+    // Number of chunks kept by question/answer id, the chunks above being removed after the batches in flight
+    private Map<Integer, Integer> _mapChunkDeletions = new LinkedHashMap<Integer, Integer>(  );
+
+    // Failures of the background thread not reported yet by flush : uids of the lost documents, first causes
+    private final List<String> _listLostUids = new ArrayList<String>(  );
+    private Exception _lostCause;
+    private IOException _deadLetterFailure;
+
+    /**
+     * Creates a writer to Solr configured from the helpdesk-solr properties
+     */
+    public SolrItemBatchWriter(  )
+    {
+        this( new SolrServerSink(  ), null );
+    }
+
+    /**
+     * Creates a writer configured from the helpdesk-solr properties
+     * @param sink the destination of the batches
+     * @param retryQueue the queue of the batches to retry, null to fail on the first error
+     */
+    public SolrItemBatchWriter( SolrItemSink sink, WriteRetryQueue retryQueue )
+    {
+        this( sink, retryQueue, AppPropertiesService.getPropertyInt( PROPERTY_BATCH_SIZE, DEFAULT_BATCH_SIZE ),
+            AppPropertiesService.getPropertyLong( PROPERTY_BATCH_MAX_CHARS, DEFAULT_BATCH_MAX_CHARS ),
+            AppPropertiesService.getPropertyBoolean( PROPERTY_BATCH_PIPELINED, true ) );
+    }
+
+    /**
+     * Creates a writer to Solr
+     * @param nBatchSize the maximum number of documents per batch
+     * @param lBatchMaxChars the maximum approximate payload size of a batch, in characters
+     * @param bPipelined true to send the batches from a background thread
+     */
+    public SolrItemBatchWriter( int nBatchSize, long lBatchMaxChars, boolean bPipelined )
+    {
+        this( new SolrServerSink(  ), null, nBatchSize, lBatchMaxChars, bPipelined );
+    }
+
+    /**
+     * Creates a writer
+     * @param sink the destination of the batches
+     * @param retryQueue the queue of the batches to retry, null to fail on the first error
+     * @param nBatchSize the maximum number of documents per batch
+     * @param lBatchMaxChars the maximum approximate payload size of a batch, in characters
+     * @param bPipelined true to send the batches from a background thread
+     */
+    public SolrItemBatchWriter( SolrItemSink sink, WriteRetryQueue retryQueue, int nBatchSize, long lBatchMaxChars,
+        boolean bPipelined )
+    {
+        _sink = sink;
+        _retryQueue = retryQueue;
+        _nBatchSize = Math.max( 1, nBatchSize );
+        _lBatchMaxChars = ( lBatchMaxChars > 0 ) ? lBatchMaxChars : Long.MAX_VALUE;
+        _executor = bPipelined ? Executors.newSingleThreadExecutor( r -> {
+                    Thread thread = new Thread( r, THREAD_NAME );
+                    thread.setDaemon( true );
+
+                    return thread;
+                } ) : null;
+        _listBuffer = new ArrayList<SolrItem>( _nBatchSize );
+    }
+
+    /**
+     * Adds an item to the current batch, flushing the batch if a threshold is reached. A batch which cannot be
+     * written is not reported here but by the next flush.
+     * @param item the item
+     * @throws IOException if the thread is interrupted while waiting for the batch in flight
+     */
+    public synchronized void add( SolrItem item ) throws IOException
+    {
+        _listBuffer.add( item );
+        _lBufferChars += getApproximateSize( item );
+
+        if ( ( _listBuffer.size(  ) >= _nBatchSize ) || ( _lBufferChars >= _lBatchMaxChars ) )
+        {
+            flushBuffer(  );
+        }
+    }
+
+    /**
+     * Removes from the index the chunks of a question/answer numbered above its current number of chunks. The
+     * removals are sent by batches, once the batches in flight are written. A removal which cannot be sent is
+     * reported by the next flush, as a lost batch.
+     * @param nIdQuestionAnswer the question/answer id
+     * @param nChunkCount the number of chunks kept, besides the main document
+     * @throws IOException if the thread is interrupted while waiting for the batch in flight
+     */
+    public synchronized void deleteChunks( int nIdQuestionAnswer, int nChunkCount )
+        throws IOException
+    {
+        _mapChunkDeletions.put( nIdQuestionAnswer, nChunkCount );
+
+        if ( _mapChunkDeletions.size(  ) >= _nBatchSize )
+        {
+            awaitPendingFlush(  );
+            sendDeletions(  );
+        }
+    }
+
+    /**
+     * Sends the current batch and waits until every batch has been written, or retried until it went
+     * to the dead-letter log. The retries wait for their delays with the writer held : the threads adding
+     * items wait as well, at most for the sum of the delays of the retries of a batch. The writes to the sink
+     * stay serialized, the sinks not being required to be thread safe.
+     * @throws SolrBatchWriteException if a batch could not be written and there is no retry queue
+     * @throws IOException if a batch went to the dead-letter log and the log could not be written
+     */
+    public synchronized void flush(  ) throws IOException
+    {
+        flushBuffer(  );
+        awaitPendingFlush(  );
+
+        if ( _retryQueue != null )
+        {
+            try
+            {
+                _retryQueue.drain( _sink );
+            }
+            catch ( IOException e )
+            {
+                addDeadLetterFailure( e );
+            }
+        }
+
+        sendDeletions(  );
+        reportFailures(  );
+    }
+
+    /**
+     * Flushes the remaining items, releases the background thread and closes the sink
+     * @throws IOException if a batch could not be written or the sink could not be closed
+     */
+    @Override
+    public synchronized void close(  ) throws IOException
+    {
+        try
+        {
+            flush(  );
+        }
+        finally
+        {
+            if ( _executor != null )
+            {
+                _executor.shutdown(  );
+            }
+
+            _sink.close(  );
+        }
+    }
+
+    /**
+     * Tells whether a batch could not be written since the creation of the writer
+     * @return true if a batch failed
+     */
+    public boolean hasFailed(  )
+    {
+        return _bFailed;
+    }
+
+    /**
+     * Hands the current buffer over to Solr and starts a new one
+     * @throws IOException if the thread is interrupted while waiting for the previous batch
+     */
+    private void flushBuffer(  ) throws IOException
+    {
+        if ( _listBuffer.isEmpty(  ) )
+        {
+            return;
+        }
+
+        // Only one batch in flight : wait for the previous one before sending this one
+        awaitPendingFlush(  );
+
+        final List<SolrItem> listBatch = _listBuffer;
+        _listBuffer = new ArrayList<SolrItem>( _nBatchSize );
+        _lBufferChars = 0;
+
+        if ( _executor == null )
+        {
+            write( listBatch );
+        }
+        else
+        {
+            _pendingFlush = _executor.submit( () -> {
+                        write( listBatch );
+
+                        return null;
+                    } );
+        }
+    }
+
+    /**
+     * Sends a batch to the sink. A batch which cannot be written is retried, or lost and recorded for the next
+     * flush.
+     * @param listBatch the batch
+     */
+    private void write( List<SolrItem> listBatch )
+    {
+        IndexingMetrics metrics = IndexingMetrics.getInstance(  );
+        IndexingThrottle throttle = IndexingThrottle.getInstance(  );
+
+        if ( _retryQueue != null )
+        {
+            retry(  );
+        }
+
+        long lThrottle = throttle.acquire( IndexingThrottle.Channel.WRITE, listBatch.size(  ) );
+        long lStart = metrics.start(  );
+
+        try
+        {
+            _sink.write( listBatch );
+        }
+        catch ( IOException | RuntimeException e )
+        {
+            if ( _retryQueue == null )
+            {
+                addLostBatch( listBatch, e );
+
+                return;
+            }
+
+            try
+            {
+                _retryQueue.offer( listBatch, e );
+            }
+            catch ( IOException eDeadLetter )
+            {
+                addDeadLetterFailure( eDeadLetter );
+            }
+
+            return;
+        }
+        finally
+        {
+            throttle.release( IndexingThrottle.Channel.WRITE, lThrottle );
+        }
+
+        metrics.record( IndexingMetrics.Phase.WRITE, lStart );
+        metrics.addDocuments( listBatch.size(  ) );
+    }
+
+    /**
+     * Sends the pending removals to the sink. The caller waits for the batch in flight first : the sink is
+     * not required to be thread safe.
+     */
+    private void sendDeletions(  )
+    {
+        if ( _mapChunkDeletions.isEmpty(  ) )
+        {
+            return;
+        }
+
+        Map<Integer, Integer> mapChunkDeletions = _mapChunkDeletions;
+        _mapChunkDeletions = new LinkedHashMap<Integer, Integer>(  );
+
+        try
+        {
+            _sink.deleteChunks( mapChunkDeletions );
+        }
+        catch ( IOException e )
+        {
+            // The question/answers whose former chunks are still in the index
+            List<String> listUids = new ArrayList<String>( mapChunkDeletions.size(  ) );
+
+            for ( Integer nIdQuestionAnswer : mapChunkDeletions.keySet(  ) )
+            {
+                listUids.add( nIdQuestionAnswer + SolrHelpdeskIndexer.UID_SUFFIX_QUESTION_ANSWER );
+            }
+
+            addLostUids( listUids, e );
+        }
+    }
+
+    /**
+     * Retries the failed batches whose delay is over
+     */
+    private void retry(  )
+    {
+        try
+        {
+            _retryQueue.retryDue( _sink );
+        }
+        catch ( IOException e )
+        {
+            addDeadLetterFailure( e );
+        }
+    }
+
+    /**
+     * Records a batch which cannot be written and is not retried
+     * @param listBatch the batch
+     * @param cause the cause of the failure
+     */
+    private void addLostBatch( List<SolrItem> listBatch, Exception cause )
+    {
+        addLostUids( getUids( listBatch ), cause );
+    }
+
+    /**
+     * Records documents which cannot be written or removed and are not retried
+     * @param listUids the resource uids of the documents
+     * @param cause the cause of the failure
+     */
+    private void addLostUids( List<String> listUids, Exception cause )
+    {
+        AppLogService.error( new SolrBatchWriteException( listUids, cause ).getMessage(  ), cause );
+
+        synchronized ( _listLostUids )
+        {
+            _bFailed = true;
+            _listLostUids.addAll( listUids );
+
+            if ( _lostCause == null )
+            {
+                _lostCause = cause;
+            }
+        }
+    }
+
+    /**
+     * Records a batch which went to the dead-letter log while the log could not be written
+     * @param e the failure of the log
+     */
+    private void addDeadLetterFailure( IOException e )
+    {
+        synchronized ( _listLostUids )
+        {
+            _bFailed = true;
+
+            if ( _deadLetterFailure == null )
+            {
+                _deadLetterFailure = e;
+            }
+        }
+    }
+
+    /**
+     * Throws the failures recorded since the previous flush, once
+     * @throws IOException if batches were lost since the previous flush
+     */
+    private void reportFailures(  ) throws IOException
+    {
+        synchronized ( _listLostUids )
+        {
+            if ( _deadLetterFailure != null )
+            {
+                IOException e = _deadLetterFailure;
+                _deadLetterFailure = null;
+                throw e;
+            }
+
+            if ( !_listLostUids.isEmpty(  ) )
+            {
+                SolrBatchWriteException e = new SolrBatchWriteException( new ArrayList<String>( _listLostUids ),
+                        _lostCause );
+                _listLostUids.clear(  );
+                _lostCause = null;
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Waits for the batch in flight, if any
+     * @throws IOException if the batch could not be written
+     */
+    private void awaitPendingFlush(  ) throws IOException
+    {
+        if ( _pendingFlush == null )
+        {
+            return;
+        }
+
+        Future<?> pendingFlush = _pendingFlush;
+        _pendingFlush = null;
+
+        try
+        {
+            pendingFlush.get(  );
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread(  ).interrupt(  );
+            throw new IOException( e );
+        }
+        catch ( ExecutionException e )
+        {
+            if ( e.getCause(  ) instanceof IOException )
+            {
+                throw (IOException) e.getCause(  );
+            }
+
+            throw new IOException( e.getCause(  ) );
+        }
+    }
+
+    /**
+     * Returns the uids of the items of a batch
+     * @param listBatch the batch
+     * @return the uids
+     */
+    private static List<String> getUids( List<SolrItem> listBatch )
+    {
+        List<String> listUids = new ArrayList<String>( listBatch.size(  ) );
+
+        for ( SolrItem item : listBatch )
+        {
+            listUids.add( item.getUid(  ) );
+        }
+
+        return listUids;
+    }
+
+    /**
+     * Returns the approximate size of the payload sent to Solr for an item
+     * @param item the item
+     * @return the approximate size, in characters
+     */
+    private static long getApproximateSize( SolrItem item )
+    {
+        return length( item.getContent(  ) ) + length( item.getTitle(  ) ) + length( item.getUrl(  ) ) +
+        length( item.getUid(  ) );
+    }
+
+    /**
+     * Null-safe string length
+     * @param str the string
+     * @return the length of the string, 0 if null
+     */
+    private static int length( String str )
+    {
+        return ( str != null ) ? str.length(  ) : 0;
+    }
+}
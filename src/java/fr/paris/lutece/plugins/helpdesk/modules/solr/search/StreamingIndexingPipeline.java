@@ -0,0 +1,573 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.helpdesk.modules.solr.search;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import fr.paris.lutece.plugins.helpdesk.business.AbstractSubject;
+import fr.paris.lutece.plugins.helpdesk.business.Faq;
+import fr.paris.lutece.plugins.helpdesk.business.QuestionAnswer;
+import fr.paris.lutece.plugins.helpdesk.business.Subject;
+import fr.paris.lutece.plugins.helpdesk.modules.solr.service.IndexingMetrics;
+import fr.paris.lutece.plugins.search.solr.indexer.SolrIndexerService;
+import fr.paris.lutece.plugins.search.solr.indexer.SolrItem;
+import fr.paris.lutece.portal.service.util.AppLogService;
+
+
+/**
+ * Bounded-memory full reindex. A producer walks the subject trees one subject at a time and puts the
+ * subjects and question/answers to index in a bounded queue ; consumers build the {@link SolrItem}
+ * and hand them to the batch writer. The producer blocks when the queue is full, so the number of
+ * documents in memory is capped by the queue size, the number of consumers and the batch size of the
+ * writer, whatever the size of the faqs. The producer waits for room by short steps and checks the
+ * consumers in between : if they stop, the run fails instead of waiting forever.
+ * <br>
+ * The helpdesk DAOs offer no cursor : the walk keeps only subject ids and loads each subject when it is its turn.
+ * The question/answers of a subject are read with it, unless they are more than the page size : only their
+ * ids are read then, and the question/answers are loaded one page at a time, as the queue makes room. The ids of
+ * the question/answers of the largest subject remain in memory.
+ */
+class StreamingIndexingPipeline
+{
+    private static final String SUBJECT_INDEXATION_ERROR = "An error occured during the indexation of the subject number ";
+    private static final String QUESTION_ANSWER_INDEXATION_ERROR = "An error occured during the indexation of the question/answer number ";
+    private static final String INDEXATION_ERROR = "An error occured during the indexation of the helpdesk";
+    private static final String CHECKPOINT_SAVE_ERROR = "Unable to save the checkpoint of the helpdesk indexing";
+    private static final String CONSUMERS_STOPPED_ERROR = "The helpdesk document builders stopped before the end of the indexation";
+    private static final long OFFER_TIMEOUT = 500L;
+
+    // Tells a consumer that the producer is done
+    private static final Document END = new Document( null, null, null, null );
+    private final SolrHelpdeskIndexer _indexer;
+    private final IndexingRun _run;
+    private final HelpdeskDataSource _dataSource;
+    private final int _nConsumers;
+    private final int _nQuestionPageSize;
+    private final BlockingQueue<Document> _queue;
+    private final List<String> _listErrors = Collections.synchronizedList( new ArrayList<String>(  ) );
+    private final List<Future<Void>> _listConsumers = new ArrayList<Future<Void>>(  );
+
+    /**
+     * Constructor
+     * @param indexer the indexer building the documents
+     * @param run the current run
+     * @param nConsumers the number of consumer threads
+     * @param nQueueSize the maximum number of subjects and question/answers waiting in the queue
+     * @param nQuestionPageSize the maximum number of question/answers of a subject loaded at once, 0 to read
+     *        the question/answers of each subject at once
+     */
+    StreamingIndexingPipeline( SolrHelpdeskIndexer indexer, IndexingRun run, int nConsumers, int nQueueSize,
+        int nQuestionPageSize )
+    {
+        _indexer = indexer;
+        _run = run;
+        _dataSource = run.getContext(  ).getDataSource(  );
+        _nConsumers = Math.max( 1, nConsumers );
+        _nQuestionPageSize = Math.max( 0, nQuestionPageSize );
+        _queue = new ArrayBlockingQueue<Document>( Math.max( 1, nQueueSize ) );
+    }
+
+    /**
+     * Runs the pipeline : produces from the calling thread until every faq is walked, then waits for the consumers
+     * @param lstErrors the list receiving the errors
+     */
+    void run( List<String> lstErrors )
+    {
+        ExecutorService executor = Executors.newFixedThreadPool( _nConsumers, SolrHelpdeskIndexer.getThreadFactory(  ) );
+
+        try
+        {
+            for ( int i = 0; i < _nConsumers; i++ )
+            {
+                _listConsumers.add( executor.submit( this::consume ) );
+            }
+
+            try
+            {
+                produce(  );
+            }
+            catch ( RuntimeException e )
+            {
+                addError( INDEXATION_ERROR, e );
+            }
+
+            for ( int i = 0; i < _nConsumers; i++ )
+            {
+                if ( !offer( END ) )
+                {
+                    // The consumers still running cannot be told to stop through the queue
+                    executor.shutdownNow(  );
+
+                    break;
+                }
+            }
+
+            for ( Future<Void> consumer : _listConsumers )
+            {
+                try
+                {
+                    consumer.get(  );
+                }
+                catch ( CancellationException e )
+                {
+                    // Stopped after the failure of another consumer
+                }
+                catch ( ExecutionException e )
+                {
+                    if ( !( e.getCause(  ) instanceof InterruptedException ) || !executor.isShutdown(  ) )
+                    {
+                        addError( INDEXATION_ERROR, e.getCause(  ) );
+                    }
+                }
+            }
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread(  ).interrupt(  );
+            addError( INDEXATION_ERROR, e );
+        }
+        finally
+        {
+            executor.shutdownNow(  );
+        }
+
+        lstErrors.addAll( _listErrors );
+    }
+
+    /**
+     * Walks the subject trees of every faq, depth first, and queues their subjects and question/answers
+     * @throws InterruptedException if the thread is interrupted while waiting for room in the queue
+     */
+    private void produce(  ) throws InterruptedException
+    {
+        IndexingMetrics metrics = IndexingMetrics.getInstance(  );
+        IndexingThrottle throttle = IndexingThrottle.getInstance(  );
+        Deque<Integer> stackRoots = new ArrayDeque<Integer>(  );
+        Deque<Integer> stackSubjects = new ArrayDeque<Integer>(  );
+        IndexingPriority priority = IndexingPriority.getConfigured( null );
+        Collection<Faq> listFaqs = _dataSource.findFaqs(  );
+
+        if ( priority != null )
+        {
+            listFaqs = priority.sortFaqs( listFaqs );
+        }
+
+        for ( Faq faq : listFaqs )
+        {
+            // Faqs and top-level subjects completed by the run being resumed or owned by another node are skipped
+            if ( _run.isFaqSkipped( faq.getId(  ) ) )
+            {
+                continue;
+            }
+
+            Progress progressFaq = new Progress( faq.getId(  ), null );
+            long lThrottle = throttle.acquire( IndexingThrottle.Channel.READ, 1 );
+            long lStart = metrics.start(  );
+            Collection<Subject> listRoots = _dataSource.findRootSubjects( faq.getId(  ) );
+            pushIds( stackRoots,
+                ( ( priority != null ) && ( listRoots != null ) ) ? priority.sortSubjects( listRoots ) : listRoots );
+            metrics.record( IndexingMetrics.Phase.LOAD, lStart );
+            throttle.release( IndexingThrottle.Channel.READ, lThrottle );
+            stackRoots.removeIf( _run::isSubjectSkipped );
+
+            while ( !stackRoots.isEmpty(  ) )
+            {
+                int nIdRoot = stackRoots.pop(  );
+                Progress progressRoot = new Progress( nIdRoot, progressFaq );
+                stackSubjects.push( nIdRoot );
+
+                while ( !stackSubjects.isEmpty(  ) )
+                {
+                    lThrottle = throttle.acquire( IndexingThrottle.Channel.READ, 1 );
+                    lStart = metrics.start(  );
+
+                    Subject subject = _dataSource.findSubject( stackSubjects.pop(  ) );
+                    metrics.record( IndexingMetrics.Phase.LOAD, lStart );
+                    throttle.release( IndexingThrottle.Channel.READ, lThrottle );
+
+                    if ( subject == null )
+                    {
+                        // Deleted since its parent was read
+                        continue;
+                    }
+
+                    put( new Document( faq, progressRoot, subject, null ) );
+                    putQuestionAnswers( faq, progressRoot, subject );
+
+                    lThrottle = throttle.acquire( IndexingThrottle.Channel.READ, 1 );
+                    lStart = metrics.start(  );
+                    pushIds( stackSubjects, _dataSource.findChildSubjects( subject ) );
+                    metrics.record( IndexingMetrics.Phase.LOAD, lStart );
+                    throttle.release( IndexingThrottle.Channel.READ, lThrottle );
+                }
+
+                // The top-level subject is completed once its last document is indexed
+                progressRoot.release( true );
+            }
+
+            // The faq is completed once its last top-level subject is
+            progressFaq.release( true );
+        }
+    }
+
+    /**
+     * Queues the question/answers of a subject : all at once, or one page at a time if they are more than the
+     * page size
+     * @param faq the faq
+     * @param progressRoot the progress of the top-level subject
+     * @param subject the subject
+     * @throws InterruptedException if the thread is interrupted while waiting for room in the queue
+     */
+    private void putQuestionAnswers( Faq faq, Progress progressRoot, Subject subject )
+        throws InterruptedException
+    {
+        IndexingMetrics metrics = IndexingMetrics.getInstance(  );
+        IndexingThrottle throttle = IndexingThrottle.getInstance(  );
+        List<Integer> listIds = null;
+
+        if ( _nQuestionPageSize > 0 )
+        {
+            long lThrottle = throttle.acquire( IndexingThrottle.Channel.READ, 1 );
+            long lStart = metrics.start(  );
+            listIds = _dataSource.findQuestionAnswerIds( subject );
+            metrics.record( IndexingMetrics.Phase.LOAD, lStart );
+            throttle.release( IndexingThrottle.Channel.READ, lThrottle );
+        }
+
+        if ( ( listIds == null ) || ( listIds.size(  ) <= _nQuestionPageSize ) )
+        {
+            putQuestionAnswers( faq, progressRoot, subject, Collections.<Integer>emptyList(  ) );
+
+            return;
+        }
+
+        for ( int nFirst = 0; nFirst < listIds.size(  ); nFirst += _nQuestionPageSize )
+        {
+            long lThrottle = throttle.acquire( IndexingThrottle.Channel.READ, 1 );
+            long lStart = metrics.start(  );
+            List<QuestionAnswer> listPage = _dataSource.findQuestionAnswers( listIds.subList( nFirst,
+                        Math.min( nFirst + _nQuestionPageSize, listIds.size(  ) ) ) );
+            metrics.record( IndexingMetrics.Phase.LOAD, lStart );
+            throttle.release( IndexingThrottle.Channel.READ, lThrottle );
+
+            if ( listPage == null )
+            {
+                // The pages cannot be read : the remaining question/answers are read with the subject
+                putQuestionAnswers( faq, progressRoot, subject, listIds.subList( 0, nFirst ) );
+
+                return;
+            }
+
+            for ( QuestionAnswer questionAnswer : listPage )
+            {
+                put( new Document( faq, progressRoot, null, questionAnswer ) );
+            }
+        }
+    }
+
+    /**
+     * Queues the question/answers of a subject read at once
+     * @param faq the faq
+     * @param progressRoot the progress of the top-level subject
+     * @param subject the subject
+     * @param listQueuedIds the ids of the question/answers already queued
+     * @throws InterruptedException if the thread is interrupted while waiting for room in the queue
+     */
+    private void putQuestionAnswers( Faq faq, Progress progressRoot, Subject subject, List<Integer> listQueuedIds )
+        throws InterruptedException
+    {
+        List<QuestionAnswer> listQuestions = _dataSource.findQuestionAnswers( subject );
+
+        if ( listQuestions == null )
+        {
+            return;
+        }
+
+        Collection<Integer> queuedIds = listQueuedIds.isEmpty(  ) ? listQueuedIds
+                                                                 : new HashSet<Integer>( listQueuedIds );
+
+        for ( QuestionAnswer questionAnswer : listQuestions )
+        {
+            if ( !queuedIds.contains( questionAnswer.getIdQuestionAnswer(  ) ) )
+            {
+                put( new Document( faq, progressRoot, null, questionAnswer ) );
+            }
+        }
+    }
+
+    /**
+     * Queues a document, waiting for room in the queue
+     * @param document the document
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    private void put( Document document ) throws InterruptedException
+    {
+        document._progress.acquire(  );
+
+        if ( !offer( document ) )
+        {
+            throw new IllegalStateException( CONSUMERS_STOPPED_ERROR );
+        }
+    }
+
+    /**
+     * Queues a document, waiting for room in the queue as long as every consumer is running
+     * @param document the document
+     * @return false if a consumer stopped before the document could be queued
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    private boolean offer( Document document ) throws InterruptedException
+    {
+        while ( !_queue.offer( document, OFFER_TIMEOUT, TimeUnit.MILLISECONDS ) )
+        {
+            // A consumer only returns when it takes the end of the production
+            for ( Future<Void> consumer : _listConsumers )
+            {
+                if ( consumer.isDone(  ) )
+                {
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Takes the documents from the queue and indexes them until the end of the production
+     * @return nothing
+     * @throws InterruptedException if the thread is interrupted while waiting for a document
+     */
+    private Void consume(  ) throws InterruptedException
+    {
+        while ( true )
+        {
+            Document document = _queue.take(  );
+
+            if ( document == END )
+            {
+                return null;
+            }
+
+            boolean bIndexed = false;
+
+            try
+            {
+                if ( document._questionAnswer != null )
+                {
+                    _indexer.indexQuestionAnswerDocument( document._faq, _run, document._questionAnswer );
+                }
+                else
+                {
+                    _indexer.indexSubjectDocument( document._faq, _run, document._subject );
+                }
+
+                bIndexed = true;
+            }
+            catch ( IOException | RuntimeException e )
+            {
+                if ( document._questionAnswer != null )
+                {
+                    addError( QUESTION_ANSWER_INDEXATION_ERROR + document._questionAnswer.getIdQuestionAnswer(  ), e );
+                }
+                else
+                {
+                    addError( SUBJECT_INDEXATION_ERROR + document._subject.getId(  ), e );
+                }
+            }
+
+            document._progress.release( bIndexed );
+        }
+    }
+
+    /**
+     * Pushes the ids of subjects on the stack, so that they are popped in their original order
+     * @param stackSubjects the stack
+     * @param subjects the subjects
+     */
+    private static void pushIds( Deque<Integer> stackSubjects, Collection<? extends AbstractSubject> subjects )
+    {
+        if ( subjects == null )
+        {
+            return;
+        }
+
+        List<Integer> listIds = new ArrayList<Integer>( subjects.size(  ) );
+
+        for ( AbstractSubject subject : subjects )
+        {
+            listIds.add( subject.getId(  ) );
+        }
+
+        for ( int i = listIds.size(  ) - 1; i >= 0; i-- )
+        {
+            stackSubjects.push( listIds.get( i ) );
+        }
+    }
+
+    /**
+     * Records an error
+     * @param strMessage the message to log
+     * @param e the error
+     */
+    private void addError( String strMessage, Throwable e )
+    {
+        IndexingMetrics.getInstance(  ).addFailure(  );
+        _listErrors.add( SolrIndexerService.buildErrorMessage( e ) );
+        AppLogService.error( strMessage, e );
+    }
+
+    /**
+     * Documents of a faq or of a top-level subject not indexed yet. The producer holds one token until the whole
+     * faq or subject is queued ; it is completed in the checkpoint when the last token is released, unless a
+     * document failed. A top-level subject holds a token of its faq until it is completed.
+     */
+    private final class Progress
+    {
+        private final int _nId;
+        private final Progress _progressFaq;
+        private final AtomicInteger _nTokens = new AtomicInteger( 1 );
+        private volatile boolean _bFailed;
+
+        /**
+         * Constructor
+         * @param nId the id of the faq or of the top-level subject
+         * @param progressFaq the progress of the faq of a top-level subject, null for a faq
+         */
+        Progress( int nId, Progress progressFaq )
+        {
+            _nId = nId;
+            _progressFaq = progressFaq;
+
+            if ( progressFaq != null )
+            {
+                progressFaq.acquire(  );
+            }
+        }
+
+        /**
+         * Takes a token for a queued document
+         */
+        void acquire(  )
+        {
+            _nTokens.incrementAndGet(  );
+        }
+
+        /**
+         * Releases a token
+         * @param bSuccess false if the document could not be indexed
+         */
+        void release( boolean bSuccess )
+        {
+            if ( !bSuccess )
+            {
+                _bFailed = true;
+            }
+
+            if ( _nTokens.decrementAndGet(  ) != 0 )
+            {
+                return;
+            }
+
+            boolean bCompleted = !_bFailed;
+
+            if ( bCompleted )
+            {
+                try
+                {
+                    if ( _progressFaq != null )
+                    {
+                        _run.completeSubject( _nId );
+                    }
+                    else
+                    {
+                        _run.completeFaq( _nId );
+                    }
+                }
+                catch ( IOException e )
+                {
+                    bCompleted = false;
+                    addError( CHECKPOINT_SAVE_ERROR, e );
+                }
+            }
+
+            if ( _progressFaq != null )
+            {
+                _progressFaq.release( bCompleted );
+            }
+        }
+    }
+
+    /**
+     * A subject or a question/answer to index
+     */
+    private static final class Document
+    {
+        private final Faq _faq;
+        private final Progress _progress;
+        private final Subject _subject;
+        private final QuestionAnswer _questionAnswer;
+
+        /**
+         * Constructor
+         * @param faq the faq
+         * @param progress the progress of the top-level subject
+         * @param subject the subject, null for a question/answer
+         * @param questionAnswer the question/answer, null for a subject
+         */
+        Document( Faq faq, Progress progress, Subject subject, QuestionAnswer questionAnswer )
+        {
+            _faq = faq;
+            _progress = progress;
+            _subject = subject;
+            _questionAnswer = questionAnswer;
+        }
+    }
+}
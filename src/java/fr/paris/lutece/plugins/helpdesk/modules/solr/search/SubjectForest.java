@@ -0,0 +1,352 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.helpdesk.modules.solr.search;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import fr.paris.lutece.plugins.helpdesk.business.QuestionAnswer;
+import fr.paris.lutece.plugins.helpdesk.business.Subject;
+import fr.paris.lutece.plugins.helpdesk.business.SubjectHome;
+
+
+/**
+ * Read-only snapshot of every helpdesk subject, organized as a parent/children forest, with the
+ * question/answer list of each subject. The forest is loaded with a few bulk reads so that a full
+ * reindex can walk the subject trees without any further database access.
+ * <br>
+ * Subjects are addressed by their position in the forest ; the links between subjects and their
+ * question/answer lists are stored as offsets in int arrays.
+ */
+public final class SubjectForest
+{
+    private static final int[] EMPTY = new int[0];
+    private static final int NO_FAQ = -1;
+
+    // Subject ids, sorted, and the subjects at the same positions
+    private final int[] _ids;
+    private final Subject[] _subjects;
+
+    // Position of the parent of the subject at position i, -1 for a top-level subject
+    private final int[] _parents;
+
+    // Children of the subject at position i : _children[_childOffsets[i] .. _childOffsets[i + 1] - 1]
+    private final int[] _childOffsets;
+    private final int[] _children;
+
+    // Question/answer list of the subject at position i : same layout
+    private final int[] _questionOffsets;
+    private final QuestionAnswer[] _questions;
+
+    // Positions of the top-level subjects of each faq, and faq of the top-level subject at position i
+    private final Map<Integer, int[]> _mapFaqRoots;
+    private final int[] _rootFaqIds;
+
+    /**
+     * Builds the forest
+     * @param subjects all the subjects
+     * @param questions all the question/answer
+     * @param mapFaqRootIds the ids of the top-level subjects of each faq
+     */
+    SubjectForest( Collection<Subject> subjects, Collection<QuestionAnswer> questions,
+        Map<Integer, List<Integer>> mapFaqRootIds )
+    {
+        int nSize = subjects.size(  );
+        Subject[] sortedSubjects = subjects.toArray( new Subject[nSize] );
+        Arrays.sort( sortedSubjects, ( s1, s2 ) -> Integer.compare( s1.getId(  ), s2.getId(  ) ) );
+
+        _subjects = sortedSubjects;
+        _ids = new int[nSize];
+
+        for ( int i = 0; i < nSize; i++ )
+        {
+            _ids[i] = sortedSubjects[i].getId(  );
+        }
+
+        // Children : count per parent, then fill, keeping the order of the parent list for each parent
+        int[] parents = new int[nSize];
+        _parents = parents;
+        _childOffsets = new int[nSize + 1];
+
+        for ( Subject subject : subjects )
+        {
+            int nParent = indexOf( subject.getIdParent(  ) );
+            parents[indexOf( subject.getId(  ) )] = nParent;
+
+            if ( nParent >= 0 )
+            {
+                _childOffsets[nParent + 1]++;
+            }
+        }
+
+        cumulate( _childOffsets );
+        _children = new int[_childOffsets[nSize]];
+
+        int[] fill = Arrays.copyOf( _childOffsets, nSize );
+
+        for ( Subject subject : subjects )
+        {
+            int nIndex = indexOf( subject.getId(  ) );
+
+            if ( parents[nIndex] >= 0 )
+            {
+                _children[fill[parents[nIndex]]++] = nIndex;
+            }
+        }
+
+        // Question/answer lists, same layout
+        _questionOffsets = new int[nSize + 1];
+
+        for ( QuestionAnswer questionAnswer : questions )
+        {
+            int nSubject = indexOf( questionAnswer.getIdSubject(  ) );
+
+            if ( nSubject >= 0 )
+            {
+                _questionOffsets[nSubject + 1]++;
+            }
+        }
+
+        cumulate( _questionOffsets );
+        _questions = new QuestionAnswer[_questionOffsets[nSize]];
+        fill = Arrays.copyOf( _questionOffsets, nSize );
+
+        for ( QuestionAnswer questionAnswer : questions )
+        {
+            int nSubject = indexOf( questionAnswer.getIdSubject(  ) );
+
+            if ( nSubject >= 0 )
+            {
+                _questions[fill[nSubject]++] = questionAnswer;
+            }
+        }
+
+        // Top-level subjects of each faq
+        _mapFaqRoots = new HashMap<Integer, int[]>(  );
+        _rootFaqIds = new int[nSize];
+        Arrays.fill( _rootFaqIds, NO_FAQ );
+
+        for ( Map.Entry<Integer, List<Integer>> entry : mapFaqRootIds.entrySet(  ) )
+        {
+            int[] roots = new int[entry.getValue(  ).size(  )];
+            int nCount = 0;
+
+            for ( Integer nIdRoot : entry.getValue(  ) )
+            {
+                int nIndex = indexOf( nIdRoot );
+
+                if ( nIndex >= 0 )
+                {
+                    roots[nCount++] = nIndex;
+                    _rootFaqIds[nIndex] = entry.getKey(  );
+                }
+            }
+
+            _mapFaqRoots.put( entry.getKey(  ), Arrays.copyOf( roots, nCount ) );
+        }
+    }
+
+    /**
+     * Loads the whole forest of the helpdesk with three reads : the subjects, the question/answers and the links
+     * between the faqs and their top-level subjects. The top-level subjects of a faq keep the order of the subjects.
+     * @param dataSource the source of the helpdesk data
+     * @return the forest
+     */
+    public static SubjectForest load( HelpdeskDataSource dataSource )
+    {
+        return load( dataSource, dataSource.findSubjects(  ) );
+    }
+
+    /**
+     * Loads the whole forest of the helpdesk, its subjects being already read
+     * @param dataSource the source of the helpdesk data
+     * @param subjects every subject of the helpdesk
+     * @return the forest
+     */
+    public static SubjectForest load( HelpdeskDataSource dataSource, Collection<Subject> subjects )
+    {
+        Collection<QuestionAnswer> questions = dataSource.findQuestionAnswers(  );
+        Map<Integer, List<Integer>> mapSubjectFaqIds = dataSource.findSubjectFaqIds(  );
+        Map<Integer, List<Integer>> mapFaqRootIds = new HashMap<Integer, List<Integer>>(  );
+
+        for ( Subject subject : subjects )
+        {
+            List<Integer> listFaqIds = ( subject.getIdParent(  ) == SubjectHome.FIRST_ORDER )
+                ? mapSubjectFaqIds.get( subject.getId(  ) ) : null;
+
+            if ( listFaqIds == null )
+            {
+                continue;
+            }
+
+            for ( Integer nIdFaq : listFaqIds )
+            {
+                List<Integer> listRootIds = mapFaqRootIds.get( nIdFaq );
+
+                if ( listRootIds == null )
+                {
+                    listRootIds = new ArrayList<Integer>(  );
+                    mapFaqRootIds.put( nIdFaq, listRootIds );
+                }
+
+                listRootIds.add( subject.getId(  ) );
+            }
+        }
+
+        return new SubjectForest( subjects, questions, mapFaqRootIds );
+    }
+
+    /**
+     * Returns the position of a subject in the forest
+     * @param nIdSubject the subject id
+     * @return the position, or a negative value if the subject is unknown
+     */
+    public int indexOf( int nIdSubject )
+    {
+        int nIndex = Arrays.binarySearch( _ids, nIdSubject );
+
+        return ( nIndex >= 0 ) ? nIndex : ( -1 );
+    }
+
+    /**
+     * Returns the subject at a position
+     * @param nIndex the position
+     * @return the subject
+     */
+    public Subject getSubject( int nIndex )
+    {
+        return _subjects[nIndex];
+    }
+
+    /**
+     * Returns the position of the parent of a subject
+     * @param nIndex the position of the subject
+     * @return the position of the parent, or a negative value for a top-level subject
+     */
+    public int getParent( int nIndex )
+    {
+        return _parents[nIndex];
+    }
+
+    /**
+     * Returns the faq of a subject, found from its top-level subject
+     * @param nIndex the position of the subject
+     * @return the faq id, or a negative value if the subject is not attached to a faq
+     */
+    public int getIdFaq( int nIndex )
+    {
+        int nRoot = nIndex;
+
+        // Bounded by the size of the forest in case of a cycle in the parent links
+        for ( int i = 0; ( i < _ids.length ) && ( _parents[nRoot] >= 0 ); i++ )
+        {
+            nRoot = _parents[nRoot];
+        }
+
+        return ( _parents[nRoot] < 0 ) ? _rootFaqIds[nRoot] : NO_FAQ;
+    }
+
+    /**
+     * Returns the number of children of a subject
+     * @param nIndex the position of the subject
+     * @return the number of children
+     */
+    public int getChildCount( int nIndex )
+    {
+        return _childOffsets[nIndex + 1] - _childOffsets[nIndex];
+    }
+
+    /**
+     * Returns the position of a child of a subject
+     * @param nIndex the position of the subject
+     * @param nChild the rank of the child, from 0 to {@link #getChildCount(int)} - 1
+     * @return the position of the child
+     */
+    public int getChild( int nIndex, int nChild )
+    {
+        return _children[_childOffsets[nIndex] + nChild];
+    }
+
+    /**
+     * Returns the question/answer list of a subject
+     * @param nIndex the position of the subject
+     * @return the question/answer list
+     */
+    public List<QuestionAnswer> getQuestions( int nIndex )
+    {
+        int nStart = _questionOffsets[nIndex];
+        int nEnd = _questionOffsets[nIndex + 1];
+
+        return ( nStart == nEnd ) ? Collections.<QuestionAnswer>emptyList(  )
+                                  : Collections.unmodifiableList( Arrays.asList( _questions ).subList( nStart, nEnd ) );
+    }
+
+    /**
+     * Returns the positions of the top-level subjects of a faq
+     * @param nIdFaq the faq id
+     * @return the positions of the top-level subjects
+     */
+    public int[] getRoots( int nIdFaq )
+    {
+        int[] roots = _mapFaqRoots.get( nIdFaq );
+
+        return ( roots != null ) ? roots : EMPTY;
+    }
+
+    /**
+     * Returns the number of subjects of the forest
+     * @return the number of subjects
+     */
+    public int size(  )
+    {
+        return _ids.length;
+    }
+
+    /**
+     * Turns counts stored at [i + 1] into start offsets
+     * @param offsets the counts
+     */
+    private static void cumulate( int[] offsets )
+    {
+        for ( int i = 1; i < offsets.length; i++ )
+        {
+            offsets[i] += offsets[i - 1];
+        }
+    }
+}
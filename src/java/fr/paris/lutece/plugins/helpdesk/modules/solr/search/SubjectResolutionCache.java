@@ -0,0 +1,418 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.helpdesk.modules.solr.search;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import fr.paris.lutece.plugins.helpdesk.business.Faq;
+import fr.paris.lutece.plugins.helpdesk.business.Subject;
+import fr.paris.lutece.plugins.helpdesk.business.SubjectHome;
+import fr.paris.lutece.portal.service.util.AppLogService;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+
+
+/**
+ * Cache of the subject -&gt; top-level subject -&gt; faq resolution used by incremental indexing.
+ * Each entry keeps the ancestry of the subject so that moving or deleting a subject invalidates
+ * every entry below it. The cache is bounded and evicts the least recently used entries.
+ * Entries expire after a time to live, so that a change of the role key of a faq which was not
+ * notified is not kept for ever.
+ */
+public final class SubjectResolutionCache
+{
+    private static final String PROPERTY_CACHE_SIZE = "helpdesk-solr.indexer.resolutionCache.size";
+    private static final String PROPERTY_CACHE_TTL = "helpdesk-solr.indexer.resolutionCache.ttl";
+    private static final int DEFAULT_CACHE_SIZE = 10000;
+    private static final int DEFAULT_CACHE_TTL = 300;
+    private static volatile SubjectResolutionCache _singleton;
+    private final Map<Integer, Resolution> _mapEntries;
+    private final long _lTimeToLive;
+    private final AtomicLong _lHits = new AtomicLong(  );
+    private final AtomicLong _lMisses = new AtomicLong(  );
+
+    /**
+     * Creates a cache
+     * @param nMaxSize the maximum number of entries
+     * @param nTimeToLive the time to live of the entries, in seconds
+     */
+    SubjectResolutionCache( final int nMaxSize, int nTimeToLive )
+    {
+        _lTimeToLive = TimeUnit.SECONDS.toNanos( nTimeToLive );
+        _mapEntries = new LinkedHashMap<Integer, Resolution>( 16, 0.75f, true )
+                {
+                    private static final long serialVersionUID = 1L;
+
+                    @Override
+                    protected boolean removeEldestEntry( Map.Entry<Integer, Resolution> eldest )
+                    {
+                        return size(  ) > nMaxSize;
+                    }
+                };
+    }
+
+    /**
+     * Returns the instance of the singleton
+     *
+     * @return The instance of the singleton
+     */
+    public static SubjectResolutionCache getInstance(  )
+    {
+        SubjectResolutionCache cache = _singleton;
+
+        if ( cache == null )
+        {
+            synchronized ( SubjectResolutionCache.class )
+            {
+                cache = _singleton;
+
+                if ( cache == null )
+                {
+                    cache = new SubjectResolutionCache( AppPropertiesService.getPropertyInt( PROPERTY_CACHE_SIZE,
+                                DEFAULT_CACHE_SIZE ),
+                            AppPropertiesService.getPropertyInt( PROPERTY_CACHE_TTL, DEFAULT_CACHE_TTL ) );
+                    _singleton = cache;
+                }
+            }
+        }
+
+        return cache;
+    }
+
+    /**
+     * Resolves the faq owning a subject, climbing the parent chain only for the ancestors
+     * which are not already in the cache
+     * @param subject the subject
+     * @param dataSource the source of the helpdesk data
+     * @return the resolution, or null if the subject is not attached to a faq or its ancestry is a cycle
+     */
+    public Resolution resolve( Subject subject, HelpdeskDataSource dataSource )
+    {
+        Resolution resolution = get( subject.getId(  ) );
+
+        if ( resolution != null )
+        {
+            _lHits.incrementAndGet(  );
+
+            return resolution;
+        }
+
+        _lMisses.incrementAndGet(  );
+
+        // Climb until the top-level subject or an ancestor already resolved
+        int[] path = new int[8];
+        int nLength = 0;
+        path[nLength++] = subject.getId(  );
+
+        int nIdParent = subject.getIdParent(  );
+        Resolution resolutionAncestor = null;
+        Set<Integer> setVisited = new HashSet<Integer>(  );
+        setVisited.add( subject.getId(  ) );
+
+        while ( nIdParent != SubjectHome.FIRST_ORDER )
+        {
+            resolutionAncestor = get( nIdParent );
+
+            if ( resolutionAncestor != null )
+            {
+                break;
+            }
+
+            // A cycle in the parent links would otherwise hold the incremental indexing for ever
+            if ( !setVisited.add( nIdParent ) )
+            {
+                AppLogService.error( "The ancestry of the helpdesk subject " + subject.getId(  ) +
+                    " is a cycle through the subject " + nIdParent );
+
+                return null;
+            }
+
+            Subject parentSubject = dataSource.findSubject( nIdParent );
+
+            if ( parentSubject == null )
+            {
+                return null;
+            }
+
+            if ( nLength == path.length )
+            {
+                path = Arrays.copyOf( path, nLength * 2 );
+            }
+
+            path[nLength++] = parentSubject.getId(  );
+            nIdParent = parentSubject.getIdParent(  );
+        }
+
+        int nIdFaq;
+        String strRoleKey;
+        int[] fullPath;
+
+        if ( resolutionAncestor != null )
+        {
+            nIdFaq = resolutionAncestor.getIdFaq(  );
+            strRoleKey = resolutionAncestor.getRoleKey(  );
+            fullPath = Arrays.copyOf( path, nLength + resolutionAncestor._path.length );
+            System.arraycopy( resolutionAncestor._path, 0, fullPath, nLength, resolutionAncestor._path.length );
+        }
+        else
+        {
+            Faq faq = dataSource.findFaqBySubject( path[nLength - 1] );
+
+            if ( faq == null )
+            {
+                return null;
+            }
+
+            nIdFaq = faq.getId(  );
+            strRoleKey = faq.getRoleKey(  );
+            fullPath = Arrays.copyOf( path, nLength );
+        }
+
+        // Every subject met on the way is resolved as well, expiring with the ancestor it was resolved from
+        long lExpiry = ( resolutionAncestor != null ) ? resolutionAncestor._lExpiry : ( System.nanoTime(  ) +
+            _lTimeToLive );
+
+        synchronized ( _mapEntries )
+        {
+            for ( int i = nLength - 1; i >= 0; i-- )
+            {
+                resolution = new Resolution( nIdFaq, strRoleKey, Arrays.copyOfRange( fullPath, i, fullPath.length ),
+                        lExpiry );
+                _mapEntries.put( fullPath[i], resolution );
+            }
+        }
+
+        return resolution;
+    }
+
+    /**
+     * Invalidates a subject and every subject below it. To be called when a subject is moved or deleted.
+     * @param nIdSubject the subject id
+     * @return the ids of the subjects which were in the cache
+     */
+    public Set<Integer> invalidateSubject( int nIdSubject )
+    {
+        Set<Integer> setIds = new HashSet<Integer>(  );
+
+        synchronized ( _mapEntries )
+        {
+            Iterator<Map.Entry<Integer, Resolution>> iterator = _mapEntries.entrySet(  ).iterator(  );
+
+            while ( iterator.hasNext(  ) )
+            {
+                Map.Entry<Integer, Resolution> entry = iterator.next(  );
+
+                if ( entry.getValue(  ).hasAncestor( nIdSubject ) )
+                {
+                    setIds.add( entry.getKey(  ) );
+                    iterator.remove(  );
+                }
+            }
+        }
+
+        return setIds;
+    }
+
+    /**
+     * Invalidates every subject of a faq. To be called when a faq is modified or deleted.
+     * @param nIdFaq the faq id
+     * @return the ids of the subjects which were in the cache
+     */
+    public Set<Integer> invalidateFaq( int nIdFaq )
+    {
+        Set<Integer> setIds = new HashSet<Integer>(  );
+
+        synchronized ( _mapEntries )
+        {
+            Iterator<Map.Entry<Integer, Resolution>> iterator = _mapEntries.entrySet(  ).iterator(  );
+
+            while ( iterator.hasNext(  ) )
+            {
+                Map.Entry<Integer, Resolution> entry = iterator.next(  );
+
+                if ( entry.getValue(  ).getIdFaq(  ) == nIdFaq )
+                {
+                    setIds.add( entry.getKey(  ) );
+                    iterator.remove(  );
+                }
+            }
+        }
+
+        return setIds;
+    }
+
+    /**
+     * Empties the cache
+     */
+    public void invalidateAll(  )
+    {
+        synchronized ( _mapEntries )
+        {
+            _mapEntries.clear(  );
+        }
+    }
+
+    /**
+     * Returns the number of resolutions served by the cache
+     * @return the number of hits
+     */
+    public long getHits(  )
+    {
+        return _lHits.get(  );
+    }
+
+    /**
+     * Returns the number of resolutions which needed database reads
+     * @return the number of misses
+     */
+    public long getMisses(  )
+    {
+        return _lMisses.get(  );
+    }
+
+    /**
+     * Returns the number of entries of the cache
+     * @return the number of entries
+     */
+    public int size(  )
+    {
+        synchronized ( _mapEntries )
+        {
+            return _mapEntries.size(  );
+        }
+    }
+
+    /**
+     * Gets an entry, updating its access order
+     * @param nIdSubject the subject id
+     * @return the entry or null
+     */
+    private Resolution get( int nIdSubject )
+    {
+        synchronized ( _mapEntries )
+        {
+            Resolution resolution = _mapEntries.get( nIdSubject );
+
+            if ( ( resolution != null ) && ( ( System.nanoTime(  ) - resolution._lExpiry ) >= 0 ) )
+            {
+                _mapEntries.remove( nIdSubject );
+
+                return null;
+            }
+
+            return resolution;
+        }
+    }
+
+    /**
+     * The faq owning a subject, and the ancestry of the subject
+     */
+    public static final class Resolution
+    {
+        private final int _nIdFaq;
+        private final String _strRoleKey;
+
+        // The subject id first, the top-level subject id last
+        private final int[] _path;
+
+        // System.nanoTime(  ) at which the resolution expires
+        private final long _lExpiry;
+
+        /**
+         * Constructor
+         * @param nIdFaq the faq id
+         * @param strRoleKey the role key of the faq
+         * @param path the ancestry of the subject
+         * @param lExpiry the time at which the resolution expires
+         */
+        Resolution( int nIdFaq, String strRoleKey, int[] path, long lExpiry )
+        {
+            _nIdFaq = nIdFaq;
+            _strRoleKey = strRoleKey;
+            _path = path;
+            _lExpiry = lExpiry;
+        }
+
+        /**
+         * Returns the faq id
+         * @return the faq id
+         */
+        public int getIdFaq(  )
+        {
+            return _nIdFaq;
+        }
+
+        /**
+         * Returns the role key of the faq
+         * @return the role key
+         */
+        public String getRoleKey(  )
+        {
+            return _strRoleKey;
+        }
+
+        /**
+         * Returns the id of the top-level subject
+         * @return the id of the top-level subject
+         */
+        public int getIdRootSubject(  )
+        {
+            return _path[_path.length - 1];
+        }
+
+        /**
+         * Tells whether a subject is the subject itself or one of its ancestors
+         * @param nIdSubject the subject id
+         * @return true if the subject is in the ancestry
+         */
+        boolean hasAncestor( int nIdSubject )
+        {
+            for ( int nId : _path )
+            {
+                if ( nId == nIdSubject )
+                {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+    }
+}
@@ -0,0 +1,297 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.helpdesk.modules.solr.search;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+
+import fr.paris.lutece.plugins.helpdesk.modules.solr.service.IndexingMetrics;
+import fr.paris.lutece.plugins.search.solr.indexer.SolrItem;
+import fr.paris.lutece.portal.service.util.AppLogService;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+
+
+/**
+ * Batches whose write failed, retried with an exponential backoff. A batch which still fails after the
+ * maximum number of attempts, or which does not fit in the queue, goes to the {@link DeadLetterLog}.
+ * The queue is bounded by a number of documents.
+ */
+public final class WriteRetryQueue
+{
+    private static final String PROPERTY_RETRY_MAX_ATTEMPTS = "helpdesk-solr.indexer.retry.maxAttempts";
+    private static final String PROPERTY_RETRY_INITIAL_DELAY = "helpdesk-solr.indexer.retry.initialDelay";
+    private static final String PROPERTY_RETRY_MAX_DELAY = "helpdesk-solr.indexer.retry.maxDelay";
+    private static final String PROPERTY_RETRY_MAX_DOCUMENTS = "helpdesk-solr.indexer.retry.maxDocuments";
+    private static final int DEFAULT_RETRY_MAX_ATTEMPTS = 5;
+    private static final long DEFAULT_RETRY_INITIAL_DELAY = 1000L;
+    private static final long DEFAULT_RETRY_MAX_DELAY = 60000L;
+    private static final int DEFAULT_RETRY_MAX_DOCUMENTS = 10000;
+    private static final int MAX_SHIFT = 30;
+    private final DeadLetterLog _deadLetters;
+    private final int _nMaxAttempts;
+    private final long _lInitialDelay;
+    private final long _lMaxDelay;
+    private final int _nMaxDocuments;
+    private final List<Entry> _listEntries = new LinkedList<Entry>(  );
+    private int _nDocuments;
+
+    /**
+     * Creates a queue configured from the helpdesk-solr properties
+     * @param deadLetters the log of the batches which cannot be written
+     */
+    public WriteRetryQueue( DeadLetterLog deadLetters )
+    {
+        this( deadLetters,
+            AppPropertiesService.getPropertyInt( PROPERTY_RETRY_MAX_ATTEMPTS, DEFAULT_RETRY_MAX_ATTEMPTS ),
+            AppPropertiesService.getPropertyLong( PROPERTY_RETRY_INITIAL_DELAY, DEFAULT_RETRY_INITIAL_DELAY ),
+            AppPropertiesService.getPropertyLong( PROPERTY_RETRY_MAX_DELAY, DEFAULT_RETRY_MAX_DELAY ),
+            AppPropertiesService.getPropertyInt( PROPERTY_RETRY_MAX_DOCUMENTS, DEFAULT_RETRY_MAX_DOCUMENTS ) );
+    }
+
+    /**
+     * Creates a queue
+     * @param deadLetters the log of the batches which cannot be written
+     * @param nMaxAttempts the maximum number of attempts of a batch, the first write included
+     * @param lInitialDelay the delay before the first retry, in milliseconds, doubled at each retry
+     * @param lMaxDelay the maximum delay between two attempts, in milliseconds
+     * @param nMaxDocuments the maximum number of documents waiting in the queue
+     */
+    public WriteRetryQueue( DeadLetterLog deadLetters, int nMaxAttempts, long lInitialDelay, long lMaxDelay,
+        int nMaxDocuments )
+    {
+        _deadLetters = deadLetters;
+        _nMaxAttempts = Math.max( 1, nMaxAttempts );
+        _lInitialDelay = Math.max( 0L, lInitialDelay );
+        _lMaxDelay = Math.max( _lInitialDelay, lMaxDelay );
+        _nMaxDocuments = Math.max( 0, nMaxDocuments );
+    }
+
+    /**
+     * Queues a batch whose first write failed
+     * @param listBatch the batch
+     * @param cause the cause of the failure
+     * @throws IOException if the batch had to go to the dead-letter log and the log cannot be written
+     */
+    public synchronized void offer( List<SolrItem> listBatch, Exception cause )
+        throws IOException
+    {
+        if ( ( _nMaxAttempts <= 1 ) || ( ( _nDocuments + listBatch.size(  ) ) > _nMaxDocuments ) )
+        {
+            deadLetter( listBatch, cause );
+
+            return;
+        }
+
+        AppLogService.error( "Unable to write " + listBatch.size(  ) + " helpdesk documents, retry in " +
+            getDelay( 1 ) + " ms", cause );
+        _listEntries.add( new Entry( listBatch, System.currentTimeMillis(  ) + getDelay( 1 ) ) );
+        _nDocuments += listBatch.size(  );
+    }
+
+    /**
+     * Retries the batches whose delay is over
+     * @param sink the destination of the batches
+     * @throws IOException if a batch had to go to the dead-letter log and the log cannot be written
+     */
+    public synchronized void retryDue( SolrItemSink sink )
+        throws IOException
+    {
+        long lNow = System.currentTimeMillis(  );
+        Iterator<Entry> iterator = _listEntries.iterator(  );
+
+        while ( iterator.hasNext(  ) )
+        {
+            Entry entry = iterator.next(  );
+
+            if ( entry._lNextAttempt > lNow )
+            {
+                continue;
+            }
+
+            try
+            {
+                sink.write( entry._listItems );
+                iterator.remove(  );
+                _nDocuments -= entry._listItems.size(  );
+                IndexingMetrics.getInstance(  ).addDocuments( entry._listItems.size(  ) );
+                AppLogService.info( entry._listItems.size(  ) + " helpdesk documents written after " +
+                    ( entry._nAttempts + 1 ) + " attempts" );
+            }
+            catch ( IOException | RuntimeException e )
+            {
+                entry._nAttempts++;
+
+                if ( entry._nAttempts >= _nMaxAttempts )
+                {
+                    iterator.remove(  );
+                    _nDocuments -= entry._listItems.size(  );
+                    deadLetter( entry._listItems, e );
+                }
+                else
+                {
+                    entry._lNextAttempt = System.currentTimeMillis(  ) + getDelay( entry._nAttempts );
+                }
+            }
+        }
+    }
+
+    /**
+     * Retries the batches until every one is written or logged. The queue is released while waiting for the
+     * next retry, but the caller keeps its own locks : called by {@link SolrItemBatchWriter#flush()}, this
+     * blocks the writer until the queue is empty.
+     * @param sink the destination of the batches
+     * @throws IOException if a batch had to go to the dead-letter log and the log cannot be written
+     */
+    public void drain( SolrItemSink sink ) throws IOException
+    {
+        while ( true )
+        {
+            long lWait;
+
+            synchronized ( this )
+            {
+                retryDue( sink );
+
+                if ( _listEntries.isEmpty(  ) )
+                {
+                    return;
+                }
+
+                lWait = Long.MAX_VALUE;
+
+                for ( Entry entry : _listEntries )
+                {
+                    lWait = Math.min( lWait, entry._lNextAttempt - System.currentTimeMillis(  ) );
+                }
+            }
+
+            if ( lWait > 0L )
+            {
+                try
+                {
+                    Thread.sleep( lWait );
+                }
+                catch ( InterruptedException e )
+                {
+                    Thread.currentThread(  ).interrupt(  );
+                    deadLetterAll( e );
+
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Tells whether batches are waiting for a retry
+     * @return true if the queue is empty
+     */
+    public synchronized boolean isEmpty(  )
+    {
+        return _listEntries.isEmpty(  );
+    }
+
+    /**
+     * Moves every waiting batch to the dead-letter log
+     * @param cause the cause
+     * @throws IOException if the log cannot be written
+     */
+    private synchronized void deadLetterAll( Exception cause )
+        throws IOException
+    {
+        for ( Entry entry : _listEntries )
+        {
+            deadLetter( entry._listItems, cause );
+        }
+
+        _listEntries.clear(  );
+        _nDocuments = 0;
+    }
+
+    /**
+     * Logs the uids of a batch in the dead-letter log
+     * @param listBatch the batch
+     * @param cause the cause of the failure
+     * @throws IOException if the log cannot be written
+     */
+    private void deadLetter( List<SolrItem> listBatch, Exception cause )
+        throws IOException
+    {
+        List<String> listUids = new ArrayList<String>( listBatch.size(  ) );
+
+        for ( SolrItem item : listBatch )
+        {
+            listUids.add( item.getUid(  ) );
+        }
+
+        AppLogService.error( listBatch.size(  ) + " helpdesk documents could not be written, logged in " +
+            _deadLetters.getFile(  ), cause );
+        IndexingMetrics.getInstance(  ).addFailure(  );
+        _deadLetters.append( listUids, String.valueOf( cause ) );
+    }
+
+    /**
+     * Returns the delay before an attempt
+     * @param nFailedAttempts the number of failed attempts
+     * @return the delay, in milliseconds
+     */
+    private long getDelay( int nFailedAttempts )
+    {
+        return Math.min( _lMaxDelay, _lInitialDelay << Math.min( MAX_SHIFT, nFailedAttempts - 1 ) );
+    }
+
+    /**
+     * A batch waiting for a retry
+     */
+    private static final class Entry
+    {
+        private final List<SolrItem> _listItems;
+        private int _nAttempts = 1;
+        private long _lNextAttempt;
+
+        /**
+         * Constructor
+         * @param listItems the batch
+         * @param lNextAttempt the time of the next attempt, in milliseconds
+         */
+        Entry( List<SolrItem> listItems, long lNextAttempt )
+        {
+            _listItems = listItems;
+            _lNextAttempt = lNextAttempt;
+        }
+    }
+}
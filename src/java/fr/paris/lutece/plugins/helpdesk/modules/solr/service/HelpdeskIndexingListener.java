@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.helpdesk.modules.solr.service;
+
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang.StringUtils;
+
+import fr.paris.lutece.plugins.helpdesk.business.QuestionAnswer;
+import fr.paris.lutece.plugins.helpdesk.modules.solr.search.SolrHelpdeskIndexer;
+import fr.paris.lutece.plugins.helpdesk.modules.solr.search.SubjectResolutionCache;
+import fr.paris.lutece.plugins.helpdesk.utils.HelpdeskIndexerUtils;
+import fr.paris.lutece.portal.business.event.EventRessourceListener;
+import fr.paris.lutece.portal.business.event.ResourceEvent;
+
+
+/**
+ * Listens to the changes of the helpdesk subjects and question/answers and feeds the incremental indexing
+ * queue. The deletion of a subject removes the documents of the subjects below it as well. The helpdesk plugin
+ * sends no event for the faqs : the documents of a faq whose role key changed, or which was deleted, are
+ * updated by the next update of the index (daemon helpdeskSolrUpdate).
+ * <br>
+ * The listener only receives the {@link ResourceEvent}s that the helpdesk plugin fires through the
+ * ResourceEventManager of the portal, with the resource types of the indexer
+ * ({@link SolrHelpdeskIndexer#getResourcesName(  )}, the types of {@link HelpdeskIndexerUtils}). The events of
+ * these types are counted : the helpdeskSolrUpdate daemon reports when none was received, the changes of the
+ * helpdesk then reaching Solr through its updates only.
+ */
+public class HelpdeskIndexingListener implements EventRessourceListener
+{
+    private static final String LISTENER_NAME = "helpdesk-solr.indexingListener";
+    private final IncrementalIndexingQueue _queue;
+    private final SolrHelpdeskIndexer _indexer;
+    private final AtomicLong _lReceivedEvents = new AtomicLong(  );
+
+    /**
+     * Constructor
+     * @param queue the incremental indexing queue
+     * @param indexer the helpdesk indexer
+     */
+    public HelpdeskIndexingListener( IncrementalIndexingQueue queue, SolrHelpdeskIndexer indexer )
+    {
+        _queue = queue;
+        _indexer = indexer;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getName(  )
+    {
+        return LISTENER_NAME;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void addedResource( ResourceEvent event )
+    {
+        updatedResource( event );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void updatedResource( ResourceEvent event )
+    {
+        int nId = receive( event );
+
+        if ( nId < 0 )
+        {
+            return;
+        }
+
+        if ( HelpdeskIndexerUtils.CONSTANT_SUBJECT_TYPE_RESOURCE.equals( event.getTypeResource(  ) ) )
+        {
+            // The subject may have been moved under another parent
+            SubjectResolutionCache.getInstance(  ).invalidateSubject( nId );
+            _queue.enqueueSubject( nId );
+        }
+        else if ( HelpdeskIndexerUtils.CONSTANT_QUESTION_ANSWER_TYPE_RESOURCE.equals( event.getTypeResource(  ) ) )
+        {
+            QuestionAnswer questionAnswer = _indexer.getQuestionAnswer( nId );
+
+            if ( questionAnswer == null )
+            {
+                _queue.enqueueDeletion( _indexer.getResourceUid( String.valueOf( nId ), event.getTypeResource(  ) ) );
+
+                return;
+            }
+
+            if ( !questionAnswer.isEnabled(  ) )
+            {
+                // Disabled question/answers are not indexed : the reindexing of the subject would not remove it
+                _queue.enqueueDeletion( _indexer.getResourceUid( String.valueOf( nId ), event.getTypeResource(  ) ) );
+            }
+
+            _queue.enqueueSubject( questionAnswer.getIdSubject(  ) );
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void deletedResource( ResourceEvent event )
+    {
+        int nId = receive( event );
+
+        if ( nId < 0 )
+        {
+            return;
+        }
+
+        if ( HelpdeskIndexerUtils.CONSTANT_SUBJECT_TYPE_RESOURCE.equals( event.getTypeResource(  ) ) )
+        {
+            Set<Integer> setSubjects = SubjectResolutionCache.getInstance(  ).invalidateSubject( nId );
+            _queue.enqueueDeletions( _indexer.getSubjectTreeUids( nId, setSubjects ) );
+        }
+        else if ( HelpdeskIndexerUtils.CONSTANT_QUESTION_ANSWER_TYPE_RESOURCE.equals( event.getTypeResource(  ) ) )
+        {
+            _queue.enqueueDeletion( _indexer.getResourceUid( String.valueOf( nId ), event.getTypeResource(  ) ) );
+        }
+    }
+
+    /**
+     * Returns the number of events of the helpdesk received since the start of the listener
+     * @return the number of events
+     */
+    public long getReceivedEvents(  )
+    {
+        return _lReceivedEvents.get(  );
+    }
+
+    /**
+     * Counts an event of a resource of the indexer and returns the id of its resource
+     * @param event the event
+     * @return the id, or -1 if the resource is not indexed by the helpdesk indexer or its id is not numeric
+     */
+    private int receive( ResourceEvent event )
+    {
+        if ( !_indexer.getResourcesName(  ).contains( event.getTypeResource(  ) ) )
+        {
+            return -1;
+        }
+
+        _lReceivedEvents.incrementAndGet(  );
+
+        String strId = event.getIdResource(  );
+
+        return StringUtils.isNumeric( strId ) && StringUtils.isNotBlank( strId ) ? Integer.parseInt( strId ) : ( -1 );
+    }
+}
@@ -33,23 +33,238 @@
  */
 package fr.paris.lutece.plugins.helpdesk.modules.solr.service;
 
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import fr.paris.lutece.plugins.helpdesk.modules.solr.search.SolrHelpdeskIndexer;
+import fr.paris.lutece.plugins.helpdesk.modules.solr.service.extractor.HtmlTextExtractorService;
+import fr.paris.lutece.portal.business.event.ResourceEventManager;
+import fr.paris.lutece.portal.service.spring.SpringContextService;
+import fr.paris.lutece.portal.service.util.AppLogService;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+
 
 /**
  *
  * HelpdeskSolrService
+ * <br>
+ * Nothing heavy is done in the portal boot path : the text extractor, its cache and the Tika parser are
+ * initialized lazily, or by a background warm-up once the portal is started. The warm-up is retried with a
+ * growing delay ; the indexer reports ready once it is warm, or right away when the warm-up is disabled since it
+ * then initializes itself on first use. After the last planned attempt, the indexer reports degraded instead of
+ * ready, and the warm-up keeps on being retried at the longest delay until it succeeds.
  *
  */
 public class HelpdeskSolrService
 {
+    private static final String PROPERTY_INCREMENTAL_ENABLE = "helpdesk-solr.incremental.enable";
+    private static final String PROPERTY_WARMUP_ENABLE = "helpdesk-solr.warmup.enable";
+    private static final String PROPERTY_WARMUP_DELAY = "helpdesk-solr.warmup.delay";
+    private static final String PROPERTY_WARMUP_RETRY_MAX = "helpdesk-solr.warmup.retry.max";
+    private static final String PROPERTY_WARMUP_RETRY_DELAY = "helpdesk-solr.warmup.retry.delay";
+    private static final long DEFAULT_WARMUP_DELAY = 1000L;
+    private static final int DEFAULT_WARMUP_RETRY_MAX = 5;
+    private static final long DEFAULT_WARMUP_RETRY_DELAY = 2000L;
+    private static final long WARMUP_RETRY_MAX_DELAY = 60000L;
+    private static final String BEAN_INDEXER = "helpdeskSolrIndexer";
+    private static final String THREAD_NAME_WARMUP = "helpdesk-solr-warmup";
+    private static final String THREAD_NAME_SHUTDOWN = "helpdesk-solr-shutdown";
+    private static final String WARMUP_HTML = "<html><body><p>Helpdesk</p></body></html>";
     private static HelpdeskSolrService _singleton = new HelpdeskSolrService(  );
+    private IncrementalIndexingQueue _incrementalIndexingQueue;
+    private HelpdeskIndexingListener _indexingListener;
+    private Thread _shutdownHook;
+    private boolean _bInitialized;
+    private volatile boolean _bWarm;
+    private volatile boolean _bReady;
+    private volatile boolean _bDegraded;
+    private volatile ScheduledExecutorService _warmUpExecutor;
 
     /**
-    * Initialize the Helpdesk Solr service
+    * Initialize the Helpdesk Solr service. Calling it again has no effect.
     *
     */
-    public void init(  )
+    public synchronized void init(  )
+    {
+        if ( _bInitialized )
+        {
+            return;
+        }
+
+        _bInitialized = true;
+
+        // The text cache is closed with the JVM when the portal does not call shutdown(  )
+        _shutdownHook = new Thread( this::shutdown, THREAD_NAME_SHUTDOWN );
+        Runtime.getRuntime(  ).addShutdownHook( _shutdownHook );
+
+        // Subscribe to the helpdesk changes to keep the Solr index up to date between full reindexes
+        if ( AppPropertiesService.getPropertyBoolean( PROPERTY_INCREMENTAL_ENABLE, false ) )
+        {
+            SolrHelpdeskIndexer indexer = SpringContextService.getBean( BEAN_INDEXER );
+            _incrementalIndexingQueue = new IncrementalIndexingQueue( indexer );
+            _indexingListener = new HelpdeskIndexingListener( _incrementalIndexingQueue, indexer );
+            ResourceEventManager.register( _indexingListener );
+            _incrementalIndexingQueue.start(  );
+            AppLogService.info( "Helpdesk incremental indexing listening to the resource events of types " +
+                indexer.getResourcesName(  ) + " fired by the helpdesk plugin" );
+        }
+
+        if ( AppPropertiesService.getPropertyBoolean( PROPERTY_WARMUP_ENABLE, true ) )
+        {
+            scheduleWarmUp( AppPropertiesService.getPropertyLong( PROPERTY_WARMUP_DELAY, DEFAULT_WARMUP_DELAY ),
+                AppPropertiesService.getPropertyLong( PROPERTY_WARMUP_RETRY_DELAY, DEFAULT_WARMUP_RETRY_DELAY ),
+                AppPropertiesService.getPropertyInt( PROPERTY_WARMUP_RETRY_MAX, DEFAULT_WARMUP_RETRY_MAX ),
+                this::warmUp );
+        }
+        else
+        {
+            // Nothing to wait for : the indexer initializes itself on first use
+            _bReady = true;
+        }
+    }
+
+    /**
+     * Stops the incremental indexing and releases the text extractor and its cache. The pending changes of the
+     * incremental indexing are caught by the next update of the index.
+     */
+    public synchronized void shutdown(  )
     {
-        //TODO subscribe to SolrService
+        ScheduledExecutorService warmUpExecutor = _warmUpExecutor;
+
+        if ( warmUpExecutor != null )
+        {
+            warmUpExecutor.shutdownNow(  );
+            _warmUpExecutor = null;
+        }
+
+        if ( _incrementalIndexingQueue != null )
+        {
+            _incrementalIndexingQueue.stop(  );
+            _incrementalIndexingQueue = null;
+        }
+
+        HtmlTextExtractorService.getInstance(  ).shutdown(  );
+
+        if ( ( _shutdownHook != null ) && ( Thread.currentThread(  ) != _shutdownHook ) )
+        {
+            try
+            {
+                Runtime.getRuntime(  ).removeShutdownHook( _shutdownHook );
+            }
+            catch ( IllegalStateException e )
+            {
+                // The JVM is shutting down : the hook runs anyway
+            }
+        }
+
+        _shutdownHook = null;
+    }
+
+    /**
+     * Initializes the heavy resources of the indexer : the text extractor, with its cache, and the parser, through
+     * the extraction of a small document. Calling it again once the indexer is warm has no effect.
+     * @return true if the indexer is warm
+     */
+    public boolean warmUp(  )
+    {
+        if ( _bWarm )
+        {
+            return true;
+        }
+
+        long lStart = System.currentTimeMillis(  );
+
+        try
+        {
+            HtmlTextExtractorService.getInstance(  ).getExtractor(  ).extract( WARMUP_HTML );
+        }
+        catch ( IOException | RuntimeException e )
+        {
+            AppLogService.error( "Unable to warm up the helpdesk indexer", e );
+
+            return false;
+        }
+
+        _bWarm = true;
+        _bReady = true;
+        _bDegraded = false;
+        AppLogService.info( "Helpdesk indexer warmed up in " + ( System.currentTimeMillis(  ) - lStart ) + " ms" );
+
+        return true;
+    }
+
+    /**
+     * Tells whether the indexer is ready : it is warm, or it will initialize itself on first use because the
+     * warm-up is disabled. An indexer whose warm-up keeps on failing is not ready, but degraded.
+     * @return true if the indexer is ready
+     */
+    public boolean isReady(  )
+    {
+        return _bReady;
+    }
+
+    /**
+     * Tells whether the indexer is warm : its heavy resources are initialized, so that the first documents are
+     * indexed at full speed
+     * @return true if the indexer is warm
+     */
+    public boolean isWarm(  )
+    {
+        return _bWarm;
+    }
+
+    /**
+     * Tells whether the indexer is degraded : the planned attempts of the warm-up all failed. The warm-up is still
+     * retried, and the indexer reports ready once it succeeds.
+     * @return true if the indexer is degraded
+     */
+    public boolean isDegraded(  )
+    {
+        return _bDegraded;
+    }
+
+    /**
+     * Runs the warm-up in a background thread, once the portal had time to start. A failed warm-up is retried
+     * after a delay doubled at each attempt, up to one minute ; after the last planned attempt, the indexer
+     * reports degraded and the warm-up is retried at the longest delay until it succeeds.
+     * @param lDelay the delay before the first attempt, in milliseconds
+     * @param lRetryDelay the delay before the first retry, in milliseconds
+     * @param nMaxAttempts the number of attempts before the indexer reports degraded
+     * @param warmUp the warm-up, telling whether it succeeded
+     */
+    void scheduleWarmUp( long lDelay, long lRetryDelay, int nMaxAttempts, BooleanSupplier warmUp )
+    {
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor( r -> {
+                    Thread thread = new Thread( r, THREAD_NAME_WARMUP );
+                    thread.setDaemon( true );
+                    thread.setPriority( Thread.MIN_PRIORITY );
+
+                    return thread;
+                } );
+        _warmUpExecutor = executor;
+        executor.schedule( new WarmUpTask( executor, warmUp, lRetryDelay, nMaxAttempts ), Math.max( 0L, lDelay ),
+            TimeUnit.MILLISECONDS );
+    }
+
+    /**
+     * Returns the incremental indexing queue
+     * @return the queue, or null if incremental indexing is disabled
+     */
+    public IncrementalIndexingQueue getIncrementalIndexingQueue(  )
+    {
+        return _incrementalIndexingQueue;
+    }
+
+    /**
+     * Returns the listener feeding the incremental indexing queue
+     * @return the listener, or null if incremental indexing is disabled
+     */
+    public HelpdeskIndexingListener getIndexingListener(  )
+    {
+        return _indexingListener;
     }
 
     /**
@@ -61,4 +276,67 @@ public class HelpdeskSolrService
     {
         return _singleton;
     }
+
+    /**
+     * Attempt of the warm-up, scheduled again after a failure
+     */
+    private final class WarmUpTask implements Runnable
+    {
+        private final ScheduledExecutorService _executor;
+        private final BooleanSupplier _warmUp;
+        private final int _nMaxAttempts;
+        private long _lRetryDelay;
+        private int _nAttempts;
+
+        /**
+         * Constructor
+         * @param executor the executor running the attempts
+         * @param warmUp the warm-up, telling whether it succeeded
+         * @param lRetryDelay the delay before the first retry, in milliseconds
+         * @param nMaxAttempts the number of attempts before the indexer reports degraded
+         */
+        WarmUpTask( ScheduledExecutorService executor, BooleanSupplier warmUp, long lRetryDelay, int nMaxAttempts )
+        {
+            _executor = executor;
+            _warmUp = warmUp;
+            _lRetryDelay = Math.max( 0L, lRetryDelay );
+            _nMaxAttempts = Math.max( 1, nMaxAttempts );
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void run(  )
+        {
+            _nAttempts++;
+
+            if ( _warmUp.getAsBoolean(  ) )
+            {
+                _bWarm = true;
+                _bReady = true;
+                _bDegraded = false;
+                _executor.shutdown(  );
+
+                return;
+            }
+
+            if ( _nAttempts == _nMaxAttempts )
+            {
+                // Reported to the readiness probe rather than hidden behind a ready state
+                AppLogService.error( "The helpdesk indexer could not be warmed up after " + _nAttempts +
+                    " attempts, it is degraded until a warm-up succeeds" );
+                _bDegraded = true;
+            }
+
+            if ( _executor.isShutdown(  ) )
+            {
+                return;
+            }
+
+            AppLogService.info( "Warm-up of the helpdesk indexer retried in " + _lRetryDelay + " ms" );
+            _executor.schedule( this, _lRetryDelay, TimeUnit.MILLISECONDS );
+            _lRetryDelay = Math.min( _lRetryDelay * 2, WARMUP_RETRY_MAX_DELAY );
+        }
+    }
 }
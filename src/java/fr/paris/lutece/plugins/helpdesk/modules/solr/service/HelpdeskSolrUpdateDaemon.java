@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.helpdesk.modules.solr.service;
+
+import java.util.List;
+
+import fr.paris.lutece.plugins.helpdesk.modules.solr.search.IndexingPartition;
+import fr.paris.lutece.plugins.helpdesk.modules.solr.search.SolrHelpdeskIndexer;
+import fr.paris.lutece.portal.service.daemon.Daemon;
+import fr.paris.lutece.portal.service.spring.SpringContextService;
+import fr.paris.lutece.portal.service.util.AppLogService;
+
+
+/**
+ * Updates the helpdesk documents of the Solr index in place, without emptying the index as the rebuilds
+ * launched from plugin-solr do
+ */
+public class HelpdeskSolrUpdateDaemon extends Daemon
+{
+    private static final String BEAN_INDEXER = "helpdeskSolrIndexer";
+    private static final String LOGS_SUCCESS = "Helpdesk documents updated";
+    private static final String LOGS_ERRORS = "Helpdesk documents updated with errors : ";
+    private static final String LOGS_NO_EVENT = ". No helpdesk event received by the incremental indexing since " +
+        "the start of the portal : the changes of the helpdesk reach Solr through this daemon only";
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void run(  )
+    {
+        SolrHelpdeskIndexer indexer = SpringContextService.getBean( BEAN_INDEXER );
+        List<String> listErrors = indexer.updateDocuments( IndexingPartition.getConfigured(  ) );
+        String strLogs = listErrors.isEmpty(  ) ? LOGS_SUCCESS : ( LOGS_ERRORS + listErrors );
+
+        // The incremental indexing depends on events that the helpdesk plugin may not fire
+        HelpdeskIndexingListener listener = HelpdeskSolrService.getInstance(  ).getIndexingListener(  );
+
+        if ( ( listener != null ) && ( listener.getReceivedEvents(  ) == 0L ) )
+        {
+            strLogs += LOGS_NO_EVENT;
+            AppLogService.info( LOGS_NO_EVENT.substring( 2 ) );
+        }
+
+        setLastRunLogs( strLogs );
+    }
+}
@@ -0,0 +1,418 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.helpdesk.modules.solr.service;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import fr.paris.lutece.plugins.helpdesk.modules.solr.search.DeadLetterLog;
+import fr.paris.lutece.plugins.helpdesk.modules.solr.search.IndexingPartition;
+import fr.paris.lutece.plugins.helpdesk.modules.solr.search.SolrHelpdeskIndexer;
+import fr.paris.lutece.plugins.helpdesk.modules.solr.search.SolrHelpdeskIndexerUtils;
+import fr.paris.lutece.plugins.search.solr.indexer.SolrIndexerService;
+import fr.paris.lutece.plugins.search.solr.indexer.SolrItem;
+import fr.paris.lutece.portal.service.util.AppLogService;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+
+
+/**
+ * Queue of the subjects to reindex after helpdesk changes. Successive changes of a subject are
+ * coalesced : a subject is reindexed once no change happened for the debounce delay.
+ * A background worker drains the queue in batches, the deletions first : the deletion of a subject
+ * cancels its pending reindexing. The changes wait in the queue while an indexing run of the helpdesk is in
+ * progress, and are drained at the next poll once it is over.
+ */
+public final class IncrementalIndexingQueue
+{
+    private static final String PROPERTY_DEBOUNCE_DELAY = "helpdesk-solr.incremental.debounceDelay";
+    private static final String PROPERTY_POLL_PERIOD = "helpdesk-solr.incremental.pollPeriod";
+    private static final String PROPERTY_BATCH_SIZE = "helpdesk-solr.incremental.batchSize";
+    private static final long DEFAULT_DEBOUNCE_DELAY = 5000L;
+    private static final long DEFAULT_POLL_PERIOD = 1000L;
+    private static final int DEFAULT_BATCH_SIZE = 50;
+    private static final String THREAD_NAME = "helpdesk-solr-incremental-indexer";
+    private static final Target SOLR = new Target(  )
+        {
+            @Override
+            public void delete( List<String> listResourceUids )
+                throws IOException
+            {
+                SolrHelpdeskIndexerUtils.deleteDocuments( listResourceUids );
+            }
+
+            @Override
+            public void write( List<SolrItem> listItems ) throws IOException
+            {
+                SolrIndexerService.write( listItems );
+            }
+
+            @Override
+            public void deleteChunks( Map<Integer, Integer> mapChunkCounts )
+                throws IOException
+            {
+                SolrHelpdeskIndexerUtils.deleteChunks( mapChunkCounts );
+                SolrHelpdeskIndexerUtils.commit(  );
+            }
+        };
+
+    private final SolrHelpdeskIndexer _indexer;
+    private final Target _target;
+    private final long _lDebounceDelay;
+    private final int _nBatchSize;
+
+    // Subject id -> time of its last change, ordered by time of last change
+    private final Map<Integer, Long> _mapPendingSubjects = new LinkedHashMap<Integer, Long>(  );
+
+    // Resource uids of the documents to remove from Solr
+    private final Set<String> _setPendingDeletions = new LinkedHashSet<String>(  );
+    private ScheduledExecutorService _executor;
+
+    /**
+     * Creates a queue configured from the helpdesk-solr properties
+     * @param indexer the helpdesk indexer
+     */
+    public IncrementalIndexingQueue( SolrHelpdeskIndexer indexer )
+    {
+        this( indexer, SOLR, AppPropertiesService.getPropertyLong( PROPERTY_DEBOUNCE_DELAY, DEFAULT_DEBOUNCE_DELAY ),
+            AppPropertiesService.getPropertyInt( PROPERTY_BATCH_SIZE, DEFAULT_BATCH_SIZE ) );
+    }
+
+    /**
+     * Creates a queue
+     * @param indexer the helpdesk indexer
+     * @param target the destination of the documents
+     * @param lDebounceDelay the time without change after which a subject is reindexed, in milliseconds
+     * @param nBatchSize the maximum number of subjects reindexed together
+     */
+    IncrementalIndexingQueue( SolrHelpdeskIndexer indexer, Target target, long lDebounceDelay, int nBatchSize )
+    {
+        _indexer = indexer;
+        _target = target;
+        _lDebounceDelay = lDebounceDelay;
+        _nBatchSize = Math.max( 1, nBatchSize );
+    }
+
+    /**
+     * Starts the background worker
+     */
+    public synchronized void start(  )
+    {
+        if ( _executor != null )
+        {
+            return;
+        }
+
+        long lPollPeriod = AppPropertiesService.getPropertyLong( PROPERTY_POLL_PERIOD, DEFAULT_POLL_PERIOD );
+        _executor = Executors.newSingleThreadScheduledExecutor( r -> {
+                    Thread thread = new Thread( r, THREAD_NAME );
+                    thread.setDaemon( true );
+
+                    return thread;
+                } );
+        _executor.scheduleWithFixedDelay( this::drain, lPollPeriod, lPollPeriod, TimeUnit.MILLISECONDS );
+    }
+
+    /**
+     * Stops the background worker. The pending changes are lost and will be caught by the next full reindex.
+     */
+    public synchronized void stop(  )
+    {
+        if ( _executor != null )
+        {
+            _executor.shutdownNow(  );
+            _executor = null;
+        }
+    }
+
+    /**
+     * Requests the reindexing of a subject and of its question/answer list
+     * @param nIdSubject the subject id
+     */
+    public void enqueueSubject( int nIdSubject )
+    {
+        synchronized ( _mapPendingSubjects )
+        {
+            // Removed first so that the subject moves to the end of the queue
+            _mapPendingSubjects.remove( nIdSubject );
+            _mapPendingSubjects.put( nIdSubject, System.currentTimeMillis(  ) );
+        }
+    }
+
+    /**
+     * Requests the removal of a document from Solr
+     * @param strResourceUid the resource uid of the document
+     */
+    public void enqueueDeletion( String strResourceUid )
+    {
+        enqueueDeletions( Collections.singletonList( strResourceUid ) );
+    }
+
+    /**
+     * Requests the removal of documents from Solr. The pending reindexing of a removed subject is cancelled.
+     * @param listResourceUids the resource uids of the documents
+     */
+    public void enqueueDeletions( Collection<String> listResourceUids )
+    {
+        synchronized ( _mapPendingSubjects )
+        {
+            for ( String strResourceUid : listResourceUids )
+            {
+                _setPendingDeletions.add( strResourceUid );
+                _mapPendingSubjects.remove( SolrHelpdeskIndexerUtils.getResourceId( strResourceUid,
+                        SolrHelpdeskIndexer.UID_SUFFIX_SUBJECT ) );
+            }
+        }
+    }
+
+    /**
+     * Returns the number of subjects waiting for reindexing
+     * @return the number of subjects
+     */
+    public int getPendingCount(  )
+    {
+        synchronized ( _mapPendingSubjects )
+        {
+            return _mapPendingSubjects.size(  );
+        }
+    }
+
+    /**
+     * Processes the deletions and the subjects whose last change is older than the debounce delay, unless an
+     * indexing run is in progress
+     */
+    void drain(  )
+    {
+        if ( !_indexer.runIfIdle( this::drainPending ) )
+        {
+            AppLogService.debug( "Helpdesk indexing run in progress : the incremental changes wait for its end" );
+        }
+    }
+
+    /**
+     * Processes the deletions and the subjects whose last change is older than the debounce delay, the indexing
+     * runs being held off
+     */
+    private void drainPending(  )
+    {
+        List<String> listDeletions;
+        List<Integer> listSubjects = new ArrayList<Integer>(  );
+
+        do
+        {
+            listSubjects.clear(  );
+
+            synchronized ( _mapPendingSubjects )
+            {
+                listDeletions = new ArrayList<String>( _setPendingDeletions );
+                _setPendingDeletions.clear(  );
+
+                long lLimit = System.currentTimeMillis(  ) - _lDebounceDelay;
+                Iterator<Map.Entry<Integer, Long>> iterator = _mapPendingSubjects.entrySet(  ).iterator(  );
+
+                while ( iterator.hasNext(  ) && ( listSubjects.size(  ) < _nBatchSize ) )
+                {
+                    Map.Entry<Integer, Long> entry = iterator.next(  );
+
+                    if ( entry.getValue(  ) > lLimit )
+                    {
+                        // The queue is ordered by time of last change : the next ones are not ready either
+                        break;
+                    }
+
+                    listSubjects.add( entry.getKey(  ) );
+                    iterator.remove(  );
+                }
+            }
+
+            try
+            {
+                process( listSubjects, listDeletions );
+            }
+            catch ( RuntimeException e )
+            {
+                // Never let an exception cancel the scheduled worker
+                AppLogService.error( "Error during the incremental indexing of the helpdesk", e );
+            }
+        }
+        while ( listSubjects.size(  ) == _nBatchSize );
+    }
+
+    /**
+     * Reindexes a batch of subjects and removes a batch of documents
+     * @param listSubjects the subject ids
+     * @param listDeletions the resource uids of the documents to remove
+     */
+    private void process( List<Integer> listSubjects, List<String> listDeletions )
+    {
+        try
+        {
+            if ( !listDeletions.isEmpty(  ) )
+            {
+                _target.delete( listDeletions );
+            }
+        }
+        catch ( IOException e )
+        {
+            AppLogService.error( "Unable to remove helpdesk documents from Solr : " + listDeletions, e );
+        }
+
+        if ( listSubjects.isEmpty(  ) )
+        {
+            return;
+        }
+
+        List<String> listDocuments = new ArrayList<String>( listSubjects.size(  ) );
+
+        for ( Integer nIdSubject : listSubjects )
+        {
+            listDocuments.add( String.valueOf( nIdSubject ) );
+        }
+
+        List<SolrItem> listItems;
+
+        try
+        {
+            listItems = _indexer.getDocuments( listDocuments );
+        }
+        catch ( RuntimeException e )
+        {
+            AppLogService.error( "Unable to build the helpdesk documents of the subjects " + listSubjects, e );
+
+            return;
+        }
+
+        if ( listItems.isEmpty(  ) )
+        {
+            return;
+        }
+
+        try
+        {
+            _target.write( listItems );
+        }
+        catch ( IOException e )
+        {
+            AppLogService.error( "Unable to send the helpdesk documents of the subjects " + listSubjects + " to Solr",
+                e );
+            deadLetter( listItems, e );
+
+            return;
+        }
+
+        // A question/answer whose content got shorter, or whose chunks were limited, has fewer chunks
+        Map<Integer, Integer> mapChunkCounts = SolrHelpdeskIndexerUtils.getChunkCounts( listItems );
+
+        try
+        {
+            if ( !mapChunkCounts.isEmpty(  ) )
+            {
+                _target.deleteChunks( mapChunkCounts );
+            }
+        }
+        catch ( IOException e )
+        {
+            AppLogService.error( "Unable to remove the former chunks of the helpdesk question/answers " +
+                mapChunkCounts.keySet(  ) + " from Solr", e );
+        }
+    }
+
+    /**
+     * Logs documents which could not be sent in the dead-letter log, if it is enabled, so that the next
+     * replay or full reindex sends them again
+     * @param listItems the documents
+     * @param cause the cause of the failure
+     */
+    private static void deadLetter( List<SolrItem> listItems, IOException cause )
+    {
+        if ( !DeadLetterLog.isEnabled(  ) )
+        {
+            return;
+        }
+
+        List<String> listUids = new ArrayList<String>( listItems.size(  ) );
+
+        for ( SolrItem item : listItems )
+        {
+            listUids.add( item.getUid(  ) );
+        }
+
+        try
+        {
+            DeadLetterLog.open( IndexingPartition.getConfigured(  ) ).append( listUids, String.valueOf( cause ) );
+        }
+        catch ( IOException e )
+        {
+            AppLogService.error( "Unable to write the helpdesk dead-letter log", e );
+        }
+    }
+
+    /**
+     * Destination of the changes : Solr, or a stand-in
+     */
+    interface Target
+    {
+        /**
+         * Removes documents
+         * @param listResourceUids the resource uids of the documents
+         * @throws IOException if the documents cannot be removed
+         */
+        void delete( List<String> listResourceUids ) throws IOException;
+
+        /**
+         * Adds or replaces documents
+         * @param listItems the documents
+         * @throws IOException if the documents cannot be written
+         */
+        void write( List<SolrItem> listItems ) throws IOException;
+
+        /**
+         * Removes the chunks of question/answers numbered above their current number of chunks
+         * @param mapChunkCounts the number of chunks kept, by question/answer id
+         * @throws IOException if the chunks cannot be removed
+         */
+        void deleteChunks( Map<Integer, Integer> mapChunkCounts )
+            throws IOException;
+    }
+}
@@ -0,0 +1,674 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.helpdesk.modules.solr.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+
+
+/**
+ * Counters and latency histograms of the helpdesk indexing, per phase. The latencies are kept in
+ * power-of-two buckets of nanoseconds. When the metrics are disabled every method returns at once.
+ * <br>
+ * Usage : <code>long lStart = metrics.start(  ); ... metrics.record( Phase.EXTRACT, lStart );</code>
+ */
+public final class IndexingMetrics
+{
+    private static final String PROPERTY_METRICS_ENABLE = "helpdesk-solr.metrics.enable";
+    private static final String PROPERTY_METRICS_SLOWEST_SUBJECTS = "helpdesk-solr.metrics.slowestSubjects";
+    private static final int DEFAULT_SLOWEST_SUBJECTS = 10;
+    private static final int BUCKET_COUNT = 64;
+    private static final double NANOS_PER_MILLI = 1000000d;
+    private static IndexingMetrics _singleton = new IndexingMetrics( AppPropertiesService.getPropertyBoolean(
+                PROPERTY_METRICS_ENABLE, false ),
+            AppPropertiesService.getPropertyInt( PROPERTY_METRICS_SLOWEST_SUBJECTS, DEFAULT_SLOWEST_SUBJECTS ) );
+
+    /**
+     * The phases of the indexing
+     */
+    public enum Phase
+    {
+        /** Reads of the helpdesk DAOs */
+        LOAD,
+        /** Extraction of the text to index from the HTML content */
+        EXTRACT,
+        /** Assembly of the SolrItem, extraction excluded */
+        BUILD,
+        /** Writes to Solr */
+        WRITE;
+    }
+
+    private final boolean _bEnabled;
+    private final int _nSlowestSubjects;
+    private final PhaseStats[] _phases = new PhaseStats[Phase.values(  ).length];
+    private final LongAdder _lDocuments = new LongAdder(  );
+    private final LongAdder _lSkippedDocuments = new LongAdder(  );
+    private final LongAdder _lExtractedChars = new LongAdder(  );
+    private final LongAdder _lFailures = new LongAdder(  );
+
+    // Slowest subjects of the current run, the fastest one at the head
+    private final PriorityQueue<SubjectTiming> _queueSlowestSubjects;
+    private volatile long _lRunStart;
+    private volatile long _lRunEnd;
+
+    /**
+     * Constructor
+     * @param bEnabled true to record the metrics
+     * @param nSlowestSubjects the number of slowest subjects to keep
+     */
+    IndexingMetrics( boolean bEnabled, int nSlowestSubjects )
+    {
+        _bEnabled = bEnabled;
+        _nSlowestSubjects = Math.max( 0, nSlowestSubjects );
+        _queueSlowestSubjects = new PriorityQueue<SubjectTiming>( _nSlowestSubjects + 1,
+                Comparator.comparingLong( SubjectTiming::getDuration ) );
+
+        for ( int i = 0; i < _phases.length; i++ )
+        {
+            _phases[i] = new PhaseStats(  );
+        }
+    }
+
+    /**
+     * Returns the instance of the singleton
+     *
+     * @return The instance of the singleton
+     */
+    public static IndexingMetrics getInstance(  )
+    {
+        return _singleton;
+    }
+
+    /**
+     * Tells whether the metrics are recorded
+     * @return true if the metrics are enabled
+     */
+    public boolean isEnabled(  )
+    {
+        return _bEnabled;
+    }
+
+    /**
+     * Resets the metrics at the beginning of a full reindex
+     */
+    public void startRun(  )
+    {
+        if ( !_bEnabled )
+        {
+            return;
+        }
+
+        for ( PhaseStats phase : _phases )
+        {
+            phase.reset(  );
+        }
+
+        _lDocuments.reset(  );
+        _lSkippedDocuments.reset(  );
+        _lExtractedChars.reset(  );
+        _lFailures.reset(  );
+
+        synchronized ( _queueSlowestSubjects )
+        {
+            _queueSlowestSubjects.clear(  );
+        }
+
+        _lRunEnd = 0;
+        _lRunStart = System.nanoTime(  );
+    }
+
+    /**
+     * Marks the end of a full reindex
+     */
+    public void endRun(  )
+    {
+        if ( _bEnabled )
+        {
+            _lRunEnd = System.nanoTime(  );
+        }
+    }
+
+    /**
+     * Starts timing an operation
+     * @return the start time to give to {@link #record(Phase, long)}, 0 if the metrics are disabled
+     */
+    public long start(  )
+    {
+        return _bEnabled ? System.nanoTime(  ) : 0L;
+    }
+
+    /**
+     * Records the duration of an operation started by {@link #start()}
+     * @param phase the phase of the operation
+     * @param lStart the start time
+     * @return the duration in nanoseconds, 0 if the metrics are disabled
+     */
+    public long record( Phase phase, long lStart )
+    {
+        if ( !_bEnabled )
+        {
+            return 0L;
+        }
+
+        long lDuration = System.nanoTime(  ) - lStart;
+        _phases[phase.ordinal(  )].add( lDuration );
+
+        return lDuration;
+    }
+
+    /**
+     * Records the duration of an operation
+     * @param phase the phase of the operation
+     * @param lDuration the duration in nanoseconds
+     */
+    public void recordDuration( Phase phase, long lDuration )
+    {
+        if ( _bEnabled )
+        {
+            _phases[phase.ordinal(  )].add( Math.max( 0L, lDuration ) );
+        }
+    }
+
+    /**
+     * Records the time spent indexing a subject and its question/answer list, its children excluded
+     * @param nIdSubject the subject id
+     * @param lStart the start time given by {@link #start()}
+     */
+    public void recordSubject( int nIdSubject, long lStart )
+    {
+        if ( !_bEnabled || ( _nSlowestSubjects == 0 ) )
+        {
+            return;
+        }
+
+        long lDuration = System.nanoTime(  ) - lStart;
+
+        synchronized ( _queueSlowestSubjects )
+        {
+            if ( ( _queueSlowestSubjects.size(  ) < _nSlowestSubjects ) ||
+                    ( _queueSlowestSubjects.peek(  ).getDuration(  ) < lDuration ) )
+            {
+                _queueSlowestSubjects.add( new SubjectTiming( nIdSubject, lDuration ) );
+
+                if ( _queueSlowestSubjects.size(  ) > _nSlowestSubjects )
+                {
+                    _queueSlowestSubjects.poll(  );
+                }
+            }
+        }
+    }
+
+    /**
+     * Counts documents sent to Solr
+     * @param nCount the number of documents
+     */
+    public void addDocuments( int nCount )
+    {
+        if ( _bEnabled )
+        {
+            _lDocuments.add( nCount );
+        }
+    }
+
+    /**
+     * Counts a document skipped because it did not change since the last run
+     */
+    public void addSkippedDocument(  )
+    {
+        if ( _bEnabled )
+        {
+            _lSkippedDocuments.increment(  );
+        }
+    }
+
+    /**
+     * Counts extracted characters
+     * @param nCount the number of characters
+     */
+    public void addExtractedChars( int nCount )
+    {
+        if ( _bEnabled )
+        {
+            _lExtractedChars.add( nCount );
+        }
+    }
+
+    /**
+     * Counts a failure
+     */
+    public void addFailure(  )
+    {
+        if ( _bEnabled )
+        {
+            _lFailures.increment(  );
+        }
+    }
+
+    /**
+     * Returns the number of documents sent to Solr
+     * @return the number of documents
+     */
+    public long getDocuments(  )
+    {
+        return _lDocuments.sum(  );
+    }
+
+    /**
+     * Returns the number of documents skipped because they did not change
+     * @return the number of documents
+     */
+    public long getSkippedDocuments(  )
+    {
+        return _lSkippedDocuments.sum(  );
+    }
+
+    /**
+     * Returns the number of extracted characters
+     * @return the number of characters
+     */
+    public long getExtractedChars(  )
+    {
+        return _lExtractedChars.sum(  );
+    }
+
+    /**
+     * Returns the number of failures
+     * @return the number of failures
+     */
+    public long getFailures(  )
+    {
+        return _lFailures.sum(  );
+    }
+
+    /**
+     * Returns the elapsed time of the last or current run
+     * @return the elapsed time in milliseconds
+     */
+    public long getElapsedMillis(  )
+    {
+        long lStart = _lRunStart;
+
+        if ( lStart == 0 )
+        {
+            return 0L;
+        }
+
+        long lEnd = ( _lRunEnd != 0 ) ? _lRunEnd : System.nanoTime(  );
+
+        return TimeUnit.NANOSECONDS.toMillis( lEnd - lStart );
+    }
+
+    /**
+     * Returns the throughput of the last or current run
+     * @return the number of documents sent per second
+     */
+    public double getDocumentsPerSecond(  )
+    {
+        long lElapsed = getElapsedMillis(  );
+
+        return ( lElapsed > 0 ) ? ( ( getDocuments(  ) * 1000d ) / lElapsed ) : 0d;
+    }
+
+    /**
+     * Returns the slowest subjects of the last or current run, the slowest first
+     * @return the subject timings
+     */
+    public List<SubjectTiming> getSlowestSubjects(  )
+    {
+        List<SubjectTiming> listTimings;
+
+        synchronized ( _queueSlowestSubjects )
+        {
+            listTimings = new ArrayList<SubjectTiming>( _queueSlowestSubjects );
+        }
+
+        Collections.sort( listTimings, Comparator.comparingLong( SubjectTiming::getDuration ).reversed(  ) );
+
+        return listTimings;
+    }
+
+    /**
+     * Returns the number of operations of a phase
+     * @param phase the phase
+     * @return the number of operations
+     */
+    public long getCount( Phase phase )
+    {
+        return _phases[phase.ordinal(  )]._lCount.sum(  );
+    }
+
+    /**
+     * Returns the total time spent in a phase
+     * @param phase the phase
+     * @return the total time in milliseconds
+     */
+    public double getTotalMillis( Phase phase )
+    {
+        return _phases[phase.ordinal(  )]._lTotal.sum(  ) / NANOS_PER_MILLI;
+    }
+
+    /**
+     * Returns the maximum duration of an operation of a phase
+     * @param phase the phase
+     * @return the maximum duration in milliseconds
+     */
+    public double getMaxMillis( Phase phase )
+    {
+        return _phases[phase.ordinal(  )].getMax(  ) / NANOS_PER_MILLI;
+    }
+
+    /**
+     * Returns an upper bound of a percentile of the durations of a phase, read from the histogram
+     * @param phase the phase
+     * @param dPercentile the percentile, between 0 and 100
+     * @return the upper bound of the bucket holding the percentile, in milliseconds
+     */
+    public double getPercentileMillis( Phase phase, double dPercentile )
+    {
+        return _phases[phase.ordinal(  )].getPercentile( dPercentile ) / NANOS_PER_MILLI;
+    }
+
+    /**
+     * Returns a one-line summary of the metrics
+     * @return the summary
+     */
+    public String getSummary(  )
+    {
+        StringBuilder sbSummary = new StringBuilder(  );
+        sbSummary.append( "Helpdesk indexing : " ).append( getDocuments(  ) ).append( " documents in " )
+                 .append( getElapsedMillis(  ) ).append( " ms (" )
+                 .append( String.format( "%.1f", getDocumentsPerSecond(  ) ) ).append( " docs/s), " )
+                 .append( getSkippedDocuments(  ) ).append( " unchanged, " ).append( getExtractedChars(  ) )
+                 .append( " chars extracted, " ).append( getFailures(  ) ).append( " failures" );
+
+        for ( Phase phase : Phase.values(  ) )
+        {
+            sbSummary.append( " ; " ).append( phase.name(  ).toLowerCase( Locale.ENGLISH ) ).append( " " )
+                     .append( getCount( phase ) ).append( " ops " )
+                     .append( String.format( "%.1f", getTotalMillis( phase ) ) ).append( " ms p99<=" )
+                     .append( String.format( "%.1f", getPercentileMillis( phase, 99d ) ) ).append( " ms" );
+        }
+
+        List<SubjectTiming> listSlowest = getSlowestSubjects(  );
+
+        if ( !listSlowest.isEmpty(  ) )
+        {
+            sbSummary.append( " ; slowest subjects :" );
+
+            for ( SubjectTiming timing : listSlowest )
+            {
+                sbSummary.append( " " ).append( timing.getIdSubject(  ) ).append( "=" )
+                         .append( String.format( "%.1f", timing.getDuration(  ) / NANOS_PER_MILLI ) ).append( "ms" );
+            }
+        }
+
+        return sbSummary.toString(  );
+    }
+
+    /**
+     * Returns the metrics as a JSON object
+     * @return the JSON
+     */
+    public String toJson(  )
+    {
+        StringBuilder sbJson = new StringBuilder( 1024 );
+        sbJson.append( "{\"enabled\":" ).append( _bEnabled );
+        sbJson.append( ",\"running\":" ).append( ( _lRunStart != 0 ) && ( _lRunEnd == 0 ) );
+        sbJson.append( ",\"elapsedMillis\":" ).append( getElapsedMillis(  ) );
+        sbJson.append( ",\"documents\":" ).append( getDocuments(  ) );
+        sbJson.append( ",\"documentsPerSecond\":" ).append( getDocumentsPerSecond(  ) );
+        sbJson.append( ",\"skippedDocuments\":" ).append( getSkippedDocuments(  ) );
+        sbJson.append( ",\"extractedChars\":" ).append( getExtractedChars(  ) );
+        sbJson.append( ",\"failures\":" ).append( getFailures(  ) );
+        sbJson.append( ",\"phases\":{" );
+
+        for ( Phase phase : Phase.values(  ) )
+        {
+            PhaseStats stats = _phases[phase.ordinal(  )];
+
+            if ( phase.ordinal(  ) > 0 )
+            {
+                sbJson.append( ',' );
+            }
+
+            sbJson.append( '"' ).append( phase.name(  ).toLowerCase( Locale.ENGLISH ) ).append( "\":{" );
+            sbJson.append( "\"count\":" ).append( getCount( phase ) );
+            sbJson.append( ",\"totalMillis\":" ).append( getTotalMillis( phase ) );
+            sbJson.append( ",\"maxMillis\":" ).append( getMaxMillis( phase ) );
+            sbJson.append( ",\"p50Millis\":" ).append( getPercentileMillis( phase, 50d ) );
+            sbJson.append( ",\"p99Millis\":" ).append( getPercentileMillis( phase, 99d ) );
+
+            // Histogram : upper bound of the bucket in nanoseconds -> number of operations
+            sbJson.append( ",\"histogram\":{" );
+
+            boolean bFirst = true;
+
+            for ( int i = 0; i < BUCKET_COUNT; i++ )
+            {
+                long lCount = stats._buckets.get( i );
+
+                if ( lCount > 0 )
+                {
+                    if ( !bFirst )
+                    {
+                        sbJson.append( ',' );
+                    }
+
+                    sbJson.append( '"' ).append( getBucketUpperBound( i ) ).append( "\":" ).append( lCount );
+                    bFirst = false;
+                }
+            }
+
+            sbJson.append( "}}" );
+        }
+
+        sbJson.append( "},\"slowestSubjects\":[" );
+
+        List<SubjectTiming> listSlowest = getSlowestSubjects(  );
+
+        for ( int i = 0; i < listSlowest.size(  ); i++ )
+        {
+            SubjectTiming timing = listSlowest.get( i );
+
+            if ( i > 0 )
+            {
+                sbJson.append( ',' );
+            }
+
+            sbJson.append( "{\"id\":" ).append( timing.getIdSubject(  ) ).append( ",\"millis\":" )
+                  .append( timing.getDuration(  ) / NANOS_PER_MILLI ).append( '}' );
+        }
+
+        sbJson.append( "]}" );
+
+        return sbJson.toString(  );
+    }
+
+    /**
+     * Returns the upper bound of a histogram bucket
+     * @param nBucket the bucket
+     * @return the upper bound, in nanoseconds
+     */
+    private static long getBucketUpperBound( int nBucket )
+    {
+        return ( nBucket >= ( BUCKET_COUNT - 1 ) ) ? Long.MAX_VALUE : ( ( 1L << nBucket ) - 1 );
+    }
+
+    /**
+     * Counters and histogram of a phase
+     */
+    private static final class PhaseStats
+    {
+        private final LongAdder _lCount = new LongAdder(  );
+        private final LongAdder _lTotal = new LongAdder(  );
+
+        // Bucket i holds the durations d such that 2^(i-1) <= d < 2^i
+        private final AtomicLongArray _buckets = new AtomicLongArray( BUCKET_COUNT );
+        private volatile long _lMax;
+
+        /**
+         * Adds a duration
+         * @param lDuration the duration in nanoseconds
+         */
+        void add( long lDuration )
+        {
+            _lCount.increment(  );
+            _lTotal.add( lDuration );
+            _buckets.incrementAndGet( Math.min( BUCKET_COUNT - 1, 64 - Long.numberOfLeadingZeros( lDuration ) ) );
+
+            if ( lDuration > _lMax )
+            {
+                synchronized ( this )
+                {
+                    if ( lDuration > _lMax )
+                    {
+                        _lMax = lDuration;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Returns the maximum duration
+         * @return the maximum duration in nanoseconds
+         */
+        long getMax(  )
+        {
+            return _lMax;
+        }
+
+        /**
+         * Returns the upper bound of the bucket holding a percentile
+         * @param dPercentile the percentile
+         * @return the upper bound in nanoseconds, capped by the maximum duration
+         */
+        long getPercentile( double dPercentile )
+        {
+            long lTotal = 0;
+            long[] counts = new long[BUCKET_COUNT];
+
+            for ( int i = 0; i < BUCKET_COUNT; i++ )
+            {
+                counts[i] = _buckets.get( i );
+                lTotal += counts[i];
+            }
+
+            if ( lTotal == 0 )
+            {
+                return 0L;
+            }
+
+            long lRank = (long) Math.ceil( ( dPercentile / 100d ) * lTotal );
+            long lSeen = 0;
+
+            for ( int i = 0; i < BUCKET_COUNT; i++ )
+            {
+                lSeen += counts[i];
+
+                if ( lSeen >= lRank )
+                {
+                    return Math.min( getBucketUpperBound( i ), _lMax );
+                }
+            }
+
+            return _lMax;
+        }
+
+        /**
+         * Resets the counters
+         */
+        void reset(  )
+        {
+            _lCount.reset(  );
+            _lTotal.reset(  );
+
+            for ( int i = 0; i < BUCKET_COUNT; i++ )
+            {
+                _buckets.set( i, 0L );
+            }
+
+            synchronized ( this )
+            {
+                _lMax = 0L;
+            }
+        }
+    }
+
+    /**
+     * Time spent indexing a subject
+     */
+    public static final class SubjectTiming
+    {
+        private final int _nIdSubject;
+        private final long _lDuration;
+
+        /**
+         * Constructor
+         * @param nIdSubject the subject id
+         * @param lDuration the duration in nanoseconds
+         */
+        SubjectTiming( int nIdSubject, long lDuration )
+        {
+            _nIdSubject = nIdSubject;
+            _lDuration = lDuration;
+        }
+
+        /**
+         * Returns the subject id
+         * @return the subject id
+         */
+        public int getIdSubject(  )
+        {
+            return _nIdSubject;
+        }
+
+        /**
+         * Returns the time spent indexing the subject
+         * @return the duration in nanoseconds
+         */
+        public long getDuration(  )
+        {
+            return _lDuration;
+        }
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.helpdesk.modules.solr.service.extractor;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.apache.commons.lang.StringUtils;
+
+
+/**
+ * Text extractor which looks up the {@link ExtractedTextCache} before calling the actual extractor.
+ * Only the contents given as strings are cached : a content read from a stream, a large question/answer
+ * for instance, is not known before its extraction and is always extracted.
+ */
+public class CachingHtmlTextExtractor implements HtmlTextExtractor, Closeable
+{
+    private static final String DIGEST_ALGORITHM = "MD5";
+    private static final int DIGEST_CHUNK = 1024;
+    private final HtmlTextExtractor _extractor;
+    private final ExtractedTextCache _cache;
+    private final byte[] _salt;
+    private final ThreadLocal<Digester> _digester = ThreadLocal.withInitial( Digester::new );
+
+    /**
+     * Constructor
+     * @param extractor the actual extractor
+     * @param cache the cache
+     */
+    public CachingHtmlTextExtractor( HtmlTextExtractor extractor, ExtractedTextCache cache )
+    {
+        _extractor = extractor;
+        _cache = cache;
+
+        // Texts extracted by another kind of extractor must not be served
+        _salt = extractor.getClass(  ).getName(  ).getBytes( StandardCharsets.UTF_8 );
+    }
+
+    /**
+     * Returns the actual extractor
+     * @return the extractor behind the cache
+     */
+    public HtmlTextExtractor getExtractor(  )
+    {
+        return _extractor;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String extract( String strHtml ) throws IOException
+    {
+        if ( StringUtils.isEmpty( strHtml ) )
+        {
+            return StringUtils.EMPTY;
+        }
+
+        ExtractedTextCache.Key key = _digester.get(  ).digest( _salt, strHtml );
+        String strText = _cache.get( key );
+
+        if ( strText == null )
+        {
+            strText = _extractor.extract( strHtml );
+            _cache.put( key, strText );
+        }
+
+        return strText;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <br>
+     * The cache is not used : the content of a stream is not known before its extraction.
+     */
+    @Override
+    public String extract( Reader reader ) throws IOException
+    {
+        return _extractor.extract( reader );
+    }
+
+    /**
+     * {@inheritDoc}
+     * <br>
+     * The cache is not used : the content of a stream is not known before its extraction, and its text is
+     * not held as a whole.
+     */
+    @Override
+    public void extract( Reader reader, Writer writer ) throws IOException
+    {
+        _extractor.extract( reader, writer );
+    }
+
+    /**
+     * Closes the cache
+     * @throws IOException if the cache cannot be closed
+     */
+    @Override
+    public void close(  ) throws IOException
+    {
+        _cache.close(  );
+    }
+
+    /**
+     * Hash of the HTML contents, one per thread
+     */
+    private static final class Digester
+    {
+        private final MessageDigest _digest;
+        private final ByteBuffer _buffer = ByteBuffer.allocate( DIGEST_CHUNK * 2 );
+
+        /**
+         * Constructor
+         */
+        Digester(  )
+        {
+            try
+            {
+                _digest = MessageDigest.getInstance( DIGEST_ALGORITHM );
+            }
+            catch ( NoSuchAlgorithmException e )
+            {
+                throw new IllegalStateException( e );
+            }
+        }
+
+        /**
+         * Hashes a content, chunk by chunk, without copying it
+         * @param salt the salt
+         * @param str the content
+         * @return the key of the content
+         */
+        ExtractedTextCache.Key digest( byte[] salt, String str )
+        {
+            _digest.reset(  );
+            _digest.update( salt );
+
+            for ( int nStart = 0; nStart < str.length(  ); nStart += DIGEST_CHUNK )
+            {
+                int nEnd = Math.min( str.length(  ), nStart + DIGEST_CHUNK );
+                _buffer.clear(  );
+
+                for ( int i = nStart; i < nEnd; i++ )
+                {
+                    _buffer.putChar( str.charAt( i ) );
+                }
+
+                _digest.update( _buffer.array(  ), 0, _buffer.position(  ) );
+            }
+
+            ByteBuffer hash = ByteBuffer.wrap( _digest.digest(  ) );
+
+            return new ExtractedTextCache.Key( hash.getLong(  ), hash.getLong(  ) );
+        }
+    }
+}
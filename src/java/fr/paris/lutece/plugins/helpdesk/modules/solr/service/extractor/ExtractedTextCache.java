@@ -0,0 +1,465 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.helpdesk.modules.solr.service.extractor;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import fr.paris.lutece.portal.service.util.AppLogService;
+
+
+/**
+ * On-disk cache of extracted texts, keyed by a 128 bits hash of the HTML content.
+ * <br>
+ * The texts are appended to a log file ; the position of each text is kept in memory, in least recently
+ * used order, and rebuilt by scanning the log when the cache is opened. When the log grows over its
+ * maximum size, it is compacted : only the most recently used texts are copied to a new log.
+ * <br>
+ * Reads run concurrently ; appends and compactions are exclusive. A cache directory must not be shared
+ * between several JVMs.
+ */
+public final class ExtractedTextCache implements Closeable
+{
+    private static final String FILE_LOG = "texts.log";
+    private static final String SUFFIX_COMPACT = ".compact";
+    private static final int RECORD_MAGIC = 0x48445443;
+    private static final int HEADER_SIZE = 4 + 8 + 8 + 4;
+    private final File _fileLog;
+    private final long _lMaxBytes;
+    private final ReadWriteLock _lock = new ReentrantReadWriteLock(  );
+
+    // Key -> position of the record, in access order
+    private final LinkedHashMap<Key, Long> _mapIndex = new LinkedHashMap<Key, Long>( 1024, 0.75f, true );
+    private FileChannel _channel;
+    private long _lSize;
+    private boolean _bClosed;
+
+    /**
+     * Opens a cache, rebuilding its index from the log
+     * @param fileDirectory the directory of the cache
+     * @param lMaxBytes the maximum size of the log
+     * @throws IOException if the log cannot be opened
+     */
+    public ExtractedTextCache( File fileDirectory, long lMaxBytes )
+        throws IOException
+    {
+        if ( !fileDirectory.exists(  ) && !fileDirectory.mkdirs(  ) )
+        {
+            throw new IOException( "Unable to create the directory " + fileDirectory );
+        }
+
+        _fileLog = new File( fileDirectory, FILE_LOG );
+        _lMaxBytes = lMaxBytes;
+        _channel = openChannel( _fileLog );
+        _lSize = scan(  );
+    }
+
+    /**
+     * Returns the cached text of an HTML content
+     * @param key the key of the HTML content
+     * @return the text, or null if it is not in the cache
+     */
+    public String get( Key key )
+    {
+        _lock.readLock(  ).lock(  );
+
+        try
+        {
+            if ( _bClosed )
+            {
+                return null;
+            }
+
+            Long lPosition;
+
+            synchronized ( _mapIndex )
+            {
+                lPosition = _mapIndex.get( key );
+            }
+
+            return ( lPosition != null ) ? read( _channel, lPosition, key ) : null;
+        }
+        catch ( IOException e )
+        {
+            AppLogService.error( "Unable to read the helpdesk text cache " + _fileLog, e );
+
+            return null;
+        }
+        finally
+        {
+            _lock.readLock(  ).unlock(  );
+        }
+    }
+
+    /**
+     * Stores the text of an HTML content
+     * @param key the key of the HTML content
+     * @param strText the text
+     */
+    public void put( Key key, String strText )
+    {
+        byte[] text = strText.getBytes( StandardCharsets.UTF_8 );
+
+        _lock.writeLock(  ).lock(  );
+
+        try
+        {
+            if ( _bClosed || _mapIndex.containsKey( key ) )
+            {
+                return;
+            }
+
+            long lPosition = _lSize;
+            _lSize += write( _channel, lPosition, key, text );
+            _mapIndex.put( key, lPosition );
+
+            if ( _lSize > _lMaxBytes )
+            {
+                compact(  );
+            }
+        }
+        catch ( IOException e )
+        {
+            AppLogService.error( "Unable to write the helpdesk text cache " + _fileLog, e );
+        }
+        finally
+        {
+            _lock.writeLock(  ).unlock(  );
+        }
+    }
+
+    /**
+     * Returns the number of cached texts
+     * @return the number of texts
+     */
+    public int size(  )
+    {
+        _lock.readLock(  ).lock(  );
+
+        try
+        {
+            synchronized ( _mapIndex )
+            {
+                return _mapIndex.size(  );
+            }
+        }
+        finally
+        {
+            _lock.readLock(  ).unlock(  );
+        }
+    }
+
+    /**
+     * Closes the log. The cache then misses every text and stores none.
+     * @throws IOException if the log cannot be closed
+     */
+    @Override
+    public void close(  ) throws IOException
+    {
+        _lock.writeLock(  ).lock(  );
+
+        try
+        {
+            _bClosed = true;
+            _channel.close(  );
+        }
+        finally
+        {
+            _lock.writeLock(  ).unlock(  );
+        }
+    }
+
+    /**
+     * Rebuilds the index from the log. A truncated or corrupted tail, left by a crash, is cut off.
+     * @return the size of the valid part of the log
+     * @throws IOException if the log cannot be read
+     */
+    private long scan(  ) throws IOException
+    {
+        ByteBuffer header = ByteBuffer.allocate( HEADER_SIZE );
+        long lPosition = 0;
+        long lFileSize = _channel.size(  );
+
+        while ( ( lPosition + HEADER_SIZE ) <= lFileSize )
+        {
+            header.clear(  );
+            readFully( _channel, header, lPosition );
+            header.flip(  );
+
+            if ( header.getInt(  ) != RECORD_MAGIC )
+            {
+                break;
+            }
+
+            Key key = new Key( header.getLong(  ), header.getLong(  ) );
+            int nLength = header.getInt(  );
+
+            if ( ( nLength < 0 ) || ( ( lPosition + HEADER_SIZE + nLength ) > lFileSize ) )
+            {
+                break;
+            }
+
+            _mapIndex.put( key, lPosition );
+            lPosition += ( HEADER_SIZE + nLength );
+        }
+
+        if ( lPosition < lFileSize )
+        {
+            AppLogService.info( "Helpdesk text cache : truncating " + _fileLog + " to " + lPosition + " bytes" );
+            _channel.truncate( lPosition );
+        }
+
+        return lPosition;
+    }
+
+    /**
+     * Copies the most recently used texts, up to half of the maximum size, to a new log and replaces the
+     * current log with it. Called with the write lock held.
+     * @throws IOException if the new log cannot be written
+     */
+    private void compact(  ) throws IOException
+    {
+        // Most recently used entries are at the end of the index
+        List<Map.Entry<Key, Long>> listEntries = new ArrayList<Map.Entry<Key, Long>>( _mapIndex.entrySet(  ) );
+        File fileCompact = new File( _fileLog.getPath(  ) + SUFFIX_COMPACT );
+        Map<Key, Long> mapKept = new LinkedHashMap<Key, Long>(  );
+        long lBudget = _lMaxBytes / 2;
+        long lSize = 0;
+
+        try ( FileChannel channelCompact = FileChannel.open( fileCompact.toPath(  ), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING ) )
+        {
+            List<Map.Entry<Key, Long>> listKept = new ArrayList<Map.Entry<Key, Long>>(  );
+
+            for ( int i = listEntries.size(  ) - 1; i >= 0; i-- )
+            {
+                Map.Entry<Key, Long> entry = listEntries.get( i );
+                byte[] text = readBytes( _channel, entry.getValue(  ) );
+
+                if ( ( lSize + HEADER_SIZE + text.length ) > lBudget )
+                {
+                    break;
+                }
+
+                listKept.add( 0, new AbstractMap.SimpleEntry<Key, Long>( entry.getKey(  ), lSize ) );
+                lSize += write( channelCompact, lSize, entry.getKey(  ), text );
+            }
+
+            // Keep the access order : least recently used first
+            for ( Map.Entry<Key, Long> entry : listKept )
+            {
+                mapKept.put( entry.getKey(  ), entry.getValue(  ) );
+            }
+
+            channelCompact.force( true );
+        }
+
+        _channel.close(  );
+        Files.move( fileCompact.toPath(  ), _fileLog.toPath(  ), StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE );
+        _channel = openChannel( _fileLog );
+        _mapIndex.clear(  );
+        _mapIndex.putAll( mapKept );
+        _lSize = lSize;
+        AppLogService.info( "Helpdesk text cache compacted : " + mapKept.size(  ) + " texts, " + lSize + " bytes" );
+    }
+
+    /**
+     * Opens the log
+     * @param file the log file
+     * @return the channel
+     * @throws IOException if the file cannot be opened
+     */
+    private static FileChannel openChannel( File file ) throws IOException
+    {
+        return FileChannel.open( file.toPath(  ), StandardOpenOption.CREATE, StandardOpenOption.READ,
+            StandardOpenOption.WRITE );
+    }
+
+    /**
+     * Writes a record
+     * @param channel the log
+     * @param lPosition the position of the record
+     * @param key the key
+     * @param text the UTF-8 text
+     * @return the size of the record
+     * @throws IOException if the record cannot be written
+     */
+    private static int write( FileChannel channel, long lPosition, Key key, byte[] text )
+        throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.allocate( HEADER_SIZE + text.length );
+        buffer.putInt( RECORD_MAGIC ).putLong( key._lHigh ).putLong( key._lLow ).putInt( text.length ).put( text );
+        buffer.flip(  );
+
+        long lOffset = lPosition;
+
+        while ( buffer.hasRemaining(  ) )
+        {
+            lOffset += channel.write( buffer, lOffset );
+        }
+
+        return HEADER_SIZE + text.length;
+    }
+
+    /**
+     * Reads the text of a record, checking its key
+     * @param channel the log
+     * @param lPosition the position of the record
+     * @param key the expected key
+     * @return the text, or null if the record does not match the key
+     * @throws IOException if the record cannot be read
+     */
+    private static String read( FileChannel channel, long lPosition, Key key )
+        throws IOException
+    {
+        ByteBuffer header = ByteBuffer.allocate( HEADER_SIZE );
+        readFully( channel, header, lPosition );
+        header.flip(  );
+
+        if ( ( header.getInt(  ) != RECORD_MAGIC ) || ( header.getLong(  ) != key._lHigh ) ||
+                ( header.getLong(  ) != key._lLow ) )
+        {
+            return null;
+        }
+
+        ByteBuffer text = ByteBuffer.allocate( header.getInt(  ) );
+        readFully( channel, text, lPosition + HEADER_SIZE );
+
+        return new String( text.array(  ), StandardCharsets.UTF_8 );
+    }
+
+    /**
+     * Reads the UTF-8 text of a record
+     * @param channel the log
+     * @param lPosition the position of the record
+     * @return the UTF-8 text
+     * @throws IOException if the record cannot be read
+     */
+    private static byte[] readBytes( FileChannel channel, long lPosition )
+        throws IOException
+    {
+        ByteBuffer header = ByteBuffer.allocate( HEADER_SIZE );
+        readFully( channel, header, lPosition );
+
+        ByteBuffer text = ByteBuffer.allocate( header.getInt( HEADER_SIZE - 4 ) );
+        readFully( channel, text, lPosition + HEADER_SIZE );
+
+        return text.array(  );
+    }
+
+    /**
+     * Fills a buffer from a position of a channel
+     * @param channel the channel
+     * @param buffer the buffer
+     * @param lPosition the position
+     * @throws IOException if the end of the channel is reached
+     */
+    private static void readFully( FileChannel channel, ByteBuffer buffer, long lPosition )
+        throws IOException
+    {
+        long lOffset = lPosition;
+
+        while ( buffer.hasRemaining(  ) )
+        {
+            int nRead = channel.read( buffer, lOffset );
+
+            if ( nRead < 0 )
+            {
+                throw new IOException( "Unexpected end of the helpdesk text cache" );
+            }
+
+            lOffset += nRead;
+        }
+    }
+
+    /**
+     * Key of an HTML content : 128 bits hash
+     */
+    public static final class Key
+    {
+        private final long _lHigh;
+        private final long _lLow;
+
+        /**
+         * Constructor
+         * @param lHigh the high bits of the hash
+         * @param lLow the low bits of the hash
+         */
+        public Key( long lHigh, long lLow )
+        {
+            _lHigh = lHigh;
+            _lLow = lLow;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean equals( Object object )
+        {
+            if ( !( object instanceof Key ) )
+            {
+                return false;
+            }
+
+            Key key = (Key) object;
+
+            return ( _lHigh == key._lHigh ) && ( _lLow == key._lLow );
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int hashCode(  )
+        {
+            return (int) ( _lLow ^ ( _lLow >>> 32 ) );
+        }
+    }
+}
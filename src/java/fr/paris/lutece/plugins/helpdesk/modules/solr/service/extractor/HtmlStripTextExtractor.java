@@ -0,0 +1,553 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.helpdesk.modules.solr.service.extractor;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+import org.apache.commons.lang.StringEscapeUtils;
+import org.apache.commons.lang.StringUtils;
+
+
+/**
+ * Lightweight text extractor : a single pass over the characters which drops the tags, the comments
+ * and the script and style elements, decodes the entities and collapses the white spaces.
+ * It does not build any document tree and is much cheaper than a full HTML parser.
+ * As in HTML, a '&lt;' starts a tag only when followed by a letter, '/', '!' or '?', and the content of a
+ * script or style element only ends with its end tag. Only the beginning of a tag is kept, whatever its length.
+ */
+public class HtmlStripTextExtractor implements HtmlTextExtractor
+{
+    private static final int BUFFER_SIZE = 4096;
+    private static final char NBSP = '\u00a0';
+    private static final int MAX_ENTITY_LENGTH = 10;
+    private static final int MAX_REUSED_BUFFER = 1024 * 1024;
+    private static final int MAX_TAG_LENGTH = 64;
+    private static final String COMMENT_START = "!--";
+    private static final String COMMENT_END = "--";
+    private static final String ENTITY_END = ";";
+    private static final Set<String> SKIPPED_ELEMENTS = new HashSet<String>( Arrays.asList( "script", "style" ) );
+
+    // Elements which separate words
+    private static final Set<String> BLOCK_ELEMENTS = new HashSet<String>( Arrays.asList( "address", "article",
+                "aside", "blockquote", "br", "dd", "div", "dl", "dt", "fieldset", "figcaption", "figure", "footer",
+                "form", "h1", "h2", "h3", "h4", "h5", "h6", "header", "hr", "li", "main", "nav", "ol", "p", "pre",
+                "section", "table", "tbody", "td", "tfoot", "th", "thead", "tr", "ul" ) );
+
+    private final ThreadLocal<State> _state = ThreadLocal.withInitial( State::new );
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String extract( String strHtml ) throws IOException
+    {
+        if ( strHtml == null )
+        {
+            return StringUtils.EMPTY;
+        }
+
+        return extract( new StringReader( strHtml ) );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String extract( Reader reader ) throws IOException
+    {
+        State state = _state.get(  );
+        state.reset(  );
+
+        char[] buffer = state._buffer;
+        int nRead;
+
+        while ( ( nRead = reader.read( buffer ) ) != -1 )
+        {
+            for ( int i = 0; i < nRead; i++ )
+            {
+                state.accept( buffer[i] );
+            }
+        }
+
+        String strText = state.finish(  );
+        release( state );
+
+        return strText;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void extract( Reader reader, Writer writer ) throws IOException
+    {
+        State state = _state.get(  );
+        state.reset(  );
+
+        char[] buffer = state._buffer;
+        int nRead;
+
+        while ( ( nRead = reader.read( buffer ) ) != -1 )
+        {
+            for ( int i = 0; i < nRead; i++ )
+            {
+                state.accept( buffer[i] );
+            }
+
+            // The text is handed over as it comes
+            if ( state._sbText.length(  ) >= BUFFER_SIZE )
+            {
+                writer.append( state._sbText );
+                state._sbText.setLength( 0 );
+            }
+        }
+
+        writer.write( state.finish(  ) );
+        release( state );
+    }
+
+    /**
+     * Drops the state of the thread if it grew too large to be kept
+     * @param state the state
+     */
+    private void release( State state )
+    {
+        if ( state._sbText.capacity(  ) > MAX_REUSED_BUFFER )
+        {
+            // Do not keep the buffer of an exceptionally large content
+            _state.remove(  );
+        }
+    }
+
+    /**
+     * Parsing state of a thread, reused from one document to the next
+     */
+    private static final class State
+    {
+        private final char[] _buffer = new char[BUFFER_SIZE];
+        private final StringBuilder _sbText = new StringBuilder(  );
+
+        // Beginning of the current tag : its name, and a few attributes at most
+        private final StringBuilder _sbTag = new StringBuilder(  );
+        private final StringBuilder _sbEntity = new StringBuilder(  );
+        private boolean _bTagOpening;
+        private boolean _bInTag;
+        private boolean _bTagHasSpace;
+        private char _cTagLast;
+        private boolean _bInComment;
+        private int _nCommentDashes;
+        private boolean _bInEntity;
+        private char _cQuote;
+        private String _strSkippedElement;
+
+        // Number of characters of the end tag of the skipped element already matched
+        private int _nEndTagMatch;
+        private boolean _bPendingSpace;
+        private boolean _bTextStarted;
+
+        /**
+         * Prepares the state for a new document
+         */
+        void reset(  )
+        {
+            _sbText.setLength( 0 );
+            _sbTag.setLength( 0 );
+            _sbEntity.setLength( 0 );
+            _bTagOpening = false;
+            _bInTag = false;
+            _bTagHasSpace = false;
+            _cTagLast = 0;
+            _bInComment = false;
+            _nCommentDashes = 0;
+            _bInEntity = false;
+            _cQuote = 0;
+            _strSkippedElement = null;
+            _nEndTagMatch = 0;
+            _bPendingSpace = false;
+            _bTextStarted = false;
+        }
+
+        /**
+         * Processes a character
+         * @param c the character
+         */
+        void accept( char c )
+        {
+            if ( _bInComment )
+            {
+                acceptInComment( c );
+            }
+            else if ( _bInTag )
+            {
+                acceptInTag( c );
+            }
+            else if ( _strSkippedElement != null )
+            {
+                acceptInSkippedElement( c );
+            }
+            else if ( _bTagOpening )
+            {
+                _bTagOpening = false;
+
+                if ( isTagStart( c ) )
+                {
+                    startTag(  );
+                    acceptInTag( c );
+                }
+                else
+                {
+                    // A lone '<' is text, as in "a < b"
+                    flushEntity(  );
+                    appendText( '<' );
+                    accept( c );
+                }
+            }
+            else if ( c == '<' )
+            {
+                _bTagOpening = true;
+            }
+            else
+            {
+                acceptText( c );
+            }
+        }
+
+        /**
+         * Returns the text of the document. A tag or a comment left open at the end is dropped.
+         * @return the text
+         */
+        String finish(  )
+        {
+            flushEntity(  );
+
+            if ( _bTagOpening )
+            {
+                appendText( '<' );
+            }
+
+            return _sbText.toString(  );
+        }
+
+        /**
+         * Tells whether a character following a '<' starts a tag, a comment or a declaration
+         * @param c the character
+         * @return true if the '<' starts markup
+         */
+        private static boolean isTagStart( char c )
+        {
+            return Character.isLetter( c ) || ( c == '/' ) || ( c == '!' ) || ( c == '?' );
+        }
+
+        /**
+         * Enters a tag
+         */
+        private void startTag(  )
+        {
+            flushEntity(  );
+            _bInTag = true;
+            _bTagHasSpace = false;
+            _cTagLast = 0;
+            _cQuote = 0;
+            _sbTag.setLength( 0 );
+        }
+
+        /**
+         * Processes a character of text
+         * @param c the character
+         */
+        private void acceptText( char c )
+        {
+            if ( _bInEntity )
+            {
+                acceptInEntity( c );
+            }
+            else if ( c == '&' )
+            {
+                _bInEntity = true;
+                _sbEntity.setLength( 0 );
+                _sbEntity.append( c );
+            }
+            else
+            {
+                appendText( c );
+            }
+        }
+
+        /**
+         * Processes a character of the content of a script or style element, which only ends with its end tag
+         * @param c the character
+         */
+        private void acceptInSkippedElement( char c )
+        {
+            int nNameLength = _strSkippedElement.length(  );
+
+            if ( _nEndTagMatch == ( nNameLength + 2 ) )
+            {
+                if ( ( c == '>' ) || ( c == '/' ) || Character.isWhitespace( c ) )
+                {
+                    _strSkippedElement = null;
+                    _nEndTagMatch = 0;
+
+                    if ( c != '>' )
+                    {
+                        // The rest of the end tag is dropped
+                        startTag(  );
+                        _bTagHasSpace = true;
+                    }
+
+                    return;
+                }
+
+                _nEndTagMatch = 0;
+            }
+
+            char cExpected;
+
+            if ( _nEndTagMatch == 0 )
+            {
+                cExpected = '<';
+            }
+            else if ( _nEndTagMatch == 1 )
+            {
+                cExpected = '/';
+            }
+            else
+            {
+                cExpected = _strSkippedElement.charAt( _nEndTagMatch - 2 );
+            }
+
+            if ( Character.toLowerCase( c ) == cExpected )
+            {
+                _nEndTagMatch++;
+            }
+            else
+            {
+                _nEndTagMatch = ( c == '<' ) ? 1 : 0;
+            }
+        }
+
+        /**
+         * Processes a character of a comment, which ends with --&gt; whatever it contains
+         * @param c the character
+         */
+        private void acceptInComment( char c )
+        {
+            if ( ( c == '>' ) && ( _nCommentDashes >= COMMENT_END.length(  ) ) )
+            {
+                _bInComment = false;
+            }
+            else
+            {
+                _nCommentDashes = ( c == '-' ) ? ( _nCommentDashes + 1 ) : 0;
+            }
+        }
+
+        /**
+         * Processes a character of a tag
+         * @param c the character
+         */
+        private void acceptInTag( char c )
+        {
+            if ( _cQuote != 0 )
+            {
+                if ( c == _cQuote )
+                {
+                    _cQuote = 0;
+                }
+
+                return;
+            }
+
+            if ( c == '>' )
+            {
+                _bInTag = false;
+                endTag(  );
+
+                return;
+            }
+
+            if ( ( ( c == '"' ) || ( c == '\'' ) ) && _bTagHasSpace )
+            {
+                // Quoted attribute value
+                _cQuote = c;
+
+                return;
+            }
+
+            if ( Character.isWhitespace( c ) )
+            {
+                _bTagHasSpace = true;
+            }
+
+            _cTagLast = c;
+
+            if ( _sbTag.length(  ) < MAX_TAG_LENGTH )
+            {
+                _sbTag.append( c );
+
+                if ( ( _sbTag.length(  ) == COMMENT_START.length(  ) ) &&
+                        COMMENT_START.contentEquals( _sbTag ) )
+                {
+                    _bInTag = false;
+                    _bInComment = true;
+                    _nCommentDashes = 0;
+                }
+            }
+        }
+
+        /**
+         * Handles a complete tag
+         */
+        private void endTag(  )
+        {
+            boolean bClosing = ( _sbTag.length(  ) > 0 ) && ( _sbTag.charAt( 0 ) == '/' );
+            int nStart = bClosing ? 1 : 0;
+            int nEnd = nStart;
+
+            while ( ( nEnd < _sbTag.length(  ) ) && Character.isLetterOrDigit( _sbTag.charAt( nEnd ) ) )
+            {
+                nEnd++;
+            }
+
+            String strName = _sbTag.substring( nStart, nEnd ).toLowerCase( Locale.ENGLISH );
+
+            if ( !bClosing && SKIPPED_ELEMENTS.contains( strName ) && ( _cTagLast != '/' ) )
+            {
+                _strSkippedElement = strName;
+                _nEndTagMatch = 0;
+            }
+            else if ( BLOCK_ELEMENTS.contains( strName ) )
+            {
+                _bPendingSpace = true;
+            }
+        }
+
+        /**
+         * Processes a character of an entity
+         * @param c the character
+         */
+        private void acceptInEntity( char c )
+        {
+            _sbEntity.append( c );
+
+            if ( c == ';' )
+            {
+                _bInEntity = false;
+
+                appendText( StringEscapeUtils.unescapeHtml( _sbEntity.toString(  ) ) );
+            }
+            else if ( _sbEntity.length(  ) > MAX_ENTITY_LENGTH )
+            {
+                // Not an entity : the characters are kept as they are
+                _bInEntity = false;
+                appendText( _sbEntity );
+            }
+            else if ( Character.isWhitespace( c ) || ( c == '&' ) )
+            {
+                _sbEntity.setLength( _sbEntity.length(  ) - 1 );
+                flushEntity(  );
+
+                if ( c == '&' )
+                {
+                    _bInEntity = true;
+                    _sbEntity.setLength( 0 );
+                    _sbEntity.append( c );
+                }
+                else
+                {
+                    appendText( c );
+                }
+            }
+        }
+
+        /**
+         * Writes an entity without its semicolon, decoded if it is a known one as the browsers do, or as it is
+         */
+        private void flushEntity(  )
+        {
+            if ( _bInEntity )
+            {
+                _bInEntity = false;
+
+                String strRaw = _sbEntity.toString(  );
+                String strDecoded = StringEscapeUtils.unescapeHtml( strRaw + ENTITY_END );
+
+                appendText( ( strDecoded.length(  ) < strRaw.length(  ) ) ? strDecoded : strRaw );
+            }
+        }
+
+        /**
+         * Appends characters of text
+         * @param cs the characters
+         */
+        private void appendText( CharSequence cs )
+        {
+            for ( int i = 0; i < cs.length(  ); i++ )
+            {
+                appendText( cs.charAt( i ) );
+            }
+        }
+
+        /**
+         * Appends a character of text, collapsing the white spaces
+         * @param c the character
+         */
+        private void appendText( char c )
+        {
+            if ( Character.isWhitespace( c ) || ( c == NBSP ) )
+            {
+                _bPendingSpace = true;
+
+                return;
+            }
+
+            // The text may have been handed over already : its length does not tell whether it started
+            if ( _bPendingSpace && _bTextStarted )
+            {
+                _sbText.append( ' ' );
+            }
+
+            _bPendingSpace = false;
+            _bTextStarted = true;
+            _sbText.append( c );
+        }
+    }
+}
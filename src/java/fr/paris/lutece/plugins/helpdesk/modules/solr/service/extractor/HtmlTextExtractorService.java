@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.helpdesk.modules.solr.service.extractor;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+
+import fr.paris.lutece.portal.service.util.AppLogService;
+import fr.paris.lutece.portal.service.util.AppPathService;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+
+
+/**
+ * Provides the text extractor configured for the helpdesk indexer
+ */
+public final class HtmlTextExtractorService
+{
+    private static final String PROPERTY_EXTRACTOR = "helpdesk-solr.indexer.extractor";
+    private static final String PROPERTY_EXTRACTOR_WRITE_LIMIT = "helpdesk-solr.indexer.extractor.writeLimit";
+    private static final String PROPERTY_TEXT_CACHE_ENABLE = "helpdesk-solr.indexer.textCache.enable";
+    private static final String PROPERTY_TEXT_CACHE_DIRECTORY = "helpdesk-solr.indexer.textCache.directory";
+    private static final String PROPERTY_TEXT_CACHE_MAX_BYTES = "helpdesk-solr.indexer.textCache.maxBytes";
+    private static final String DEFAULT_TEXT_CACHE_DIRECTORY = "/WEB-INF/tmp/helpdesk-solr/text-cache";
+    private static final long DEFAULT_TEXT_CACHE_MAX_BYTES = 256L * 1024L * 1024L;
+    private static final String EXTRACTOR_STRIP = "strip";
+    private static HtmlTextExtractorService _singleton = new HtmlTextExtractorService(  );
+    private volatile HtmlTextExtractor _extractor;
+
+    /**
+     * Private constructor
+     */
+    private HtmlTextExtractorService(  )
+    {
+    }
+
+    /**
+     * Returns the instance of the singleton
+     *
+     * @return The instance of the singleton
+     */
+    public static HtmlTextExtractorService getInstance(  )
+    {
+        return _singleton;
+    }
+
+    /**
+     * Returns the configured extractor : <code>tika</code> (default) or <code>strip</code>, behind the
+     * on-disk text cache if it is enabled
+     * @return the extractor
+     */
+    public HtmlTextExtractor getExtractor(  )
+    {
+        HtmlTextExtractor extractor = _extractor;
+
+        if ( extractor == null )
+        {
+            synchronized ( this )
+            {
+                extractor = _extractor;
+
+                if ( extractor == null )
+                {
+                    extractor = EXTRACTOR_STRIP.equals( AppPropertiesService.getProperty( PROPERTY_EXTRACTOR ) )
+                        ? new HtmlStripTextExtractor(  )
+                        : new TikaHtmlTextExtractor( AppPropertiesService.getPropertyInt(
+                                PROPERTY_EXTRACTOR_WRITE_LIMIT, TikaHtmlTextExtractor.DEFAULT_WRITE_LIMIT ) );
+
+                    if ( AppPropertiesService.getPropertyBoolean( PROPERTY_TEXT_CACHE_ENABLE, false ) )
+                    {
+                        extractor = withCache( extractor );
+                    }
+
+                    _extractor = extractor;
+                }
+            }
+        }
+
+        return extractor;
+    }
+
+    /**
+     * Wraps an extractor with the on-disk text cache
+     * @param extractor the extractor
+     * @return the caching extractor, or the extractor itself if the cache cannot be opened
+     */
+    private static HtmlTextExtractor withCache( HtmlTextExtractor extractor )
+    {
+        File fileDirectory = new File( AppPathService.getAbsolutePathFromRelativePath( AppPropertiesService.getProperty(
+                        PROPERTY_TEXT_CACHE_DIRECTORY, DEFAULT_TEXT_CACHE_DIRECTORY ) ) );
+
+        try
+        {
+            ExtractedTextCache cache = new ExtractedTextCache( fileDirectory,
+                    AppPropertiesService.getPropertyLong( PROPERTY_TEXT_CACHE_MAX_BYTES, DEFAULT_TEXT_CACHE_MAX_BYTES ) );
+            AppLogService.info( "Helpdesk text cache opened : " + cache.size(  ) + " texts in " + fileDirectory );
+
+            return new CachingHtmlTextExtractor( extractor, cache );
+        }
+        catch ( IOException e )
+        {
+            AppLogService.error( "Unable to open the helpdesk text cache " + fileDirectory, e );
+
+            return extractor;
+        }
+    }
+
+    /**
+     * Replaces the extractor, closing the previous one
+     * @param extractor the extractor
+     */
+    public synchronized void setExtractor( HtmlTextExtractor extractor )
+    {
+        close( _extractor );
+        _extractor = extractor;
+    }
+
+    /**
+     * Releases the extractor and its text cache. The next call to {@link #getExtractor(  )} opens them again.
+     */
+    public synchronized void shutdown(  )
+    {
+        close( _extractor );
+        _extractor = null;
+    }
+
+    /**
+     * Closes an extractor which holds resources, its text cache for instance
+     * @param extractor the extractor, or null
+     */
+    private static void close( HtmlTextExtractor extractor )
+    {
+        if ( extractor instanceof Closeable )
+        {
+            try
+            {
+                ( (Closeable) extractor ).close(  );
+            }
+            catch ( IOException e )
+            {
+                AppLogService.error( "Unable to close the helpdesk text extractor", e );
+            }
+        }
+    }
+}
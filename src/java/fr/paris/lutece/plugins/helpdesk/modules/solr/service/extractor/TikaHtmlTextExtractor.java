@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.helpdesk.modules.solr.service.extractor;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.commons.io.input.ReaderInputStream;
+import org.apache.commons.lang.StringUtils;
+import org.apache.tika.exception.TikaException;
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.parser.ParseContext;
+import org.apache.tika.parser.html.HtmlParser;
+import org.apache.tika.sax.BodyContentHandler;
+import org.apache.tika.sax.WriteOutContentHandler;
+import org.xml.sax.SAXException;
+
+import fr.paris.lutece.portal.service.util.AppLogService;
+
+
+/**
+ * Text extractor based on the Tika HTML parser. Only the parser is shared : the content handler and the
+ * parse context keep the state of one document, so they are created for each content. The output buffer of
+ * {@link #extract(Reader)} is reused by each thread, and the characters are encoded on the fly instead of being
+ * copied into a byte array. The text of a content is truncated at the write limit, as with the Tika default.
+ */
+public class TikaHtmlTextExtractor implements HtmlTextExtractor
+{
+    private static final String CONTENT_TYPE = "text/html; charset=UTF-8";
+    private static final int MAX_REUSED_BUFFER = 1024 * 1024;
+
+    /** Default maximum number of characters extracted from a content (the Tika default), -1 for no limit */
+    public static final int DEFAULT_WRITE_LIMIT = 100000;
+
+    // Tika parsers are stateless and thread-safe
+    private final HtmlParser _parser = new HtmlParser(  );
+    private final ThreadLocal<StringWriter> _buffer = ThreadLocal.withInitial( StringWriter::new );
+    private final int _nWriteLimit;
+
+    /**
+     * Creates an extractor with the default write limit
+     */
+    public TikaHtmlTextExtractor(  )
+    {
+        this( DEFAULT_WRITE_LIMIT );
+    }
+
+    /**
+     * Creates an extractor
+     * @param nWriteLimit the maximum number of characters extracted from a content, -1 for no limit
+     */
+    public TikaHtmlTextExtractor( int nWriteLimit )
+    {
+        _nWriteLimit = nWriteLimit;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String extract( String strHtml ) throws IOException
+    {
+        if ( strHtml == null )
+        {
+            return StringUtils.EMPTY;
+        }
+
+        return extract( new StringReader( strHtml ) );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String extract( Reader reader ) throws IOException
+    {
+        StringWriter writer = _buffer.get(  );
+        writer.getBuffer(  ).setLength( 0 );
+        extract( reader, writer );
+
+        String strText = writer.toString(  );
+
+        if ( writer.getBuffer(  ).capacity(  ) > MAX_REUSED_BUFFER )
+        {
+            // Do not keep the buffer of an exceptionally large content
+            _buffer.remove(  );
+        }
+
+        return strText;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void extract( Reader reader, Writer writer ) throws IOException
+    {
+        Metadata metadata = new Metadata(  );
+
+        // The charset is given so that Tika does not need to detect it
+        metadata.set( Metadata.CONTENT_TYPE, CONTENT_TYPE );
+
+        WriteOutContentHandler handler = new WriteOutContentHandler( writer, _nWriteLimit );
+
+        try ( InputStream stream = new ReaderInputStream( reader, StandardCharsets.UTF_8 ) )
+        {
+            _parser.parse( stream, new BodyContentHandler( handler ), metadata, new ParseContext(  ) );
+        }
+        catch ( SAXException e )
+        {
+            if ( handler.isWriteLimitReached( e ) )
+            {
+                // The text written up to the limit is kept
+                AppLogService.debug( "Text of an helpdesk HTML content truncated at " + _nWriteLimit + " characters" );
+            }
+            else
+            {
+                AppLogService.error( "Unable to extract the text of an helpdesk HTML content", e );
+            }
+        }
+        catch ( TikaException e )
+        {
+            AppLogService.error( "Unable to extract the text of an helpdesk HTML content", e );
+        }
+    }
+}
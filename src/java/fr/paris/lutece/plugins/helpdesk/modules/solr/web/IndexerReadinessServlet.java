@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.helpdesk.modules.solr.web;
+
+import java.io.IOException;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import fr.paris.lutece.plugins.helpdesk.modules.solr.service.HelpdeskSolrService;
+
+
+/**
+ * Readiness probe of the helpdesk indexer : 200 once the indexer is warm, or when the warm-up is disabled, 503
+ * otherwise. The body tells whether the indexer is warm, and whether it is degraded because its warm-up keeps on
+ * failing. Only these states are disclosed, so the probe is open to load balancers and orchestrators.
+ */
+public class IndexerReadinessServlet extends HttpServlet
+{
+    private static final long serialVersionUID = 1L;
+    private static final String CONTENT_TYPE_JSON = "application/json";
+    private static final String ENCODING_UTF8 = "UTF-8";
+    private static final String JSON_READY = "{\"ready\":";
+    private static final String JSON_WARM = ",\"warm\":";
+    private static final String JSON_DEGRADED = ",\"degraded\":";
+    private static final String JSON_END = "}";
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void doGet( HttpServletRequest request, HttpServletResponse response )
+        throws ServletException, IOException
+    {
+        HelpdeskSolrService service = HelpdeskSolrService.getInstance(  );
+        boolean bReady = service.isReady(  );
+
+        response.setStatus( bReady ? HttpServletResponse.SC_OK : HttpServletResponse.SC_SERVICE_UNAVAILABLE );
+        response.setContentType( CONTENT_TYPE_JSON );
+        response.setCharacterEncoding( ENCODING_UTF8 );
+        response.getWriter(  ).write( JSON_READY + bReady + JSON_WARM + service.isWarm(  ) + JSON_DEGRADED +
+            service.isDegraded(  ) + JSON_END );
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.helpdesk.modules.solr.web;
+
+import java.io.IOException;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import fr.paris.lutece.plugins.helpdesk.modules.solr.service.IndexingMetrics;
+import fr.paris.lutece.portal.business.user.AdminUser;
+import fr.paris.lutece.portal.service.admin.AdminUserService;
+
+
+/**
+ * Serves the metrics of the helpdesk indexing as JSON, to the back office users granted the
+ * {@value #RIGHT_METRICS} right only
+ */
+public class IndexingMetricsServlet extends HttpServlet
+{
+    /** Right of the back office users allowed to read the metrics */
+    public static final String RIGHT_METRICS = "HELPDESK_SOLR_METRICS";
+    private static final long serialVersionUID = 1L;
+    private static final String CONTENT_TYPE_JSON = "application/json";
+    private static final String ENCODING_UTF8 = "UTF-8";
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void doGet( HttpServletRequest request, HttpServletResponse response )
+        throws ServletException, IOException
+    {
+        if ( !isAllowed( AdminUserService.getAdminUser( request ) ) )
+        {
+            response.sendError( HttpServletResponse.SC_FORBIDDEN );
+
+            return;
+        }
+
+        response.setContentType( CONTENT_TYPE_JSON );
+        response.setCharacterEncoding( ENCODING_UTF8 );
+        response.getWriter(  ).write( IndexingMetrics.getInstance(  ).toJson(  ) );
+    }
+
+    /**
+     * Tells whether a user may read the metrics
+     * @param user the back office user, null if the request is not authenticated
+     * @return true if the user has the {@value #RIGHT_METRICS} right
+     */
+    static boolean isAllowed( AdminUser user )
+    {
+        return ( user != null ) && user.checkRight( RIGHT_METRICS );
+    }
+}
@@ -0,0 +1,24 @@
+--
+-- Structure for table helpdesk_solr_partition_round
+--
+DROP TABLE IF EXISTS helpdesk_solr_partition_round;
+CREATE TABLE helpdesk_solr_partition_round (
+	id_round BIGINT NOT NULL,
+	node_count INT DEFAULT 0 NOT NULL,
+	rebuild SMALLINT DEFAULT 0 NOT NULL,
+	date_open TIMESTAMP NULL,
+	date_close TIMESTAMP NULL,
+	PRIMARY KEY (id_round)
+);
+
+--
+-- Structure for table helpdesk_solr_partition_node
+--
+DROP TABLE IF EXISTS helpdesk_solr_partition_node;
+CREATE TABLE helpdesk_solr_partition_node (
+	id_round BIGINT NOT NULL,
+	node_index INT NOT NULL,
+	status VARCHAR(10) NOT NULL,
+	date_update TIMESTAMP NULL,
+	PRIMARY KEY (id_round, node_index)
+);
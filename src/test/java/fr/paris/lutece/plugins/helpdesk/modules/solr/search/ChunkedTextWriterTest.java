@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.helpdesk.modules.solr.search;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+
+/**
+ * Tests of the cutting of texts into chunks by {@link ChunkedTextWriter}
+ */
+public class ChunkedTextWriterTest
+{
+    /**
+     * A text shorter than a chunk is a single chunk, an empty text a single empty chunk
+     */
+    @Test
+    public void testSingleChunk(  )
+    {
+        assertEquals( Arrays.asList( "short text" ), chunks( 20, 3, "short text" ) );
+        assertEquals( Arrays.asList( "0123456789" ), chunks( 10, 3, "0123456789" ) );
+        assertEquals( Arrays.asList( "" ), chunks( 10, 3, "" ) );
+    }
+
+    /**
+     * A full chunk is cut at its last white space, which is dropped
+     */
+    @Test
+    public void testCutAtWhiteSpace(  )
+    {
+        assertEquals( Arrays.asList( "alpha beta", "gamma delta" ), chunks( 12, 3, "alpha beta gamma delta" ) );
+    }
+
+    /**
+     * A chunk without white space is cut at its maximum size
+     */
+    @Test
+    public void testCutInWord(  )
+    {
+        assertEquals( Arrays.asList( "abcde", "fghij", "kl" ), chunks( 5, 3, "abcdefghijkl" ) );
+    }
+
+    /**
+     * The characters written once the last chunk is full are dropped
+     */
+    @Test
+    public void testTruncated(  )
+    {
+        ChunkedTextWriter writer = new ChunkedTextWriter( 4, 2 );
+        writer.write( "aaaabbbbcccc".toCharArray(  ), 0, 12 );
+        writer.close(  );
+
+        assertEquals( Arrays.asList( "aaaa", "bbbb" ), writer.getChunks(  ) );
+        assertTrue( writer.isTruncated(  ) );
+
+        writer = new ChunkedTextWriter( 4, 2 );
+        writer.write( "aaaabbbb".toCharArray(  ), 0, 8 );
+        writer.close(  );
+
+        assertEquals( Arrays.asList( "aaaa", "bbbb" ), writer.getChunks(  ) );
+        assertFalse( writer.isTruncated(  ) );
+
+        writer = new ChunkedTextWriter( 4, 2 );
+        writer.write( "aaaabbb".toCharArray(  ), 0, 7 );
+        writer.close(  );
+
+        assertEquals( Arrays.asList( "aaaa", "bbb" ), writer.getChunks(  ) );
+        assertFalse( writer.isTruncated(  ) );
+    }
+
+    /**
+     * The chunks do not depend on how the text is split into writes
+     */
+    @Test
+    public void testWritesOfAnySize(  )
+    {
+        String strText = "the quick brown fox jumps over the lazy dog and keeps running through the field";
+        List<String> listExpected = chunks( 16, 10, strText );
+
+        for ( int nWrite = 1; nWrite < 20; nWrite++ )
+        {
+            ChunkedTextWriter writer = new ChunkedTextWriter( 16, 10 );
+
+            for ( int i = 0; i < strText.length(  ); i += nWrite )
+            {
+                writer.write( strText.toCharArray(  ), i, Math.min( nWrite, strText.length(  ) - i ) );
+            }
+
+            writer.close(  );
+            assertEquals( "writes of " + nWrite, listExpected, writer.getChunks(  ) );
+        }
+
+        for ( String strChunk : listExpected )
+        {
+            assertTrue( strChunk.length(  ) <= 16 );
+        }
+
+        assertEquals( strText, String.join( " ", listExpected ) );
+    }
+
+    /**
+     * Writes a text at once
+     * @param nMaxChars the maximum number of characters of a chunk
+     * @param nMaxChunks the maximum number of chunks
+     * @param strText the text
+     * @return the chunks
+     */
+    private static List<String> chunks( int nMaxChars, int nMaxChunks, String strText )
+    {
+        ChunkedTextWriter writer = new ChunkedTextWriter( nMaxChars, nMaxChunks );
+        writer.write( strText.toCharArray(  ), 0, strText.length(  ) );
+        writer.close(  );
+
+        return writer.getChunks(  );
+    }
+}
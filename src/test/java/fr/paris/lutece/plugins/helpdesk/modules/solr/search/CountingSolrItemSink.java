@@ -0,0 +1,206 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.helpdesk.modules.solr.search;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import fr.paris.lutece.plugins.search.solr.indexer.SolrItem;
+
+
+/**
+ * Stand-in for Solr : counts the documents and the characters of the batches it receives, and drops them
+ * or keeps and removes them by uid, as the index would
+ */
+final class CountingSolrItemSink implements SolrItemSink
+{
+    private final AtomicLong _lDocuments = new AtomicLong(  );
+    private final AtomicLong _lCharacters = new AtomicLong(  );
+    private final AtomicLong _lBatches = new AtomicLong(  );
+    private final AtomicLong _lDeletions = new AtomicLong(  );
+    private final Map<String, SolrItem> _mapItems;
+
+    /**
+     * Constructor of a sink which drops the documents
+     */
+    CountingSolrItemSink(  )
+    {
+        this( false );
+    }
+
+    /**
+     * Constructor
+     * @param bKeepItems true to keep the last document received for each uid
+     */
+    CountingSolrItemSink( boolean bKeepItems )
+    {
+        _mapItems = bKeepItems ? new ConcurrentHashMap<String, SolrItem>(  ) : null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write( List<SolrItem> listItems )
+    {
+        long lCharacters = 0;
+
+        for ( SolrItem item : listItems )
+        {
+            lCharacters += length( item.getContent(  ) ) + length( item.getTitle(  ) ) + length( item.getUrl(  ) );
+
+            if ( _mapItems != null )
+            {
+                _mapItems.put( item.getUid(  ), item );
+            }
+        }
+
+        _lDocuments.addAndGet( listItems.size(  ) );
+        _lCharacters.addAndGet( lCharacters );
+        _lBatches.incrementAndGet(  );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void deleteChunks( Map<Integer, Integer> mapChunkCounts )
+    {
+        _lDeletions.addAndGet( mapChunkCounts.size(  ) );
+
+        if ( _mapItems != null )
+        {
+            Iterator<String> iterator = _mapItems.keySet(  ).iterator(  );
+
+            while ( iterator.hasNext(  ) )
+            {
+                String strUid = iterator.next(  );
+                Integer nChunkCount = mapChunkCounts.get( SolrHelpdeskIndexerUtils.getResourceId( strUid,
+                            SolrHelpdeskIndexer.UID_SUFFIX_QUESTION_ANSWER ) );
+
+                if ( ( nChunkCount != null ) &&
+                        ( SolrHelpdeskIndexerUtils.getChunkNumber( strUid,
+                            SolrHelpdeskIndexer.UID_SUFFIX_QUESTION_ANSWER ) > nChunkCount ) )
+                {
+                    iterator.remove(  );
+                }
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close(  )
+    {
+        // Nothing to release
+    }
+
+    /**
+     * Returns the number of documents received
+     * @return the number of documents
+     */
+    long getDocuments(  )
+    {
+        return _lDocuments.get(  );
+    }
+
+    /**
+     * Returns the number of characters received
+     * @return the number of characters
+     */
+    long getCharacters(  )
+    {
+        return _lCharacters.get(  );
+    }
+
+    /**
+     * Returns the number of batches received
+     * @return the number of batches
+     */
+    long getBatches(  )
+    {
+        return _lBatches.get(  );
+    }
+
+    /**
+     * Returns the number of question/answers whose former chunks were removed
+     * @return the number of question/answers
+     */
+    long getDeletions(  )
+    {
+        return _lDeletions.get(  );
+    }
+
+    /**
+     * Returns the documents kept, by uid
+     * @return the documents, empty if they are dropped
+     */
+    Map<String, SolrItem> getItems(  )
+    {
+        return ( _mapItems != null ) ? Collections.unmodifiableMap( _mapItems )
+                                     : Collections.<String, SolrItem>emptyMap(  );
+    }
+
+    /**
+     * Forgets the documents kept and resets the counters, as a wipe of the index
+     */
+    void clear(  )
+    {
+        if ( _mapItems != null )
+        {
+            _mapItems.clear(  );
+        }
+
+        _lDocuments.set( 0 );
+        _lCharacters.set( 0 );
+        _lBatches.set( 0 );
+        _lDeletions.set( 0 );
+    }
+
+    /**
+     * Null-safe string length
+     * @param str the string
+     * @return the length of the string, 0 if null
+     */
+    private static int length( String str )
+    {
+        return ( str != null ) ? str.length(  ) : 0;
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.helpdesk.modules.solr.search;
+
+import java.sql.Timestamp;
+import java.util.Random;
+
+import fr.paris.lutece.plugins.helpdesk.business.QuestionAnswer;
+import fr.paris.lutece.plugins.helpdesk.business.Subject;
+
+
+/**
+ * Generator of synthetic helpdesk content : subjects, question/answers and HTML answers
+ * looking like the ones written with the rich text editor of the back office
+ */
+final class HelpdeskCorpus
+{
+    private static final String[] WORDS = { "account", "password", "reset", "the", "your", "request", "form",
+        "online", "service", "citizen", "appointment", "document", "identity", "card", "address", "change",
+        "payment", "receipt", "delay", "office", "opening", "hours", "parking", "permit", "school", "registration",
+        "&eacute;", "&amp;", "procedure", "within", "days", "please", "contact", "support", "municipal", "library" };
+    private static final long CREATION_DATE = 1400000000000L;
+
+    /**
+     * Private constructor
+     */
+    private HelpdeskCorpus(  )
+    {
+    }
+
+    /**
+     * Builds a subject
+     * @param nId the subject id
+     * @param nIdParent the parent id, 0 for a top-level subject
+     * @param random the random source
+     * @return the subject
+     */
+    static Subject subject( int nId, int nIdParent, Random random )
+    {
+        Subject subject = new Subject(  );
+        subject.setId( nId );
+        subject.setIdParent( nIdParent );
+        subject.setText( sentence( random, 3 + random.nextInt( 5 ) ) );
+
+        return subject;
+    }
+
+    /**
+     * Builds an enabled question/answer
+     * @param nId the question/answer id
+     * @param nIdSubject the subject id
+     * @param nAnswerSize the approximate size of the HTML answer, in characters
+     * @param random the random source
+     * @return the question/answer
+     */
+    static QuestionAnswer questionAnswer( int nId, int nIdSubject, int nAnswerSize, Random random )
+    {
+        QuestionAnswer questionAnswer = new QuestionAnswer(  );
+        questionAnswer.setIdQuestionAnswer( nId );
+        questionAnswer.setIdSubject( nIdSubject );
+        questionAnswer.setQuestion( sentence( random, 6 + random.nextInt( 10 ) ) + " ?" );
+        questionAnswer.setAnswer( html( nAnswerSize, random ) );
+        questionAnswer.setEnabled( true );
+        questionAnswer.setCreationDate( new Timestamp( CREATION_DATE + ( nId * 60000L ) ) );
+
+        return questionAnswer;
+    }
+
+    /**
+     * Generates an HTML answer : paragraphs, lists, links, emphasis and entities
+     * @param nSize the approximate size, in characters
+     * @param random the random source
+     * @return the HTML
+     */
+    static String html( int nSize, Random random )
+    {
+        StringBuilder sb = new StringBuilder( nSize + 256 );
+
+        while ( sb.length(  ) < nSize )
+        {
+            switch ( random.nextInt( 4 ) )
+            {
+                case 0:
+                    sb.append( "<ul>" );
+
+                    for ( int i = 0; i < 3; i++ )
+                    {
+                        sb.append( "<li>" ).append( sentence( random, 5 ) ).append( "</li>" );
+                    }
+
+                    sb.append( "</ul>" );
+
+                    break;
+
+                case 1:
+                    sb.append( "<p>" ).append( sentence( random, 8 ) ).append( " <a href=\"http://www.example.org/page?id=" )
+                      .append( random.nextInt( 1000 ) ).append( "&amp;lang=fr\" target=\"_blank\">" )
+                      .append( sentence( random, 2 ) ).append( "</a>.</p>" );
+
+                    break;
+
+                case 2:
+                    sb.append( "<p><strong>" ).append( sentence( random, 3 ) ).append( "</strong>&nbsp;: " )
+                      .append( sentence( random, 12 ) ).append( "</p>" );
+
+                    break;
+
+                default:
+                    sb.append( "<p style=\"text-align: justify;\">" ).append( sentence( random, 20 ) )
+                      .append( "<br />" ).append( sentence( random, 10 ) ).append( "</p>" );
+            }
+        }
+
+        return sb.toString(  );
+    }
+
+    /**
+     * Generates a sentence
+     * @param random the random source
+     * @param nWords the number of words
+     * @return the sentence
+     */
+    static String sentence( Random random, int nWords )
+    {
+        StringBuilder sb = new StringBuilder(  );
+
+        for ( int i = 0; i < nWords; i++ )
+        {
+            if ( i > 0 )
+            {
+                sb.append( ' ' );
+            }
+
+            sb.append( WORDS[random.nextInt( WORDS.length )] );
+        }
+
+        return sb.toString(  );
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.helpdesk.modules.solr.search;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+import fr.paris.lutece.portal.service.init.LuteceInitException;
+import fr.paris.lutece.portal.service.util.AppPathService;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+
+
+/**
+ * Minimal Lutece environment for the tests and the benchmarks : a temporary webapp holding the configuration
+ * files of the module, without database nor Solr server. The properties of the module may be overridden by a test.
+ */
+final class HelpdeskSolrTestEnvironment
+{
+    private static final String PATH_CONF = "/WEB-INF/conf/";
+    private static final String PATH_TMP = "/WEB-INF/tmp";
+    private static final String PATH_MODULE_CONF = "webapp/WEB-INF/conf/plugins";
+    private static final String PATH_OVERRIDE_PLUGINS = "override/plugins";
+    private static final String FILE_OVERRIDE = "helpdesk-solr.properties";
+    private static File _fileWebapp;
+
+    /**
+     * Private constructor
+     */
+    private HelpdeskSolrTestEnvironment(  )
+    {
+    }
+
+    /**
+     * Initializes the path and properties services of Lutece, once per JVM
+     */
+    static synchronized void init(  )
+    {
+        if ( _fileWebapp != null )
+        {
+            return;
+        }
+
+        try
+        {
+            File fileWebapp = Files.createTempDirectory( "helpdesk-solr-test" ).toFile(  );
+            File fileConf = new File( fileWebapp, PATH_CONF );
+            File filePlugins = new File( fileConf, "plugins" );
+            filePlugins.mkdirs(  );
+            new File( fileConf, PATH_OVERRIDE_PLUGINS ).mkdirs(  );
+
+            Properties config = new Properties(  );
+            config.setProperty( "lutece.name", "lutece" );
+            config.setProperty( "lutece.prod.url", "http://localhost:8080/lutece" );
+            config.setProperty( "lutece.base.url", "http://localhost:8080/lutece" );
+            config.setProperty( "helpdesk.pagePathLabel", "helpdesk" );
+
+            try ( OutputStream out = new FileOutputStream( new File( fileConf, "config.properties" ) ) )
+            {
+                config.store( out, null );
+            }
+
+            File[] files = new File( PATH_MODULE_CONF ).listFiles(  );
+
+            if ( files != null )
+            {
+                for ( File file : files )
+                {
+                    Files.copy( file.toPath(  ), new File( filePlugins, file.getName(  ) ).toPath(  ),
+                        StandardCopyOption.REPLACE_EXISTING );
+                }
+            }
+
+            AppPathService.init( fileWebapp.getAbsolutePath(  ) );
+            AppPropertiesService.init( PATH_CONF );
+            _fileWebapp = fileWebapp;
+        }
+        catch ( IOException | LuteceInitException e )
+        {
+            throw new IllegalStateException( "Unable to initialize the test environment", e );
+        }
+    }
+
+    /**
+     * Overrides properties of the module, until the next call or {@link #resetProperties()}
+     * @param properties the properties
+     */
+    static synchronized void setProperties( Properties properties )
+    {
+        init(  );
+
+        File file = new File( new File( _fileWebapp, PATH_CONF ), PATH_OVERRIDE_PLUGINS + "/" + FILE_OVERRIDE );
+
+        try
+        {
+            try ( OutputStream out = new FileOutputStream( file ) )
+            {
+                properties.store( out, null );
+            }
+
+            AppPropertiesService.reloadAll(  );
+        }
+        catch ( IOException e )
+        {
+            throw new IllegalStateException( "Unable to override the properties", e );
+        }
+    }
+
+    /**
+     * Restores the properties of the module and removes the files written by the previous tests
+     */
+    static synchronized void resetProperties(  )
+    {
+        setProperties( new Properties(  ) );
+        delete( getFile( PATH_TMP ) );
+    }
+
+    /**
+     * Returns a file of the webapp
+     * @param strRelativePath the path, relative to the webapp
+     * @return the file
+     */
+    static File getFile( String strRelativePath )
+    {
+        init(  );
+
+        return new File( _fileWebapp, strRelativePath );
+    }
+
+    /**
+     * Deletes a file or a directory and its content
+     * @param file the file
+     */
+    private static void delete( File file )
+    {
+        File[] files = file.listFiles(  );
+
+        if ( files != null )
+        {
+            for ( File child : files )
+            {
+                delete( child );
+            }
+        }
+
+        file.delete(  );
+    }
+}
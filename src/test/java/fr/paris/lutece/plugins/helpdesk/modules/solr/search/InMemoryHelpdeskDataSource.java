@@ -0,0 +1,415 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.helpdesk.modules.solr.search;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import fr.paris.lutece.plugins.helpdesk.business.Faq;
+import fr.paris.lutece.plugins.helpdesk.business.QuestionAnswer;
+import fr.paris.lutece.plugins.helpdesk.business.Subject;
+
+
+/**
+ * Synthetic helpdesk held in memory, standing in for the helpdesk database. Each faq holds a few top-level
+ * subjects and a deep tree of sub-subjects below them ; the question/answers are spread over every subject.
+ * <br>
+ * The HTML answers are drawn from a pool shared by the question/answers, so that a corpus of a million
+ * documents fits in the heap : the extraction cost is the one of distinct answers, the memory is not.
+ */
+final class InMemoryHelpdeskDataSource implements HelpdeskDataSource
+{
+    private static final String ROLE_KEY = "none";
+    private static final int DOCUMENTS_PER_SUBJECT = 10;
+    private static final int SUBJECTS_PER_FAQ = 2000;
+    private static final int ROOTS_PER_FAQ = 5;
+    private static final int CHILDREN_PER_SUBJECT = 3;
+    private static final int ANSWER_POOL_SIZE = 512;
+    private final List<Faq> _listFaqs = new ArrayList<Faq>(  );
+    private final Map<Integer, Faq> _mapFaqsByRoot = new HashMap<Integer, Faq>(  );
+    private final Map<Integer, List<Subject>> _mapRoots = new HashMap<Integer, List<Subject>>(  );
+    private final Map<Integer, Subject> _mapSubjects = new HashMap<Integer, Subject>(  );
+    private final Map<Integer, List<Subject>> _mapChildren = new HashMap<Integer, List<Subject>>(  );
+    private final Map<Integer, QuestionAnswer> _mapQuestionAnswers = new HashMap<Integer, QuestionAnswer>(  );
+    private final Map<Integer, List<QuestionAnswer>> _mapSubjectQuestions = new HashMap<Integer, List<QuestionAnswer>>(  );
+    private final AtomicInteger _nQuestionListReads = new AtomicInteger(  );
+    private final AtomicInteger _nQuestionPageReads = new AtomicInteger(  );
+    private final AtomicInteger _nQuestionReads = new AtomicInteger(  );
+    private volatile boolean _bPageReadsUnavailable;
+
+    /**
+     * Private constructor
+     */
+    private InMemoryHelpdeskDataSource(  )
+    {
+    }
+
+    /**
+     * Generates a helpdesk
+     * @param nDocuments the number of documents to index, subjects and question/answers
+     * @param lSeed the seed of the random source
+     * @return the helpdesk
+     */
+    static InMemoryHelpdeskDataSource generate( int nDocuments, long lSeed )
+    {
+        return generate( nDocuments, SUBJECTS_PER_FAQ, lSeed );
+    }
+
+    /**
+     * Generates a helpdesk spread over several faqs
+     * @param nDocuments the number of documents to index, subjects and question/answers
+     * @param nSubjectsPerFaq the number of subjects of each faq
+     * @param lSeed the seed of the random source
+     * @return the helpdesk
+     */
+    static InMemoryHelpdeskDataSource generate( int nDocuments, int nSubjectsPerFaq, long lSeed )
+    {
+        InMemoryHelpdeskDataSource dataSource = new InMemoryHelpdeskDataSource(  );
+        Random random = new Random( lSeed );
+        int nSubjects = Math.max( 1, nDocuments / DOCUMENTS_PER_SUBJECT );
+        int nFaqs = ( ( nSubjects - 1 ) / nSubjectsPerFaq ) + 1;
+        String[] answers = new String[ANSWER_POOL_SIZE];
+
+        for ( int i = 0; i < answers.length; i++ )
+        {
+            answers[i] = HelpdeskCorpus.html( getAnswerSize( random ), random );
+        }
+
+        // Subjects : the first ones of a faq are top-level, each other one is a child of an earlier one
+        List<Subject> listSubjects = new ArrayList<Subject>( nSubjects );
+
+        for ( int nFaq = 0; nFaq < nFaqs; nFaq++ )
+        {
+            Faq faq = new Faq(  );
+            faq.setId( nFaq + 1 );
+            faq.setName( HelpdeskCorpus.sentence( random, 3 ) );
+            faq.setRoleKey( ROLE_KEY );
+            dataSource._listFaqs.add( faq );
+
+            List<Subject> listRoots = new ArrayList<Subject>(  );
+            dataSource._mapRoots.put( faq.getId(  ), listRoots );
+
+            int nFirst = listSubjects.size(  );
+            int nCount = Math.min( nSubjectsPerFaq, nSubjects - nFirst );
+
+            for ( int k = 0; k < nCount; k++ )
+            {
+                int nIdParent = ( k < ROOTS_PER_FAQ ) ? 0
+                                                      : listSubjects.get( nFirst +
+                        ( ( k - ROOTS_PER_FAQ ) / CHILDREN_PER_SUBJECT ) ).getId(  );
+                Subject subject = HelpdeskCorpus.subject( listSubjects.size(  ) + 1, nIdParent, random );
+                listSubjects.add( subject );
+                dataSource._mapSubjects.put( subject.getId(  ), subject );
+
+                if ( nIdParent == 0 )
+                {
+                    listRoots.add( subject );
+                    dataSource._mapFaqsByRoot.put( subject.getId(  ), faq );
+                }
+                else
+                {
+                    getList( dataSource._mapChildren, nIdParent ).add( subject );
+                }
+            }
+        }
+
+        // Question/answers, spread over the subjects
+        for ( int i = 0; i < ( nDocuments - nSubjects ); i++ )
+        {
+            Subject subject = listSubjects.get( i % nSubjects );
+            QuestionAnswer questionAnswer = HelpdeskCorpus.questionAnswer( i + 1, subject.getId(  ), 0, random );
+            questionAnswer.setAnswer( answers[random.nextInt( answers.length )] );
+            dataSource._mapQuestionAnswers.put( questionAnswer.getIdQuestionAnswer(  ), questionAnswer );
+            getList( dataSource._mapSubjectQuestions, subject.getId(  ) ).add( questionAnswer );
+        }
+
+        return dataSource;
+    }
+
+    /**
+     * Returns the ids of every subject, as given to {@link SolrHelpdeskIndexer#getDocuments(Collection)}
+     * @return the subject ids
+     */
+    List<String> getSubjectIds(  )
+    {
+        List<String> listIds = new ArrayList<String>( _mapSubjects.size(  ) );
+
+        for ( Integer nIdSubject : _mapSubjects.keySet(  ) )
+        {
+            listIds.add( String.valueOf( nIdSubject ) );
+        }
+
+        return listIds;
+    }
+
+    /**
+     * Returns the number of documents of the helpdesk
+     * @return the number of subjects and question/answers
+     */
+    int getDocumentCount(  )
+    {
+        return _mapSubjects.size(  ) + _mapQuestionAnswers.size(  );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Collection<Faq> findFaqs(  )
+    {
+        return Collections.unmodifiableList( _listFaqs );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Faq findFaqBySubject( int nIdSubject )
+    {
+        return _mapFaqsByRoot.get( nIdSubject );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Collection<Subject> findSubjects(  )
+    {
+        return Collections.unmodifiableCollection( _mapSubjects.values(  ) );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Collection<Subject> findRootSubjects( int nIdFaq )
+    {
+        return getReadOnlyList( _mapRoots, nIdFaq );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<Integer, List<Integer>> findSubjectFaqIds(  )
+    {
+        Map<Integer, List<Integer>> mapFaqIds = new HashMap<Integer, List<Integer>>(  );
+
+        for ( Map.Entry<Integer, Faq> entry : _mapFaqsByRoot.entrySet(  ) )
+        {
+            mapFaqIds.put( entry.getKey(  ), Collections.singletonList( entry.getValue(  ).getId(  ) ) );
+        }
+
+        return mapFaqIds;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Subject findSubject( int nIdSubject )
+    {
+        return _mapSubjects.get( nIdSubject );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Collection<Subject> findChildSubjects( Subject subject )
+    {
+        return getReadOnlyList( _mapChildren, subject.getId(  ) );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<QuestionAnswer> findQuestionAnswers( Subject subject )
+    {
+        _nQuestionListReads.incrementAndGet(  );
+
+        return getReadOnlyList( _mapSubjectQuestions, subject.getId(  ) );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Integer> findQuestionAnswerIds( Subject subject )
+    {
+        List<Integer> listIds = new ArrayList<Integer>(  );
+
+        for ( QuestionAnswer questionAnswer : getReadOnlyList( _mapSubjectQuestions, subject.getId(  ) ) )
+        {
+            listIds.add( questionAnswer.getIdQuestionAnswer(  ) );
+        }
+
+        return listIds;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<QuestionAnswer> findQuestionAnswers( List<Integer> listIds )
+    {
+        _nQuestionPageReads.incrementAndGet(  );
+
+        if ( _bPageReadsUnavailable )
+        {
+            return null;
+        }
+
+        List<QuestionAnswer> listQuestionAnswers = new ArrayList<QuestionAnswer>( listIds.size(  ) );
+
+        for ( Integer nIdQuestionAnswer : listIds )
+        {
+            QuestionAnswer questionAnswer = _mapQuestionAnswers.get( nIdQuestionAnswer );
+
+            if ( questionAnswer != null )
+            {
+                listQuestionAnswers.add( questionAnswer );
+            }
+        }
+
+        return listQuestionAnswers;
+    }
+
+    /**
+     * Returns the number of question/answer lists read at once
+     * @return the number of reads of {@link #findQuestionAnswers(Subject)}
+     */
+    int getQuestionListReads(  )
+    {
+        return _nQuestionListReads.get(  );
+    }
+
+    /**
+     * Returns the number of pages of question/answers read
+     * @return the number of reads of {@link #findQuestionAnswers(List)}
+     */
+    int getQuestionPageReads(  )
+    {
+        return _nQuestionPageReads.get(  );
+    }
+
+    /**
+     * Returns the number of question/answers read one by one
+     * @return the number of reads of {@link #findQuestionAnswer(int)}
+     */
+    int getQuestionReads(  )
+    {
+        return _nQuestionReads.get(  );
+    }
+
+    /**
+     * Makes the pages of question/answers unreadable, as on the schema of another helpdesk version
+     * @param bUnavailable true if the pages cannot be read
+     */
+    void setPageReadsUnavailable( boolean bUnavailable )
+    {
+        _bPageReadsUnavailable = bUnavailable;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Collection<QuestionAnswer> findQuestionAnswers(  )
+    {
+        return Collections.unmodifiableCollection( _mapQuestionAnswers.values(  ) );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public QuestionAnswer findQuestionAnswer( int nIdQuestionAnswer )
+    {
+        _nQuestionReads.incrementAndGet(  );
+
+        return _mapQuestionAnswers.get( nIdQuestionAnswer );
+    }
+
+    /**
+     * Draws the size of an answer : mostly a few paragraphs, sometimes a long page
+     * @param random the random source
+     * @return the size, in characters
+     */
+    private static int getAnswerSize( Random random )
+    {
+        return ( random.nextInt( 20 ) == 0 ) ? ( 10000 + random.nextInt( 40000 ) ) : ( 200 + random.nextInt( 3000 ) );
+    }
+
+    /**
+     * Returns the list of a key, created if needed
+     * @param map the lists
+     * @param nKey the key
+     * @param <T> the type of the elements
+     * @return the list
+     */
+    private static <T> List<T> getList( Map<Integer, List<T>> map, int nKey )
+    {
+        List<T> list = map.get( nKey );
+
+        if ( list == null )
+        {
+            list = new ArrayList<T>(  );
+            map.put( nKey, list );
+        }
+
+        return list;
+    }
+
+    /**
+     * Returns the list of a key, read-only
+     * @param map the lists
+     * @param nKey the key
+     * @param <T> the type of the elements
+     * @return the list, empty if none
+     */
+    private static <T> List<T> getReadOnlyList( Map<Integer, List<T>> map, int nKey )
+    {
+        List<T> list = map.get( nKey );
+
+        return ( list != null ) ? Collections.unmodifiableList( list ) : Collections.<T>emptyList(  );
+    }
+}
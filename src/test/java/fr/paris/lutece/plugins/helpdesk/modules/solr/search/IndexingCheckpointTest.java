@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.helpdesk.modules.solr.search;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+
+/**
+ * Tests of {@link IndexingCheckpoint}
+ */
+public class IndexingCheckpointTest
+{
+    private static final String FILE_CHECKPOINT = "/WEB-INF/tmp/helpdesk-solr/checkpoint.properties";
+    private static final String KEY_FAQS = "faqs";
+
+    /**
+     * Initializes the environment
+     */
+    @BeforeClass
+    public static void init(  )
+    {
+        HelpdeskSolrTestEnvironment.init(  );
+    }
+
+    /**
+     * Restores the properties and removes the checkpoint
+     * @throws IOException if the properties cannot be restored
+     */
+    @After
+    public void tearDown(  ) throws IOException
+    {
+        HelpdeskSolrTestEnvironment.resetProperties(  );
+    }
+
+    /**
+     * The ids are stored as sorted ranges, over several keys when there are many of them
+     */
+    @Test
+    public void testStoreIds(  )
+    {
+        Properties properties = new Properties(  );
+        Set<Integer> setIds = new HashSet<Integer>( Arrays.asList( 10, 9, 7, 5, 4, 3, 2, 1 ) );
+        IndexingCheckpoint.storeIds( properties, KEY_FAQS, setIds );
+        assertEquals( "1", properties.getProperty( "faqs.count" ) );
+        assertEquals( "1-5,7,9-10", properties.getProperty( "faqs.0" ) );
+        assertEquals( setIds, IndexingCheckpoint.parseIds( properties, KEY_FAQS ) );
+
+        properties = new Properties(  );
+        setIds.clear(  );
+
+        for ( int i = 0; i < 2500; i++ )
+        {
+            setIds.add( i * 2 );
+        }
+
+        setIds.add( Integer.MAX_VALUE );
+        IndexingCheckpoint.storeIds( properties, KEY_FAQS, setIds );
+        assertEquals( "3", properties.getProperty( "faqs.count" ) );
+        assertEquals( setIds, IndexingCheckpoint.parseIds( properties, KEY_FAQS ) );
+
+        properties = new Properties(  );
+        IndexingCheckpoint.storeIds( properties, KEY_FAQS, new HashSet<Integer>(  ) );
+        assertEquals( "0", properties.getProperty( "faqs.count" ) );
+        assertTrue( IndexingCheckpoint.parseIds( properties, KEY_FAQS ).isEmpty(  ) );
+    }
+
+    /**
+     * A saved checkpoint is resumed, and records the last faq and subject completed
+     * @throws IOException if the checkpoint cannot be saved
+     */
+    @Test
+    public void testResume(  ) throws IOException
+    {
+        enable(  );
+
+        IndexingCheckpoint checkpoint = IndexingCheckpoint.open( IndexingPartition.ALL );
+        assertFalse( checkpoint.isResumed(  ) );
+
+        checkpoint.addFaq( 9 );
+        checkpoint.addFaq( 3 );
+        checkpoint.addSubject( 12 );
+        checkpoint.addSubject( 4 );
+        checkpoint.save( new SolrItemBatchWriter( new CountingSolrItemSink(  ), null ) );
+
+        Properties properties = load(  );
+        assertEquals( "3", properties.getProperty( "last.faq" ) );
+        assertEquals( "4", properties.getProperty( "last.subject" ) );
+
+        IndexingCheckpoint resumed = IndexingCheckpoint.open( IndexingPartition.ALL );
+        assertTrue( resumed.isResumed(  ) );
+        assertEquals( checkpoint.getRunId(  ), resumed.getRunId(  ) );
+        assertTrue( resumed.isFaqCompleted( 9 ) );
+        assertTrue( resumed.isFaqCompleted( 3 ) );
+        assertFalse( resumed.isFaqCompleted( 4 ) );
+        assertTrue( resumed.isSubjectCompleted( 12 ) );
+        assertTrue( resumed.isSubjectCompleted( 4 ) );
+
+        // A full reindex starts over
+        assertTrue( IndexingCheckpoint.isResumable( IndexingPartition.ALL ) );
+        assertFalse( IndexingCheckpoint.create( IndexingPartition.ALL ).isResumed(  ) );
+        assertFalse( HelpdeskSolrTestEnvironment.getFile( FILE_CHECKPOINT ).exists(  ) );
+        assertFalse( IndexingCheckpoint.isResumable( IndexingPartition.ALL ) );
+        assertFalse( IndexingCheckpoint.open( IndexingPartition.ALL ).isResumed(  ) );
+    }
+
+    /**
+     * Enables the checkpoints
+     */
+    static void enable(  )
+    {
+        Properties properties = new Properties(  );
+        properties.setProperty( "helpdesk-solr.indexer.checkpoint.enable", "true" );
+        HelpdeskSolrTestEnvironment.setProperties( properties );
+    }
+
+    /**
+     * Loads the checkpoint file
+     * @return the properties of the checkpoint
+     * @throws IOException if the file cannot be read
+     */
+    private static Properties load(  ) throws IOException
+    {
+        Properties properties = new Properties(  );
+        File file = HelpdeskSolrTestEnvironment.getFile( FILE_CHECKPOINT );
+
+        try ( InputStream in = new FileInputStream( file ) )
+        {
+            properties.load( in );
+        }
+
+        return properties;
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.helpdesk.modules.solr.search;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Properties;
+
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+
+/**
+ * Tests of the spreading of the helpdesk over the nodes by {@link IndexingPartition}
+ */
+public class IndexingPartitionTest
+{
+    private static final int NODES = 3;
+    private static final int IDS = 30000;
+
+    /**
+     * Initializes the environment
+     */
+    @BeforeClass
+    public static void init(  )
+    {
+        HelpdeskSolrTestEnvironment.init(  );
+    }
+
+    /**
+     * Restores the properties
+     */
+    @After
+    public void tearDown(  )
+    {
+        HelpdeskSolrTestEnvironment.resetProperties(  );
+    }
+
+    /**
+     * Each id belongs to exactly one node, and consecutive ids are spread evenly
+     */
+    @Test
+    public void testEveryIdHasOneNode(  )
+    {
+        IndexingPartition[] partitions = new IndexingPartition[NODES];
+
+        for ( int i = 0; i < NODES; i++ )
+        {
+            partitions[i] = new IndexingPartition( i, NODES, false );
+        }
+
+        int[] counts = new int[NODES];
+
+        for ( int nId = -100; nId < IDS; nId++ )
+        {
+            int nOwners = 0;
+
+            for ( int i = 0; i < NODES; i++ )
+            {
+                if ( partitions[i].includesFaq( nId ) )
+                {
+                    nOwners++;
+                    counts[i]++;
+                }
+
+                // Faq granularity : every top-level subject of an owned faq is indexed
+                assertTrue( partitions[i].includesSubject( nId ) );
+            }
+
+            assertEquals( "owners of " + nId, 1, nOwners );
+        }
+
+        for ( int nCount : counts )
+        {
+            assertTrue( "shard size " + nCount, Math.abs( nCount - ( IDS / NODES ) ) < ( IDS / NODES / 10 ) );
+        }
+    }
+
+    /**
+     * With the subject granularity, every node walks every faq and the top-level subjects are spread
+     */
+    @Test
+    public void testSubjectGranularity(  )
+    {
+        IndexingPartition first = new IndexingPartition( 0, 2, true );
+        IndexingPartition second = new IndexingPartition( 1, 2, true );
+
+        for ( int nId = 1; nId < 1000; nId++ )
+        {
+            assertTrue( first.includesFaq( nId ) );
+            assertTrue( second.includesFaq( nId ) );
+            assertTrue( first.includesSubject( nId ) ^ second.includesSubject( nId ) );
+        }
+    }
+
+    /**
+     * The whole helpdesk is not partitioned and keeps the configured files
+     */
+    @Test
+    public void testAll(  )
+    {
+        File file = new File( "checkpoint.properties" );
+
+        assertFalse( IndexingPartition.ALL.isPartitioned(  ) );
+        assertTrue( IndexingPartition.ALL.includesFaq( 42 ) );
+        assertTrue( IndexingPartition.ALL.includesSubject( 42 ) );
+        assertSame( file, IndexingPartition.ALL.getLocalFile( file ) );
+        assertEquals( new File( "checkpoint.properties.2" ),
+            new IndexingPartition( 2, NODES, false ).getLocalFile( file ) );
+    }
+
+    /**
+     * A node index out of the node count is rejected
+     */
+    @Test( expected = IllegalArgumentException.class )
+    public void testInvalidNodeIndex(  )
+    {
+        new IndexingPartition( NODES, NODES, false );
+    }
+
+    /**
+     * The configured partition is read from the properties, the whole helpdesk being indexed if it is invalid
+     */
+    @Test
+    public void testConfigured(  )
+    {
+        Properties properties = new Properties(  );
+        properties.setProperty( "helpdesk-solr.indexer.partition.nodeIndex", "1" );
+        properties.setProperty( "helpdesk-solr.indexer.partition.nodeCount", "4" );
+        properties.setProperty( "helpdesk-solr.indexer.partition.granularity", "subject" );
+        HelpdeskSolrTestEnvironment.setProperties( properties );
+
+        IndexingPartition partition = IndexingPartition.getConfigured(  );
+
+        assertEquals( 1, partition.getNodeIndex(  ) );
+        assertEquals( 4, partition.getNodeCount(  ) );
+        assertTrue( partition.includesFaq( 7 ) );
+
+        properties.setProperty( "helpdesk-solr.indexer.partition.nodeIndex", "4" );
+        HelpdeskSolrTestEnvironment.setProperties( properties );
+
+        assertSame( IndexingPartition.ALL, IndexingPartition.getConfigured(  ) );
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.helpdesk.modules.solr.search;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+
+import org.junit.Test;
+
+import fr.paris.lutece.plugins.helpdesk.business.Faq;
+import fr.paris.lutece.plugins.helpdesk.business.QuestionAnswer;
+import fr.paris.lutece.plugins.helpdesk.business.Subject;
+
+
+/**
+ * Tests of the order of the faqs and top-level subjects given by {@link IndexingPriority}
+ */
+public class IndexingPriorityTest
+{
+    private static final String SIGNAL_RECENT = "recent";
+    private static final String SIGNAL_WEIGHT = "weight";
+    private static final String SIGNAL_POPULARITY = "popularity";
+
+    /**
+     * The faqs are sorted by weight, the highest first, the ties keeping the helpdesk order
+     */
+    @Test
+    public void testWeight(  )
+    {
+        Map<Integer, Long> mapWeights = new HashMap<Integer, Long>(  );
+        mapWeights.put( 2, 5L );
+        mapWeights.put( 3, 10L );
+
+        IndexingPriority priority = new IndexingPriority( new String[] { SIGNAL_WEIGHT }, null, mapWeights,
+                new Properties(  ) );
+
+        assertEquals( Arrays.asList( 3, 2, 1, 4 ), ids( priority.sortFaqs( faqs( 1, 2, 3, 4 ) ) ) );
+    }
+
+    /**
+     * The first signal prevails, the next ones break its ties
+     */
+    @Test
+    public void testSignalsOrder(  )
+    {
+        Map<Integer, Long> mapWeights = new HashMap<Integer, Long>(  );
+        mapWeights.put( 1, 1L );
+        mapWeights.put( 2, 1L );
+
+        Properties popularity = new Properties(  );
+        popularity.setProperty( "faq.1", "2" );
+        popularity.setProperty( "faq.2", "5" );
+        popularity.setProperty( "faq.3", "9" );
+        popularity.setProperty( "faq.4", "not a number" );
+
+        IndexingPriority priority = new IndexingPriority( new String[] { SIGNAL_WEIGHT, SIGNAL_POPULARITY }, null,
+                mapWeights, popularity );
+
+        assertEquals( Arrays.asList( 2, 1, 3, 4 ), ids( priority.sortFaqs( faqs( 1, 2, 3, 4 ) ) ) );
+
+        priority = new IndexingPriority( new String[] { SIGNAL_POPULARITY, SIGNAL_WEIGHT }, null, mapWeights,
+                popularity );
+
+        assertEquals( Arrays.asList( 3, 2, 1, 4 ), ids( priority.sortFaqs( faqs( 1, 2, 3, 4 ) ) ) );
+    }
+
+    /**
+     * The latest question/answer of a subject tree ranks its top-level subject and its faq
+     */
+    @Test
+    public void testRecent(  )
+    {
+        Random random = new Random( 0 );
+        List<Subject> listSubjects = Arrays.asList( HelpdeskCorpus.subject( 10, 0, random ),
+                HelpdeskCorpus.subject( 11, 10, random ), HelpdeskCorpus.subject( 20, 0, random ),
+                HelpdeskCorpus.subject( 21, 20, random ), HelpdeskCorpus.subject( 30, 0, random ) );
+        List<QuestionAnswer> listQuestions = Arrays.asList( questionAnswer( 1, 11, 1000L ),
+                questionAnswer( 2, 21, 5000L ), questionAnswer( 3, 10, 2000L ), questionAnswer( 4, 30, 3000L ) );
+        Map<Integer, List<Integer>> mapRoots = new HashMap<Integer, List<Integer>>(  );
+        mapRoots.put( 1, Arrays.asList( 10, 20 ) );
+        mapRoots.put( 2, Collections.singletonList( 30 ) );
+
+        SubjectForest forest = new SubjectForest( listSubjects, listQuestions, mapRoots );
+        IndexingPriority priority = new IndexingPriority( new String[] { SIGNAL_RECENT }, forest,
+                new HashMap<Integer, Long>(  ), new Properties(  ) );
+
+        assertArrayEquals( new int[] { forest.indexOf( 20 ), forest.indexOf( 10 ) },
+            priority.sortRoots( forest.getRoots( 1 ) ) );
+        assertEquals( Arrays.asList( 1, 2 ), ids( priority.sortFaqs( faqs( 2, 1 ) ) ) );
+    }
+
+    /**
+     * Without a forest, the recent signal is ignored
+     */
+    @Test
+    public void testRecentWithoutForest(  )
+    {
+        IndexingPriority priority = new IndexingPriority( new String[] { SIGNAL_RECENT }, null,
+                new HashMap<Integer, Long>(  ), new Properties(  ) );
+
+        assertEquals( Arrays.asList( 4, 1, 3 ), ids( priority.sortFaqs( faqs( 4, 1, 3 ) ) ) );
+    }
+
+    /**
+     * Builds faqs
+     * @param ids the ids of the faqs
+     * @return the faqs
+     */
+    private static List<Faq> faqs( int... ids )
+    {
+        List<Faq> listFaqs = new ArrayList<Faq>(  );
+
+        for ( int nId : ids )
+        {
+            Faq faq = new Faq(  );
+            faq.setId( nId );
+            listFaqs.add( faq );
+        }
+
+        return listFaqs;
+    }
+
+    /**
+     * Returns the ids of faqs
+     * @param listFaqs the faqs
+     * @return the ids
+     */
+    private static List<Integer> ids( List<Faq> listFaqs )
+    {
+        List<Integer> listIds = new ArrayList<Integer>(  );
+
+        for ( Faq faq : listFaqs )
+        {
+            listIds.add( faq.getId(  ) );
+        }
+
+        return listIds;
+    }
+
+    /**
+     * Builds a question/answer
+     * @param nId the id
+     * @param nIdSubject the id of its subject
+     * @param lCreationDate its creation date
+     * @return the question/answer
+     */
+    private static QuestionAnswer questionAnswer( int nId, int nIdSubject, long lCreationDate )
+    {
+        QuestionAnswer questionAnswer = HelpdeskCorpus.questionAnswer( nId, nIdSubject, 10, new Random( nId ) );
+        questionAnswer.setCreationDate( new Date( lCreationDate ) );
+
+        return questionAnswer;
+    }
+}
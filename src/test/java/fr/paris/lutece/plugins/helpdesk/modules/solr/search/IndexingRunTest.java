@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.helpdesk.modules.solr.search;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+
+/**
+ * Tests of {@link IndexingRun} : what each mode opens, and the end of a run
+ */
+public class IndexingRunTest
+{
+    private static final String UID = "1_hds";
+    private static final String CONTENT = "content";
+    private static final String TRUE = "true";
+
+    /**
+     * Initializes the environment
+     */
+    @BeforeClass
+    public static void init(  )
+    {
+        HelpdeskSolrTestEnvironment.init(  );
+    }
+
+    /**
+     * Restores the properties
+     * @throws IOException if the properties cannot be restored
+     */
+    @After
+    public void tearDown(  ) throws IOException
+    {
+        HelpdeskSolrTestEnvironment.resetProperties(  );
+    }
+
+    /**
+     * An update skips the documents fingerprinted by the last run, a rebuild starts the fingerprints over
+     * @throws IOException if the fingerprints cannot be saved
+     */
+    @Test
+    public void testFingerprints(  ) throws IOException
+    {
+        setProperty( "helpdesk-solr.indexer.delta.enable" );
+
+        IndexFingerprintStore fingerprints = IndexFingerprintStore.open( IndexingPartition.ALL );
+        fingerprints.checkAndRecord( UID, IndexFingerprintStore.fingerprint( CONTENT ) );
+        fingerprints.save( false );
+
+        assertTrue( open( IndexingRun.Mode.UPDATE ).isUnchanged( UID, CONTENT ) );
+        assertFalse( open( IndexingRun.Mode.REBUILD ).isUnchanged( UID, CONTENT ) );
+        assertFalse( open( IndexingRun.Mode.UPDATE ).isUnchanged( UID, CONTENT ) );
+    }
+
+    /**
+     * A run which fails saves its checkpoint, the next update resumes it and deletes it once it succeeds
+     * @throws IOException if the checkpoint cannot be saved
+     */
+    @Test
+    public void testCheckpoint(  ) throws IOException
+    {
+        IndexingCheckpointTest.enable(  );
+
+        IndexingRun run = open( IndexingRun.Mode.UPDATE );
+        assertFalse( run.isResumed(  ) );
+        run.completeSubject( 5 );
+        assertFalse( run.finish( new ArrayList<String>( Collections.singletonList( "Subject 6" ) ) ) );
+
+        run = open( IndexingRun.Mode.UPDATE );
+        assertTrue( run.isResumed(  ) );
+        assertTrue( run.isSubjectSkipped( 5 ) );
+        assertFalse( run.isSubjectSkipped( 6 ) );
+        assertTrue( run.finish( new ArrayList<String>(  ) ) );
+
+        assertFalse( open( IndexingRun.Mode.UPDATE ).isResumed(  ) );
+    }
+
+    /**
+     * An export opens neither the fingerprints, nor the checkpoint, nor the dead-letter log
+     */
+    @Test
+    public void testExport(  )
+    {
+        Properties properties = new Properties(  );
+        properties.setProperty( "helpdesk-solr.indexer.export.enable", TRUE );
+        properties.setProperty( "helpdesk-solr.indexer.delta.enable", TRUE );
+        properties.setProperty( "helpdesk-solr.indexer.checkpoint.enable", TRUE );
+        properties.setProperty( "helpdesk-solr.indexer.retry.enable", TRUE );
+        HelpdeskSolrTestEnvironment.setProperties( properties );
+
+        IndexingRun run = open( IndexingRun.Mode.UPDATE );
+        assertNull( run.getFingerprints(  ) );
+        assertNull( run.getDeadLetters(  ) );
+        assertFalse( run.isResumed(  ) );
+
+        List<String> listErrors = new ArrayList<String>(  );
+        assertTrue( run.finish( listErrors ) );
+        assertEquals( 0, listErrors.size(  ) );
+    }
+
+    /**
+     * Opens a run over the whole helpdesk, writing in a {@link CountingSolrItemSink}
+     * @param mode the state of the index
+     * @return the run
+     */
+    private static IndexingRun open( IndexingRun.Mode mode )
+    {
+        PartitionCoordinator coordinator = new PartitionCoordinator( IndexingPartition.ALL,
+                new MemoryPartitionRoundStore(  ) );
+        coordinator.start(  );
+
+        return IndexingRun.open( IndexingContext.create( null, InMemoryHelpdeskDataSource.generate( 10, 1L ) ),
+            coordinator, mode, new CountingSolrItemSink(  ) );
+    }
+
+    /**
+     * Enables a boolean property
+     * @param strKey the key of the property
+     */
+    private static void setProperty( String strKey )
+    {
+        Properties properties = new Properties(  );
+        properties.setProperty( strKey, TRUE );
+        HelpdeskSolrTestEnvironment.setProperties( properties );
+    }
+}
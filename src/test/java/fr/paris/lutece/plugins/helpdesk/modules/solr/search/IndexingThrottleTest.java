@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.helpdesk.modules.solr.search;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Properties;
+
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+
+/**
+ * Tests of the schedule profiles of {@link IndexingThrottle}
+ */
+public class IndexingThrottleTest
+{
+    private static final double[] RATES = { 20d, 50d };
+
+    /**
+     * Initializes the environment
+     */
+    @BeforeClass
+    public static void init(  )
+    {
+        HelpdeskSolrTestEnvironment.init(  );
+    }
+
+    /**
+     * Restores the properties
+     */
+    @After
+    public void tearDown(  )
+    {
+        HelpdeskSolrTestEnvironment.resetProperties(  );
+    }
+
+    /**
+     * A profile within a day applies from its first hour to its last hour excluded
+     */
+    @Test
+    public void testProfileWithinDay(  )
+    {
+        IndexingThrottle.Profile profile = new IndexingThrottle.Profile( "day", 8, 20, RATES );
+
+        assertFalse( profile.includes( 7 ) );
+        assertTrue( profile.includes( 8 ) );
+        assertTrue( profile.includes( 19 ) );
+        assertFalse( profile.includes( 20 ) );
+        assertFalse( profile.includes( 0 ) );
+    }
+
+    /**
+     * A profile whose last hour is before its first hour spans midnight
+     */
+    @Test
+    public void testProfileSpanningMidnight(  )
+    {
+        IndexingThrottle.Profile profile = new IndexingThrottle.Profile( "night", 20, 7, RATES );
+
+        assertFalse( profile.includes( 19 ) );
+        assertTrue( profile.includes( 20 ) );
+        assertTrue( profile.includes( 23 ) );
+        assertTrue( profile.includes( 0 ) );
+        assertTrue( profile.includes( 6 ) );
+        assertFalse( profile.includes( 7 ) );
+        assertFalse( profile.includes( 12 ) );
+    }
+
+    /**
+     * A profile ending at midnight, written 24, includes the last hour of the day only up to midnight
+     */
+    @Test
+    public void testProfileEndingAtMidnight(  )
+    {
+        IndexingThrottle.Profile profile = new IndexingThrottle.Profile( "evening", 18, 24, RATES );
+
+        assertTrue( profile.includes( 23 ) );
+        assertFalse( profile.includes( 0 ) );
+        assertFalse( profile.includes( 17 ) );
+    }
+
+    /**
+     * The hours and ceilings of a profile are read from the properties
+     */
+    @Test
+    public void testReadProfile(  )
+    {
+        Properties properties = new Properties(  );
+        properties.setProperty( "helpdesk-solr.indexer.throttle.profile.night.hours", "22-6" );
+        properties.setProperty( "helpdesk-solr.indexer.throttle.profile.night.readRate", "100" );
+        properties.setProperty( "helpdesk-solr.indexer.throttle.profile.night.writeRate", "500.5" );
+        HelpdeskSolrTestEnvironment.setProperties( properties );
+
+        IndexingThrottle.Profile profile = IndexingThrottle.readProfile( "night" );
+
+        assertNotNull( profile );
+        assertTrue( profile.includes( 23 ) );
+        assertTrue( profile.includes( 5 ) );
+        assertFalse( profile.includes( 6 ) );
+        assertEquals( 100d, profile.getRate( IndexingThrottle.Channel.READ ), 0d );
+        assertEquals( 500.5d, profile.getRate( IndexingThrottle.Channel.WRITE ), 0d );
+    }
+
+    /**
+     * A profile with invalid hours is ignored
+     */
+    @Test
+    public void testReadInvalidProfile(  )
+    {
+        Properties properties = new Properties(  );
+        properties.setProperty( "helpdesk-solr.indexer.throttle.profile.bad.hours", "20-25" );
+        properties.setProperty( "helpdesk-solr.indexer.throttle.profile.text.hours", "night" );
+        HelpdeskSolrTestEnvironment.setProperties( properties );
+
+        assertNull( IndexingThrottle.readProfile( "bad" ) );
+        assertNull( IndexingThrottle.readProfile( "text" ) );
+        assertNull( IndexingThrottle.readProfile( "missing" ) );
+    }
+
+    /**
+     * A disabled throttle never waits
+     */
+    @Test
+    public void testDisabled(  )
+    {
+        IndexingThrottle throttle = new IndexingThrottle( false );
+
+        assertFalse( throttle.isEnabled(  ) );
+        assertEquals( 0L, throttle.acquire( IndexingThrottle.Channel.WRITE, 1000000 ) );
+    }
+}
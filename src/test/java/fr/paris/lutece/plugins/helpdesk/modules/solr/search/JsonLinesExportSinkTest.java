@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.helpdesk.modules.solr.search;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Test;
+
+import fr.paris.lutece.plugins.search.solr.indexer.SolrItem;
+
+
+/**
+ * Tests of the JSON-lines files written by {@link JsonLinesExportSink}
+ */
+public class JsonLinesExportSinkTest
+{
+    // 2014-03-09T22:15:30.250Z
+    private static final long DATE = 1394403330250L;
+
+    /**
+     * The strings are escaped and the null fields left out
+     * @throws IOException if the files cannot be written
+     */
+    @Test
+    public void testEscaping(  ) throws IOException
+    {
+        SolrItem item = new SolrItem(  );
+        item.setUid( "12_hdq" );
+        item.setTitle( "A \"quoted\" C:\\path" );
+        item.setContent( "line 1\nline 2\r\n\ttab \u0001 \u001f caf\u00e9 \u20ac" );
+
+        List<String> listLines = export( 10, item );
+
+        assertEquals( Arrays.asList( "{\"uid\":\"12_hdq\",\"title\":\"A \\\"quoted\\\" C:\\\\path\"," +
+                "\"content\":\"line 1\\nline 2\\r\\n\\ttab \\u0001 \\u001f caf\u00e9 \u20ac\"}" ), listLines );
+    }
+
+    /**
+     * The dates, of the item and of the dynamic fields, are written in UTC with milliseconds
+     * @throws IOException if the files cannot be written
+     */
+    @Test
+    public void testDates(  ) throws IOException
+    {
+        SolrItem item = new SolrItem(  );
+        item.setUid( "3_hds" );
+        item.setDate( new Date( DATE ) );
+
+        List<String> listLines = export( 10, item );
+
+        assertEquals( Arrays.asList( "{\"uid\":\"3_hds\",\"date\":\"2014-03-09T22:15:30.250Z\"}" ), listLines );
+    }
+
+    /**
+     * The documents are split into files of at most the chunk size
+     * @throws IOException if the files cannot be written
+     */
+    @Test
+    public void testChunks(  ) throws IOException
+    {
+        SolrItem[] items = new SolrItem[5];
+
+        for ( int i = 0; i < items.length; i++ )
+        {
+            items[i] = new SolrItem(  );
+            items[i].setUid( i + "_hds" );
+        }
+
+        File directory = Files.createTempDirectory( "helpdesk-solr-export" ).toFile(  );
+        JsonLinesExportSink sink = new JsonLinesExportSink( directory, 2 );
+        sink.write( Arrays.asList( items ).subList( 0, 3 ) );
+        sink.write( Arrays.asList( items ).subList( 3, 5 ) );
+        sink.close(  );
+
+        assertEquals( Arrays.asList( "{\"uid\":\"0_hds\"}", "{\"uid\":\"1_hds\"}" ),
+            read( new File( directory, "part-00001.jsonl.gz" ) ) );
+        assertEquals( Arrays.asList( "{\"uid\":\"2_hds\"}", "{\"uid\":\"3_hds\"}" ),
+            read( new File( directory, "part-00002.jsonl.gz" ) ) );
+        assertEquals( Arrays.asList( "{\"uid\":\"4_hds\"}" ), read( new File( directory, "part-00003.jsonl.gz" ) ) );
+        assertEquals( 3, directory.list(  ).length );
+    }
+
+    /**
+     * Exports items to a new directory and reads the lines of the first file
+     * @param nChunkSize the maximum number of documents per file
+     * @param items the items
+     * @return the lines
+     * @throws IOException if the files cannot be written
+     */
+    private static List<String> export( int nChunkSize, SolrItem... items )
+        throws IOException
+    {
+        File directory = Files.createTempDirectory( "helpdesk-solr-export" ).toFile(  );
+
+        try ( JsonLinesExportSink sink = new JsonLinesExportSink( directory, nChunkSize ) )
+        {
+            sink.write( Arrays.asList( items ) );
+        }
+
+        return read( new File( directory, "part-00001.jsonl.gz" ) );
+    }
+
+    /**
+     * Reads the lines of a gzip file
+     * @param file the file
+     * @return the lines
+     * @throws IOException if the file cannot be read
+     */
+    private static List<String> read( File file ) throws IOException
+    {
+        List<String> listLines = new ArrayList<String>(  );
+
+        try ( BufferedReader reader = new BufferedReader( new InputStreamReader( new GZIPInputStream(
+                            new FileInputStream( file ) ), StandardCharsets.UTF_8 ) ) )
+        {
+            for ( String strLine = reader.readLine(  ); strLine != null; strLine = reader.readLine(  ) )
+            {
+                listLines.add( strLine );
+            }
+        }
+
+        return listLines;
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.helpdesk.modules.solr.search;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+
+/**
+ * Tests of the detection of the orphan documents by {@link OrphanDocumentCleaner}
+ */
+public class OrphanDocumentCleanerTest
+{
+    private static final String QA = SolrHelpdeskIndexer.UID_SUFFIX_QUESTION_ANSWER;
+    private static final String SUBJECT = SolrHelpdeskIndexer.UID_SUFFIX_SUBJECT;
+
+    /**
+     * Initializes the environment
+     */
+    @BeforeClass
+    public static void init(  )
+    {
+        HelpdeskSolrTestEnvironment.init(  );
+    }
+
+    /**
+     * The documents of the resources not indexed by the run are orphans, the uids which do not parse are kept
+     */
+    @Test
+    public void testIsOrphan(  )
+    {
+        LiveResourceIds liveIds = new LiveResourceIds(  );
+        liveIds.addSubject( 7 );
+        liveIds.addQuestionAnswer( 12 );
+        liveIds.addQuestionAnswer( 13 );
+        liveIds.addQuestionAnswer( 14 );
+
+        // 12 was rebuilt with two chunks besides its main document, 13 with none ; 14 did not change
+        liveIds.setChunkCount( 12, 2 );
+        liveIds.setChunkCount( 13, 0 );
+
+        OrphanDocumentCleaner cleaner = new OrphanDocumentCleaner( liveIds );
+
+        assertFalse( cleaner.isOrphan( "7" + SUBJECT ) );
+        assertTrue( cleaner.isOrphan( "8" + SUBJECT ) );
+
+        assertFalse( cleaner.isOrphan( "12" + QA ) );
+        assertFalse( cleaner.isOrphan( "12-2" + QA ) );
+        assertTrue( cleaner.isOrphan( "12-3" + QA ) );
+        assertFalse( cleaner.isOrphan( "13" + QA ) );
+        assertTrue( cleaner.isOrphan( "13-1" + QA ) );
+        assertFalse( cleaner.isOrphan( "14-5" + QA ) );
+        assertTrue( cleaner.isOrphan( "15" + QA ) );
+        assertTrue( cleaner.isOrphan( "15-1" + QA ) );
+
+        // Not a helpdesk uid, or unparsable
+        assertFalse( cleaner.isOrphan( "12_other" ) );
+        assertFalse( cleaner.isOrphan( "x" + QA ) );
+        assertFalse( cleaner.isOrphan( "12-x" + QA ) );
+        assertFalse( cleaner.isOrphan( "" ) );
+    }
+}
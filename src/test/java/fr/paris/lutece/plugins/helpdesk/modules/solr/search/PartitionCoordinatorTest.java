@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.helpdesk.modules.solr.search;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+
+/**
+ * Tests of the rounds of the partitioned updates kept by {@link PartitionCoordinator}, in a
+ * {@link MemoryPartitionRoundStore}
+ */
+public class PartitionCoordinatorTest
+{
+    private static final int NODES = 4;
+
+    /**
+     * A round is over once every node completed it ; the next run opens the next round
+     */
+    @Test
+    public void testRounds(  )
+    {
+        MemoryPartitionRoundStore store = new MemoryPartitionRoundStore(  );
+        PartitionCoordinator first = new PartitionCoordinator( new IndexingPartition( 0, 2, false ), store );
+        PartitionCoordinator second = new PartitionCoordinator( new IndexingPartition( 1, 2, false ), store );
+
+        first.start(  );
+        second.start(  );
+        assertEquals( 1L, first.getRound(  ) );
+        assertEquals( 1L, second.getRound(  ) );
+
+        assertFalse( first.complete( true ) );
+
+        // The first node runs again before the second one is done : it joins the same round
+        first.start(  );
+        assertEquals( 1L, first.getRound(  ) );
+        assertFalse( first.complete( true ) );
+        assertTrue( second.complete( true ) );
+
+        first.start(  );
+        assertEquals( 2L, first.getRound(  ) );
+
+        // A failed node keeps the round open
+        second.start(  );
+        assertEquals( 2L, second.getRound(  ) );
+        assertFalse( second.complete( false ) );
+        assertFalse( first.complete( true ) );
+        second.start(  );
+        assertEquals( 2L, second.getRound(  ) );
+        assertTrue( second.complete( true ) );
+        assertEquals( 2L, store.findLastRound(  ) );
+    }
+
+    /**
+     * The node which emptied the index opens a rebuild round, that each other node joins once
+     */
+    @Test
+    public void testRebuildRound(  )
+    {
+        MemoryPartitionRoundStore store = new MemoryPartitionRoundStore(  );
+        PartitionCoordinator first = new PartitionCoordinator( new IndexingPartition( 0, 2, false ), store );
+        PartitionCoordinator second = new PartitionCoordinator( new IndexingPartition( 1, 2, false ), store );
+
+        first.start(  );
+        assertFalse( second.isRebuildPending(  ) );
+        first.complete( true );
+
+        first.startRebuild(  );
+        assertEquals( 2L, first.getRound(  ) );
+        assertFalse( first.isRebuildPending(  ) );
+        assertTrue( second.isRebuildPending(  ) );
+
+        assertTrue( second.joinRebuild(  ) );
+        assertEquals( 2L, second.getRound(  ) );
+        assertFalse( second.joinRebuild(  ) );
+
+        // A failed rebuild is carried on by the updates of the node, in the same round
+        assertFalse( second.complete( false ) );
+        assertFalse( second.isRebuildPending(  ) );
+        assertFalse( first.complete( true ) );
+        second.start(  );
+        assertEquals( 2L, second.getRound(  ) );
+        assertTrue( second.complete( true ) );
+    }
+
+    /**
+     * Nodes finding the last round over at the same time open the next one once and all join it
+     * @throws Exception if a node fails
+     */
+    @Test
+    public void testConcurrentStart(  ) throws Exception
+    {
+        final MemoryPartitionRoundStore store = new MemoryPartitionRoundStore(  );
+        final CyclicBarrier barrier = new CyclicBarrier( NODES );
+        ExecutorService executor = Executors.newFixedThreadPool( NODES );
+
+        try
+        {
+            for ( int nRound = 1; nRound <= 20; nRound++ )
+            {
+                List<Future<Long>> listRounds = new ArrayList<Future<Long>>(  );
+
+                for ( int i = 0; i < NODES; i++ )
+                {
+                    final PartitionCoordinator coordinator = new PartitionCoordinator( new IndexingPartition( i,
+                                NODES, false ), store );
+                    listRounds.add( executor.submit( new Callable<Long>(  )
+                            {
+                                @Override
+                                public Long call(  ) throws Exception
+                                {
+                                    barrier.await(  );
+                                    coordinator.start(  );
+
+                                    long lRound = coordinator.getRound(  );
+
+                                    // Every node waits for the others to start before it completes
+                                    barrier.await(  );
+                                    coordinator.complete( true );
+
+                                    return lRound;
+                                }
+                            } ) );
+                }
+
+                for ( Future<Long> round : listRounds )
+                {
+                    assertEquals( (long) nRound, (long) round.get(  ) );
+                }
+
+                assertEquals( (long) nRound, store.findLastRound(  ) );
+            }
+        }
+        finally
+        {
+            executor.shutdownNow(  );
+        }
+    }
+}
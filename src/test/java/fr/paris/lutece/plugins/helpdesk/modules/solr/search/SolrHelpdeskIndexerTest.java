@@ -0,0 +1,769 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.helpdesk.modules.solr.search;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import fr.paris.lutece.plugins.helpdesk.business.Faq;
+import fr.paris.lutece.plugins.helpdesk.business.QuestionAnswer;
+import fr.paris.lutece.plugins.helpdesk.business.Subject;
+import fr.paris.lutece.plugins.helpdesk.modules.solr.service.extractor.HtmlTextExtractorService;
+import fr.paris.lutece.plugins.search.solr.indexer.SolrItem;
+
+
+/**
+ * Tests of the full reindexes and updates of {@link SolrHelpdeskIndexer}, into a {@link CountingSolrItemSink}
+ */
+public class SolrHelpdeskIndexerTest
+{
+    private static final int DOCUMENTS = 500;
+    private static final int SUBJECTS_PER_FAQ = 10;
+    private static final long SEED = 7L;
+    private static final String PROPERTY_DELTA_ENABLE = "helpdesk-solr.indexer.delta.enable";
+    private static final String TRUE = "true";
+    private static final String FALSE = "false";
+    private static final String ONE = "1";
+
+    /**
+     * Initializes the environment
+     */
+    @BeforeClass
+    public static void init(  )
+    {
+        HelpdeskSolrTestEnvironment.init(  );
+    }
+
+    /**
+     * Restores the properties
+     * @throws IOException if the properties cannot be restored
+     */
+    @After
+    public void tearDown(  ) throws IOException
+    {
+        HelpdeskSolrTestEnvironment.resetProperties(  );
+    }
+
+    /**
+     * A full reindex follows the emptying of the index : every document is sent again, even with delta indexing
+     * @throws IOException if the properties cannot be set
+     */
+    @Test
+    public void testRebuildAfterWipe(  ) throws IOException
+    {
+        setProperty( PROPERTY_DELTA_ENABLE, TRUE );
+
+        InMemoryHelpdeskDataSource helpdesk = InMemoryHelpdeskDataSource.generate( DOCUMENTS, SEED );
+        CountingSolrItemSink sink = new CountingSolrItemSink( true );
+        SolrHelpdeskIndexer indexer = new SolrHelpdeskIndexer( helpdesk, sink );
+
+        assertEquals( 0, indexer.indexDocuments( IndexingPartition.ALL ).size(  ) );
+        assertEquals( getUids( helpdesk ), sink.getItems(  ).keySet(  ) );
+
+        sink.clear(  );
+        assertEquals( 0, indexer.indexDocuments( IndexingPartition.ALL ).size(  ) );
+        assertEquals( getUids( helpdesk ), sink.getItems(  ).keySet(  ) );
+    }
+
+    /**
+     * A full reindex does not search for orphan documents : the emptying of the index already removed them
+     * @throws IOException if the properties cannot be set
+     */
+    @Test
+    public void testRebuildSkipsOrphans(  ) throws IOException
+    {
+        setProperty( "helpdesk-solr.indexer.orphans.enable", TRUE );
+
+        InMemoryHelpdeskDataSource helpdesk = InMemoryHelpdeskDataSource.generate( DOCUMENTS, SEED );
+        CountingSolrItemSink sink = new CountingSolrItemSink( true );
+        SolrHelpdeskIndexer indexer = new SolrHelpdeskIndexer( helpdesk, sink );
+
+        // No Solr server here : a search for orphans would fail the run
+        List<String> listErrors = indexer.indexDocuments( IndexingPartition.ALL );
+        assertTrue( listErrors.toString(  ), listErrors.isEmpty(  ) );
+        assertEquals( getUids( helpdesk ), sink.getItems(  ).keySet(  ) );
+    }
+
+    /**
+     * A partitioned full reindex rebuilds the shard of the node which emptied the index ; the next update of the
+     * other node rebuilds its own shard, even with the fingerprints of its previous update
+     * @throws IOException if the properties cannot be set
+     */
+    @Test
+    public void testPartitionedRebuild(  ) throws IOException
+    {
+        setProperty( PROPERTY_DELTA_ENABLE, TRUE );
+
+        IndexingPartition first = new IndexingPartition( 0, 2, true );
+        IndexingPartition second = new IndexingPartition( 1, 2, true );
+        InMemoryHelpdeskDataSource helpdesk = InMemoryHelpdeskDataSource.generate( DOCUMENTS, SEED );
+        CountingSolrItemSink sink = new CountingSolrItemSink( true );
+        MemoryPartitionRoundStore rounds = new MemoryPartitionRoundStore(  );
+        SolrHelpdeskIndexer indexer = new SolrHelpdeskIndexer( helpdesk, sink, rounds );
+
+        assertEquals( 0, indexer.updateDocuments( first ).size(  ) );
+        assertEquals( 0, indexer.updateDocuments( second ).size(  ) );
+        assertEquals( getUids( helpdesk ), sink.getItems(  ).keySet(  ) );
+
+        // plugin-solr empties the index and calls the indexer of the first node
+        sink.clear(  );
+        assertEquals( 0, indexer.indexDocuments( first ).size(  ) );
+        assertTrue( rounds.isRebuildRound( rounds.findLastRound(  ) ) );
+
+        int nFirstShard = sink.getItems(  ).size(  );
+        assertTrue( ( nFirstShard > 0 ) && ( nFirstShard < getUids( helpdesk ).size(  ) ) );
+
+        assertEquals( 0, indexer.updateDocuments( second ).size(  ) );
+        assertEquals( getUids( helpdesk ), sink.getItems(  ).keySet(  ) );
+        assertEquals( 2, rounds.countNodes( rounds.findLastRound(  ), PartitionRoundStore.STATUS_DONE ) );
+
+        // Nothing left to rebuild
+        sink.clear(  );
+        assertEquals( 0, indexer.resumeDocuments( second ).size(  ) );
+        assertEquals( 0, sink.getItems(  ).size(  ) );
+    }
+
+    /**
+     * An update of the index sends only the documents which changed since the last run
+     * @throws IOException if the properties cannot be set
+     */
+    @Test
+    public void testUpdateSkipsUnchanged(  ) throws IOException
+    {
+        setProperty( PROPERTY_DELTA_ENABLE, TRUE );
+
+        InMemoryHelpdeskDataSource helpdesk = InMemoryHelpdeskDataSource.generate( DOCUMENTS, SEED );
+        CountingSolrItemSink sink = new CountingSolrItemSink( true );
+        SolrHelpdeskIndexer indexer = new SolrHelpdeskIndexer( helpdesk, sink );
+
+        assertEquals( 0, indexer.indexDocuments( IndexingPartition.ALL ).size(  ) );
+        sink.clear(  );
+
+        Subject subject = helpdesk.findSubjects(  ).iterator(  ).next(  );
+        subject.setText( subject.getText(  ) + " updated" );
+
+        List<String> listErrors = indexer.updateDocuments( IndexingPartition.ALL );
+        assertTrue( listErrors.toString(  ), listErrors.isEmpty(  ) );
+        assertEquals( 1, sink.getDocuments(  ) );
+        assertTrue( sink.getItems(  ).containsKey( subject.getId(  ) + SolrHelpdeskIndexer.UID_SUFFIX_SUBJECT ) );
+    }
+
+    /**
+     * An update sends every document again once another text extractor is configured
+     * @throws IOException if the properties cannot be set
+     */
+    @Test
+    public void testUpdateAfterExtractorChange(  ) throws IOException
+    {
+        setProperty( PROPERTY_DELTA_ENABLE, TRUE );
+
+        InMemoryHelpdeskDataSource helpdesk = InMemoryHelpdeskDataSource.generate( DOCUMENTS, SEED );
+        CountingSolrItemSink sink = new CountingSolrItemSink( true );
+        SolrHelpdeskIndexer indexer = new SolrHelpdeskIndexer( helpdesk, sink );
+
+        assertEquals( 0, indexer.indexDocuments( IndexingPartition.ALL ).size(  ) );
+        sink.clear(  );
+
+        Properties properties = new Properties(  );
+        properties.setProperty( PROPERTY_DELTA_ENABLE, TRUE );
+        properties.setProperty( "helpdesk-solr.indexer.extractor", "strip" );
+        HelpdeskSolrTestEnvironment.setProperties( properties );
+
+        try
+        {
+            HtmlTextExtractorService.getInstance(  ).shutdown(  );
+            assertEquals( 0, indexer.updateDocuments( IndexingPartition.ALL ).size(  ) );
+            assertEquals( getUids( helpdesk ), sink.getItems(  ).keySet(  ) );
+        }
+        finally
+        {
+            HtmlTextExtractorService.getInstance(  ).shutdown(  );
+        }
+    }
+
+    /**
+     * An update removes the chunks a question/answer no longer has once its content got shorter
+     * @throws IOException if the properties cannot be set
+     */
+    @Test
+    public void testUpdateDeletesStaleChunks(  ) throws IOException
+    {
+        setChunkProperties( TRUE, "3" );
+
+        InMemoryHelpdeskDataSource helpdesk = InMemoryHelpdeskDataSource.generate( DOCUMENTS, SEED );
+        CountingSolrItemSink sink = new CountingSolrItemSink( true );
+        SolrHelpdeskIndexer indexer = new SolrHelpdeskIndexer( helpdesk, sink );
+        QuestionAnswer questionAnswer = indexLongQuestionAnswer( helpdesk, indexer, sink, 3 );
+
+        questionAnswer.setQuestion( "short question" );
+        questionAnswer.setAnswer( "short answer" );
+
+        List<String> listErrors = indexer.updateDocuments( IndexingPartition.ALL );
+        assertTrue( listErrors.toString(  ), listErrors.isEmpty(  ) );
+        assertEquals( 0, getChunkCount( sink, questionAnswer ) );
+        assertTrue( sink.getItems(  ).containsKey( questionAnswer.getIdQuestionAnswer(  ) +
+                SolrHelpdeskIndexer.UID_SUFFIX_QUESTION_ANSWER ) );
+    }
+
+    /**
+     * An update removes the chunks above a lower maximum number of chunks, then every chunk once chunks are
+     * disabled
+     * @throws IOException if the properties cannot be set
+     */
+    @Test
+    public void testUpdateDeletesChunksAboveLimit(  ) throws IOException
+    {
+        setChunkProperties( TRUE, "3" );
+
+        InMemoryHelpdeskDataSource helpdesk = InMemoryHelpdeskDataSource.generate( DOCUMENTS, SEED );
+        CountingSolrItemSink sink = new CountingSolrItemSink( true );
+        SolrHelpdeskIndexer indexer = new SolrHelpdeskIndexer( helpdesk, sink );
+        QuestionAnswer questionAnswer = indexLongQuestionAnswer( helpdesk, indexer, sink, 3 );
+
+        setChunkProperties( TRUE, "2" );
+        assertEquals( 0, indexer.updateDocuments( IndexingPartition.ALL ).size(  ) );
+        assertEquals( 1, getChunkCount( sink, questionAnswer ) );
+
+        setChunkProperties( FALSE, "2" );
+        assertEquals( 0, indexer.updateDocuments( IndexingPartition.ALL ).size(  ) );
+        assertEquals( 0, getChunkCount( sink, questionAnswer ) );
+    }
+
+    /**
+     * An export does not replay the dead-letter log : the documents would go to the export file and not to Solr
+     * @throws IOException if the dead-letter log cannot be read
+     */
+    @Test
+    public void testExportKeepsDeadLetters(  ) throws IOException
+    {
+        Properties properties = new Properties(  );
+        properties.setProperty( "helpdesk-solr.indexer.retry.enable", TRUE );
+        properties.setProperty( "helpdesk-solr.indexer.export.enable", TRUE );
+        HelpdeskSolrTestEnvironment.setProperties( properties );
+
+        InMemoryHelpdeskDataSource helpdesk = InMemoryHelpdeskDataSource.generate( DOCUMENTS, SEED );
+        String strUid = helpdesk.findSubjects(  ).iterator(  ).next(  ).getId(  ) +
+            SolrHelpdeskIndexer.UID_SUFFIX_SUBJECT;
+        DeadLetterLog.open( IndexingPartition.ALL ).append( Collections.singletonList( strUid ), "Solr is down" );
+
+        SolrHelpdeskIndexer indexer = new SolrHelpdeskIndexer( helpdesk, new CountingSolrItemSink(  ) );
+        assertEquals( 0, indexer.indexDocuments( IndexingPartition.ALL ).size(  ) );
+        assertEquals( Collections.singleton( strUid ), DeadLetterLog.open( IndexingPartition.ALL ).startReplay(  ) );
+    }
+
+    /**
+     * A full reindex does not resume the checkpoint of an interrupted run, since the index was emptied ; an update
+     * resumes it
+     * @throws IOException if the checkpoint cannot be saved
+     */
+    @Test
+    public void testRebuildDiscardsCheckpoint(  ) throws IOException
+    {
+        IndexingCheckpointTest.enable(  );
+
+        InMemoryHelpdeskDataSource helpdesk = InMemoryHelpdeskDataSource.generate( DOCUMENTS, SEED );
+        CountingSolrItemSink sink = new CountingSolrItemSink( true );
+        SolrHelpdeskIndexer indexer = new SolrHelpdeskIndexer( helpdesk, sink );
+
+        // An interrupted run which completed every faq
+        saveCompletedFaqs( helpdesk );
+        assertEquals( 0, indexer.indexDocuments( IndexingPartition.ALL ).size(  ) );
+        assertEquals( getUids( helpdesk ), sink.getItems(  ).keySet(  ) );
+        assertTrue( !IndexingCheckpoint.open( IndexingPartition.ALL ).isResumed(  ) );
+
+        sink.clear(  );
+        saveCompletedFaqs( helpdesk );
+        assertEquals( 0, indexer.updateDocuments( IndexingPartition.ALL ).size(  ) );
+        assertEquals( 0, sink.getDocuments(  ) );
+    }
+
+    /**
+     * A full reindex which fails saves its checkpoint : the resume sends the documents of the faq which failed
+     * only, without emptying the index, and deletes the checkpoint
+     * @throws IOException if the properties cannot be set
+     */
+    @Test
+    public void testResumeRebuild(  ) throws IOException
+    {
+        IndexingCheckpointTest.enable(  );
+
+        InMemoryHelpdeskDataSource helpdesk = InMemoryHelpdeskDataSource.generate( DOCUMENTS, SUBJECTS_PER_FAQ, SEED );
+        Faq faqFailed = helpdesk.findFaqs(  ).iterator(  ).next(  );
+        final int nIdFailed = helpdesk.findRootSubjects( faqFailed.getId(  ) ).iterator(  ).next(  ).getId(  );
+        final AtomicBoolean bFailing = new AtomicBoolean( true );
+        CountingSolrItemSink sink = new CountingSolrItemSink( true );
+        SolrHelpdeskIndexer indexer = new SolrHelpdeskIndexer( helpdesk, sink )
+            {
+                @Override
+                void indexSubjectDocument( Faq faq, IndexingRun run, Subject subject )
+                    throws IOException
+                {
+                    if ( bFailing.get(  ) && ( subject.getId(  ) == nIdFailed ) )
+                    {
+                        throw new IOException( "Subject " + nIdFailed );
+                    }
+
+                    super.indexSubjectDocument( faq, run, subject );
+                }
+            };
+
+        assertEquals( 1, indexer.indexDocuments( IndexingPartition.ALL ).size(  ) );
+        assertTrue( IndexingCheckpoint.isResumable( IndexingPartition.ALL ) );
+
+        bFailing.set( false );
+        sink.clear(  );
+        assertEquals( 0, indexer.resumeDocuments( IndexingPartition.ALL ).size(  ) );
+        assertTrue( sink.getItems(  ).containsKey( nIdFailed + SolrHelpdeskIndexer.UID_SUFFIX_SUBJECT ) );
+
+        for ( String strUid : sink.getItems(  ).keySet(  ) )
+        {
+            int nIdSubject = SolrHelpdeskIndexerUtils.getResourceId( strUid, SolrHelpdeskIndexer.UID_SUFFIX_SUBJECT );
+            assertTrue( strUid, ( nIdSubject < 0 ) ||
+                ( helpdesk.findFaqBySubject( getRootId( helpdesk, nIdSubject ) ) == faqFailed ) );
+        }
+
+        assertFalse( IndexingCheckpoint.isResumable( IndexingPartition.ALL ) );
+        sink.clear(  );
+        assertEquals( 0, indexer.resumeDocuments( IndexingPartition.ALL ).size(  ) );
+        assertEquals( 0, sink.getDocuments(  ) );
+    }
+
+    /**
+     * An update which resumes an interrupted run keeps the fingerprints of the documents it skipped : the next
+     * update does not send them again
+     * @throws IOException if the checkpoint cannot be saved
+     */
+    @Test
+    public void testResumedUpdateKeepsFingerprints(  ) throws IOException
+    {
+        Properties properties = new Properties(  );
+        properties.setProperty( PROPERTY_DELTA_ENABLE, TRUE );
+        properties.setProperty( "helpdesk-solr.indexer.checkpoint.enable", TRUE );
+        HelpdeskSolrTestEnvironment.setProperties( properties );
+
+        InMemoryHelpdeskDataSource helpdesk = InMemoryHelpdeskDataSource.generate( DOCUMENTS, SEED );
+        CountingSolrItemSink sink = new CountingSolrItemSink( true );
+        SolrHelpdeskIndexer indexer = new SolrHelpdeskIndexer( helpdesk, sink );
+
+        assertEquals( 0, indexer.indexDocuments( IndexingPartition.ALL ).size(  ) );
+
+        // An interrupted update which completed every faq : the resumed one skips them all
+        sink.clear(  );
+        saveCompletedFaqs( helpdesk );
+        assertEquals( 0, indexer.updateDocuments( IndexingPartition.ALL ).size(  ) );
+        assertEquals( 0, sink.getDocuments(  ) );
+
+        assertEquals( 0, indexer.updateDocuments( IndexingPartition.ALL ).size(  ) );
+        assertEquals( 0, sink.getDocuments(  ) );
+    }
+
+    /**
+     * The documents of a deleted subject include those of the subjects below it and of their question/answers
+     */
+    @Test
+    public void testSubjectTreeUids(  )
+    {
+        InMemoryHelpdeskDataSource helpdesk = InMemoryHelpdeskDataSource.generate( DOCUMENTS, SEED );
+        SolrHelpdeskIndexer indexer = new SolrHelpdeskIndexer( helpdesk, new CountingSolrItemSink(  ) );
+        Subject root = helpdesk.findRootSubjects( 1 ).iterator(  ).next(  );
+
+        Set<String> setExpected = new HashSet<String>(  );
+        List<Subject> listPending = new ArrayList<Subject>( Collections.singletonList( root ) );
+
+        while ( !listPending.isEmpty(  ) )
+        {
+            Subject subject = listPending.remove( 0 );
+            setExpected.add( subject.getId(  ) + SolrHelpdeskIndexer.UID_SUFFIX_SUBJECT );
+
+            for ( QuestionAnswer questionAnswer : helpdesk.findQuestionAnswers( subject ) )
+            {
+                setExpected.add( questionAnswer.getIdQuestionAnswer(  ) +
+                    SolrHelpdeskIndexer.UID_SUFFIX_QUESTION_ANSWER );
+            }
+
+            listPending.addAll( helpdesk.findChildSubjects( subject ) );
+        }
+
+        assertTrue( setExpected.size(  ) > 2 );
+
+        List<String> listUids = indexer.getSubjectTreeUids( root.getId(  ), Collections.<Integer>emptyList(  ) );
+        assertEquals( setExpected, new HashSet<String>( listUids ) );
+        assertEquals( setExpected.size(  ), listUids.size(  ) );
+
+        // A subject known from the cache only
+        listUids = indexer.getSubjectTreeUids( Integer.MAX_VALUE, Collections.singletonList( root.getId(  ) ) );
+        assertTrue( listUids.contains( Integer.MAX_VALUE + SolrHelpdeskIndexer.UID_SUFFIX_SUBJECT ) );
+        assertTrue( listUids.containsAll( setExpected ) );
+    }
+
+    /**
+     * A document which goes to the dead-letter log is reported but does not make the run fail : the fingerprints
+     * are saved, and the next run replays the document and skips the others
+     * @throws IOException if the properties cannot be set
+     */
+    @Test
+    public void testDeadLetterReplay(  ) throws IOException
+    {
+        Properties properties = new Properties(  );
+        properties.setProperty( PROPERTY_DELTA_ENABLE, TRUE );
+        properties.setProperty( "helpdesk-solr.indexer.retry.enable", TRUE );
+        properties.setProperty( "helpdesk-solr.indexer.retry.maxAttempts", ONE );
+        properties.setProperty( "helpdesk-solr.indexer.batch.size", ONE );
+        properties.setProperty( "helpdesk-solr.indexer.batch.pipelined", FALSE );
+        HelpdeskSolrTestEnvironment.setProperties( properties );
+
+        InMemoryHelpdeskDataSource helpdesk = InMemoryHelpdeskDataSource.generate( DOCUMENTS, SEED );
+        Subject subject = helpdesk.findSubjects(  ).iterator(  ).next(  );
+        final String strFailingUid = subject.getId(  ) + SolrHelpdeskIndexer.UID_SUFFIX_SUBJECT;
+        final CountingSolrItemSink sink = new CountingSolrItemSink( true );
+        final AtomicBoolean bDown = new AtomicBoolean( true );
+        SolrItemSink failingSink = new SolrItemSink(  )
+            {
+                @Override
+                public void write( List<SolrItem> listItems ) throws IOException
+                {
+                    if ( bDown.get(  ) && strFailingUid.equals( listItems.get( 0 ).getUid(  ) ) )
+                    {
+                        throw new IOException( "Solr rejects " + strFailingUid );
+                    }
+
+                    sink.write( listItems );
+                }
+
+                @Override
+                public void deleteChunks( Map<Integer, Integer> mapChunkCounts )
+                {
+                    sink.deleteChunks( mapChunkCounts );
+                }
+
+                @Override
+                public void close(  )
+                {
+                    sink.close(  );
+                }
+            };
+
+        SolrHelpdeskIndexer indexer = new SolrHelpdeskIndexer( helpdesk, failingSink );
+        List<String> listErrors = indexer.indexDocuments( IndexingPartition.ALL );
+        assertEquals( listErrors.toString(  ), 1, listErrors.size(  ) );
+        assertTrue( listErrors.get( 0 ).contains( "1 helpdesk documents could not be indexed" ) );
+
+        Set<String> setExpected = getUids( helpdesk );
+        setExpected.remove( strFailingUid );
+        assertEquals( setExpected, sink.getItems(  ).keySet(  ) );
+
+        bDown.set( false );
+        sink.clear(  );
+        listErrors = indexer.updateDocuments( IndexingPartition.ALL );
+        assertTrue( listErrors.toString(  ), listErrors.isEmpty(  ) );
+        assertTrue( sink.getItems(  ).containsKey( strFailingUid ) );
+
+        // The subject is replayed with its question/answers, the rest did not change
+        int nDocuments = 1;
+
+        for ( QuestionAnswer questionAnswer : helpdesk.findQuestionAnswers( subject ) )
+        {
+            nDocuments += ( questionAnswer.isEnabled(  ) ? 1 : 0 );
+        }
+
+        assertEquals( nDocuments, sink.getItems(  ).size(  ) );
+    }
+
+    /**
+     * The documents of several subjects are the same whether each subject is read on its own or the whole forest
+     * is loaded, and an id which is not a subject is left out by both
+     * @throws IOException if the properties cannot be set
+     */
+    @Test
+    public void testBulkDocuments(  ) throws IOException
+    {
+        InMemoryHelpdeskDataSource helpdesk = InMemoryHelpdeskDataSource.generate( DOCUMENTS, SEED );
+        SolrHelpdeskIndexer indexer = new SolrHelpdeskIndexer( helpdesk, new CountingSolrItemSink(  ) );
+        List<String> listIds = new ArrayList<String>( helpdesk.getSubjectIds(  ) );
+        listIds.add( "unknown" );
+        listIds.add( String.valueOf( Integer.MAX_VALUE ) );
+
+        setProperty( "helpdesk-solr.indexer.bulk.forestThreshold", String.valueOf( Integer.MAX_VALUE ) );
+
+        Map<String, String> mapSingle = getContents( indexer.getDocuments( listIds ) );
+
+        Properties properties = new Properties(  );
+        properties.setProperty( "helpdesk-solr.indexer.bulk.forestThreshold", ONE );
+        properties.setProperty( "helpdesk-solr.indexer.bulk.forestPercent", "0" );
+        HelpdeskSolrTestEnvironment.setProperties( properties );
+
+        Map<String, String> mapForest = getContents( indexer.getDocuments( listIds ) );
+
+        assertEquals( getUids( helpdesk ), mapSingle.keySet(  ) );
+        assertEquals( mapSingle, mapForest );
+    }
+
+    /**
+     * A streaming reindex whose document builder dies fails instead of waiting forever for room in the queue
+     * @throws IOException if the properties cannot be set
+     */
+    @Test( timeout = 30000L )
+    public void testStreamingConsumerFailure(  ) throws IOException
+    {
+        Properties properties = new Properties(  );
+        properties.setProperty( "helpdesk-solr.indexer.streaming.enable", TRUE );
+        properties.setProperty( "helpdesk-solr.indexer.streaming.queueSize", ONE );
+        properties.setProperty( "helpdesk-solr.indexer.parallel.enable", FALSE );
+        properties.setProperty( "helpdesk-solr.indexer.batch.size", ONE );
+        properties.setProperty( "helpdesk-solr.indexer.batch.pipelined", FALSE );
+        HelpdeskSolrTestEnvironment.setProperties( properties );
+
+        final CountingSolrItemSink sink = new CountingSolrItemSink(  );
+        final AtomicBoolean bFailed = new AtomicBoolean(  );
+        SolrItemSink failingSink = new SolrItemSink(  )
+            {
+                @Override
+                public void write( List<SolrItem> listItems )
+                {
+                    // An error the document builders do not catch
+                    if ( bFailed.compareAndSet( false, true ) )
+                    {
+                        throw new StackOverflowError(  );
+                    }
+
+                    sink.write( listItems );
+                }
+
+                @Override
+                public void deleteChunks( Map<Integer, Integer> mapChunkCounts )
+                {
+                    sink.deleteChunks( mapChunkCounts );
+                }
+
+                @Override
+                public void close(  )
+                {
+                    sink.close(  );
+                }
+            };
+
+        SolrHelpdeskIndexer indexer = new SolrHelpdeskIndexer( InMemoryHelpdeskDataSource.generate( DOCUMENTS,
+                    SEED ), failingSink );
+        List<String> listErrors = indexer.indexDocuments( IndexingPartition.ALL );
+
+        assertTrue( bFailed.get(  ) );
+        assertTrue( listErrors.toString(  ), !listErrors.isEmpty(  ) );
+        assertTrue( sink.getDocuments(  ) < DOCUMENTS );
+    }
+
+    /**
+     * Returns the top-level subject above a subject
+     * @param helpdesk the helpdesk
+     * @param nIdSubject the subject id
+     * @return the id of the top-level subject
+     */
+    private static int getRootId( InMemoryHelpdeskDataSource helpdesk, int nIdSubject )
+    {
+        Subject subject = helpdesk.findSubject( nIdSubject );
+
+        while ( subject.getIdParent(  ) != 0 )
+        {
+            subject = helpdesk.findSubject( subject.getIdParent(  ) );
+        }
+
+        return subject.getId(  );
+    }
+
+    /**
+     * Saves the checkpoint of an interrupted run which completed every faq of a helpdesk
+     * @param helpdesk the helpdesk
+     * @throws IOException if the checkpoint cannot be saved
+     */
+    private static void saveCompletedFaqs( InMemoryHelpdeskDataSource helpdesk )
+        throws IOException
+    {
+        IndexingCheckpoint checkpoint = IndexingCheckpoint.open( IndexingPartition.ALL );
+
+        for ( Faq faq : helpdesk.findFaqs(  ) )
+        {
+            checkpoint.addFaq( faq.getId(  ) );
+        }
+
+        checkpoint.save( new SolrItemBatchWriter( new CountingSolrItemSink(  ), null ) );
+    }
+
+    /**
+     * Gives a long content to the first enabled question/answer of a helpdesk, then indexes the helpdesk
+     * @param helpdesk the helpdesk
+     * @param indexer the indexer
+     * @param sink the sink of the indexer
+     * @param nDocuments the number of documents expected for the question/answer
+     * @return the question/answer
+     */
+    private static QuestionAnswer indexLongQuestionAnswer( InMemoryHelpdeskDataSource helpdesk,
+        SolrHelpdeskIndexer indexer, CountingSolrItemSink sink, int nDocuments )
+    {
+        QuestionAnswer questionAnswer = null;
+
+        for ( QuestionAnswer candidate : helpdesk.findQuestionAnswers(  ) )
+        {
+            if ( candidate.isEnabled(  ) )
+            {
+                questionAnswer = candidate;
+
+                break;
+            }
+        }
+
+        StringBuilder sbAnswer = new StringBuilder(  );
+
+        while ( sbAnswer.length(  ) < 1000 )
+        {
+            sbAnswer.append( "long answer " );
+        }
+
+        questionAnswer.setAnswer( sbAnswer.toString(  ) );
+        assertEquals( 0, indexer.indexDocuments( IndexingPartition.ALL ).size(  ) );
+        assertEquals( nDocuments - 1, getChunkCount( sink, questionAnswer ) );
+
+        return questionAnswer;
+    }
+
+    /**
+     * Counts the chunks of a question/answer kept by a sink
+     * @param sink the sink
+     * @param questionAnswer the question/answer
+     * @return the number of chunks, besides the main document
+     */
+    private static int getChunkCount( CountingSolrItemSink sink, QuestionAnswer questionAnswer )
+    {
+        int nCount = 0;
+
+        for ( String strUid : sink.getItems(  ).keySet(  ) )
+        {
+            if ( ( SolrHelpdeskIndexerUtils.getResourceId( strUid, SolrHelpdeskIndexer.UID_SUFFIX_QUESTION_ANSWER ) ==
+                    questionAnswer.getIdQuestionAnswer(  ) ) &&
+                    ( SolrHelpdeskIndexerUtils.getChunkNumber( strUid,
+                        SolrHelpdeskIndexer.UID_SUFFIX_QUESTION_ANSWER ) > 0 ) )
+            {
+                nCount++;
+            }
+        }
+
+        return nCount;
+    }
+
+    /**
+     * Limits the text of the documents to 100 characters
+     * @param strChunksEnable true to send the rest of the text to chunks
+     * @param strChunksMax the maximum number of documents of a question/answer
+     * @throws IOException if the properties cannot be set
+     */
+    private static void setChunkProperties( String strChunksEnable, String strChunksMax )
+        throws IOException
+    {
+        Properties properties = new Properties(  );
+        properties.setProperty( "helpdesk-solr.indexer.content.maxChars", "100" );
+        properties.setProperty( "helpdesk-solr.indexer.content.chunks.enable", strChunksEnable );
+        properties.setProperty( "helpdesk-solr.indexer.content.chunks.max", strChunksMax );
+        HelpdeskSolrTestEnvironment.setProperties( properties );
+    }
+
+    /**
+     * Sets a property of the module
+     * @param strKey the key
+     * @param strValue the value
+     * @throws IOException if the property cannot be set
+     */
+    private static void setProperty( String strKey, String strValue )
+        throws IOException
+    {
+        Properties properties = new Properties(  );
+        properties.setProperty( strKey, strValue );
+        HelpdeskSolrTestEnvironment.setProperties( properties );
+    }
+
+    /**
+     * Returns the contents of documents
+     * @param listItems the documents
+     * @return the content of each document, by resource uid
+     */
+    private static Map<String, String> getContents( List<SolrItem> listItems )
+    {
+        Map<String, String> mapContents = new HashMap<String, String>(  );
+
+        for ( SolrItem item : listItems )
+        {
+            mapContents.put( item.getUid(  ), item.getContent(  ) );
+        }
+
+        return mapContents;
+    }
+
+    /**
+     * Returns the resource uids of the documents of a helpdesk, as sent to the sink
+     * @param helpdesk the helpdesk
+     * @return the uids
+     */
+    static Set<String> getUids( InMemoryHelpdeskDataSource helpdesk )
+    {
+        Set<String> setUids = new HashSet<String>(  );
+
+        for ( Subject subject : helpdesk.findSubjects(  ) )
+        {
+            setUids.add( subject.getId(  ) + SolrHelpdeskIndexer.UID_SUFFIX_SUBJECT );
+        }
+
+        for ( QuestionAnswer questionAnswer : helpdesk.findQuestionAnswers(  ) )
+        {
+            if ( questionAnswer.isEnabled(  ) )
+            {
+                setUids.add( questionAnswer.getIdQuestionAnswer(  ) + SolrHelpdeskIndexer.UID_SUFFIX_QUESTION_ANSWER );
+            }
+        }
+
+        return setUids;
+    }
+}
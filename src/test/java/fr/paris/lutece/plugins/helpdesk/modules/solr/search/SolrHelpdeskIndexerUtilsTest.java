@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.helpdesk.modules.solr.search;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.solr.client.solrj.util.ClientUtils;
+import org.junit.Test;
+
+import fr.paris.lutece.plugins.search.solr.indexer.SolrItem;
+
+
+/**
+ * Tests of the parsing of the resource uids by {@link SolrHelpdeskIndexerUtils}
+ */
+public class SolrHelpdeskIndexerUtilsTest
+{
+    private static final String QA = SolrHelpdeskIndexer.UID_SUFFIX_QUESTION_ANSWER;
+    private static final String SUBJECT = SolrHelpdeskIndexer.UID_SUFFIX_SUBJECT;
+
+    /**
+     * The id and the chunk number of the main document and of the chunks of a question/answer
+     */
+    @Test
+    public void testChunkUids(  )
+    {
+        assertEquals( "12" + QA, SolrHelpdeskIndexerUtils.getChunkUid( 12, 0, QA ) );
+        assertEquals( "12-3" + QA, SolrHelpdeskIndexerUtils.getChunkUid( 12, 3, QA ) );
+
+        assertEquals( 12, SolrHelpdeskIndexerUtils.getResourceId( "12" + QA, QA ) );
+        assertEquals( 0, SolrHelpdeskIndexerUtils.getChunkNumber( "12" + QA, QA ) );
+        assertEquals( 12, SolrHelpdeskIndexerUtils.getResourceId( "12-3" + QA, QA ) );
+        assertEquals( 3, SolrHelpdeskIndexerUtils.getChunkNumber( "12-3" + QA, QA ) );
+        assertEquals( 7, SolrHelpdeskIndexerUtils.getResourceId( "7" + SUBJECT, SUBJECT ) );
+        assertEquals( 0, SolrHelpdeskIndexerUtils.getChunkNumber( "7" + SUBJECT, SUBJECT ) );
+    }
+
+    /**
+     * The uids of another resource type or which do not parse give -1
+     */
+    @Test
+    public void testInvalidUids(  )
+    {
+        assertEquals( -1, SolrHelpdeskIndexerUtils.getResourceId( "12" + SUBJECT, QA ) );
+        assertEquals( -1, SolrHelpdeskIndexerUtils.getChunkNumber( "12" + SUBJECT, QA ) );
+        assertEquals( -1, SolrHelpdeskIndexerUtils.getResourceId( "abc" + QA, QA ) );
+        assertEquals( -1, SolrHelpdeskIndexerUtils.getResourceId( QA, QA ) );
+        assertEquals( -1, SolrHelpdeskIndexerUtils.getResourceId( "-1" + QA, QA ) );
+        assertEquals( -1, SolrHelpdeskIndexerUtils.getResourceId( "99999999999" + QA, QA ) );
+
+        // A valid id with a chunk number which does not parse
+        assertEquals( 12, SolrHelpdeskIndexerUtils.getResourceId( "12-" + QA, QA ) );
+        assertEquals( -1, SolrHelpdeskIndexerUtils.getChunkNumber( "12-" + QA, QA ) );
+        assertEquals( -1, SolrHelpdeskIndexerUtils.getChunkNumber( "12-x" + QA, QA ) );
+        assertEquals( -1, SolrHelpdeskIndexerUtils.getChunkNumber( "12-1-2" + QA, QA ) );
+    }
+
+    /**
+     * The chunks of a question/answer are matched by prefix, its current chunks being excluded
+     */
+    @Test
+    public void testChunkQueries(  )
+    {
+        Map<Integer, Integer> mapChunkCounts = new LinkedHashMap<Integer, Integer>(  );
+        mapChunkCounts.put( 12, 2 );
+        mapChunkCounts.put( 13, 0 );
+
+        assertEquals( Collections.singletonList( "(uid:" + escape( "12-" ) + "* -uid:" + escape( "12-1" + QA ) +
+                " -uid:" + escape( "12-2" + QA ) + ") OR (uid:" + escape( "13-" ) + "*)" ),
+            SolrHelpdeskIndexerUtils.getChunkQueries( mapChunkCounts ) );
+        assertTrue( SolrHelpdeskIndexerUtils.getChunkQueries( new HashMap<Integer, Integer>(  ) ).isEmpty(  ) );
+
+        // The queries are split below the clause limit of Solr
+        mapChunkCounts.clear(  );
+
+        for ( int i = 0; i < SolrHelpdeskIndexerUtils.QUERY_MAX_CLAUSES + 1; i++ )
+        {
+            mapChunkCounts.put( i, 0 );
+        }
+
+        assertEquals( 2, SolrHelpdeskIndexerUtils.getChunkQueries( mapChunkCounts ).size(  ) );
+    }
+
+    /**
+     * The number of chunks of each question/answer is its highest chunk number
+     */
+    @Test
+    public void testChunkCounts(  )
+    {
+        List<SolrItem> listItems = new ArrayList<SolrItem>(  );
+
+        for ( String strUid : Arrays.asList( "12" + QA, "12-1" + QA, "12-2" + QA, "13" + QA, "7" + SUBJECT ) )
+        {
+            SolrItem item = new SolrItem(  );
+            item.setUid( strUid );
+            listItems.add( item );
+        }
+
+        Map<Integer, Integer> mapChunkCounts = SolrHelpdeskIndexerUtils.getChunkCounts( listItems );
+        assertEquals( 2, mapChunkCounts.size(  ) );
+        assertEquals( Integer.valueOf( 2 ), mapChunkCounts.get( 12 ) );
+        assertEquals( Integer.valueOf( 0 ), mapChunkCounts.get( 13 ) );
+    }
+
+    /**
+     * Escapes the Solr uid of a resource uid, as the queries do
+     * @param strResourceUid the resource uid
+     * @return the escaped Solr uid
+     */
+    private static String escape( String strResourceUid )
+    {
+        return ClientUtils.escapeQueryChars( SolrHelpdeskIndexerUtils.getSolrUid( strResourceUid ) );
+    }
+}
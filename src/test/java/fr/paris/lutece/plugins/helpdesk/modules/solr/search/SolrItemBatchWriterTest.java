@@ -0,0 +1,254 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.helpdesk.modules.solr.search;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import fr.paris.lutece.plugins.search.solr.indexer.SolrItem;
+
+
+/**
+ * Tests of the batches sent by {@link SolrItemBatchWriter} and of the report of the lost ones
+ */
+public class SolrItemBatchWriterTest
+{
+    /**
+     * Initializes the environment
+     */
+    @BeforeClass
+    public static void init(  )
+    {
+        HelpdeskSolrTestEnvironment.init(  );
+    }
+
+    /**
+     * A batch is sent when it reaches the number of documents or the number of characters
+     * @throws IOException if a batch cannot be written
+     */
+    @Test
+    public void testThresholds(  ) throws IOException
+    {
+        RecordingSink sink = new RecordingSink(  );
+        SolrItemBatchWriter writer = new SolrItemBatchWriter( sink, null, 3, 1000, false );
+
+        for ( int i = 0; i < 7; i++ )
+        {
+            writer.add( item( i + "_hds", 10 ) );
+        }
+
+        writer.close(  );
+        assertEquals( Arrays.asList( 3, 3, 1 ), sink.getBatchSizes(  ) );
+
+        // Uid of 5 characters and content of 100 : a batch every 2 items for 200 characters
+        sink = new RecordingSink(  );
+        writer = new SolrItemBatchWriter( sink, null, 100, 200, false );
+
+        for ( int i = 0; i < 5; i++ )
+        {
+            writer.add( item( i + "_hds", 100 ) );
+        }
+
+        writer.close(  );
+        assertEquals( Arrays.asList( 2, 2, 1 ), sink.getBatchSizes(  ) );
+        assertFalse( writer.hasFailed(  ) );
+    }
+
+    /**
+     * A pipelined batch which fails is reported by the next flush, with its uids only ; the items added meanwhile
+     * are not lost
+     * @throws IOException if a batch cannot be written
+     */
+    @Test
+    public void testPipelinedFailure(  ) throws IOException
+    {
+        checkFailure( true );
+    }
+
+    /**
+     * A batch which fails in the calling thread is reported by the next flush too
+     * @throws IOException if a batch cannot be written
+     */
+    @Test
+    public void testFailure(  ) throws IOException
+    {
+        checkFailure( false );
+    }
+
+    /**
+     * Writes three batches, the first one failing
+     * @param bPipelined true to send the batches from a background thread
+     * @throws IOException if a batch cannot be written
+     */
+    private static void checkFailure( boolean bPipelined )
+        throws IOException
+    {
+        RecordingSink sink = new RecordingSink(  );
+        sink.failOn( "1_hds" );
+
+        SolrItemBatchWriter writer = new SolrItemBatchWriter( sink, null, 2, 0, bPipelined );
+
+        // No failure is reported while adding, whichever batch the item goes to
+        for ( int i = 0; i < 6; i++ )
+        {
+            writer.add( item( i + "_hds", 10 ) );
+        }
+
+        try
+        {
+            writer.flush(  );
+            fail( "The lost batch is not reported" );
+        }
+        catch ( SolrBatchWriteException e )
+        {
+            assertEquals( Arrays.asList( "0_hds", "1_hds" ), e.getUids(  ) );
+        }
+
+        assertTrue( writer.hasFailed(  ) );
+        assertEquals( new HashSet<String>( Arrays.asList( "2_hds", "3_hds", "4_hds", "5_hds" ) ), sink.getUids(  ) );
+
+        // Reported once
+        writer.add( item( "6_hds", 10 ) );
+        writer.close(  );
+        assertTrue( sink.getUids(  ).contains( "6_hds" ) );
+        assertTrue( writer.hasFailed(  ) );
+    }
+
+    /**
+     * Builds an item
+     * @param strUid the uid
+     * @param nContentLength the length of its content
+     * @return the item
+     */
+    private static SolrItem item( String strUid, int nContentLength )
+    {
+        SolrItem item = new SolrItem(  );
+        item.setUid( strUid );
+        item.setContent( String.join( "", Collections.nCopies( nContentLength, "x" ) ) );
+
+        return item;
+    }
+
+    /**
+     * Sink recording the batches, failing the batches holding a given uid
+     */
+    private static final class RecordingSink implements SolrItemSink
+    {
+        private final List<Integer> _listBatchSizes = new ArrayList<Integer>(  );
+        private final Set<String> _setUids = new HashSet<String>(  );
+        private String _strFailingUid;
+
+        /**
+         * Fails the batches holding a uid
+         * @param strUid the uid
+         */
+        void failOn( String strUid )
+        {
+            _strFailingUid = strUid;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public synchronized void write( List<SolrItem> listItems )
+            throws IOException
+        {
+            for ( SolrItem item : listItems )
+            {
+                if ( item.getUid(  ).equals( _strFailingUid ) )
+                {
+                    throw new IOException( "Solr is down" );
+                }
+            }
+
+            _listBatchSizes.add( listItems.size(  ) );
+
+            for ( SolrItem item : listItems )
+            {
+                _setUids.add( item.getUid(  ) );
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void deleteChunks( Map<Integer, Integer> mapChunkCounts )
+        {
+            // The documents of these tests have no chunk
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void close(  )
+        {
+            // Nothing to release
+        }
+
+        /**
+         * Returns the sizes of the batches written
+         * @return the sizes
+         */
+        synchronized List<Integer> getBatchSizes(  )
+        {
+            return new ArrayList<Integer>( _listBatchSizes );
+        }
+
+        /**
+         * Returns the uids written
+         * @return the uids
+         */
+        synchronized Set<String> getUids(  )
+        {
+            return new HashSet<String>( _setUids );
+        }
+    }
+}
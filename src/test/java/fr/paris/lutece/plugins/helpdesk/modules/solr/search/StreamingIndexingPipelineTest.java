@@ -0,0 +1,222 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.helpdesk.modules.solr.search;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import fr.paris.lutece.plugins.helpdesk.business.Faq;
+import fr.paris.lutece.plugins.helpdesk.business.Subject;
+
+
+/**
+ * Tests of {@link StreamingIndexingPipeline}
+ */
+public class StreamingIndexingPipelineTest
+{
+    private static final int DOCUMENTS = 500;
+    private static final int SUBJECTS_PER_FAQ = 10;
+    private static final long SEED = 7L;
+
+    /**
+     * Initializes the environment
+     */
+    @BeforeClass
+    public static void init(  )
+    {
+        HelpdeskSolrTestEnvironment.init(  );
+    }
+
+    /**
+     * Restores the properties and removes the checkpoint
+     * @throws IOException if the properties cannot be restored
+     */
+    @After
+    public void tearDown(  ) throws IOException
+    {
+        HelpdeskSolrTestEnvironment.resetProperties(  );
+    }
+
+    /**
+     * Each top-level subject whose documents are all indexed is completed in the checkpoint, and each faq whose
+     * top-level subjects are all completed ; a document which fails keeps its subject and its faq from completing
+     * @throws IOException if the checkpoint cannot be saved
+     */
+    @Test
+    public void testCheckpoint(  ) throws IOException
+    {
+        IndexingCheckpointTest.enable(  );
+
+        InMemoryHelpdeskDataSource helpdesk = InMemoryHelpdeskDataSource.generate( DOCUMENTS, SUBJECTS_PER_FAQ, SEED );
+        Faq faqFailed = helpdesk.findFaqs(  ).iterator(  ).next(  );
+        final int nIdFailed = helpdesk.findRootSubjects( faqFailed.getId(  ) ).iterator(  ).next(  ).getId(  );
+
+        CountingSolrItemSink sink = new CountingSolrItemSink(  );
+        SolrHelpdeskIndexer indexer = new SolrHelpdeskIndexer( helpdesk, sink )
+            {
+                @Override
+                void indexSubjectDocument( Faq faq, IndexingRun run, Subject subject )
+                    throws IOException
+                {
+                    if ( subject.getId(  ) == nIdFailed )
+                    {
+                        throw new IOException( "Subject " + nIdFailed );
+                    }
+
+                    super.indexSubjectDocument( faq, run, subject );
+                }
+            };
+
+        IndexingCheckpoint checkpoint = IndexingCheckpoint.open( IndexingPartition.ALL );
+        SolrItemBatchWriter writer = new SolrItemBatchWriter( sink, null );
+        IndexingRun run = new IndexingRun( IndexingContext.create( null, helpdesk ), IndexingPartition.ALL,
+                IndexingRun.Mode.REBUILD, writer, null, checkpoint, null, null, null );
+        List<String> listErrors = new ArrayList<String>(  );
+
+        new StreamingIndexingPipeline( indexer, run, 4, 16, 0 ).run( listErrors );
+        checkpoint.save( writer );
+        writer.close(  );
+
+        assertEquals( 1, listErrors.size(  ) );
+
+        int nFaqs = 0;
+
+        for ( Faq faq : helpdesk.findFaqs(  ) )
+        {
+            assertEquals( faq.getId(  ) != faqFailed.getId(  ), checkpoint.isFaqCompleted( faq.getId(  ) ) );
+
+            for ( Subject subject : helpdesk.findRootSubjects( faq.getId(  ) ) )
+            {
+                assertEquals( subject.getId(  ) != nIdFailed, checkpoint.isSubjectCompleted( subject.getId(  ) ) );
+            }
+
+            nFaqs++;
+        }
+
+        assertTrue( nFaqs > 1 );
+        assertFalse( checkpoint.isSubjectCompleted( nIdFailed ) );
+    }
+
+    /**
+     * The question/answers of the subjects which have more than the page size are loaded by pages, and indexed
+     * as when they are read with their subject
+     * @throws IOException if the writer cannot be closed
+     */
+    @Test
+    public void testQuestionAnswerPages(  ) throws IOException
+    {
+        InMemoryHelpdeskDataSource helpdesk = InMemoryHelpdeskDataSource.generate( DOCUMENTS, SUBJECTS_PER_FAQ, SEED );
+        CountingSolrItemSink sinkWhole = index( helpdesk, 0 );
+        int nReads = helpdesk.getQuestionListReads(  );
+        assertEquals( helpdesk.findSubjects(  ).size(  ), nReads );
+
+        CountingSolrItemSink sinkPaged = index( helpdesk, 4 );
+        assertEquals( nReads, helpdesk.getQuestionListReads(  ) );
+        assertEquals( sinkWhole.getItems(  ).keySet(  ), sinkPaged.getItems(  ).keySet(  ) );
+        assertEquals( helpdesk.findSubjects(  ).size(  ) + helpdesk.findQuestionAnswers(  ).size(  ),
+            sinkPaged.getDocuments(  ) );
+    }
+
+    /**
+     * Each page of question/answers is read with one call to the data source, never one call per question/answer,
+     * and the subject list is read instead when the pages cannot be
+     * @throws IOException if the writer cannot be closed
+     */
+    @Test
+    public void testQuestionAnswerPageReads(  ) throws IOException
+    {
+        InMemoryHelpdeskDataSource helpdesk = InMemoryHelpdeskDataSource.generate( DOCUMENTS, SUBJECTS_PER_FAQ, SEED );
+        int nPageSize = 3;
+        int nPages = 0;
+        int nPagedSubjects = 0;
+
+        for ( Subject subject : helpdesk.findSubjects(  ) )
+        {
+            int nQuestions = helpdesk.findQuestionAnswerIds( subject ).size(  );
+
+            if ( nQuestions > nPageSize )
+            {
+                nPages += ( ( nQuestions + nPageSize ) - 1 ) / nPageSize;
+                nPagedSubjects++;
+            }
+        }
+
+        assertTrue( nPagedSubjects > 0 );
+
+        CountingSolrItemSink sinkPaged = index( helpdesk, nPageSize );
+        assertEquals( nPages, helpdesk.getQuestionPageReads(  ) );
+        assertEquals( 0, helpdesk.getQuestionReads(  ) );
+        assertEquals( helpdesk.findSubjects(  ).size(  ) - nPagedSubjects, helpdesk.getQuestionListReads(  ) );
+
+        helpdesk.setPageReadsUnavailable( true );
+
+        CountingSolrItemSink sinkFallback = index( helpdesk, nPageSize );
+        assertEquals( 0, helpdesk.getQuestionReads(  ) );
+        assertEquals( sinkPaged.getItems(  ).keySet(  ), sinkFallback.getItems(  ).keySet(  ) );
+        assertEquals( sinkPaged.getDocuments(  ), sinkFallback.getDocuments(  ) );
+    }
+
+    /**
+     * Indexes a helpdesk through the pipeline
+     * @param helpdesk the helpdesk
+     * @param nQuestionPageSize the page size of the question/answers
+     * @return the sink holding the documents
+     * @throws IOException if the writer cannot be closed
+     */
+    private static CountingSolrItemSink index( InMemoryHelpdeskDataSource helpdesk, int nQuestionPageSize )
+        throws IOException
+    {
+        CountingSolrItemSink sink = new CountingSolrItemSink( true );
+        SolrItemBatchWriter writer = new SolrItemBatchWriter( sink, null );
+        IndexingRun run = new IndexingRun( IndexingContext.create( null, helpdesk ), IndexingPartition.ALL,
+                IndexingRun.Mode.REBUILD, writer, null, null, null, null, null );
+        List<String> listErrors = new ArrayList<String>(  );
+
+        new StreamingIndexingPipeline( new SolrHelpdeskIndexer( helpdesk, sink ), run, 4, 16, nQuestionPageSize ).run(
+            listErrors );
+        writer.close(  );
+        assertTrue( listErrors.toString(  ), listErrors.isEmpty(  ) );
+
+        return sink;
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.helpdesk.modules.solr.search;
+
+import static org.junit.Assert.assertEquals;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import fr.paris.lutece.plugins.helpdesk.business.Faq;
+import fr.paris.lutece.plugins.helpdesk.business.Subject;
+
+
+/**
+ * Tests of the loading of the {@link SubjectForest}
+ */
+public class SubjectForestTest
+{
+    private static final int DOCUMENTS = 30000;
+    private static final long SEED = 42L;
+
+    /**
+     * The forest is loaded with the bulk reads only, and has the same top-level subjects as the reads by faq
+     */
+    @Test
+    public void testLoadWithoutReadsByFaq(  )
+    {
+        InMemoryHelpdeskDataSource helpdesk = InMemoryHelpdeskDataSource.generate( DOCUMENTS, SEED );
+        Map<String, Integer> mapCalls = new HashMap<String, Integer>(  );
+        SubjectForest forest = SubjectForest.load( counting( helpdesk, mapCalls ) );
+
+        assertEquals( null, mapCalls.get( "findRootSubjects" ) );
+        assertEquals( null, mapCalls.get( "findFaqs" ) );
+        assertEquals( Integer.valueOf( 1 ), mapCalls.get( "findSubjects" ) );
+        assertEquals( Integer.valueOf( 1 ), mapCalls.get( "findQuestionAnswers" ) );
+        assertEquals( Integer.valueOf( 1 ), mapCalls.get( "findSubjectFaqIds" ) );
+        assertEquals( helpdesk.findSubjects(  ).size(  ), forest.size(  ) );
+
+        for ( Faq faq : helpdesk.findFaqs(  ) )
+        {
+            List<Integer> listExpected = new ArrayList<Integer>(  );
+
+            for ( Subject subject : helpdesk.findRootSubjects( faq.getId(  ) ) )
+            {
+                listExpected.add( subject.getId(  ) );
+            }
+
+            List<Integer> listRoots = new ArrayList<Integer>(  );
+
+            for ( int nRoot : forest.getRoots( faq.getId(  ) ) )
+            {
+                listRoots.add( forest.getSubject( nRoot ).getId(  ) );
+                assertEquals( faq.getId(  ), forest.getIdFaq( nRoot ) );
+            }
+
+            assertEquals( listExpected, listRoots );
+        }
+    }
+
+    /**
+     * Wraps a data source to count the calls of each method
+     * @param dataSource the data source
+     * @param mapCalls the number of calls, by method name
+     * @return the counting data source
+     */
+    private static HelpdeskDataSource counting( final HelpdeskDataSource dataSource,
+        final Map<String, Integer> mapCalls )
+    {
+        InvocationHandler handler = new InvocationHandler(  )
+            {
+                @Override
+                public Object invoke( Object proxy, Method method, Object[] args )
+                    throws Throwable
+                {
+                    Integer nCalls = mapCalls.get( method.getName(  ) );
+                    mapCalls.put( method.getName(  ), ( nCalls == null ) ? 1 : ( nCalls + 1 ) );
+
+                    try
+                    {
+                        return method.invoke( dataSource, args );
+                    }
+                    catch ( InvocationTargetException e )
+                    {
+                        throw e.getCause(  );
+                    }
+                }
+            };
+
+        return (HelpdeskDataSource) Proxy.newProxyInstance( HelpdeskDataSource.class.getClassLoader(  ),
+            new Class<?>[] { HelpdeskDataSource.class }, handler );
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.helpdesk.modules.solr.search;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+import fr.paris.lutece.plugins.helpdesk.business.Faq;
+import fr.paris.lutece.plugins.helpdesk.business.Subject;
+import fr.paris.lutece.plugins.helpdesk.business.SubjectHome;
+
+
+/**
+ * Tests of the {@link SubjectResolutionCache}
+ */
+public class SubjectResolutionCacheTest
+{
+    private static final int CACHE_SIZE = 100;
+    private static final int CACHE_TTL = 3600;
+    private static final String OTHER_ROLE_KEY = "other";
+
+    // A helpdesk with one faq : the first subjects are its top-level subjects
+    private final InMemoryHelpdeskDataSource _helpdesk = InMemoryHelpdeskDataSource.generate( 100, 1L );
+
+    /**
+     * A subject and its ancestors are resolved once
+     */
+    @Test
+    public void testResolveOnce(  )
+    {
+        SubjectResolutionCache cache = new SubjectResolutionCache( CACHE_SIZE, CACHE_TTL );
+        Subject subject = getDeepestSubject(  );
+
+        SubjectResolutionCache.Resolution resolution = cache.resolve( subject, _helpdesk );
+        assertEquals( getFaq(  ).getId(  ), resolution.getIdFaq(  ) );
+        assertEquals( getFaq(  ).getRoleKey(  ), resolution.getRoleKey(  ) );
+        assertEquals( 0, cache.getHits(  ) );
+
+        cache.resolve( subject, _helpdesk );
+        cache.resolve( _helpdesk.findSubject( subject.getIdParent(  ) ), _helpdesk );
+        assertEquals( 2, cache.getHits(  ) );
+        assertEquals( 1, cache.getMisses(  ) );
+    }
+
+    /**
+     * The change of the role key of a faq is seen once the faq is invalidated
+     */
+    @Test
+    public void testInvalidateFaq(  )
+    {
+        SubjectResolutionCache cache = new SubjectResolutionCache( CACHE_SIZE, CACHE_TTL );
+        Subject subject = getDeepestSubject(  );
+        cache.resolve( subject, _helpdesk );
+
+        Faq faq = getFaq(  );
+        String strRoleKey = faq.getRoleKey(  );
+
+        try
+        {
+            faq.setRoleKey( OTHER_ROLE_KEY );
+            assertEquals( strRoleKey, cache.resolve( subject, _helpdesk ).getRoleKey(  ) );
+
+            cache.invalidateFaq( faq.getId(  ) );
+            assertEquals( 0, cache.size(  ) );
+            assertEquals( OTHER_ROLE_KEY, cache.resolve( subject, _helpdesk ).getRoleKey(  ) );
+        }
+        finally
+        {
+            faq.setRoleKey( strRoleKey );
+        }
+    }
+
+    /**
+     * The resolutions expire after their time to live
+     */
+    @Test
+    public void testTimeToLive(  )
+    {
+        SubjectResolutionCache cache = new SubjectResolutionCache( CACHE_SIZE, 0 );
+        Subject subject = getDeepestSubject(  );
+
+        cache.resolve( subject, _helpdesk );
+        cache.resolve( subject, _helpdesk );
+        assertEquals( 0, cache.getHits(  ) );
+        assertEquals( 2, cache.getMisses(  ) );
+    }
+
+    /**
+     * Moving a subject invalidates the subjects below it
+     */
+    @Test
+    public void testInvalidateSubject(  )
+    {
+        SubjectResolutionCache cache = new SubjectResolutionCache( CACHE_SIZE, CACHE_TTL );
+        Subject subject = getDeepestSubject(  );
+        cache.resolve( subject, _helpdesk );
+
+        int nSize = cache.size(  );
+        cache.invalidateSubject( subject.getIdParent(  ) );
+        assertEquals( nSize - 2, cache.size(  ) );
+
+        cache.invalidateAll(  );
+        assertEquals( 0, cache.size(  ) );
+    }
+
+    /**
+     * A subject whose ancestry is broken is not resolved
+     */
+    @Test
+    public void testDetachedSubject(  )
+    {
+        SubjectResolutionCache cache = new SubjectResolutionCache( CACHE_SIZE, CACHE_TTL );
+        Subject subject = new Subject(  );
+        subject.setId( Integer.MAX_VALUE );
+        subject.setIdParent( Integer.MAX_VALUE - 1 );
+
+        assertNull( cache.resolve( subject, _helpdesk ) );
+    }
+
+    /**
+     * A subject whose ancestry is a cycle is not resolved, instead of climbing for ever
+     */
+    @Test( timeout = 10000L )
+    public void testParentCycle(  )
+    {
+        SubjectResolutionCache cache = new SubjectResolutionCache( CACHE_SIZE, CACHE_TTL );
+        Subject deepest = getDeepestSubject(  );
+        Subject root = deepest;
+
+        while ( root.getIdParent(  ) != SubjectHome.FIRST_ORDER )
+        {
+            root = _helpdesk.findSubject( root.getIdParent(  ) );
+        }
+
+        root.setIdParent( deepest.getId(  ) );
+
+        assertNull( cache.resolve( deepest, _helpdesk ) );
+        assertNull( cache.resolve( root, _helpdesk ) );
+    }
+
+    /**
+     * Returns the faq of the helpdesk
+     * @return the faq
+     */
+    private Faq getFaq(  )
+    {
+        return _helpdesk.findFaqs(  ).iterator(  ).next(  );
+    }
+
+    /**
+     * Returns the subject with the longest ancestry
+     * @return the subject
+     */
+    private Subject getDeepestSubject(  )
+    {
+        Subject deepest = null;
+        int nDeepest = -1;
+
+        for ( Subject subject : _helpdesk.findSubjects(  ) )
+        {
+            int nDepth = 0;
+
+            for ( Subject parent = subject; parent.getIdParent(  ) != 0;
+                    parent = _helpdesk.findSubject( parent.getIdParent(  ) ) )
+            {
+                nDepth++;
+            }
+
+            if ( nDepth > nDeepest )
+            {
+                deepest = subject;
+                nDeepest = nDepth;
+            }
+        }
+
+        return deepest;
+    }
+}
@@ -0,0 +1,240 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.helpdesk.modules.solr.search;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import fr.paris.lutece.plugins.search.solr.indexer.SolrItem;
+
+
+/**
+ * Tests of the retries of the batches by {@link WriteRetryQueue} and of the {@link DeadLetterLog}
+ */
+public class WriteRetryQueueTest
+{
+    private static final String FILE_DEAD_LETTERS = "dead-letters.txt";
+
+    /**
+     * Directory of the dead-letter log
+     */
+    @Rule
+    public TemporaryFolder _folder = new TemporaryFolder(  );
+
+    /**
+     * Initializes the environment
+     */
+    @BeforeClass
+    public static void init(  )
+    {
+        HelpdeskSolrTestEnvironment.init(  );
+    }
+
+    /**
+     * A batch which fails a few times is written by a retry
+     * @throws IOException if a batch cannot be written
+     */
+    @Test
+    public void testRetry(  ) throws IOException
+    {
+        DeadLetterLog deadLetters = new DeadLetterLog( _folder.newFile( FILE_DEAD_LETTERS ) );
+        FailingSink sink = new FailingSink( 2 );
+        SolrItemBatchWriter writer = new SolrItemBatchWriter( sink,
+                new WriteRetryQueue( deadLetters, 5, 10L, 50L, 100 ), 2, 0, false );
+
+        for ( int i = 0; i < 4; i++ )
+        {
+            writer.add( item( i + "_hds" ) );
+        }
+
+        writer.close(  );
+        assertEquals( new HashSet<String>( Arrays.asList( "0_hds", "1_hds", "2_hds", "3_hds" ) ), sink.getUids(  ) );
+        assertEquals( 0, deadLetters.getAppendedCount(  ) );
+        assertFalse( writer.hasFailed(  ) );
+    }
+
+    /**
+     * A batch which keeps failing goes to the dead-letter log, from which it is replayed once
+     * @throws IOException if a batch cannot be written
+     */
+    @Test
+    public void testDeadLetter(  ) throws IOException
+    {
+        DeadLetterLog deadLetters = new DeadLetterLog( new File( _folder.getRoot(  ), FILE_DEAD_LETTERS ) );
+        FailingSink sink = new FailingSink( Integer.MAX_VALUE );
+        SolrItemBatchWriter writer = new SolrItemBatchWriter( sink,
+                new WriteRetryQueue( deadLetters, 3, 1L, 5L, 100 ), 2, 0, false );
+        writer.add( item( "1_hds" ) );
+        writer.add( item( "2_hdq" ) );
+
+        // Logged : nothing is lost
+        writer.close(  );
+        assertEquals( 3, sink.getAttempts(  ) );
+        assertEquals( 2, deadLetters.getAppendedCount(  ) );
+        assertFalse( writer.hasFailed(  ) );
+
+        Set<String> setUids = deadLetters.startReplay(  );
+        assertEquals( new HashSet<String>( Arrays.asList( "1_hds", "2_hdq" ) ), setUids );
+
+        // A replay which did not end is replayed again, with the documents logged meanwhile
+        deadLetters.append( Arrays.asList( "3_hds" ), "cause" );
+        assertEquals( new HashSet<String>( Arrays.asList( "1_hds", "2_hdq", "3_hds" ) ), deadLetters.startReplay(  ) );
+
+        deadLetters.endReplay(  );
+        assertTrue( deadLetters.startReplay(  ).isEmpty(  ) );
+    }
+
+    /**
+     * A batch which does not fit in the queue goes to the dead-letter log at once
+     * @throws IOException if a batch cannot be written
+     */
+    @Test
+    public void testQueueFull(  ) throws IOException
+    {
+        DeadLetterLog deadLetters = new DeadLetterLog( new File( _folder.getRoot(  ), FILE_DEAD_LETTERS ) );
+        FailingSink sink = new FailingSink( Integer.MAX_VALUE );
+        WriteRetryQueue queue = new WriteRetryQueue( deadLetters, 5, 1000L, 1000L, 1 );
+
+        List<SolrItem> listBatch = new ArrayList<SolrItem>( Arrays.asList( item( "1_hds" ), item( "2_hds" ) ) );
+        queue.offer( listBatch, new IOException( "Solr is down" ) );
+        assertTrue( queue.isEmpty(  ) );
+        assertEquals( 2, deadLetters.getAppendedCount(  ) );
+
+        queue.offer( Arrays.asList( item( "3_hds" ) ), new IOException( "Solr is down" ) );
+        assertFalse( queue.isEmpty(  ) );
+        assertEquals( 0, sink.getAttempts(  ) );
+    }
+
+    /**
+     * Builds an item
+     * @param strUid the uid
+     * @return the item
+     */
+    private static SolrItem item( String strUid )
+    {
+        SolrItem item = new SolrItem(  );
+        item.setUid( strUid );
+        item.setContent( strUid );
+
+        return item;
+    }
+
+    /**
+     * Sink failing its first writes
+     */
+    private static final class FailingSink implements SolrItemSink
+    {
+        private final Set<String> _setUids = new HashSet<String>(  );
+        private final int _nFailures;
+        private int _nAttempts;
+
+        /**
+         * Constructor
+         * @param nFailures the number of writes which fail
+         */
+        FailingSink( int nFailures )
+        {
+            _nFailures = nFailures;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public synchronized void write( List<SolrItem> listItems )
+            throws IOException
+        {
+            if ( _nAttempts++ < _nFailures )
+            {
+                throw new IOException( "Solr is down" );
+            }
+
+            for ( SolrItem item : listItems )
+            {
+                _setUids.add( item.getUid(  ) );
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void deleteChunks( Map<Integer, Integer> mapChunkCounts )
+        {
+            // The documents of these tests have no chunk
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void close(  )
+        {
+            // Nothing to release
+        }
+
+        /**
+         * Returns the number of writes
+         * @return the number of writes
+         */
+        synchronized int getAttempts(  )
+        {
+            return _nAttempts;
+        }
+
+        /**
+         * Returns the uids written
+         * @return the uids
+         */
+        synchronized Set<String> getUids(  )
+        {
+            return new HashSet<String>( _setUids );
+        }
+    }
+}
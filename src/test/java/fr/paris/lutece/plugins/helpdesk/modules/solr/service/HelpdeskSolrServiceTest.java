@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.helpdesk.modules.solr.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.function.BooleanSupplier;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+
+/**
+ * Tests of the retries of the warm-up of {@link HelpdeskSolrService} and of the readiness it reports
+ */
+public class HelpdeskSolrServiceTest
+{
+    private static final long DELAY = 10L;
+    private static final int MAX_ATTEMPTS = 3;
+    private static final long TIMEOUT = 10000L;
+
+    /**
+     * A failed warm-up is retried until it succeeds
+     * @throws InterruptedException if the test is interrupted
+     */
+    @Test
+    public void testWarmUpRetried(  ) throws InterruptedException
+    {
+        HelpdeskSolrService service = new HelpdeskSolrService(  );
+        final AtomicInteger nAttempts = new AtomicInteger(  );
+
+        service.scheduleWarmUp( DELAY, DELAY, MAX_ATTEMPTS, () -> nAttempts.incrementAndGet(  ) == 2 );
+        awaitReady( service );
+
+        assertTrue( service.isWarm(  ) );
+        assertFalse( service.isDegraded(  ) );
+        assertEquals( 2, nAttempts.get(  ) );
+    }
+
+    /**
+     * After the planned attempts, the indexer reports degraded and not ready, until a later attempt succeeds
+     * @throws InterruptedException if the test is interrupted
+     */
+    @Test
+    public void testWarmUpDegraded(  ) throws InterruptedException
+    {
+        HelpdeskSolrService service = new HelpdeskSolrService(  );
+        final AtomicInteger nAttempts = new AtomicInteger(  );
+
+        service.scheduleWarmUp( DELAY, DELAY, MAX_ATTEMPTS,
+            () -> nAttempts.incrementAndGet(  ) == ( MAX_ATTEMPTS + 2 ) );
+        await( service::isDegraded );
+
+        assertFalse( service.isReady(  ) );
+        assertFalse( service.isWarm(  ) );
+        assertTrue( nAttempts.get(  ) >= MAX_ATTEMPTS );
+
+        awaitReady( service );
+
+        assertTrue( service.isWarm(  ) );
+        assertFalse( service.isDegraded(  ) );
+        assertEquals( MAX_ATTEMPTS + 2, nAttempts.get(  ) );
+    }
+
+    /**
+     * Waits until a service reports ready
+     * @param service the service
+     * @throws InterruptedException if the test is interrupted
+     */
+    private static void awaitReady( HelpdeskSolrService service )
+        throws InterruptedException
+    {
+        await( service::isReady );
+    }
+
+    /**
+     * Waits until a condition holds
+     * @param condition the condition
+     * @throws InterruptedException if the test is interrupted
+     */
+    private static void await( BooleanSupplier condition )
+        throws InterruptedException
+    {
+        long lLimit = System.currentTimeMillis(  ) + TIMEOUT;
+
+        while ( !condition.getAsBoolean(  ) && ( System.currentTimeMillis(  ) < lLimit ) )
+        {
+            Thread.sleep( DELAY );
+        }
+
+        assertTrue( condition.getAsBoolean(  ) );
+    }
+}
@@ -0,0 +1,277 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.helpdesk.modules.solr.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+import fr.paris.lutece.plugins.helpdesk.modules.solr.search.SolrHelpdeskIndexer;
+import fr.paris.lutece.plugins.helpdesk.utils.HelpdeskIndexerUtils;
+import fr.paris.lutece.plugins.search.solr.indexer.SolrItem;
+import fr.paris.lutece.portal.business.event.ResourceEvent;
+
+
+/**
+ * Tests of the debounce and of the order of the changes of the {@link IncrementalIndexingQueue}, fed by a
+ * {@link HelpdeskIndexingListener}
+ */
+public class IncrementalIndexingQueueTest
+{
+    private static final long NO_DELAY = 0L;
+    private static final long LONG_DELAY = 3600000L;
+    private static final int BATCH_SIZE = 2;
+    private static final String DELETE = "delete ";
+    private static final String WRITE = "write ";
+    private static final String DELETE_CHUNKS = "deleteChunks ";
+
+    /**
+     * The changes of a subject are coalesced, and the subject waits for the debounce delay
+     */
+    @Test
+    public void testDebounce(  )
+    {
+        RecordingIndexer indexer = new RecordingIndexer(  );
+        List<String> listEvents = new ArrayList<String>(  );
+        IncrementalIndexingQueue queue = new IncrementalIndexingQueue( indexer, new RecordingTarget( listEvents ),
+                LONG_DELAY, BATCH_SIZE );
+
+        queue.enqueueSubject( 1 );
+        queue.enqueueSubject( 1 );
+        queue.drain(  );
+        assertTrue( indexer._listRequests.isEmpty(  ) );
+        assertEquals( 1, queue.getPendingCount(  ) );
+
+        queue = new IncrementalIndexingQueue( indexer, new RecordingTarget( listEvents ), NO_DELAY, BATCH_SIZE );
+
+        for ( int i = 0; i < 3; i++ )
+        {
+            queue.enqueueSubject( 1 );
+            queue.enqueueSubject( 2 );
+            queue.enqueueSubject( 3 );
+        }
+
+        queue.drain(  );
+        assertEquals( Arrays.asList( Arrays.asList( "1", "2" ), Arrays.asList( "3" ) ), indexer._listRequests );
+        assertEquals( Arrays.asList( WRITE + "[1_hds, 2_hds]", WRITE + "[3_hds]" ), listEvents );
+        assertEquals( 0, queue.getPendingCount(  ) );
+    }
+
+    /**
+     * The deletions are sent before the subjects, and the deletion of a subject cancels its reindexing
+     */
+    @Test
+    public void testDeletionOrder(  )
+    {
+        RecordingIndexer indexer = new RecordingIndexer(  );
+        List<String> listEvents = new ArrayList<String>(  );
+        IncrementalIndexingQueue queue = new IncrementalIndexingQueue( indexer, new RecordingTarget( listEvents ),
+                NO_DELAY, BATCH_SIZE );
+
+        queue.enqueueSubject( 1 );
+        queue.enqueueSubject( 2 );
+        queue.enqueueDeletions( Arrays.asList( "2_hds", "5_hdq" ) );
+        queue.enqueueDeletion( "6_hdq" );
+        queue.drain(  );
+
+        assertEquals( Collections.singletonList( Collections.singletonList( "1" ) ), indexer._listRequests );
+        assertEquals( Arrays.asList( DELETE + "[2_hds, 5_hdq, 6_hdq]", WRITE + "[1_hds]" ), listEvents );
+    }
+
+    /**
+     * The changes wait in the queue while an indexing run holds the index
+     * @throws InterruptedException if the test is interrupted
+     */
+    @Test
+    public void testDeferredDuringRun(  ) throws InterruptedException
+    {
+        RecordingIndexer indexer = new RecordingIndexer(  );
+        List<String> listEvents = new ArrayList<String>(  );
+        IncrementalIndexingQueue queue = new IncrementalIndexingQueue( indexer, new RecordingTarget( listEvents ),
+                NO_DELAY, BATCH_SIZE );
+        final CountDownLatch started = new CountDownLatch( 1 );
+        final CountDownLatch release = new CountDownLatch( 1 );
+        Thread run = new Thread( (  ) -> indexer.runIfIdle( (  ) -> {
+                            started.countDown(  );
+
+                            try
+                            {
+                                release.await(  );
+                            }
+                            catch ( InterruptedException e )
+                            {
+                                Thread.currentThread(  ).interrupt(  );
+                            }
+                        } ) );
+        run.start(  );
+        started.await(  );
+
+        queue.enqueueSubject( 1 );
+        queue.enqueueDeletion( "5_hdq" );
+        queue.drain(  );
+        assertTrue( listEvents.isEmpty(  ) );
+        assertEquals( 1, queue.getPendingCount(  ) );
+
+        release.countDown(  );
+        run.join(  );
+        queue.drain(  );
+        assertEquals( Arrays.asList( DELETE + "[5_hdq]", WRITE + "[1_hds]" ), listEvents );
+        assertEquals( 0, queue.getPendingCount(  ) );
+    }
+
+    /**
+     * The listener only counts and queues the events of the resource types of the indexer
+     */
+    @Test
+    public void testListener(  )
+    {
+        RecordingIndexer indexer = new RecordingIndexer(  );
+        IncrementalIndexingQueue queue = new IncrementalIndexingQueue( indexer,
+                new RecordingTarget( new ArrayList<String>(  ) ), LONG_DELAY, BATCH_SIZE );
+        HelpdeskIndexingListener listener = new HelpdeskIndexingListener( queue, indexer );
+
+        listener.updatedResource( createEvent( "4", "DOCUMENT" ) );
+        assertEquals( 0L, listener.getReceivedEvents(  ) );
+        assertEquals( 0, queue.getPendingCount(  ) );
+
+        listener.updatedResource( createEvent( "4", HelpdeskIndexerUtils.CONSTANT_SUBJECT_TYPE_RESOURCE ) );
+        listener.addedResource( createEvent( "4", HelpdeskIndexerUtils.CONSTANT_SUBJECT_TYPE_RESOURCE ) );
+        listener.updatedResource( createEvent( "none", HelpdeskIndexerUtils.CONSTANT_SUBJECT_TYPE_RESOURCE ) );
+        assertEquals( 3L, listener.getReceivedEvents(  ) );
+        assertEquals( 1, queue.getPendingCount(  ) );
+    }
+
+    /**
+     * Creates a resource event
+     * @param strId the id of the resource
+     * @param strType the type of the resource
+     * @return the event
+     */
+    private static ResourceEvent createEvent( String strId, String strType )
+    {
+        ResourceEvent event = new ResourceEvent(  );
+        event.setIdResource( strId );
+        event.setTypeResource( strType );
+
+        return event;
+    }
+
+    /**
+     * Indexer building one document per subject, recording the requests
+     */
+    private static final class RecordingIndexer extends SolrHelpdeskIndexer
+    {
+        private final List<List<String>> _listRequests = new ArrayList<List<String>>(  );
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public List<SolrItem> getDocuments( Collection<String> listDocuments )
+        {
+            _listRequests.add( new ArrayList<String>( listDocuments ) );
+
+            List<SolrItem> listItems = new ArrayList<SolrItem>(  );
+
+            for ( String strDocument : listDocuments )
+            {
+                SolrItem item = new SolrItem(  );
+                item.setUid( strDocument + SolrHelpdeskIndexer.UID_SUFFIX_SUBJECT );
+                listItems.add( item );
+            }
+
+            return listItems;
+        }
+    }
+
+    /**
+     * Target recording the changes in order
+     */
+    private static final class RecordingTarget implements IncrementalIndexingQueue.Target
+    {
+        private final List<String> _listEvents;
+
+        /**
+         * Constructor
+         * @param listEvents the list receiving the changes
+         */
+        RecordingTarget( List<String> listEvents )
+        {
+            _listEvents = listEvents;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void delete( List<String> listResourceUids )
+        {
+            _listEvents.add( DELETE + listResourceUids );
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void write( List<SolrItem> listItems )
+        {
+            List<String> listUids = new ArrayList<String>(  );
+
+            for ( SolrItem item : listItems )
+            {
+                listUids.add( item.getUid(  ) );
+            }
+
+            _listEvents.add( WRITE + listUids );
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void deleteChunks( Map<Integer, Integer> mapChunkCounts )
+        {
+            _listEvents.add( DELETE_CHUNKS + mapChunkCounts );
+        }
+    }
+}
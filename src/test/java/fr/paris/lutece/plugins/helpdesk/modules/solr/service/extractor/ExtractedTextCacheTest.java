@@ -0,0 +1,294 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.helpdesk.modules.solr.service.extractor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+
+/**
+ * Tests of the {@link ExtractedTextCache} and of the {@link CachingHtmlTextExtractor}
+ */
+public class ExtractedTextCacheTest
+{
+    private static final long MAX_BYTES = 1024L * 1024L;
+    private static final String FILE_LOG = "texts.log";
+
+    /**
+     * Directory of the cache
+     */
+    @Rule
+    public TemporaryFolder _folder = new TemporaryFolder(  );
+
+    /**
+     * The index of the texts is rebuilt from the log when the cache is opened again
+     * @throws IOException if the cache cannot be opened
+     */
+    @Test
+    public void testReopen(  ) throws IOException
+    {
+        File fileDirectory = _folder.getRoot(  );
+
+        try ( ExtractedTextCache cache = new ExtractedTextCache( fileDirectory, MAX_BYTES ) )
+        {
+            for ( int i = 0; i < 100; i++ )
+            {
+                cache.put( key( i ), text( i ) );
+            }
+        }
+
+        try ( ExtractedTextCache cache = new ExtractedTextCache( fileDirectory, MAX_BYTES ) )
+        {
+            assertEquals( 100, cache.size(  ) );
+
+            for ( int i = 0; i < 100; i++ )
+            {
+                assertEquals( text( i ), cache.get( key( i ) ) );
+            }
+
+            assertNull( cache.get( key( 100 ) ) );
+        }
+    }
+
+    /**
+     * A record cut by a crash is dropped, the records before it are kept
+     * @throws IOException if the cache cannot be opened
+     */
+    @Test
+    public void testTruncatedRecord(  ) throws IOException
+    {
+        File fileDirectory = _folder.getRoot(  );
+
+        try ( ExtractedTextCache cache = new ExtractedTextCache( fileDirectory, MAX_BYTES ) )
+        {
+            cache.put( key( 1 ), text( 1 ) );
+            cache.put( key( 2 ), text( 2 ) );
+        }
+
+        File fileLog = new File( fileDirectory, FILE_LOG );
+        long lLength = fileLog.length(  );
+
+        try ( RandomAccessFile file = new RandomAccessFile( fileLog, "rw" ) )
+        {
+            file.setLength( lLength - 3 );
+        }
+
+        try ( ExtractedTextCache cache = new ExtractedTextCache( fileDirectory, MAX_BYTES ) )
+        {
+            assertEquals( 1, cache.size(  ) );
+            assertEquals( text( 1 ), cache.get( key( 1 ) ) );
+            assertNull( cache.get( key( 2 ) ) );
+
+            // The tail was cut off : the next record follows the valid ones
+            cache.put( key( 3 ), text( 3 ) );
+        }
+
+        try ( ExtractedTextCache cache = new ExtractedTextCache( fileDirectory, MAX_BYTES ) )
+        {
+            assertEquals( 2, cache.size(  ) );
+            assertEquals( text( 3 ), cache.get( key( 3 ) ) );
+        }
+    }
+
+    /**
+     * Past its maximum size, the log keeps the most recently used texts, up to half of the maximum size
+     * @throws IOException if the cache cannot be opened
+     */
+    @Test
+    public void testCompaction(  ) throws IOException
+    {
+        File fileDirectory = _folder.getRoot(  );
+        long lMaxBytes = 64L * 1024L;
+        File fileLog = new File( fileDirectory, FILE_LOG );
+
+        try ( ExtractedTextCache cache = new ExtractedTextCache( fileDirectory, lMaxBytes ) )
+        {
+            int nCount = 0;
+
+            // Up to the first compaction
+            while ( cache.size(  ) == nCount )
+            {
+                cache.put( key( nCount ), text( nCount ) );
+                nCount++;
+
+                // The first text stays the most recently used one
+                assertEquals( text( 0 ), cache.get( key( 0 ) ) );
+            }
+
+            assertTrue( fileLog.length(  ) <= ( lMaxBytes / 2 ) );
+            assertTrue( cache.size(  ) < nCount );
+            assertEquals( text( 0 ), cache.get( key( 0 ) ) );
+            assertEquals( text( nCount - 1 ), cache.get( key( nCount - 1 ) ) );
+
+            // The least recently used ones were evicted
+            assertNull( cache.get( key( 1 ) ) );
+        }
+
+        try ( ExtractedTextCache cache = new ExtractedTextCache( fileDirectory, lMaxBytes ) )
+        {
+            assertEquals( text( 0 ), cache.get( key( 0 ) ) );
+        }
+    }
+
+    /**
+     * Concurrent reads and writes, with compactions, never give a wrong text
+     * @throws Exception if a thread fails
+     */
+    @Test
+    public void testConcurrentAccess(  ) throws Exception
+    {
+        final ExtractedTextCache cache = new ExtractedTextCache( _folder.getRoot(  ), 256L * 1024L );
+        ExecutorService executor = Executors.newFixedThreadPool( 8 );
+        final AtomicInteger nHits = new AtomicInteger(  );
+
+        try
+        {
+            List<Future<Void>> listFutures = new ArrayList<Future<Void>>(  );
+
+            for ( int t = 0; t < 8; t++ )
+            {
+                final int nThread = t;
+                listFutures.add( executor.submit( new Callable<Void>(  )
+                        {
+                            @Override
+                            public Void call(  )
+                            {
+                                for ( int i = 0; i < 2000; i++ )
+                                {
+                                    int n = ( i * 7 + nThread ) % 500;
+                                    String strText = cache.get( key( n ) );
+
+                                    if ( strText == null )
+                                    {
+                                        cache.put( key( n ), text( n ) );
+                                    }
+                                    else
+                                    {
+                                        assertEquals( text( n ), strText );
+                                        nHits.incrementAndGet(  );
+                                    }
+                                }
+
+                                return null;
+                            }
+                        } ) );
+            }
+
+            for ( Future<Void> future : listFutures )
+            {
+                future.get(  );
+            }
+
+            assertTrue( nHits.get(  ) > 0 );
+        }
+        finally
+        {
+            executor.shutdown(  );
+            cache.close(  );
+        }
+    }
+
+    /**
+     * The caching extractor extracts a content once, and a closed cache only misses
+     * @throws IOException if the cache cannot be opened
+     */
+    @Test
+    public void testCachingExtractor(  ) throws IOException
+    {
+        final AtomicInteger nExtractions = new AtomicInteger(  );
+        HtmlTextExtractor extractor = new HtmlStripTextExtractor(  )
+            {
+                @Override
+                public String extract( String strHtml ) throws IOException
+                {
+                    nExtractions.incrementAndGet(  );
+
+                    return super.extract( strHtml );
+                }
+            };
+
+        CachingHtmlTextExtractor caching = new CachingHtmlTextExtractor( extractor,
+                new ExtractedTextCache( _folder.getRoot(  ), MAX_BYTES ) );
+        assertEquals( "a b", caching.extract( "<p>a</p><p>b</p>" ) );
+        assertEquals( "a b", caching.extract( "<p>a</p><p>b</p>" ) );
+        assertEquals( 1, nExtractions.get(  ) );
+
+        caching.close(  );
+        assertEquals( "a b", caching.extract( "<p>a</p><p>b</p>" ) );
+        assertEquals( 2, nExtractions.get(  ) );
+    }
+
+    /**
+     * Returns the key of a text
+     * @param n the number of the text
+     * @return the key
+     */
+    private static ExtractedTextCache.Key key( int n )
+    {
+        return new ExtractedTextCache.Key( n, ~n );
+    }
+
+    /**
+     * Returns a text of a few hundred bytes
+     * @param n the number of the text
+     * @return the text
+     */
+    private static String text( int n )
+    {
+        StringBuilder sbText = new StringBuilder(  );
+
+        for ( int i = 0; i < 20; i++ )
+        {
+            sbText.append( "text " ).append( n ).append( " word " ).append( i ).append( " \u00e9 " );
+        }
+
+        return sbText.toString(  );
+    }
+}
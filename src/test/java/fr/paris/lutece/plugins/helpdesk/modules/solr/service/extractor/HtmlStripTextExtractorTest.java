@@ -0,0 +1,190 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.helpdesk.modules.solr.service.extractor;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import org.apache.commons.lang.StringUtils;
+import org.junit.Test;
+
+
+/**
+ * Tests of the {@link HtmlStripTextExtractor}, against the {@link TikaHtmlTextExtractor} it stands in for :
+ * both must give the same words, the white spaces aside
+ */
+public class HtmlStripTextExtractorTest
+{
+    private static final char NBSP = '\u00a0';
+    private final HtmlTextExtractor _strip = new HtmlStripTextExtractor(  );
+    private final HtmlTextExtractor _tika = new TikaHtmlTextExtractor(  );
+
+    /**
+     * Named, numeric and unknown entities, with and without semicolon
+     * @throws IOException if the extraction fails
+     */
+    @Test
+    public void testEntities(  ) throws IOException
+    {
+        assertSameAsTika( "<p>Caf&eacute; &amp; th&#233; &#x41; &nbsp;x&lt;y &unknown; &amp</p>" );
+        assertSameAsTika( "<p>a &amp&amp; b & c &&lt; d</p>" );
+        assertSameAsTika( "<p>&verylongentityname; &#</p>" );
+    }
+
+    /**
+     * Comments, including markup and dashes
+     * @throws IOException if the extraction fails
+     */
+    @Test
+    public void testComments(  ) throws IOException
+    {
+        assertSameAsTika( "<p>a<!-- hidden <b>x</b> -- still -->b</p>" );
+        assertSameAsTika( "<p>a<!---->b</p>" );
+        assertSameAsTika( "<p>a<!-- x --->b</p>" );
+        assertSameAsTika( "<?xml version=\"1.0\"?><!DOCTYPE html><html><body><h1>T</h1><p>P</p></body></html>" );
+    }
+
+    /**
+     * The content of the script and style elements only ends with their end tag
+     * @throws IOException if the extraction fails
+     */
+    @Test
+    public void testScriptAndStyle(  ) throws IOException
+    {
+        assertSameAsTika( "<script>if (a < b && c > d) { x = '</p>'; }</script><p>text</p>" +
+            "<style>p < a { }</style>after" );
+        assertSameAsTika( "<p>x</p><SCRIPT type=\"text/javascript\">var s = \"</scr\" + \"ipt>\";</SCRIPT >y" );
+
+        // Closed as in XHTML, where Tika keeps on reading the script
+        assertEquals( "x y", _strip.extract( "<p>x</p><script src=\"a.js\"/><p>y</p>" ) );
+    }
+
+    /**
+     * Unclosed elements, quoted '&gt;' and block elements
+     * @throws IOException if the extraction fails
+     */
+    @Test
+    public void testMalformed(  ) throws IOException
+    {
+        assertSameAsTika( "<p>unclosed <b>bold <i>italic</p><div>next" );
+        assertSameAsTika( "<p title='a > b'>quoted</p><p title=\"c > d\">double</p>" );
+        assertSameAsTika( "a<br>b<br/>c<hr>d" );
+        assertSameAsTika( "<ul><li>one</li><li>two</li></ul><table><tr><td>x</td><td>y</td></tr></table>" );
+    }
+
+    /**
+     * Markup cut at the end of the content
+     * @throws IOException if the extraction fails
+     */
+    @Test
+    public void testTruncated(  ) throws IOException
+    {
+        assertSameAsTika( "<p>truncated <a href=\"x" );
+        assertSameAsTika( "<p>end <" );
+        assertSameAsTika( "<p>end &amp" );
+        assertSameAsTika( "<p>end <!-- comment" );
+        assertSameAsTika( "<p>end</p><script>var a = 1;" );
+    }
+
+    /**
+     * A '&lt;' which does not start a tag is text. The HTML parser of Tika drops what follows '&lt;=', or a
+     * script ending with '&lt;', where the browsers show it.
+     * @throws IOException if the extraction fails
+     */
+    @Test
+    public void testLiteralLessThan(  ) throws IOException
+    {
+        assertSameAsTika( "<p>1 < 2 and 3 > 2</p>" );
+        assertEquals( "1 < 2 and 3 <= 4, a <3 b", _strip.extract( "<p>1 < 2 and 3 <= 4, a <3 b</p>" ) );
+        assertEquals( "a<b", _strip.extract( "a&lt;b" ) );
+        assertEquals( "x y", _strip.extract( "<p>x</p><script>a <</script><p>y</p>" ) );
+    }
+
+    /**
+     * Only the beginning of a very long tag is kept
+     * @throws IOException if the extraction fails
+     */
+    @Test
+    public void testLongTag(  ) throws IOException
+    {
+        String strValue = StringUtils.repeat( "x", 1000000 );
+
+        assertEquals( "before after",
+            _strip.extract( "<p>before</p><img alt=" + strValue + " title=\"" + strValue + "\"><p>after</p>" ) );
+        assertEquals( "before after", _strip.extract( "before<div " + strValue + ">after" ) );
+        assertEquals( "before", _strip.extract( "before<!-- " + strValue ) );
+    }
+
+    /**
+     * The text streamed to a writer is the text returned
+     * @throws IOException if the extraction fails
+     */
+    @Test
+    public void testStreaming(  ) throws IOException
+    {
+        StringBuilder sbHtml = new StringBuilder(  );
+
+        for ( int i = 0; i < 2000; i++ )
+        {
+            sbHtml.append( "<p>paragraph " ).append( i ).append( " &amp; <b>bold</b> 1 < 2</p>" );
+        }
+
+        StringWriter writer = new StringWriter(  );
+        _strip.extract( new StringReader( sbHtml.toString(  ) ), writer );
+        assertEquals( _strip.extract( sbHtml.toString(  ) ), writer.toString(  ) );
+    }
+
+    /**
+     * Checks that the stripper gives the words of Tika
+     * @param strHtml the HTML content
+     * @throws IOException if the extraction fails
+     */
+    private void assertSameAsTika( String strHtml ) throws IOException
+    {
+        assertEquals( strHtml, normalize( _tika.extract( strHtml ) ), normalize( _strip.extract( strHtml ) ) );
+    }
+
+    /**
+     * Collapses the white spaces of a text
+     * @param strText the text
+     * @return the normalized text
+     */
+    private static String normalize( String strText )
+    {
+        return strText.replace( NBSP, ' ' ).replaceAll( "\\s+", " " ).trim(  );
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.helpdesk.modules.solr.service.extractor;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import org.apache.commons.lang.StringUtils;
+import org.junit.Test;
+
+
+/**
+ * Tests of the write limit of the {@link TikaHtmlTextExtractor}
+ */
+public class TikaHtmlTextExtractorTest
+{
+    private static final String TEXT = StringUtils.repeat( "word ", 40 ).trim(  );
+    private static final String HTML = "<html><body><p>" + TEXT + "</p></body></html>";
+
+    /**
+     * The text is truncated at the limit, without losing what was written before
+     * @throws IOException if the extraction fails
+     */
+    @Test
+    public void testWriteLimit(  ) throws IOException
+    {
+        HtmlTextExtractor extractor = new TikaHtmlTextExtractor( 12 );
+        assertEquals( TEXT.substring( 0, 12 ), extractor.extract( HTML ) );
+
+        StringWriter writer = new StringWriter(  );
+        extractor.extract( new StringReader( HTML ), writer );
+        assertEquals( TEXT.substring( 0, 12 ), writer.toString(  ) );
+
+        // The limit applies to each content, not to the thread
+        assertEquals( "short", extractor.extract( "<p>short</p>" ).trim(  ) );
+    }
+
+    /**
+     * Without a limit, or under the default one, the whole text is extracted
+     * @throws IOException if the extraction fails
+     */
+    @Test
+    public void testNoLimit(  ) throws IOException
+    {
+        assertEquals( TEXT, new TikaHtmlTextExtractor( -1 ).extract( HTML ).trim(  ) );
+        assertEquals( TEXT, new TikaHtmlTextExtractor(  ).extract( HTML ).trim(  ) );
+    }
+}
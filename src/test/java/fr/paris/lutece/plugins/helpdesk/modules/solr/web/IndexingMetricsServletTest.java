@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.helpdesk.modules.solr.web;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import fr.paris.lutece.portal.business.right.Right;
+import fr.paris.lutece.portal.business.user.AdminUser;
+
+
+/**
+ * Tests of the access to the {@link IndexingMetricsServlet}
+ */
+public class IndexingMetricsServletTest
+{
+    /**
+     * Only the back office users with the metrics right read the metrics
+     */
+    @Test
+    public void testRight(  )
+    {
+        assertFalse( IndexingMetricsServlet.isAllowed( null ) );
+        assertFalse( IndexingMetricsServlet.isAllowed( createUser( "HELPDESK_MANAGEMENT" ) ) );
+        assertTrue( IndexingMetricsServlet.isAllowed( createUser( IndexingMetricsServlet.RIGHT_METRICS ) ) );
+    }
+
+    /**
+     * Creates a back office user
+     * @param strRight the only right of the user
+     * @return the user
+     */
+    private static AdminUser createUser( String strRight )
+    {
+        Right right = new Right(  );
+        right.setId( strRight );
+
+        Map<String, Right> mapRights = new HashMap<String, Right>(  );
+        mapRights.put( strRight, right );
+
+        AdminUser user = new AdminUser(  );
+        user.setRights( mapRights );
+
+        return user;
+    }
+}